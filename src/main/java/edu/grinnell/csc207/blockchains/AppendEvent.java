@@ -0,0 +1,25 @@
+package edu.grinnell.csc207.blockchains;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A flight recorder event covering one call to BlockChain.append.
+ *
+ * @author Andrew Fargo
+ */
+@Name("edu.grinnell.csc207.blockchains.Append")
+@Label("Block Appended")
+@Category({"Blockchains", "Chain"})
+@Description("Validate a block and add it to the end of the chain")
+class AppendEvent extends jdk.jfr.Event {
+  /** The number of the block being appended. */
+  @Label("Block Number")
+  int blockNumber;
+
+  /** "appended", or the reason the block was rejected. */
+  @Label("Outcome")
+  String outcome;
+} // class AppendEvent
@@ -0,0 +1,147 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * A block store that keeps the recent tail of the chain in memory and
+ * spills older blocks to a BlockArchive. Heights below the spill point
+ * are read back from the archive on demand. Archived blocks cannot be
+ * removed. The archive starts empty, so everything in it was spilled by
+ * this process, and blocks read back are sealed if the blocks we
+ * spilled were.
+ *
+ * @author Andrew Fargo
+ */
+public class ArchivingBlockStore implements BlockStore {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where older blocks go.
+   */
+  private final BlockArchive archive;
+
+  /**
+   * The blocks from height archive.size() up, in memory.
+   */
+  private final ArrayList<Block> tail = new ArrayList<Block>();
+
+  /**
+   * The archived heights whose blocks were sealed when we spilled them.
+   */
+  private final BitSet sealed = new BitSet();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an empty store that spills to an archive.
+   *
+   * @param cold
+   *   An empty archive.
+   */
+  public ArchivingBlockStore(BlockArchive cold) {
+    if (cold.size() != 0) {
+      throw new IllegalArgumentException("Archive already has blocks");
+    } // if
+    this.archive = cold;
+  } // ArchivingBlockStore(BlockArchive)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * {@inheritDoc}
+   */
+  public int size() {
+    return this.archive.size() + this.tail.size();
+  } // size()
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws UncheckedIOException
+   *   If an archived block cannot be read.
+   */
+  public Block get(int height) {
+    int archived = this.archive.size();
+    if (height < 0 || height >= archived + this.tail.size()) {
+      throw new IndexOutOfBoundsException("No block at height " + height);
+    } else if (height >= archived) {
+      return this.tail.get(height - archived);
+    } // if
+    try {
+      Block blk = this.archive.read(height);
+      if (this.sealed.get(height)) {
+        blk.seal();
+      } // if
+      return blk;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+  } // get(int)
+
+  /**
+   * {@inheritDoc}
+   */
+  public void add(Block blk) {
+    this.tail.add(blk);
+  } // add(Block)
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalStateException
+   *   If the last block has been archived.
+   */
+  public void removeLast() {
+    if (this.tail.isEmpty()) {
+      throw new IllegalStateException("Cannot remove archived block " + (size() - 1));
+    } // if
+    this.tail.remove(this.tail.size() - 1);
+  } // removeLast()
+
+  /**
+   * Get the number of blocks that have been spilled to the archive.
+   *
+   * @return the height of the first block still in memory.
+   */
+  public int archivedSize() {
+    return this.archive.size();
+  } // archivedSize()
+
+  /**
+   * Move every block below a height to the archive.
+   *
+   * @param height
+   *   The height of the first block to keep in memory.
+   *
+   * @throws IOException
+   *   If the archive cannot be written. Blocks written before the
+   *   failure stay archived.
+   */
+  public void spill(int height) throws IOException {
+    int archived = this.archive.size();
+    if (height > size()) {
+      throw new IndexOutOfBoundsException("No block at height " + height);
+    } // if
+    int moved = 0;
+    try {
+      while (archived + moved < height) {
+        Block blk = this.tail.get(moved);
+        this.archive.append(blk);
+        this.sealed.set(archived + moved, blk.isSealed());
+        moved++;
+      } // while
+      this.archive.force();
+    } finally {
+      this.tail.subList(0, moved).clear();
+    } // try-finally
+  } // spill(int)
+} // class ArchivingBlockStore
@@ -0,0 +1,25 @@
+package edu.grinnell.csc207.blockchains;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A flight recorder event covering one replay of the ledger.
+ *
+ * @author Andrew Fargo
+ */
+@Name("edu.grinnell.csc207.blockchains.BalanceReplay")
+@Label("Balances Replayed")
+@Category({"Blockchains", "Ledger"})
+@Description("Replay transactions to compute every user's balance")
+class BalanceReplayEvent extends jdk.jfr.Event {
+  /** The number of blocks replayed. */
+  @Label("Blocks Replayed")
+  int blocksReplayed;
+
+  /** The number of accounts in the resulting ledger. */
+  @Label("Accounts")
+  int accounts;
+} // class BalanceReplayEvent
@@ -1,8 +1,5 @@
 package edu.grinnell.csc207.blockchains;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.nio.ByteBuffer;
 import java.util.Random;
 
 /**
@@ -22,6 +19,17 @@ public class Block {
    */
   private static Random rd = new Random();
 
+  /**
+   * How every block computes its hash.
+   */
+  private static volatile BlockDigest digest = new JcaBlockDigest();
+
+  /**
+   * The number of nonces we try from each random starting point while
+   * mining.
+   */
+  static final long MINE_BATCH = 1 << 16;
+
   /**
    * The formatting string for toString() method.
    */
@@ -31,17 +39,24 @@ public class Block {
   /**
    * This block's number in the chain.
    */
-  private int blockNum;
+  private final int blockNum;
 
   /**
    * The transaction data.
    */
-  private Transaction data;
+  private final Transaction data;
 
   /**
    * The hash of the previous block in the chain.
    */
-  private Hash previousHash;
+  private final Hash previousHash;
+
+  /**
+   * When the block was mined, in milliseconds since the epoch, or 0 if
+   * its chain does not keep time. Covered by the hash, so a chain can
+   * recompute its difficulty from its blocks.
+   */
+  private final long timestamp;
 
   /**
    * The nonce value.
@@ -56,47 +71,18 @@ public class Block {
   private Hash blockHash;
 
   /**
-   * This block's MessageDigest instance.
-   * This is not static to allow for future parallelization.
-   */
-  private MessageDigest md;
-
-  /**
-   * Int-sized byte buffer for computing hashes.
-   */
-  ByteBuffer intBuffer;
-
-  /**
-   * Long-sized byte buffer for computing hashes.
+   * Whether we know that blockHash is the hash of this block's contents.
+   * Blocks are sealed when they compute their own hash, when verify
+   * finds that the hash they were given matches, or when a store that
+   * verified them in this process hands back a copy. Sealed blocks
+   * never change, so they never need to be hashed again.
    */
-  ByteBuffer longBuffer;
+  private boolean sealed;
 
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
 
-  /**
-   * Common constructor code between public methods of construction.
-   * Does not guarantee that the block is valid.
-   *
-   * @param num The number of this block on the chain.
-   * @param transaction The transaction data.
-   * @param prevHash The previous block's hash.
-   */
-  private Block(int num, Transaction transaction, Hash prevHash) {
-    this.blockNum = num;
-    this.data = transaction;
-    this.previousHash = prevHash;
-    this.intBuffer = ByteBuffer.allocate(Integer.BYTES);
-    this.longBuffer = ByteBuffer.allocate(Long.BYTES);
-    try {
-      this.md = MessageDigest.getInstance("sha-256");
-    } catch (NoSuchAlgorithmException e) {
-      // Unrecoverable.
-      throw new RuntimeException(e);
-    } //try-catch
-  } // Block(int, Transaction, Hash)
-
   /**
    * Create a new block from the specified block number, transaction, and
    * previous hash, mining to choose a nonce that meets the requirements
@@ -112,10 +98,31 @@ public class Block {
    *   The validator used to check the block.
    */
   public Block(int num, Transaction transaction, Hash prevHash, HashValidator check) {
-    this(num, transaction, prevHash);
-    this.mine(check);
+    this(num, transaction, prevHash, 0L, check);
   } // Block(int, Transaction, Hash, HashValidator)
 
+  /**
+   * Create a new block that records when it was mined, mining to
+   * choose a nonce that meets the requirements of the validator.
+   *
+   * @param num
+   *   The number of the block.
+   * @param transaction
+   *   The transaction for the block.
+   * @param prevHash
+   *   The hash of the previous block.
+   * @param millis
+   *   When the block was mined, in milliseconds since the epoch.
+   * @param check
+   *   The validator used to check the block.
+   */
+  public Block(int num, Transaction transaction, Hash prevHash, long millis,
+      HashValidator check) {
+    this(num, transaction, prevHash, millis, 0L, null);
+    this.mine(check);
+    this.sealed = true;
+  } // Block(int, Transaction, Hash, long, HashValidator)
+
   /**
    * Create a new block, computing the hash for the block.
    *
@@ -129,25 +136,139 @@ public class Block {
    *   The nonce of the block.
    */
   public Block(int num, Transaction transaction, Hash prevHash, long nonce) {
-    this(num, transaction, prevHash);
-    this.nonceVal = nonce;
-    this.computeThisHash();
+    this(num, transaction, prevHash, 0L, nonce);
   } // Block(int, Transaction, Hash, long)
 
+  /**
+   * Create a new block that records when it was mined, computing the
+   * hash for the block.
+   *
+   * @param num
+   *   The number of the block.
+   * @param transaction
+   *   The transaction for the block.
+   * @param prevHash
+   *   The hash of the previous block.
+   * @param millis
+   *   When the block was mined, in milliseconds since the epoch.
+   * @param nonce
+   *   The nonce of the block.
+   */
+  public Block(int num, Transaction transaction, Hash prevHash, long millis, long nonce) {
+    this(num, transaction, prevHash, millis, nonce, null);
+    this.computeThisHash();
+    this.sealed = true;
+  } // Block(int, Transaction, Hash, long, long)
+
+  /**
+   * Rebuild a block from stored parts without recomputing its hash. The
+   * block is not sealed; whoever loads it must verify the hash before
+   * trusting it.
+   *
+   * @param num
+   *   The number of the block.
+   * @param transaction
+   *   The transaction for the block.
+   * @param prevHash
+   *   The hash of the previous block.
+   * @param millis
+   *   When the block was mined, or 0.
+   * @param nonce
+   *   The nonce of the block.
+   * @param hash
+   *   The stored hash of the block.
+   */
+  Block(int num, Transaction transaction, Hash prevHash, long millis, long nonce, Hash hash) {
+    this.blockNum = num;
+    this.data = transaction;
+    this.previousHash = prevHash;
+    this.timestamp = millis;
+    this.nonceVal = nonce;
+    this.blockHash = hash;
+  } // Block(int, Transaction, Hash, long, long, Hash)
+
+  /**
+   * Create an unmined block for the given contents, ready for
+   * mineRange. Its nonce is 0 until a range finds a better one.
+   *
+   * @param num
+   *   The number of the block.
+   * @param transaction
+   *   The transaction for the block.
+   * @param prevHash
+   *   The hash of the previous block.
+   * @param millis
+   *   When the block was mined, or 0.
+   *
+   * @return the block template.
+   */
+  static Block template(int num, Transaction transaction, Hash prevHash, long millis) {
+    Block b = new Block(num, transaction, prevHash, millis, 0L, null);
+    b.computeThisHash();
+    return b;
+  } // template(int, Transaction, Hash, long)
+
   // +---------+-----------------------------------------------------
   // | Helpers |
   // +---------+
 
   /**
-   * Compute a new nonce by repeatedly checking random values.
+   * Compute a new nonce by checking runs of nonces from random starting
+   * points, using a kernel that hashes our fixed contents only once.
    * @param check helps to check if the hash is valid.
    */
   private void mine(HashValidator check) {
+    MineEvent event = new MineEvent();
+    event.begin();
+    long start = System.nanoTime();
+    long attempts = 0;
+    MiningKernel kernel =
+        new MiningKernel(this.blockNum, this.data, this.previousHash, this.timestamp);
+    MiningKernel.Result found;
     do {
-      this.nonceVal = rd.nextLong();
-      this.computeThisHash();
-    } while (!check.isValid(this.blockHash));
+      found = kernel.search(check, rd.nextLong(), MINE_BATCH);
+      attempts += found.attempts;
+    } while (found.hash == null);
+    this.nonceVal = found.nonce;
+    this.blockHash = found.hash;
+    ChainMetrics.recordMining(attempts, System.nanoTime() - start);
+    if (event.shouldCommit()) {
+      event.blockNumber = this.blockNum;
+      event.attempts = attempts;
+      event.commit();
+    } // if
   } // mine()
+  /**
+   * Try every nonce in a range, in order, stopping at the first one that
+   * gives a valid hash. If none does, the block keeps its previous nonce
+   * and hash.
+   *
+   * @param check
+   *   The validator the hash must satisfy.
+   * @param from
+   *   The first nonce to try.
+   * @param count
+   *   The number of nonces to try.
+   *
+   * @return true if a valid nonce was found, false otherwise.
+   */
+  boolean mineRange(HashValidator check, long from, long count) {
+    if (this.sealed) {
+      throw new IllegalStateException("Cannot re-mine sealed block " + this.blockNum);
+    } // if
+    MiningKernel.Result found =
+        new MiningKernel(this.blockNum, this.data, this.previousHash, this.timestamp)
+            .search(check, from, count);
+    ChainMetrics.recordAttempts(found.attempts);
+    if (found.hash == null) {
+      return false;
+    } // if
+    this.nonceVal = found.nonce;
+    this.blockHash = found.hash;
+    this.sealed = true;
+    return true;
+  } // mineRange(HashValidator, long, long)
+
   /**
    * Compute the hash for the block.
    * @param blockN
@@ -157,16 +278,8 @@ public class Block {
    * @return the hash in a form of byte array.
    */
   public Hash computeHash(int blockN, Transaction t, long nonce, Hash pHash) {
-    md.update(intBuffer.putInt(this.blockNum).array());
-    intBuffer.clear();
-    md.update(this.data.getSource().getBytes());
-    md.update(this.data.getTarget().getBytes());
-    md.update(intBuffer.putInt(this.data.getAmount()).array());
-    intBuffer.clear();
-    md.update(this.previousHash.getBytes());
-    md.update(longBuffer.putLong(this.nonceVal).array());
-    longBuffer.clear();
-    return new Hash(md.digest());
+    return digest.hash(this.blockNum, this.data.commitment(), this.previousHash, this.timestamp,
+        this.nonceVal);
   } //computeHash(int, Transaction, long, Hash)
 
   /**
@@ -182,6 +295,30 @@ public class Block {
   // | Methods |
   // +---------+
 
+  /**
+   * Choose how blocks compute their hashes. Every digest gives the same
+   * hashes, so this only changes how fast they are computed. Mining
+   * uses its own kernel and is unaffected.
+   *
+   * @param d
+   *   The digest to use from now on.
+   */
+  public static void setDigest(BlockDigest d) {
+    if (d == null) {
+      throw new IllegalArgumentException("No digest");
+    } // if
+    digest = d;
+  } // setDigest(BlockDigest)
+
+  /**
+   * Find out how blocks compute their hashes.
+   *
+   * @return the digest in use.
+   */
+  public static BlockDigest getDigest() {
+    return digest;
+  } // getDigest()
+
   /**
    * Get the number of the block.
    *
@@ -200,6 +337,16 @@ public class Block {
     return this.data;
   } // getTransaction()
 
+  /**
+   * Get when this block was mined.
+   *
+   * @return the time in milliseconds since the epoch, or 0 if the
+   *   block's chain does not keep time.
+   */
+  public long getTimestamp() {
+    return this.timestamp;
+  } // getTimestamp()
+
   /**
    * Get the nonce of this block.
    *
@@ -227,6 +374,59 @@ public class Block {
     return this.blockHash;
   } // getHash
 
+  /**
+   * Determine whether this block's hash is known to match its contents.
+   *
+   * @return true if the block is sealed.
+   */
+  boolean isSealed() {
+    return this.sealed;
+  } // isSealed()
+
+  /**
+   * Share names with a dictionary.
+   *
+   * @param names
+   *   The dictionary.
+   *
+   * @return this block if the dictionary built its transaction, or
+   *   otherwise an equal block, sealed if we are, whose transaction the
+   *   dictionary built.
+   */
+  Block withNames(UserDictionary names) {
+    Transaction t = names.intern(this.data);
+    if (t == this.data) {
+      return this;
+    } // if
+    Block b = new Block(this.blockNum, t, this.previousHash, this.timestamp, this.nonceVal,
+        this.blockHash);
+    b.sealed = this.sealed;
+    return b;
+  } // withNames(UserDictionary)
+
+  /**
+   * Recompute this block's hash and seal the block if it matches the
+   * hash the block was given.
+   *
+   * @return true if the hash matches, false otherwise.
+   */
+  boolean verify() {
+    if (!this.sealed) {
+      this.sealed = digest.hash(this.blockNum, this.data.commitment(), this.previousHash,
+          this.timestamp, this.nonceVal).equals(this.blockHash);
+    } // if
+    return this.sealed;
+  } // verify()
+
+  /**
+   * Seal a block without hashing it. Only stores that rebuild blocks
+   * may call this, and only for blocks that were sealed when they were
+   * added to the store in this process.
+   */
+  void seal() {
+    this.sealed = true;
+  } // seal()
+
   /**
    * Get a string representation of the block.
    *
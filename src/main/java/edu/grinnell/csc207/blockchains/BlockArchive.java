@@ -0,0 +1,375 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only file of blocks, readable by height. Blocks are stored
+ * as BlockCodec records, each preceded by its 4-byte length and the
+ * 4-byte CRC-32C of the record, in a data file; an index file beside it
+ * holds the 8-byte offset of each record, so reading any height takes a
+ * few positioned reads. Reads may happen from several threads at once,
+ * but only one thread may append or truncate.
+ *
+ * A crash during an append can leave a torn record at the end of the
+ * data file, or an index that is ahead of or behind the data. Opening
+ * the archive repairs both by looking only at the tail: we step back
+ * from the last indexed record until we find one that is whole and
+ * matches its checksum, index any whole records written after it, and
+ * cut off everything else.
+ *
+ * @author Andrew Fargo
+ */
+public class BlockArchive implements AutoCloseable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The suffix of the index file.
+   */
+  static final String INDEX_SUFFIX = ".idx";
+
+  /**
+   * The size of the length and checksum before each record.
+   */
+  static final int FRAME_BYTES = 2 * Integer.BYTES;
+
+  /**
+   * The longest record we accept when reading; anything longer is
+   * garbage.
+   */
+  static final int MAX_RECORD_BYTES = BlockCodec.FIXED_BYTES
+      + 2 * BlockCodec.MAX_NAME_BYTES + 2 * BlockCodec.MAX_HASH_BYTES;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The records.
+   */
+  private final FileChannel data;
+
+  /**
+   * The offsets of the records.
+   */
+  private final FileChannel index;
+
+  /**
+   * The number of blocks archived.
+   */
+  private volatile int size;
+
+  /**
+   * The offset just past the last record.
+   */
+  private long end;
+
+  /**
+   * The number of bytes we cut off the data file when we opened it.
+   */
+  private final long truncatedBytes;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open an archive, creating it if it does not exist.
+   *
+   * @param file
+   *   The data file. The index goes in the same directory, with
+   *   INDEX_SUFFIX added to the name.
+   *
+   * @throws IOException
+   *   If the files cannot be opened.
+   */
+  public BlockArchive(Path file) throws IOException {
+    this.data = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    this.index = FileChannel.open(file.resolveSibling(file.getFileName() + INDEX_SUFFIX),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long dataSize = this.data.size();
+    recover();
+    this.truncatedBytes = dataSize - this.end;
+  } // BlockArchive(Path)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Read from a channel until a buffer is full.
+   *
+   * @param channel
+   *   The channel.
+   * @param buf
+   *   The buffer to fill.
+   * @param position
+   *   Where to start reading.
+   *
+   * @throws IOException
+   *   If the channel ends first or cannot be read.
+   */
+  private static void readFully(FileChannel channel, ByteBuffer buf, long position)
+      throws IOException {
+    while (buf.hasRemaining()) {
+      int n = channel.read(buf, position + buf.position());
+      if (n < 0) {
+        throw new IOException("Archive ends unexpectedly at " + (position + buf.position()));
+      } // if
+    } // while
+    buf.flip();
+  } // readFully(FileChannel, ByteBuffer, long)
+
+  /**
+   * Write a whole buffer to a channel.
+   *
+   * @param channel
+   *   The channel.
+   * @param buf
+   *   The bytes to write.
+   * @param position
+   *   Where to start writing.
+   *
+   * @throws IOException
+   *   If the channel cannot be written.
+   */
+  private static void writeFully(FileChannel channel, ByteBuffer buf, long position)
+      throws IOException {
+    while (buf.hasRemaining()) {
+      channel.write(buf, position + buf.position());
+    } // while
+  } // writeFully(FileChannel, ByteBuffer, long)
+
+  /**
+   * Find where a record starts.
+   *
+   * @param height
+   *   The height of the block.
+   *
+   * @return the record's offset in the data file.
+   *
+   * @throws IOException
+   *   If the index cannot be read.
+   */
+  private long offsetOf(int height) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+    readFully(this.index, buf, (long) height * Long.BYTES);
+    return buf.getLong();
+  } // offsetOf(int)
+
+  /**
+   * Find the length of the whole record at an offset, if it is intact.
+   *
+   * @param offset
+   *   Where the record starts.
+   *
+   * @return the length of the record, including its frame, or -1 if it
+   *   runs past the end of the data or does not match its checksum.
+   *
+   * @throws IOException
+   *   If the data cannot be read.
+   */
+  private long intactLengthAt(long offset) throws IOException {
+    long available = this.data.size() - offset;
+    if (offset < 0 || available < FRAME_BYTES) {
+      return -1;
+    } // if
+    ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES);
+    readFully(this.data, frame, offset);
+    int length = frame.getInt();
+    int crc = frame.getInt();
+    if (length < 0 || length > MAX_RECORD_BYTES || available - FRAME_BYTES < length) {
+      return -1;
+    } // if
+    ByteBuffer record = ByteBuffer.allocate(length);
+    readFully(this.data, record, offset + FRAME_BYTES);
+    return (checksum(record) == crc) ? FRAME_BYTES + length : -1;
+  } // intactLengthAt(long)
+
+  /**
+   * Compute the checksum of a record.
+   *
+   * @param record
+   *   The record, from its position to its limit; left unchanged.
+   *
+   * @return the CRC-32C of the record.
+   */
+  private static int checksum(ByteBuffer record) {
+    CRC32C crc = new CRC32C();
+    crc.update(record.duplicate());
+    return (int) crc.getValue();
+  } // checksum(ByteBuffer)
+
+  /**
+   * Find the intact tail of the files after a crash, index any whole
+   * records the index missed, and cut off the rest.
+   *
+   * @throws IOException
+   *   If the files cannot be read or truncated.
+   */
+  private void recover() throws IOException {
+    int indexed = (int) (this.index.size() / Long.BYTES);
+    long length = -1;
+    while (indexed > 0 && (length = intactLengthAt(offsetOf(indexed - 1))) < 0) {
+      indexed--;
+    } // while
+    this.size = indexed;
+    this.end = (indexed == 0) ? 0 : offsetOf(indexed - 1) + length;
+    this.index.truncate((long) indexed * Long.BYTES);
+    while ((length = intactLengthAt(this.end)) >= 0) {
+      writeOffset(this.size, this.end);
+      this.end += length;
+      this.size++;
+    } // while
+    this.data.truncate(this.end);
+  } // recover()
+
+  /**
+   * Record where a record starts.
+   *
+   * @param height
+   *   The height of the block.
+   * @param offset
+   *   Where its record starts in the data file.
+   *
+   * @throws IOException
+   *   If the index cannot be written.
+   */
+  private void writeOffset(int height, long offset) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+    buf.putLong(offset).flip();
+    writeFully(this.index, buf, (long) height * Long.BYTES);
+  } // writeOffset(int, long)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of blocks in the archive.
+   *
+   * @return the number of blocks.
+   */
+  public int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Add a block at height size().
+   *
+   * @param blk
+   *   The block.
+   *
+   * @throws IOException
+   *   If the archive cannot be written.
+   */
+  public void append(Block blk) throws IOException {
+    byte[] record = BlockCodec.encode(blk);
+    ByteBuffer buf = ByteBuffer.allocate(FRAME_BYTES + record.length);
+    buf.putInt(record.length).putInt(checksum(ByteBuffer.wrap(record))).put(record).flip();
+    writeFully(this.data, buf, this.end);
+    writeOffset(this.size, this.end);
+    this.end += FRAME_BYTES + record.length;
+    this.size++;
+  } // append(Block)
+
+  /**
+   * Read the block at a height.
+   *
+   * @param height
+   *   A height between 0 (inclusive) and size() (exclusive).
+   *
+   * @return the block, unsealed.
+   *
+   * @throws IOException
+   *   If the archive cannot be read or the record is corrupt.
+   */
+  public Block read(int height) throws IOException {
+    if (height < 0 || height >= this.size) {
+      throw new IndexOutOfBoundsException("No archived block at height " + height);
+    } // if
+    long offset = offsetOf(height);
+    ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES);
+    readFully(this.data, frame, offset);
+    int length = frame.getInt();
+    int crc = frame.getInt();
+    if (length < 0 || length > MAX_RECORD_BYTES) {
+      throw new IOException("Archived block " + height + " has a bad length: " + length);
+    } // if
+    ByteBuffer record = ByteBuffer.allocate(length);
+    readFully(this.data, record, offset + FRAME_BYTES);
+    if (checksum(record) != crc) {
+      throw new IOException("Archived block " + height + " does not match its checksum");
+    } // if
+    try {
+      return BlockCodec.decode(record);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Archived block " + height + " is corrupt: " + e);
+    } // try/catch
+  } // read(int)
+
+  /**
+   * Remove the blocks at and above a height.
+   *
+   * @param height
+   *   The number of blocks to keep.
+   *
+   * @throws IOException
+   *   If the files cannot be truncated.
+   */
+  public void truncate(int height) throws IOException {
+    if (height < 0 || height > this.size) {
+      throw new IndexOutOfBoundsException("Cannot truncate to height " + height);
+    } else if (height == this.size) {
+      return;
+    } // if
+    long newEnd = offsetOf(height);
+    this.size = height;
+    this.end = newEnd;
+    this.index.truncate((long) height * Long.BYTES);
+    this.data.truncate(newEnd);
+  } // truncate(int)
+
+  /**
+   * Get the number of bytes cut off the data file when we opened it,
+   * because they held torn or corrupt records.
+   *
+   * @return the number of bytes.
+   */
+  public long getTruncatedBytes() {
+    return this.truncatedBytes;
+  } // getTruncatedBytes()
+
+  /**
+   * Make sure everything appended so far is on disk.
+   *
+   * @throws IOException
+   *   If the files cannot be synced.
+   */
+  public void force() throws IOException {
+    this.data.force(false);
+    this.index.force(false);
+  } // force()
+
+  /**
+   * Close the archive.
+   *
+   * @throws IOException
+   *   If the files cannot be closed.
+   */
+  public void close() throws IOException {
+    try {
+      this.data.close();
+    } finally {
+      this.index.close();
+    } // try-finally
+  } // close()
+} // class BlockArchive
@@ -3,8 +3,11 @@ package edu.grinnell.csc207.blockchains;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /**
@@ -14,17 +17,49 @@ import java.util.HashMap;
  * @author Andrew Fargo
  */
 public class BlockChain implements Iterable<Transaction> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+  /** The default number of blocks between ledger checkpoints. */
+  public static final int DEFAULT_CHECKPOINT_INTERVAL = 1024;
+
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
-  /** The first BlockNode of the chain. */
-  BlockNode first;
-  /** The last BlockNode of the chain. */
-  BlockNode last;
-  /** Number of the blocks in the chain. */
-  int size;
+  /** The blocks of the chain, indexed by height. */
+  final BlockStore store;
   /** A validator that checks if the Hash is valid. */
   HashValidator validator;
+  /** The difficulty policy, or null if the validator is fixed. */
+  DifficultyRetargeter retargeter;
+  /** The user names in this chain's transactions. */
+  final UserDictionary names = new UserDictionary();
+  /**
+   * The index behind query, or null until the first query. Guarded by
+   * the checkpoints' monitor; the index guards its own contents.
+   */
+  private TransactionIndex index;
+  /** Runtime metrics for this chain. */
+  final ChainMetrics metrics = new ChainMetrics(this);
+  /**
+   * The users named by our blocks. Kept by whoever writes the chain, so
+   * metrics can report the number of accounts without reading blocks.
+   */
+  final AccountCounts accounts = new AccountCounts();
+  /** The number of blocks between ledger checkpoints. */
+  int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+  /**
+   * The ledger we replay from: empty at the initial block, or the
+   * snapshot taken when the chain was last pruned. Guarded by the
+   * checkpoints' monitor.
+   */
+  LedgerCheckpoint ledgerBase = new LedgerCheckpoint(0, new HashMap<String, Integer>());
+  /**
+   * Ledger checkpoints; entry i holds the balances after block
+   * ledgerBase.height + i * checkpointInterval. Built lazily and guarded
+   * by its own monitor, since concurrent readers may extend it.
+   */
+  final ArrayList<LedgerCheckpoint> checkpoints = new ArrayList<LedgerCheckpoint>();
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -37,21 +72,193 @@ public class BlockChain implements Iterable<Transaction> {
    *   The validator used to check elements.
    */
   public BlockChain(HashValidator check) {
-    this.size = 0;
-    this.first = null;
-    this.validator = check;
-    Transaction firstT = new Transaction("", "", 0);
-    Hash firstHash = new Hash(new byte[0]);
-    Block firstBlock =  new Block(this.size, firstT, firstHash, check);
-    this.first = new BlockNode(firstBlock, null);
-    this.last = this.first;
-    this.size++;
+    this(check, new HeapBlockStore());
   } // BlockChain(HashValidator)
 
+  /**
+   * Create a new blockchain that keeps its blocks in a particular store.
+   *
+   * @param check
+   *   The validator used to check elements.
+   * @param blockStore
+   *   An empty store for the blocks.
+   */
+  public BlockChain(HashValidator check, BlockStore blockStore) {
+    this.validator = check;
+    this.retargeter = null;
+    this.store = emptyStore(blockStore);
+    this.addInitialBlock();
+  } // BlockChain(HashValidator, BlockStore)
+
+  /**
+   * Create a blockchain that starts from an existing initial block, as
+   * when loading a saved chain. The caller must have verified the block.
+   *
+   * @param check
+   *   The validator used to check elements.
+   * @param blockStore
+   *   An empty store for the blocks.
+   * @param initial
+   *   The initial block.
+   */
+  BlockChain(HashValidator check, BlockStore blockStore, Block initial) {
+    this.validator = check;
+    this.retargeter = null;
+    this.store = emptyStore(blockStore);
+    this.store.add(initial.withNames(this.names));
+  } // BlockChain(HashValidator, BlockStore, Block)
+
+  /**
+   * Resume a chain whose blocks are already in a store, as when
+   * reopening a durable store. The caller must have verified the blocks.
+   *
+   * @param check
+   *   The validator used to check elements.
+   * @param blockStore
+   *   A store holding at least the initial block.
+   * @param base
+   *   The ledger to replay from; blocks at or below its height are
+   *   trusted.
+   */
+  BlockChain(HashValidator check, BlockStore blockStore, LedgerCheckpoint base) {
+    if (blockStore.size() == 0) {
+      throw new IllegalArgumentException("Block store has no initial block");
+    } // if
+    this.validator = check;
+    this.retargeter = null;
+    this.store = blockStore;
+    this.ledgerBase = base;
+    this.countAccounts();
+  } // BlockChain(HashValidator, BlockStore, LedgerCheckpoint)
+
+  /**
+   * Create a new blockchain whose difficulty is retargeted to hold a
+   * block interval.
+   *
+   * @param policy
+   *   The policy that decides the difficulty at each height.
+   */
+  public BlockChain(DifficultyRetargeter policy) {
+    this(policy, new HeapBlockStore());
+  } // BlockChain(DifficultyRetargeter)
+
+  /**
+   * Create a new retargeting blockchain that keeps its blocks in a
+   * particular store.
+   *
+   * @param policy
+   *   The policy that decides the difficulty at each height.
+   * @param blockStore
+   *   An empty store for the blocks.
+   */
+  public BlockChain(DifficultyRetargeter policy, BlockStore blockStore) {
+    if (policy.size() != 0) {
+      throw new IllegalArgumentException("Retargeting policy already has blocks recorded");
+    } // if
+    this.validator = null;
+    this.retargeter = policy;
+    this.store = emptyStore(blockStore);
+    this.addInitialBlock();
+  } // BlockChain(DifficultyRetargeter, BlockStore)
+
   // +---------+-----------------------------------------------------
   // | Helpers |
   // +---------+
 
+  /**
+   * Mine the initial block and make it the only block in the chain.
+   */
+  private void addInitialBlock() {
+    Transaction firstT = new Transaction("", "", 0);
+    Hash firstHash = new Hash(new byte[0]);
+    Block firstBlock = new Block(0, this.names.intern(firstT), firstHash, this.timestampFor(0),
+        this.validatorFor(0));
+    this.store.add(firstBlock);
+    this.recordTimestamp(firstBlock);
+  } // addInitialBlock()
+
+  /**
+   * Count the users named by our blocks from scratch: those in the
+   * ledger base, and those in the blocks after it.
+   */
+  private void countAccounts() {
+    LedgerCheckpoint base;
+    synchronized (this.checkpoints) {
+      base = this.ledgerBase;
+    } // synchronized
+    this.accounts.clear();
+    for (String user : base.balances.keySet()) {
+      this.accounts.add(this.names.idFor(user));
+    } // for
+    int size = this.store.size();
+    for (int h = Math.max(base.height + 1, 1); h < size; h++) {
+      this.accounts.add(this.store.get(h).getTransaction(), this.names);
+    } // for
+  } // countAccounts()
+
+  /**
+   * Make sure a store is fit for a new chain, and share our names with
+   * stores that keep their own.
+   *
+   * @param blockStore The store.
+   * @return the store.
+   * @throws IllegalArgumentException if the store already has blocks.
+   */
+  private BlockStore emptyStore(BlockStore blockStore) {
+    if (blockStore.size() != 0) {
+      throw new IllegalArgumentException("Block store already has blocks");
+    } // if
+    if (blockStore instanceof OffHeapBlockStore) {
+      ((OffHeapBlockStore) blockStore).shareNames(this.names);
+    } // if
+    return blockStore;
+  } // emptyStore(BlockStore)
+
+  /**
+   * Note when a new block was mined, if we are retargeting.
+   *
+   * @param blk The new block, already in the store.
+   */
+  private void recordTimestamp(Block blk) {
+    if (this.retargeter != null) {
+      this.retargeter.record(blk.getNum(), blk.getTimestamp());
+    } // if
+  } // recordTimestamp(Block)
+
+  /**
+   * Get the timestamp to mine into the block at a height. Timestamps
+   * only matter to retargeting chains, which need them to recompute the
+   * difficulty from the blocks alone; other chains use 0, so that their
+   * blocks hash the same whenever they are mined.
+   * @param height The height of the block.
+   * @return the current time, but no earlier than the block below, or 0
+   *   if we are not retargeting.
+   */
+  public long timestampFor(int height) {
+    if (this.retargeter == null) {
+      return 0L;
+    } else if (height == 0) {
+      return System.currentTimeMillis();
+    } else {
+      return Math.max(System.currentTimeMillis(), this.store.get(height - 1).getTimestamp());
+    } // if-else
+  } // timestampFor(int)
+
+  /**
+   * Get the validator that applies to the block at a height. Mining a
+   * block for the next height with this validator gives the same result
+   * as mine, without tying up the chain while we search.
+   * @param height The height of the block.
+   * @return the validator in effect when that block was mined.
+   */
+  public HashValidator validatorFor(int height) {
+    if (this.retargeter == null) {
+      return this.validator;
+    } else {
+      return this.retargeter.validatorAt(height);
+    } // if-else
+  } // validatorFor(int)
+
   /**
    * A method that checks to see if the hash matches prev's hash,
    * the hash is valid to our criteria, and the hash is consistent.
@@ -60,29 +267,79 @@ public class BlockChain implements Iterable<Transaction> {
    * @return true if the hash is valid, otherwise return false;
    */
   public boolean checkHash(Block prev, Block blk) {
-    return blk.getPrevHash() == prev.getHash()
-      && this.validator.isValid(blk.getHash())
-      && Arrays.equals(blk.computeHash(blk.getNum(), blk.getTransaction(),
-                                       blk.getNonce(), blk.getPrevHash()).getBytes(),
-                       blk.getHash().getBytes());
-  } // checkHash
+    return checkHash(prev, blk, this.validatorFor(blk.getNum()));
+  } // checkHash(Block, Block)
+
+  /**
+   * Check a block's hash against a particular validator.
+   * @param prev The previous block.
+   * @param blk The current block.
+   * @param check The validator in effect for blk.
+   * @return true if the hash is valid, otherwise return false;
+   */
+  boolean checkHash(Block prev, Block blk, HashValidator check) {
+    return rejectionFor(prev, blk, check) == null;
+  } // checkHash(Block, Block, HashValidator)
+
+  /**
+   * Determine why a block's hash is unacceptable. Sealed blocks are
+   * known to hash to their stored hash, so we only recompute the hash
+   * of unsealed blocks, and seal them once they pass. We compare
+   * previous hashes by value, since stores may rebuild blocks (and
+   * their hashes) on every read.
+   * @param prev The previous block.
+   * @param blk The current block.
+   * @param check The validator in effect for blk.
+   * @return the reason blk is rejected, or null if its hash is fine.
+   */
+  ChainMetrics.Rejection rejectionFor(Block prev, Block blk, HashValidator check) {
+    if (!blk.getPrevHash().equals(prev.getHash())) {
+      return ChainMetrics.Rejection.PREVIOUS_HASH;
+    } else if (this.retargeter != null && blk.getTimestamp() < prev.getTimestamp()) {
+      return ChainMetrics.Rejection.TIMESTAMP;
+    } else if (this.retargeter != null && this.retargeter.isTooFarAhead(blk.getTimestamp())) {
+      return ChainMetrics.Rejection.FUTURE_TIMESTAMP;
+    } else if (!check.isValid(blk.getHash())) {
+      return ChainMetrics.Rejection.INVALID_HASH;
+    } else if (!blk.verify()) {
+      return ChainMetrics.Rejection.HASH_MISMATCH;
+    } else {
+      return null;
+    } // if-else
+  } // rejectionFor(Block, Block, HashValidator)
 
   /**
-   * Checks to see if the hash is a valid hash.
+   * Checks to see if the hash is a valid hash. If the chain has been
+   * pruned, we check the blocks after the prune point (and their link to
+   * the last pruned block) only.
+   * @return the number of blocks whose hashes were verified.
    * @throws Exception If it's not.
    */
-  public void checkHashes() throws Exception {
-    Iterator<Block> blocks = this.blocks();
-    Block prev = blocks.next();
-    while (blocks.hasNext()) {
-      Block current = blocks.next();
-      if (!checkHash(prev, current)) {
+  public int checkHashes() throws Exception {
+    int first = this.firstRetained();
+    int size = this.store.size();
+    Block prev = this.store.get(first - 1);
+    for (int height = first; height < size; height++) {
+      Block current = this.store.get(height);
+      if (!checkHash(prev, current, this.validatorFor(height))) {
         throw new Exception("Invalid hash in appended block:" + current.getHash());
       } //if
       prev = current;
-    } //while
+    } //for
+    return size - first;
   } // checkHashes
 
+  /**
+   * Find the first block after the ledger base, which is the first block
+   * whose transaction we replay and whose hash we check.
+   * @return the height of that block.
+   */
+  private int firstRetained() {
+    synchronized (this.checkpoints) {
+      return this.ledgerBase.height + 1;
+    } // synchronized
+  } // firstRetained()
+
   // +---------+-----------------------------------------------------
   // | Methods |
   // +---------+
@@ -97,16 +354,120 @@ public class BlockChain implements Iterable<Transaction> {
    * @return a new block with correct number, hashes, and such.
    */
   public Block mine(Transaction t) {
-    return new Block(this.size, t, last.data.getHash(), this.validator);
+    int height = this.store.size();
+    return new Block(height, this.names.intern(t), this.getHash(), this.timestampFor(height),
+        this.validatorFor(height));
   } // mine(Transaction)
 
+  /**
+   * Retarget the difficulty of this chain with a policy, as though it
+   * had done so from the start. Chains read from files, synchronized
+   * from peers, or reopened from disk are built with a fixed validator;
+   * since each block carries its timestamp, this recovers the
+   * difficulty at every height from the blocks themselves. The store
+   * must still hold every block, and nothing else may use the chain
+   * while we replay them.
+   *
+   * @param policy
+   *   A policy with no blocks recorded.
+   *
+   * @throws IllegalArgumentException
+   *   If the policy already has blocks recorded, or if a block's
+   *   timestamp or hash does not meet the policy, in which case the
+   *   chain is unchanged.
+   */
+  public void retargetWith(DifficultyRetargeter policy) {
+    if (policy.size() != 0) {
+      throw new IllegalArgumentException("Retargeting policy already has blocks recorded");
+    } // if
+    int size = this.store.size();
+    Block prev = null;
+    for (int height = 0; height < size; height++) {
+      Block blk = this.store.get(height);
+      if (prev != null && blk.getTimestamp() < prev.getTimestamp()) {
+        throw new IllegalArgumentException("Block " + height + " is older than the block below");
+      } else if (policy.isTooFarAhead(blk.getTimestamp())) {
+        throw new IllegalArgumentException("Block " + height + " is too far in the future");
+      } else if (height > 0 && !policy.validatorAt(height).isValid(blk.getHash())) {
+        throw new IllegalArgumentException("Block " + height + " does not meet difficulty "
+            + policy.difficultyAt(height));
+      } // if
+      policy.record(height, blk.getTimestamp());
+      prev = blk;
+    } // for
+    this.retargeter = policy;
+    this.validator = null;
+  } // retargetWith(DifficultyRetargeter)
+
+  /**
+   * Get the runtime metrics for this chain. Call register on the result
+   * to publish them over JMX.
+   *
+   * @return the metrics for this chain.
+   */
+  public ChainMetrics getMetrics() {
+    return this.metrics;
+  } // getMetrics()
+
+  /**
+   * Get the dictionary of user names that this chain's transactions
+   * (and an off-heap store's rows) share. The dictionary only grows:
+   * removeLast never releases a name, so it holds every name ever
+   * appended, including names whose blocks have since been removed.
+   *
+   * @return the dictionary.
+   */
+  public UserDictionary getNames() {
+    return this.names;
+  } // getNames()
+
+  /**
+   * Start a query for the blocks whose transactions meet some
+   * conditions. The first query builds an index of every transaction,
+   * which append and removeLast then keep up to date.
+   *
+   * @return a query that matches every block.
+   */
+  public TransactionQuery query() {
+    return new TransactionQuery(this);
+  } // query()
+
+  /**
+   * Get the transaction index, building it or bringing it up to date
+   * if need be.
+   *
+   * @return the index.
+   */
+  TransactionIndex transactionIndex() {
+    TransactionIndex ix;
+    synchronized (this.checkpoints) {
+      if (this.index == null) {
+        this.index = new TransactionIndex(this.names);
+      } // if
+      ix = this.index;
+    } // synchronized
+    ix.catchUp(this.store);
+    return ix;
+  } // transactionIndex()
+
+  /**
+   * Get the transaction index, if any query has built it.
+   *
+   * @return the index, or null.
+   */
+  private TransactionIndex indexIfBuilt() {
+    synchronized (this.checkpoints) {
+      return this.index;
+    } // synchronized
+  } // indexIfBuilt()
+
   /**
    * Get the number of blocks curently in the chain.
    *
    * @return the number of blocks in the chain, including the initial block.
    */
   public int getSize() {
-    return this.size;
+    return this.store.size();
   } // getSize()
 
   /**
@@ -120,13 +481,34 @@ public class BlockChain implements Iterable<Transaction> {
    *   hash is incorrect.
    */
   public void append(Block blk) {
-    if (!checkHash(this.last.data, blk)) {
+    AppendEvent event = new AppendEvent();
+    event.begin();
+    int height = this.store.size();
+    ChainMetrics.Rejection reason =
+        rejectionFor(this.store.get(height - 1), blk, this.validatorFor(height));
+    if (reason != null) {
+      this.metrics.recordRejection(reason);
+      if (event.shouldCommit()) {
+        event.blockNumber = blk.getNum();
+        event.outcome = reason.name();
+        event.commit();
+      } // if
       throw new IllegalArgumentException("Invalid hash in appended block: " + blk.getHash());
     } // if
-    BlockNode newLast = new BlockNode(blk, null);
-    this.last.next = newLast;
-    this.last = newLast;
-    this.size++;
+    Block stored = blk.withNames(this.names);
+    this.store.add(stored);
+    this.accounts.add(stored.getTransaction(), this.names);
+    TransactionIndex ix = indexIfBuilt();
+    if (ix != null) {
+      ix.catchUp(this.store);
+    } // if
+    this.recordTimestamp(blk);
+    this.metrics.recordAppend();
+    if (event.shouldCommit()) {
+      event.blockNumber = blk.getNum();
+      event.outcome = "appended";
+      event.commit();
+    } // if
   } // append()
 
   /**
@@ -135,19 +517,40 @@ public class BlockChain implements Iterable<Transaction> {
    * @return false if the chain has only one block (in which case it's
    *   not removed) or true otherwise (in which case the last block
    *   is removed).
+   * @throws IllegalStateException if the last block has been pruned.
    */
   public boolean removeLast() {
-    if (this.size == 1) {
+    if (this.store.size() == 1) {
       return false;
     } else {
-      // Get second to last.
-      BlockNode current = this.first;
-      while (current.next != this.last) {
-        current = current.next;
-      } // while
-      this.last = current;
-      this.last.next = null;
-      this.size--;
+      Transaction removed = this.store.get(this.store.size() - 1).getTransaction();
+      this.store.removeLast();
+      int size = this.store.size();
+      TransactionIndex ix = indexIfBuilt();
+      if (ix != null) {
+        ix.truncate(size);
+      } // if
+      if (this.retargeter != null) {
+        this.retargeter.truncate(size);
+      } // if
+      synchronized (this.checkpoints) {
+        if (this.ledgerBase.height >= size) {
+          // Only stores that keep every block let us remove the base.
+          this.ledgerBase = new LedgerCheckpoint(0, new HashMap<String, Integer>());
+          this.checkpoints.clear();
+          removed = null;
+        } // if
+        while (!this.checkpoints.isEmpty()
+            && this.checkpoints.get(this.checkpoints.size() - 1).height >= size) {
+          this.checkpoints.remove(this.checkpoints.size() - 1);
+        } // while
+      } // synchronized
+      if (removed == null) {
+        // The base's users were counted as a whole, so start over.
+        this.countAccounts();
+      } else {
+        this.accounts.remove(removed, this.names);
+      } // if-else
       return true;
     } //else
   } // removeLast()
@@ -158,7 +561,7 @@ public class BlockChain implements Iterable<Transaction> {
    * @return the hash of the last sblock in the chain.
    */
   public Hash getHash() {
-    return this.last.data.getHash();
+    return this.store.get(this.store.size() - 1).getHash();
   } // getHash()
 
   /**
@@ -182,14 +585,29 @@ public class BlockChain implements Iterable<Transaction> {
    * Determine if the blockchain is correct in that (a) the balances are
    * legal/correct at every step, (b) that every block has a correct
    * previous hash field, (c) that every block has a hash that is correct
-   * for its contents, and (d) that every block has a valid hash.
+   * for its contents, and (d) that every block has a valid hash under
+   * the difficulty that applied at its height. Blocks verified in this
+   * process are sealed, so (c) holds for them without hashing them
+   * again; we hash only the unsealed ones, such as blocks read back from
+   * disk or loaded against trusted checkpoints.
    *
    * @throws Exception
    *   If things are wrong at any block.
    */
   public void check() throws Exception {
-    balances();
-    checkHashes();
+    CheckEvent event = new CheckEvent();
+    event.begin();
+    long start = System.nanoTime();
+    boolean ok = false;
+    try {
+      balances();
+      event.blocksVerified = checkHashes();
+      ok = true;
+    } finally {
+      this.metrics.recordCheck(System.nanoTime() - start, ok);
+      event.passed = ok;
+      event.commit();
+    } // try-finally
   } // check()
 
   /**
@@ -209,21 +627,30 @@ public class BlockChain implements Iterable<Transaction> {
     return users.iterator();
   } // users()
 
+  /**
+   * Count the people who participated in the system, without reading
+   * any blocks.
+   *
+   * @return the number of users that users() would return.
+   */
+  public int getAccountCount() {
+    return this.accounts.count();
+  } // getAccountCount()
+
 
  /**
-  * Process a transfer.
+  * Compute a user's balance after a transfer, without changing it.
   *
-  * @param balances The mutable hash map of users and balances.
-  * @param person The person to modify.
+  * @param balance The user's balance, or null if the user is unknown.
+  * @param person The user.
   * @param amount The amount the transaction lists.
   * @param isSource true if person is the source, false if target.
   * @param num The number of the transaction.
+  * @return the new balance.
   * @throws Exception If the transaction is invalid due to balance issues.
   */
-  private void alterAmount(HashMap<String, Integer> balances,
-                           String person, Integer amount,
-                           boolean isSource, int num) throws Exception {
-    Integer balance = balances.get(person);
+  private static int adjusted(Integer balance, String person, int amount,
+                              boolean isSource, int num) throws Exception {
     if (balance == null) {
       if (isSource) {
         throw new Exception("Unknown source in block" + num + ": " + person);
@@ -231,41 +658,99 @@ public class BlockChain implements Iterable<Transaction> {
         balance = 0;
       } //if- else
     } // if
-    balance = isSource ? balance - amount : balance + amount;
-    if (balance < 0) {
+    int result;
+    try {
+      result = isSource ? Math.subtractExact(balance, amount) : Math.addExact(balance, amount);
+    } catch (ArithmeticException e) {
+      throw new Exception("Balance of " + person + " overflows in transaction " + num + ".");
+    } // try/catch
+    if (result < 0) {
       throw new Exception("User " + person
                           + " doesn't have enough money for transaction " + num + ".");
     } // if
-    balances.put(person, balance);
-  } // alterAmount
+    return result;
+  } // adjusted
+
+  /**
+   * Apply one transaction to a set of balances. Both sides are checked
+   * before either changes, so the balances are left unchanged if the
+   * transaction is invalid.
+   *
+   * @param balances The mutable hash map of users and balances.
+   * @param t The transaction to apply.
+   * @param num The number of the block holding the transaction.
+   * @throws Exception If the transaction is invalid.
+   */
+  static void applyTransaction(HashMap<String, Integer> balances,
+                               Transaction t, int num) throws Exception {
+    if (t.getAmount() < 0) {
+      throw new Exception("Negative amount in block " + num + ".");
+    } // if
+    if (t.getTarget().isEmpty()) {
+      throw new Exception("Target is empty.");
+    } // if
+    String source = t.getSource();
+    String target = t.getTarget();
+    Integer debited = null;
+    if (!source.isEmpty()) {
+      debited = adjusted(balances.get(source), source, t.getAmount(), true, num);
+    } // if
+    Integer before = target.equals(source) ? debited : balances.get(target);
+    int credited = adjusted(before, target, t.getAmount(), false, num);
+    if (debited != null) {
+      balances.put(source, debited);
+    } // if
+    balances.put(target, credited);
+  } // applyTransaction
 
   /**
-   * Gets the balances of all users in the chain.
+   * Gets the balances of all users in the chain, replaying every block
+   * after the ledger base.
    * @return A hash map of all of the users and their balances.
    * @throws Exception if any transaction is invalid.
    */
-  private HashMap<String, Integer> balances() throws Exception {
-    HashMap<String, Integer> balances = new HashMap<String, Integer>();
-    Iterator<Block> blocks = this.blocks();
-    Block b = blocks.next();
-    while (blocks.hasNext()) {
-      b = blocks.next();
-      Transaction t = b.getTransaction();
-      if (t.getAmount() < 0) {
-        throw new Exception("Negative amount in block " + b.getNum() + ".");
-      } // if
-      if (!t.getSource().isEmpty()) {
-        alterAmount(balances, t.getSource(), t.getAmount(), true, b.getNum());
-      } // if
-      if (t.getTarget().isEmpty()) {
-        throw new Exception("Target is empty.");
-      } else {
-        alterAmount(balances, t.getTarget(), t.getAmount(), false, b.getNum());
-      } // if-else
+  HashMap<String, Integer> balances() throws Exception {
+    BalanceReplayEvent event = new BalanceReplayEvent();
+    event.begin();
+    LedgerCheckpoint base;
+    synchronized (this.checkpoints) {
+      base = this.ledgerBase;
+    } // synchronized
+    HashMap<String, Integer> balances = new HashMap<String, Integer>(base.balances);
+    int size = this.store.size();
+    for (int h = base.height + 1; h < size; h++) {
+      Block b = this.store.get(h);
+      applyTransaction(balances, b.getTransaction(), b.getNum());
+      event.blocksReplayed++;
     } // for
+    event.accounts = balances.size();
+    event.commit();
     return balances;
   } //balances()
 
+  /**
+   * Check that a transaction is valid against the balances at the tip,
+   * as the next block would have to be.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @throws Exception
+   *   If the transaction would overdraw its source or is otherwise
+   *   invalid.
+   */
+  void checkNext(Transaction t) throws Exception {
+    int height = this.store.size();
+    HashMap<String, Integer> ledger = ledgerAt(height - 1);
+    HashMap<String, Integer> sides = new HashMap<String, Integer>();
+    for (String user : new String[] {t.getSource(), t.getTarget()}) {
+      if (ledger.containsKey(user)) {
+        sides.put(user, ledger.get(user));
+      } // if
+    } // for
+    applyTransaction(sides, t, height);
+  } // checkNext(Transaction)
+
   /**
    * Find one user's balance.
    *
@@ -276,14 +761,147 @@ public class BlockChain implements Iterable<Transaction> {
    * @throws Exception if the Transactions are invalid.
    */
   public int balance(String user) throws Exception {
-    Integer balanceOrNull = balances().get(user);
-    if (balanceOrNull == null) {
-      return 0;
-    } else {
-      return balanceOrNull;
-    } //if-else
+    return balanceAt(user, this.store.size() - 1);
   } // balance()
 
+  /**
+   * Find one user's balance as it was just after a given block. We
+   * start from the nearest ledger checkpoint at or below that height and
+   * replay at most checkpointInterval - 1 blocks. Heights below the
+   * prune point have no checkpoints, so we replay them from the archive.
+   *
+   * @param user
+   *   The user whose balance we want to find.
+   * @param height
+   *   The number of the last block to include.
+   *
+   * @return that user's balance at that height (or 0, if the user was
+   *   not yet in the system).
+   * @throws IllegalArgumentException if the height is not in the chain.
+   * @throws Exception if the Transactions up to that height are invalid.
+   */
+  public int balanceAt(String user, int height) throws Exception {
+    if (height < 0 || height >= this.store.size()) {
+      throw new IllegalArgumentException("No block at height " + height);
+    } // if
+    return ledgerAt(height).getOrDefault(user, 0);
+  } // balanceAt(String, int)
+
+  /**
+   * Find every balance as it was just after a given block.
+   *
+   * @param height
+   *   The number of the last block to include.
+   *
+   * @return the balances; possibly shared with a checkpoint, so callers
+   *   must not modify them.
+   * @throws Exception if the Transactions up to that height are invalid.
+   */
+  private HashMap<String, Integer> ledgerAt(int height) throws Exception {
+    LedgerCheckpoint cp = checkpointFor(height);
+    BalanceReplayEvent event = new BalanceReplayEvent();
+    event.begin();
+    HashMap<String, Integer> balances = cp.balances;
+    if (cp.height < height) {
+      balances = new HashMap<String, Integer>(cp.balances);
+      for (int h = cp.height + 1; h <= height; h++) {
+        Block b = this.store.get(h);
+        applyTransaction(balances, b.getTransaction(), b.getNum());
+        event.blocksReplayed++;
+      } // for
+    } // if
+    event.accounts = balances.size();
+    event.commit();
+    return balances;
+  } // ledgerAt(int)
+
+  /**
+   * Set how often we checkpoint the ledger. Shorter intervals use more
+   * memory (one copy of the ledger per checkpoint) but make balanceAt
+   * replay fewer blocks.
+   *
+   * @param interval
+   *   The number of blocks between checkpoints.
+   */
+  public void setCheckpointInterval(int interval) {
+    if (interval < 1) {
+      throw new IllegalArgumentException("Checkpoint interval must be positive");
+    } // if
+    synchronized (this.checkpoints) {
+      this.checkpointInterval = interval;
+      this.checkpoints.clear();
+    } // synchronized
+  } // setCheckpointInterval(int)
+
+  /**
+   * Prune the chain, keeping only the most recent blocks in memory and
+   * moving the rest to the archive behind our store. We snapshot the
+   * ledger at the prune point first, so balances, check, and appends
+   * never need the archived blocks again; history queries (blocks,
+   * iterator, users, and balanceAt below the prune point) still read
+   * them from the archive on demand.
+   *
+   * @param keep
+   *   The number of blocks to keep in memory.
+   *
+   * @throws IllegalStateException if the chain's store has no archive.
+   * @throws Exception if the Transactions up to the prune point are
+   *   invalid or the archive cannot be written.
+   */
+  public void prune(int keep) throws Exception {
+    if (!(this.store instanceof ArchivingBlockStore)) {
+      throw new IllegalStateException("Chain has no archive to prune to");
+    } else if (keep < 1) {
+      throw new IllegalArgumentException("Must keep at least one block");
+    } // if
+    ArchivingBlockStore archiving = (ArchivingBlockStore) this.store;
+    int first = this.store.size() - keep;
+    if (first <= archiving.archivedSize()) {
+      return;
+    } // if
+    LedgerCheckpoint snapshot =
+        new LedgerCheckpoint(first - 1, new HashMap<String, Integer>(ledgerAt(first - 1)));
+    synchronized (this.checkpoints) {
+      this.ledgerBase = snapshot;
+      this.checkpoints.clear();
+    } // synchronized
+    archiving.spill(first);
+  } // prune(int)
+
+  /**
+   * Get the nearest ledger checkpoint at or below a height, building
+   * checkpoints up to it if need be. Below the ledger base we only have
+   * the empty ledger before the initial block.
+   *
+   * @param height
+   *   A height in the chain.
+   *
+   * @return the checkpoint.
+   * @throws Exception if the Transactions up to that height are invalid.
+   */
+  private LedgerCheckpoint checkpointFor(int height) throws Exception {
+    synchronized (this.checkpoints) {
+      if (height < this.ledgerBase.height) {
+        return new LedgerCheckpoint(0, new HashMap<String, Integer>());
+      } // if
+      int index = (height - this.ledgerBase.height) / this.checkpointInterval;
+      if (this.checkpoints.isEmpty()) {
+        this.checkpoints.add(this.ledgerBase);
+      } // if
+      while (this.checkpoints.size() <= index) {
+        LedgerCheckpoint prev = this.checkpoints.get(this.checkpoints.size() - 1);
+        HashMap<String, Integer> balances = new HashMap<String, Integer>(prev.balances);
+        for (int h = prev.height + 1; h <= prev.height + this.checkpointInterval; h++) {
+          Block b = this.store.get(h);
+          applyTransaction(balances, b.getTransaction(), b.getNum());
+        } // for
+        this.checkpoints.add(
+            new LedgerCheckpoint(prev.height + this.checkpointInterval, balances));
+      } // while
+      return this.checkpoints.get(index);
+    } // synchronized
+  } // checkpointFor(int)
+
   /**
    * Get an interator for all the blocks in the chain.
    *
@@ -291,31 +909,65 @@ public class BlockChain implements Iterable<Transaction> {
    */
   public Iterator<Block> blocks() {
     return new Iterator<Block>() {
-      /** Tracker for the next node to visit. */
-      private BlockNode nextNode = BlockChain.this.first;
+      /** The height of the next block to visit. */
+      private int nextHeight = 0;
 
       /**
-       * Sees if there are any nodes left to give.
+       * Sees if there are any blocks left to give.
        */
       public boolean hasNext() {
-        return nextNode != null;
+        return this.nextHeight < BlockChain.this.store.size();
       } // hasNext()
 
       /**
-       * Returns the next node's block.
+       * Returns the next block.
        * @return The next block.
        */
       public Block next() {
-        Block ret = this.nextNode.data;
-        if (ret == null) {
+        if (!this.hasNext()) {
           throw new NoSuchElementException();
         } // if
-        this.nextNode = this.nextNode.next;
-        return ret;
+        return BlockChain.this.store.get(this.nextHeight++);
       } // next()
     }; //Iterator<Block>
   } // blocks()
 
+  /**
+   * Get a stream of the blocks in a range of heights. The stream reads
+   * blocks from the store as it goes, so appends do not disturb it, but
+   * removing blocks in its range while it runs does. It splits evenly
+   * by height, so it works well in parallel.
+   *
+   * @param from The first height to include.
+   * @param to The height just past the last one to include.
+   * @return a stream of those blocks, in order.
+   */
+  public Stream<Block> blockStream(int from, int to) {
+    if (from < 0 || to > this.store.size() || from > to) {
+      throw new IndexOutOfBoundsException("Invalid height range [" + from + ", " + to + ")");
+    } // if
+    return StreamSupport.stream(new BlockSpliterator(this.store, from, to), false);
+  } // blockStream(int, int)
+
+  /**
+   * Get a stream of all the blocks in the chain.
+   *
+   * @return a stream of the blocks, in order.
+   */
+  public Stream<Block> blockStream() {
+    return blockStream(0, this.store.size());
+  } // blockStream()
+
+  /**
+   * Get a stream of all the transactions in the chain, skipping the
+   * empty transaction in the initial block.
+   *
+   * @return a stream of the transactions, in order.
+   */
+  public Stream<Transaction> transactionStream() {
+    return blockStream(1, this.store.size()).map(Block::getTransaction);
+  } // transactionStream()
+
   /**
    * Get an interator for all the transactions in the chain.
    *
@@ -352,4 +1004,101 @@ public class BlockChain implements Iterable<Transaction> {
       } // next()
     }; //Iterator<Transaction>
   } // iterator()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * The ledger as it stood just after one block.
+   */
+  static class LedgerCheckpoint {
+    /** The height of the block. */
+    final int height;
+    /** Every user's balance after that block. Never modified. */
+    final HashMap<String, Integer> balances;
+
+    /**
+     * Create a checkpoint.
+     *
+     * @param h The height of the block.
+     * @param b The balances after the block.
+     */
+    LedgerCheckpoint(int h, HashMap<String, Integer> b) {
+      this.height = h;
+      this.balances = b;
+    } // LedgerCheckpoint(int, HashMap<String, Integer>)
+  } // class LedgerCheckpoint
+
+  /**
+   * How many times our blocks name each user, by id in the chain's
+   * dictionary, and how many users they name at all. A user from the
+   * ledger base counts as named once, however many blocks below the base
+   * name them. Guarded by its own monitor.
+   */
+  static class AccountCounts {
+    /** The number of times each user is named, by id. */
+    private int[] uses = new int[16];
+    /** The number of users named at least once. */
+    private int count;
+
+    /**
+     * Note one more use of a user.
+     *
+     * @param id The user's id.
+     */
+    synchronized void add(int id) {
+      if (id >= this.uses.length) {
+        this.uses = Arrays.copyOf(this.uses, Math.max(2 * this.uses.length, id + 1));
+      } // if
+      if (this.uses[id]++ == 0) {
+        this.count++;
+      } // if
+    } // add(int)
+
+    /**
+     * Note the users named by a transaction. Deposits have no source.
+     *
+     * @param t The transaction.
+     * @param names The chain's dictionary.
+     */
+    synchronized void add(Transaction t, UserDictionary names) {
+      if (!t.getSource().isEmpty()) {
+        add(names.idFor(t.getSource()));
+      } // if
+      add(names.idFor(t.getTarget()));
+    } // add(Transaction, UserDictionary)
+
+    /**
+     * Forget the users named by a transaction that add noted.
+     *
+     * @param t The transaction.
+     * @param names The chain's dictionary.
+     */
+    synchronized void remove(Transaction t, UserDictionary names) {
+      if (!t.getSource().isEmpty() && --this.uses[names.idFor(t.getSource())] == 0) {
+        this.count--;
+      } // if
+      if (--this.uses[names.idFor(t.getTarget())] == 0) {
+        this.count--;
+      } // if
+    } // remove(Transaction, UserDictionary)
+
+    /**
+     * Forget every user.
+     */
+    synchronized void clear() {
+      Arrays.fill(this.uses, 0);
+      this.count = 0;
+    } // clear()
+
+    /**
+     * Get the number of users named at least once.
+     *
+     * @return the number of users.
+     */
+    synchronized int count() {
+      return this.count;
+    } // count()
+  } // class AccountCounts
 } // class BlockChain
@@ -0,0 +1,339 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary form of a block. A record holds, in order, the block
+ * number (4 bytes), the nonce (8), the timestamp (8), the amount (4),
+ * the source and target names (each a 2-byte length followed by UTF-8
+ * bytes), and the previous hash and hash (each a 1-byte length followed
+ * by the bytes). Numbers are big-endian.
+ *
+ * Compact records replace each name with its id in a UserDictionary that
+ * the writer and reader build in step, as a base-128 varint. A name
+ * appears in full, after its id, only in the first record that uses it,
+ * so the reader can add it; its id is then the dictionary's size.
+ *
+ * Decoded blocks are not sealed; whoever reads them must verify their
+ * hashes before trusting them.
+ *
+ * @author Andrew Fargo
+ */
+public final class BlockCodec {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The longest name we can encode, in bytes.
+   */
+  static final int MAX_NAME_BYTES = 0xFFFF;
+
+  /**
+   * The longest hash we can encode, in bytes.
+   */
+  static final int MAX_HASH_BYTES = 0xFF;
+
+  /**
+   * The size of a record without its names and hashes.
+   */
+  static final int FIXED_BYTES = Integer.BYTES + 2 * Long.BYTES + Integer.BYTES
+      + 2 * Short.BYTES + 2 * Byte.BYTES;
+
+  /**
+   * The longest varint we write, in bytes.
+   */
+  static final int MAX_VARINT_BYTES = 5;
+
+  /**
+   * The size of the largest record, plain or compact: two names of
+   * MAX_NAME_BYTES, each with its id in a compact record, and two hashes
+   * of MAX_HASH_BYTES.
+   */
+  static final int MAX_RECORD_BYTES = FIXED_BYTES + 2 * (MAX_VARINT_BYTES + MAX_NAME_BYTES)
+      + 2 * MAX_HASH_BYTES;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * We only have static methods.
+   */
+  private BlockCodec() {
+  } // BlockCodec()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Encode a name, making sure it fits.
+   *
+   * @param name
+   *   The name.
+   *
+   * @return its UTF-8 bytes.
+   */
+  private static byte[] nameBytes(String name) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > MAX_NAME_BYTES) {
+      throw new IllegalArgumentException("Name too long to encode: " + bytes.length + " bytes");
+    } // if
+    return bytes;
+  } // nameBytes(String)
+
+  /**
+   * Check that a hash fits.
+   *
+   * @param hash
+   *   The hash.
+   *
+   * @return its bytes.
+   */
+  private static byte[] hashBytes(Hash hash) {
+    byte[] bytes = hash.getBytes();
+    if (bytes.length > MAX_HASH_BYTES) {
+      throw new IllegalArgumentException("Hash too long to encode: " + bytes.length + " bytes");
+    } // if
+    return bytes;
+  } // hashBytes(Hash)
+
+  /**
+   * Read a name.
+   *
+   * @param buf
+   *   The buffer, positioned at the name's length.
+   *
+   * @return the name.
+   */
+  private static String readName(ByteBuffer buf) {
+    byte[] bytes = new byte[Short.toUnsignedInt(buf.getShort())];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  } // readName(ByteBuffer)
+
+  /**
+   * Read a hash.
+   *
+   * @param buf
+   *   The buffer, positioned at the hash's length.
+   *
+   * @return the hash.
+   */
+  private static Hash readHash(ByteBuffer buf) {
+    byte[] bytes = new byte[Byte.toUnsignedInt(buf.get())];
+    buf.get(bytes);
+    return new Hash(bytes);
+  } // readHash(ByteBuffer)
+
+  /**
+   * Find the length of a varint.
+   *
+   * @param value
+   *   A non-negative value.
+   *
+   * @return the number of bytes in its varint.
+   */
+  private static int varintLength(int value) {
+    int length = 1;
+    while ((value >>>= 7) != 0) {
+      length++;
+    } // while
+    return length;
+  } // varintLength(int)
+
+  /**
+   * Write a varint.
+   *
+   * @param buf
+   *   The buffer.
+   * @param value
+   *   A non-negative value.
+   */
+  private static void putVarint(ByteBuffer buf, int value) {
+    while ((value & ~0x7F) != 0) {
+      buf.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    } // while
+    buf.put((byte) value);
+  } // putVarint(ByteBuffer, int)
+
+  /**
+   * Read a varint.
+   *
+   * @param buf
+   *   The buffer, positioned at the varint.
+   *
+   * @return the value.
+   */
+  private static int getVarint(ByteBuffer buf) {
+    int value = 0;
+    for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+      byte b = buf.get();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      } // if
+    } // for
+    throw new IllegalArgumentException("Varint too long");
+  } // getVarint(ByteBuffer)
+
+  /**
+   * Read a name in a compact record, adding it to the dictionary if the
+   * record defines it.
+   *
+   * @param buf
+   *   The buffer, positioned at the name's id.
+   * @param names
+   *   The reader's dictionary.
+   *
+   * @return the id of the name.
+   */
+  private static int readNameId(ByteBuffer buf, UserDictionary names) {
+    int id = getVarint(buf);
+    int size = names.size();
+    if (id == size) {
+      if (names.idFor(readName(buf)) != id) {
+        throw new IllegalArgumentException("Name " + id + " defined twice");
+      } // if
+    } else if (id < 0 || id > size) {
+      throw new IllegalArgumentException("Name " + id + " not yet defined");
+    } // if
+    return id;
+  } // readNameId(ByteBuffer, UserDictionary)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Encode a block.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return its record.
+   *
+   * @throws IllegalArgumentException
+   *   If a name or hash is too long to encode.
+   */
+  public static byte[] encode(Block blk) {
+    Transaction t = blk.getTransaction();
+    byte[] source = nameBytes(t.getSource());
+    byte[] target = nameBytes(t.getTarget());
+    byte[] prev = hashBytes(blk.getPrevHash());
+    byte[] hash = hashBytes(blk.getHash());
+    ByteBuffer buf = ByteBuffer.allocate(FIXED_BYTES + source.length + target.length
+        + prev.length + hash.length);
+    buf.putInt(blk.getNum());
+    buf.putLong(blk.getNonce());
+    buf.putLong(blk.getTimestamp());
+    buf.putInt(t.getAmount());
+    buf.putShort((short) source.length).put(source);
+    buf.putShort((short) target.length).put(target);
+    buf.put((byte) prev.length).put(prev);
+    buf.put((byte) hash.length).put(hash);
+    return buf.array();
+  } // encode(Block)
+
+  /**
+   * Decode one record, leaving the buffer just past it.
+   *
+   * @param buf
+   *   The buffer, positioned at the start of the record.
+   *
+   * @return the unsealed block.
+   *
+   * @throws java.nio.BufferUnderflowException
+   *   If the buffer ends partway through the record.
+   */
+  public static Block decode(ByteBuffer buf) {
+    int num = buf.getInt();
+    long nonce = buf.getLong();
+    long millis = buf.getLong();
+    int amount = buf.getInt();
+    String source = readName(buf);
+    String target = readName(buf);
+    Hash prev = readHash(buf);
+    Hash hash = readHash(buf);
+    return new Block(num, new Transaction(source, target, amount), prev, millis, nonce,
+        hash);
+  } // decode(ByteBuffer)
+
+  /**
+   * Encode a block as a compact record.
+   *
+   * @param blk
+   *   The block.
+   * @param names
+   *   The writer's dictionary; names new to it are added.
+   *
+   * @return its record.
+   *
+   * @throws IllegalArgumentException
+   *   If a name or hash is too long to encode.
+   */
+  public static byte[] encode(Block blk, UserDictionary names) {
+    Transaction t = blk.getTransaction();
+    String[] parties = {t.getSource(), t.getTarget()};
+    int[] ids = new int[parties.length];
+    byte[][] defined = new byte[parties.length][];
+    int length = FIXED_BYTES - 2 * Short.BYTES;
+    for (int i = 0; i < parties.length; i++) {
+      ids[i] = names.find(parties[i]);
+      if (ids[i] < 0) {
+        defined[i] = nameBytes(parties[i]);
+        ids[i] = names.idFor(parties[i]);
+        length += Short.BYTES + defined[i].length;
+      } // if
+      length += varintLength(ids[i]);
+    } // for
+    byte[] prev = hashBytes(blk.getPrevHash());
+    byte[] hash = hashBytes(blk.getHash());
+    ByteBuffer buf = ByteBuffer.allocate(length + prev.length + hash.length);
+    buf.putInt(blk.getNum());
+    buf.putLong(blk.getNonce());
+    buf.putLong(blk.getTimestamp());
+    buf.putInt(t.getAmount());
+    for (int i = 0; i < parties.length; i++) {
+      putVarint(buf, ids[i]);
+      if (defined[i] != null) {
+        buf.putShort((short) defined[i].length).put(defined[i]);
+      } // if
+    } // for
+    buf.put((byte) prev.length).put(prev);
+    buf.put((byte) hash.length).put(hash);
+    return buf.array();
+  } // encode(Block, UserDictionary)
+
+  /**
+   * Decode one compact record, leaving the buffer just past it.
+   *
+   * @param buf
+   *   The buffer, positioned at the start of the record.
+   * @param names
+   *   The reader's dictionary; names the record defines are added.
+   *
+   * @return the unsealed block, whose transaction shares the
+   *   dictionary's names.
+   *
+   * @throws IllegalArgumentException
+   *   If the record uses a name that was never defined.
+   * @throws java.nio.BufferUnderflowException
+   *   If the buffer ends partway through the record.
+   */
+  public static Block decode(ByteBuffer buf, UserDictionary names) {
+    int num = buf.getInt();
+    long nonce = buf.getLong();
+    long millis = buf.getLong();
+    int amount = buf.getInt();
+    int source = readNameId(buf, names);
+    int target = readNameId(buf, names);
+    Hash prev = readHash(buf);
+    Hash hash = readHash(buf);
+    return new Block(num, names.transaction(source, target, amount), prev, millis, nonce,
+        hash);
+  } // decode(ByteBuffer, UserDictionary)
+} // class BlockCodec
@@ -0,0 +1,39 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * Things that compute block hashes. A block's hash is the SHA-256 digest
+ * of its number (4 bytes), the commitment to its transaction (32 bytes,
+ * see Transaction.commitment), the previous hash, its timestamp (8
+ * bytes), and its nonce (8 bytes), in that order, with numbers
+ * big-endian. Since the transaction only enters through its
+ * commitment, a BlockHeader is enough to recompute the hash. Every
+ * implementation must give the same hash for the same block.
+ *
+ * @author Andrew Fargo
+ */
+public interface BlockDigest {
+  /**
+   * Compute the hash of a block's contents.
+   *
+   * @param num
+   *   The number of the block.
+   * @param commitment
+   *   The commitment to the transaction in the block.
+   * @param prevHash
+   *   The hash of the previous block.
+   * @param millis
+   *   The timestamp of the block.
+   * @param nonce
+   *   The nonce of the block.
+   *
+   * @return the hash.
+   */
+  Hash hash(int num, byte[] commitment, Hash prevHash, long millis, long nonce);
+
+  /**
+   * Get a short name for this digest, for reports.
+   *
+   * @return the name.
+   */
+  String name();
+} // interface BlockDigest
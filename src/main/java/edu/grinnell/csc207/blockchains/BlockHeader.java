@@ -0,0 +1,231 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * Everything about a block except its transaction: the number, the
+ * previous hash, a commitment to the transaction, the timestamp, the
+ * nonce, and the hash. Block hashes cover the commitment rather than the transaction,
+ * so a header can be checked on its own: computeHash recomputes the hash
+ * from the other fields, which is enough to follow the proof of work
+ * and the links of a chain. The commitment lets us check a transaction
+ * fetched later against the header without trusting whoever sent it.
+ *
+ * See Transaction.commitment for how commitments are computed.
+ *
+ * @author Andrew Fargo
+ */
+public final class BlockHeader {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of bytes in a commitment.
+   */
+  public static final int COMMITMENT_BYTES = Transaction.COMMITMENT_BYTES;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of the block.
+   */
+  private final int num;
+
+  /**
+   * The hash of the previous block.
+   */
+  private final Hash prevHash;
+
+  /**
+   * The commitment to the block's transaction.
+   */
+  private final Hash commitment;
+
+  /**
+   * The timestamp of the block.
+   */
+  private final long timestamp;
+
+  /**
+   * The nonce of the block.
+   */
+  private final long nonce;
+
+  /**
+   * The hash of the block.
+   */
+  private final Hash hash;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a header.
+   *
+   * @param blockNum
+   *   The number of the block.
+   * @param prev
+   *   The hash of the previous block.
+   * @param committed
+   *   The commitment to the block's transaction.
+   * @param millis
+   *   The timestamp of the block.
+   * @param nonceVal
+   *   The nonce of the block.
+   * @param blockHash
+   *   The hash of the block.
+   */
+  public BlockHeader(int blockNum, Hash prev, Hash committed, long millis, long nonceVal,
+      Hash blockHash) {
+    this.num = blockNum;
+    this.prevHash = prev;
+    this.commitment = committed;
+    this.timestamp = millis;
+    this.nonce = nonceVal;
+    this.hash = blockHash;
+  } // BlockHeader(int, Hash, Hash, long, long, Hash)
+
+  /**
+   * Get the header of a block.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return its header.
+   */
+  public static BlockHeader of(Block blk) {
+    return new BlockHeader(blk.getNum(), blk.getPrevHash(), commitment(blk.getTransaction()),
+        blk.getTimestamp(), blk.getNonce(), blk.getHash());
+  } // of(Block)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Compute the commitment to a transaction.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return its commitment.
+   */
+  public static Hash commitment(Transaction t) {
+    return new Hash(t.commitment());
+  } // commitment(Transaction)
+
+  /**
+   * Recompute the hash of the block from the header's other fields.
+   * A header is only genuine if this equals getHash.
+   *
+   * @return the hash.
+   */
+  public Hash computeHash() {
+    return Block.getDigest().hash(this.num, this.commitment.getBytes(), this.prevHash,
+        this.timestamp, this.nonce);
+  } // computeHash()
+
+  /**
+   * Determine whether a transaction is the one this header commits to.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return true if it is.
+   */
+  public boolean commitsTo(Transaction t) {
+    return this.commitment.equals(commitment(t));
+  } // commitsTo(Transaction)
+
+  /**
+   * Rebuild the full block from this header and its transaction. The
+   * block's hash is recomputed, so the result is only returned if the
+   * header's hash really is the hash of that block.
+   *
+   * @param t
+   *   The block's transaction.
+   *
+   * @return the sealed block.
+   *
+   * @throws IllegalArgumentException
+   *   If the header does not commit to t or its hash is not the hash of
+   *   the block.
+   */
+  public Block withBody(Transaction t) {
+    if (!commitsTo(t)) {
+      throw new IllegalArgumentException("Block " + this.num + " does not commit to " + t);
+    } // if
+    Block blk = new Block(this.num, t, this.prevHash, this.timestamp, this.nonce, this.hash);
+    if (!blk.verify()) {
+      throw new IllegalArgumentException("Block " + this.num + " does not hash to its hash");
+    } // if
+    return blk;
+  } // withBody(Transaction)
+
+  /**
+   * Get the number of the block.
+   *
+   * @return the number.
+   */
+  public int getNum() {
+    return this.num;
+  } // getNum()
+
+  /**
+   * Get the hash of the previous block.
+   *
+   * @return the previous hash.
+   */
+  public Hash getPrevHash() {
+    return this.prevHash;
+  } // getPrevHash()
+
+  /**
+   * Get the commitment to the block's transaction.
+   *
+   * @return the commitment.
+   */
+  public Hash getCommitment() {
+    return this.commitment;
+  } // getCommitment()
+
+  /**
+   * Get the timestamp of the block.
+   *
+   * @return the timestamp, in milliseconds since the epoch, or 0.
+   */
+  public long getTimestamp() {
+    return this.timestamp;
+  } // getTimestamp()
+
+  /**
+   * Get the nonce of the block.
+   *
+   * @return the nonce.
+   */
+  public long getNonce() {
+    return this.nonce;
+  } // getNonce()
+
+  /**
+   * Get the hash of the block.
+   *
+   * @return the hash.
+   */
+  public Hash getHash() {
+    return this.hash;
+  } // getHash()
+
+  /**
+   * Convert the header to a string.
+   *
+   * @return a string representation of the header.
+   */
+  public String toString() {
+    return String.format(
+        "Header %d (Commitment: %s, Timestamp: %d, Nonce: %d prevHash: %s, hash: %s)",
+        this.num, this.commitment, this.timestamp, this.nonce, this.prevHash, this.hash);
+  } // toString()
+} // class BlockHeader
@@ -0,0 +1,119 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over a range of heights in a chain. It splits at the
+ * middle height, so parallel streams divide the chain into even
+ * height ranges.
+ *
+ * @author Andrew Fargo
+ */
+class BlockSpliterator implements Spliterator<Block> {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The blocks, indexed by height. We never modify the store.
+   */
+  private final BlockStore blocks;
+
+  /**
+   * The next height to visit.
+   */
+  private int next;
+
+  /**
+   * The height just past the end of our range.
+   */
+  private final int end;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a spliterator over heights [from, to).
+   *
+   * @param byHeight
+   *   The store holding the blocks.
+   * @param from
+   *   The first height.
+   * @param to
+   *   The height just past the last one.
+   */
+  BlockSpliterator(BlockStore byHeight, int from, int to) {
+    this.blocks = byHeight;
+    this.next = from;
+    this.end = to;
+  } // BlockSpliterator(BlockStore, int, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Visit the next block, if any.
+   *
+   * @param action
+   *   What to do with it.
+   *
+   * @return true if there was a block to visit.
+   */
+  public boolean tryAdvance(Consumer<? super Block> action) {
+    if (this.next >= this.end) {
+      return false;
+    } // if
+    action.accept(this.blocks.get(this.next++));
+    return true;
+  } // tryAdvance(Consumer)
+
+  /**
+   * Visit every remaining block.
+   *
+   * @param action
+   *   What to do with them.
+   */
+  public void forEachRemaining(Consumer<? super Block> action) {
+    int stop = this.end;
+    for (int i = this.next; i < stop; i++) {
+      action.accept(this.blocks.get(i));
+    } // for
+    this.next = stop;
+  } // forEachRemaining(Consumer)
+
+  /**
+   * Hand off the lower half of our remaining heights.
+   *
+   * @return a spliterator for the lower half, or null if too few remain.
+   */
+  public Spliterator<Block> trySplit() {
+    int mid = (this.next + this.end) >>> 1;
+    if (mid <= this.next) {
+      return null;
+    } // if
+    BlockSpliterator lower = new BlockSpliterator(this.blocks, this.next, mid);
+    this.next = mid;
+    return lower;
+  } // trySplit()
+
+  /**
+   * Get the number of blocks left.
+   *
+   * @return the exact number of remaining blocks.
+   */
+  public long estimateSize() {
+    return this.end - this.next;
+  } // estimateSize()
+
+  /**
+   * Describe this spliterator.
+   *
+   * @return its characteristics.
+   */
+  public int characteristics() {
+    return SIZED | SUBSIZED | ORDERED | NONNULL;
+  } // characteristics()
+} // class BlockSpliterator
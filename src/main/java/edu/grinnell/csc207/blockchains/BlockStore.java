@@ -0,0 +1,45 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * Where a chain keeps its blocks. Stores hold the blocks of one chain,
+ * indexed by height, and only ever grow or shrink at the end. Blocks are
+ * checked before they are added, but not always hashed: blocks loaded
+ * against trusted checkpoints are added unsealed. Stores that keep the
+ * blocks they are given hand back the same objects, sealed or not.
+ * Stores that rebuild blocks hand them back sealed only if they were
+ * sealed when added in this process; blocks read from files written by
+ * other processes come back unsealed, so the chain hashes them again.
+ *
+ * @author Andrew Fargo
+ */
+public interface BlockStore {
+  /**
+   * Get the number of blocks in the store.
+   *
+   * @return the number of blocks.
+   */
+  int size();
+
+  /**
+   * Get the block at a height.
+   *
+   * @param height
+   *   A height between 0 (inclusive) and size() (exclusive).
+   *
+   * @return the block at that height.
+   */
+  Block get(int height);
+
+  /**
+   * Add a verified block at height size().
+   *
+   * @param blk
+   *   The block to add.
+   */
+  void add(Block blk);
+
+  /**
+   * Remove the block at height size() - 1.
+   */
+  void removeLast();
+} // interface BlockStore
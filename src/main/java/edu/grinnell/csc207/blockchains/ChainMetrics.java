@@ -0,0 +1,496 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime metrics for a blockchain, published through JMX. Mining
+ * counters are shared by every block in the process (blocks do not know
+ * their chain); append, check, and size metrics belong to one chain.
+ * Counters are striped LongAdders so that recording stays cheap on hot
+ * paths.
+ *
+ * @author Andrew Fargo
+ */
+public class ChainMetrics implements ChainMetricsMBean {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The JMX domain for our MBeans.
+   */
+  public static final String DOMAIN = "edu.grinnell.csc207.blockchains";
+
+  /**
+   * Nanoseconds in a millisecond.
+   */
+  static final double NANOS_PER_MILLI = 1_000_000.0;
+
+  /**
+   * How often rate meters take a snapshot, in nanoseconds.
+   */
+  static final long RATE_PERIOD_NANOS = 1_000_000_000L;
+
+  /**
+   * Upper bounds (exclusive, in milliseconds) of the mining latency
+   * buckets. Anything slower lands in one final bucket.
+   */
+  static final long[] LATENCY_BOUNDS = {1, 4, 16, 64, 256, 1024, 4096, 16384, 65536};
+
+  /**
+   * Reasons an appended block may be rejected.
+   */
+  public enum Rejection {
+    /** The block's previous hash is not the hash of the last block. */
+    PREVIOUS_HASH,
+    /** The block's hash is not accepted by the validator. */
+    INVALID_HASH,
+    /** The block's hash does not match its contents. */
+    HASH_MISMATCH,
+    /** The block's timestamp is earlier than the last block's. */
+    TIMESTAMP,
+    /** The block's timestamp is too far past the clock. */
+    FUTURE_TIMESTAMP
+  } // enum Rejection
+
+  // +---------------+-----------------------------------------------
+  // | Static fields |
+  // +---------------+
+
+  /**
+   * Hashes computed while mining.
+   */
+  private static final LongAdder HASH_ATTEMPTS = new LongAdder();
+
+  /**
+   * Blocks mined.
+   */
+  private static final LongAdder BLOCKS_MINED = new LongAdder();
+
+  /**
+   * Blocks mined, by latency bucket.
+   */
+  private static final LongAdder[] MINING_LATENCY = newAdders(LATENCY_BOUNDS.length + 1);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The chain we report on.
+   */
+  private final BlockChain chain;
+
+  /**
+   * Successful appends.
+   */
+  private final LongAdder appends = new LongAdder();
+
+  /**
+   * Rejected appends, indexed by the ordinal of the reason.
+   */
+  private final LongAdder[] rejections = newAdders(Rejection.values().length);
+
+  /**
+   * Calls to check().
+   */
+  private final LongAdder checks = new LongAdder();
+
+  /**
+   * Calls to check() that threw.
+   */
+  private final LongAdder failedChecks = new LongAdder();
+
+  /**
+   * Total time spent in check(), in nanoseconds.
+   */
+  private final LongAdder checkNanos = new LongAdder();
+
+  /**
+   * Duration of the latest check(), in nanoseconds.
+   */
+  private volatile long lastCheckNanos;
+
+  /**
+   * Tracks the mining rate.
+   */
+  private final RateMeter hashRate = new RateMeter();
+
+  /**
+   * Tracks the append rate.
+   */
+  private final RateMeter appendRate = new RateMeter();
+
+  /**
+   * The name we are registered under, if any.
+   */
+  private ObjectName registeredName;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create metrics for a chain.
+   *
+   * @param reported
+   *   The chain whose size and ledger we report.
+   */
+  ChainMetrics(BlockChain reported) {
+    this.chain = reported;
+  } // ChainMetrics(BlockChain)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Make an array of fresh adders.
+   *
+   * @param n
+   *   The number of adders.
+   *
+   * @return the new adders.
+   */
+  private static LongAdder[] newAdders(int n) {
+    LongAdder[] adders = new LongAdder[n];
+    for (int i = 0; i < n; i++) {
+      adders[i] = new LongAdder();
+    } // for
+    return adders;
+  } // newAdders(int)
+
+  /**
+   * Read a row of adders.
+   *
+   * @param adders
+   *   The adders to read.
+   *
+   * @return their current sums.
+   */
+  private static long[] sums(LongAdder[] adders) {
+    long[] result = new long[adders.length];
+    for (int i = 0; i < adders.length; i++) {
+      result[i] = adders[i].sum();
+    } // for
+    return result;
+  } // sums(LongAdder[])
+
+  /**
+   * Find the latency bucket for a duration.
+   *
+   * @param nanos
+   *   The duration, in nanoseconds.
+   *
+   * @return the index of the bucket.
+   */
+  static int bucketFor(long nanos) {
+    long millis = nanos / (long) NANOS_PER_MILLI;
+    int i = 0;
+    while (i < LATENCY_BOUNDS.length && millis >= LATENCY_BOUNDS[i]) {
+      i++;
+    } // while
+    return i;
+  } // bucketFor(long)
+
+  // +-----------+---------------------------------------------------
+  // | Recording |
+  // +-----------+
+
+  /**
+   * Record that a block was mined.
+   *
+   * @param attempts
+   *   The number of hashes computed.
+   * @param nanos
+   *   How long mining took, in nanoseconds.
+   */
+  static void recordMining(long attempts, long nanos) {
+    recordAttempts(attempts);
+    recordBlockMined(nanos);
+  } // recordMining(long, long)
+
+  /**
+   * Record hashes computed while mining, whether or not they found a
+   * block.
+   *
+   * @param attempts
+   *   The number of hashes computed.
+   */
+  static void recordAttempts(long attempts) {
+    HASH_ATTEMPTS.add(attempts);
+  } // recordAttempts(long)
+
+  /**
+   * Record that a block was found.
+   *
+   * @param nanos
+   *   How long mining took, in nanoseconds.
+   */
+  static void recordBlockMined(long nanos) {
+    BLOCKS_MINED.increment();
+    MINING_LATENCY[bucketFor(nanos)].increment();
+  } // recordBlockMined(long)
+
+  /**
+   * Record a successful append.
+   */
+  void recordAppend() {
+    this.appends.increment();
+  } // recordAppend()
+
+  /**
+   * Record a rejected append.
+   *
+   * @param reason
+   *   Why the block was rejected.
+   */
+  void recordRejection(Rejection reason) {
+    this.rejections[reason.ordinal()].increment();
+  } // recordRejection(Rejection)
+
+  /**
+   * Record a call to check().
+   *
+   * @param nanos
+   *   How long the check took, in nanoseconds.
+   * @param ok
+   *   Whether the chain checked out.
+   */
+  void recordCheck(long nanos, boolean ok) {
+    this.checks.increment();
+    this.checkNanos.add(nanos);
+    this.lastCheckNanos = nanos;
+    if (!ok) {
+      this.failedChecks.increment();
+    } // if
+  } // recordCheck(long, boolean)
+
+  // +--------------+------------------------------------------------
+  // | Registration |
+  // +--------------+
+
+  /**
+   * Publish these metrics in the platform MBean server.
+   *
+   * @param name
+   *   A name that distinguishes this chain from others in the process.
+   *
+   * @return the name the MBean was registered under.
+   *
+   * @throws JMException
+   *   If the name is malformed or already taken.
+   */
+  public synchronized ObjectName register(String name) throws JMException {
+    ObjectName objectName =
+        new ObjectName(DOMAIN + ":type=BlockChain,name=" + ObjectName.quote(name));
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    server.registerMBean(this, objectName);
+    this.registeredName = objectName;
+    return objectName;
+  } // register(String)
+
+  /**
+   * Remove these metrics from the platform MBean server, if registered.
+   *
+   * @throws JMException
+   *   If the MBean server refuses.
+   */
+  public synchronized void unregister() throws JMException {
+    if (this.registeredName != null) {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.registeredName);
+      this.registeredName = null;
+    } // if
+  } // unregister()
+
+  // +------------+--------------------------------------------------
+  // | Attributes |
+  // +------------+
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getHashAttempts() {
+    return HASH_ATTEMPTS.sum();
+  } // getHashAttempts()
+
+  /**
+   * {@inheritDoc}
+   */
+  public double getHashAttemptsPerSecond() {
+    return this.hashRate.read(HASH_ATTEMPTS.sum());
+  } // getHashAttemptsPerSecond()
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getBlocksMined() {
+    return BLOCKS_MINED.sum();
+  } // getBlocksMined()
+
+  /**
+   * {@inheritDoc}
+   */
+  public long[] getMiningLatencyBucketsMillis() {
+    return LATENCY_BOUNDS.clone();
+  } // getMiningLatencyBucketsMillis()
+
+  /**
+   * {@inheritDoc}
+   */
+  public long[] getMiningLatencyHistogram() {
+    return sums(MINING_LATENCY);
+  } // getMiningLatencyHistogram()
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getAppends() {
+    return this.appends.sum();
+  } // getAppends()
+
+  /**
+   * {@inheritDoc}
+   */
+  public double getAppendsPerSecond() {
+    return this.appendRate.read(this.appends.sum());
+  } // getAppendsPerSecond()
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getRejectedPreviousHash() {
+    return this.rejections[Rejection.PREVIOUS_HASH.ordinal()].sum();
+  } // getRejectedPreviousHash()
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getRejectedInvalidHash() {
+    return this.rejections[Rejection.INVALID_HASH.ordinal()].sum();
+  } // getRejectedInvalidHash()
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getRejectedHashMismatch() {
+    return this.rejections[Rejection.HASH_MISMATCH.ordinal()].sum();
+  } // getRejectedHashMismatch()
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getRejectedTimestamp() {
+    return this.rejections[Rejection.TIMESTAMP.ordinal()].sum();
+  } // getRejectedTimestamp()
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getRejectedFutureTimestamp() {
+    return this.rejections[Rejection.FUTURE_TIMESTAMP.ordinal()].sum();
+  } // getRejectedFutureTimestamp()
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getChecks() {
+    return this.checks.sum();
+  } // getChecks()
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getFailedChecks() {
+    return this.failedChecks.sum();
+  } // getFailedChecks()
+
+  /**
+   * {@inheritDoc}
+   */
+  public double getLastCheckMillis() {
+    return this.lastCheckNanos / NANOS_PER_MILLI;
+  } // getLastCheckMillis()
+
+  /**
+   * {@inheritDoc}
+   */
+  public double getMeanCheckMillis() {
+    long n = this.checks.sum();
+    return (n == 0) ? 0 : this.checkNanos.sum() / NANOS_PER_MILLI / n;
+  } // getMeanCheckMillis()
+
+  /**
+   * {@inheritDoc}
+   */
+  public int getChainSize() {
+    return this.chain.getSize();
+  } // getChainSize()
+
+  /**
+   * {@inheritDoc}
+   */
+  public int getAccountCount() {
+    return this.chain.getAccountCount();
+  } // getAccountCount()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * Turns a growing count into a rate. We snapshot the count on a fixed
+   * clock, once per RATE_PERIOD_NANOS at the first reading after each
+   * tick, and report the rate since the snapshot before the latest one.
+   * Readings never reset the meter, so every JMX client sees the same
+   * rate however often any of them reads; when the meter is read at
+   * least once a period, the rate covers the last one to two periods.
+   */
+  static class RateMeter {
+    /** The count at the older snapshot. */
+    private long olderCount;
+    /** The time of the older snapshot, in nanoseconds. */
+    private long olderNanos = System.nanoTime();
+    /** The count at the newer snapshot. */
+    private long newerCount;
+    /** The time of the newer snapshot, in nanoseconds. */
+    private long newerNanos = this.olderNanos;
+
+    /**
+     * Compute the recent rate.
+     *
+     * @param count
+     *   The current count.
+     *
+     * @return the change in count per second.
+     */
+    double read(long count) {
+      return read(count, System.nanoTime());
+    } // read(long)
+
+    /**
+     * Compute the recent rate at a particular time.
+     *
+     * @param count
+     *   The current count.
+     * @param now
+     *   The current time, in nanoseconds.
+     *
+     * @return the change in count per second.
+     */
+    synchronized double read(long count, long now) {
+      if (now - this.newerNanos >= RATE_PERIOD_NANOS) {
+        this.olderCount = this.newerCount;
+        this.olderNanos = this.newerNanos;
+        this.newerCount = count;
+        this.newerNanos = now;
+      } // if
+      double seconds = (now - this.olderNanos) / (NANOS_PER_MILLI * 1000);
+      return (seconds <= 0) ? 0 : (count - this.olderCount) / seconds;
+    } // read(long, long)
+  } // class RateMeter
+} // class ChainMetrics
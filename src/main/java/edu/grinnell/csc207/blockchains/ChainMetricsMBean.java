@@ -0,0 +1,141 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * The management interface for blockchain metrics, as seen from JMX
+ * clients such as JConsole.
+ *
+ * @author Andrew Fargo
+ */
+public interface ChainMetricsMBean {
+  /**
+   * Get the total number of hashes computed while mining, across all
+   * blocks in this process.
+   *
+   * @return the total number of hash attempts.
+   */
+  long getHashAttempts();
+
+  /**
+   * Get the recent mining rate.
+   *
+   * @return the hash attempts per second since the previous reading.
+   */
+  double getHashAttemptsPerSecond();
+
+  /**
+   * Get the number of blocks mined in this process.
+   *
+   * @return the number of blocks mined.
+   */
+  long getBlocksMined();
+
+  /**
+   * Get the upper bounds of the mining latency histogram buckets.
+   *
+   * @return the bucket bounds, in milliseconds.
+   */
+  long[] getMiningLatencyBucketsMillis();
+
+  /**
+   * Get the mining latency histogram. Entry i counts blocks whose mining
+   * took less than bucket i's bound (and at least the previous bound);
+   * the last entry counts everything slower.
+   *
+   * @return the number of blocks mined in each latency bucket.
+   */
+  long[] getMiningLatencyHistogram();
+
+  /**
+   * Get the number of blocks appended to this chain.
+   *
+   * @return the number of successful appends.
+   */
+  long getAppends();
+
+  /**
+   * Get the recent append rate.
+   *
+   * @return the appends per second since the previous reading.
+   */
+  double getAppendsPerSecond();
+
+  /**
+   * Get the number of appends rejected for a bad previous hash.
+   *
+   * @return the number of rejections.
+   */
+  long getRejectedPreviousHash();
+
+  /**
+   * Get the number of appends rejected for a hash the validator refused.
+   *
+   * @return the number of rejections.
+   */
+  long getRejectedInvalidHash();
+
+  /**
+   * Get the number of appends rejected for a hash that does not match
+   * the block's contents.
+   *
+   * @return the number of rejections.
+   */
+  long getRejectedHashMismatch();
+
+  /**
+   * Get the number of appends rejected on a retargeting chain for a
+   * timestamp earlier than the last block's.
+   *
+   * @return the number of rejections.
+   */
+  long getRejectedTimestamp();
+
+  /**
+   * Get the number of appends rejected on a retargeting chain for a
+   * timestamp too far past the clock.
+   *
+   * @return the number of rejections.
+   */
+  long getRejectedFutureTimestamp();
+
+  /**
+   * Get the number of calls to check().
+   *
+   * @return the number of checks.
+   */
+  long getChecks();
+
+  /**
+   * Get the number of calls to check() that found a problem.
+   *
+   * @return the number of failed checks.
+   */
+  long getFailedChecks();
+
+  /**
+   * Get how long the most recent check() took.
+   *
+   * @return the duration, in milliseconds.
+   */
+  double getLastCheckMillis();
+
+  /**
+   * Get the average time check() takes.
+   *
+   * @return the mean duration, in milliseconds.
+   */
+  double getMeanCheckMillis();
+
+  /**
+   * Get the number of blocks in the chain.
+   *
+   * @return the chain size.
+   */
+  int getChainSize();
+
+  /**
+   * Get the number of accounts in the ledger.
+   *
+   * @return the number of users.
+   */
+  int getAccountCount();
+} // interface ChainMetricsMBean
@@ -0,0 +1,547 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * The follower's side of chain synchronization with a SyncServer. A
+ * follower first finds the height at which its chain and the leader's
+ * part ways, probing many heights per round trip, and drops its own
+ * blocks from there up. It then pulls the leader's blocks in batches,
+ * keeping several requests outstanding so the leader is never waiting
+ * on us, and verifies and appends each batch as it arrives.
+ *
+ * The protocol is binary over one TCP connection. The follower opens
+ * with MAGIC and VERSION; the leader answers with the same and its
+ * chain size. Each request is an opcode followed by its arguments.
+ *
+ * <pre>
+ *   HASHES n h1 ... hn   answered by n hashes (1-byte length, bytes);
+ *                        heights past the end get an empty hash
+ *   BLOCKS from count    answered by a count and that many
+ *                        length-prefixed BlockCodec records; fewer
+ *                        than asked if the chain ends first
+ *   BYE                  ends the conversation
+ * </pre>
+ *
+ * Blocks are checked with the follower's own validators, so a
+ * retargeting follower checks each block at the difficulty its chain
+ * computes from the blocks' timestamps. A follower must not change while
+ * it syncs.
+ *
+ * @author Andrew Fargo
+ */
+public class ChainSync {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * Opens every conversation.
+   */
+  static final int MAGIC = 0x53594E31;
+
+  /**
+   * The version of the protocol we speak. Version 1 peers hash blocks
+   * without commitments, and version 2 peers without timestamps.
+   */
+  static final int VERSION = 3;
+
+  /**
+   * Ends a conversation.
+   */
+  static final int BYE = 0;
+
+  /**
+   * Asks for the hashes at some heights.
+   */
+  static final int HASHES = 1;
+
+  /**
+   * Asks for a run of blocks.
+   */
+  static final int BLOCKS = 2;
+
+  /**
+   * The most heights we probe in one request.
+   */
+  static final int MAX_PROBES = 64;
+
+  /**
+   * The most blocks the leader sends for one request.
+   */
+  static final int MAX_BATCH = 8192;
+
+  /**
+   * The number of blocks we ask for at once, by default.
+   */
+  public static final int DEFAULT_BATCH = 1024;
+
+  /**
+   * The number of requests we keep outstanding, by default.
+   */
+  public static final int DEFAULT_WINDOW = 4;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * We only have static methods.
+   */
+  private ChainSync() {
+  } // ChainSync()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Ask the leader for the hashes at some heights.
+   *
+   * @param in
+   *   The leader's replies.
+   * @param out
+   *   Our requests.
+   * @param heights
+   *   The heights.
+   *
+   * @return the hashes, empty for heights past the end of its chain.
+   *
+   * @throws IOException
+   *   If the conversation fails.
+   */
+  static Hash[] probe(DataInputStream in, DataOutputStream out, int[] heights)
+      throws IOException {
+    out.writeByte(HASHES);
+    out.writeInt(heights.length);
+    for (int height : heights) {
+      out.writeInt(height);
+    } // for
+    out.flush();
+    Hash[] hashes = new Hash[heights.length];
+    for (int i = 0; i < hashes.length; i++) {
+      byte[] bytes = new byte[in.readUnsignedByte()];
+      in.readFully(bytes);
+      hashes[i] = new Hash(bytes);
+    } // for
+    return hashes;
+  } // probe(DataInputStream, DataOutputStream, int[])
+
+  /**
+   * Find the number of blocks the follower shares with the leader.
+   *
+   * @param follower
+   *   The follower.
+   * @param in
+   *   The leader's replies.
+   * @param out
+   *   Our requests.
+   * @param leaderSize
+   *   The size of the leader's chain.
+   *
+   * @return the height of the first block that differs.
+   *
+   * @throws IOException
+   *   If the conversation fails or the chains share no initial block.
+   */
+  static int findFork(BlockChain follower, DataInputStream in, DataOutputStream out,
+      int leaderSize) throws IOException {
+    int common = Math.min(follower.getSize(), leaderSize);
+    // lo is known to match and hi known to differ; first try the ends.
+    Hash[] ends = probe(in, out, new int[] {0, common - 1});
+    if (!ends[0].equals(follower.store.get(0).getHash())) {
+      throw new IOException("The leader's chain has a different initial block");
+    } else if (ends[1].equals(follower.store.get(common - 1).getHash())) {
+      return common;
+    } // if
+    int lo = 0;
+    int hi = common - 1;
+    while (hi - lo > 1) {
+      int probes = Math.min(MAX_PROBES, hi - lo - 1);
+      int[] heights = new int[probes];
+      for (int i = 0; i < probes; i++) {
+        heights[i] = lo + (int) ((long) (hi - lo) * (i + 1) / (probes + 1));
+      } // for
+      Hash[] hashes = probe(in, out, heights);
+      int newLo = lo;
+      int newHi = hi;
+      for (int i = 0; i < probes; i++) {
+        if (hashes[i].equals(follower.store.get(heights[i]).getHash())) {
+          newLo = heights[i];
+        } else {
+          newHi = heights[i];
+          break;
+        } // if-else
+      } // for
+      lo = newLo;
+      hi = newHi;
+    } // while
+    return hi;
+  } // findFork(BlockChain, DataInputStream, DataOutputStream, int)
+
+  /**
+   * Ask for a run of blocks, without waiting for them.
+   *
+   * @param out
+   *   Our requests.
+   * @param from
+   *   The first height.
+   * @param count
+   *   The number of blocks.
+   *
+   * @throws IOException
+   *   If the request cannot be sent.
+   */
+  static void request(DataOutputStream out, int from, int count) throws IOException {
+    out.writeByte(BLOCKS);
+    out.writeInt(from);
+    out.writeInt(count);
+  } // request(DataOutputStream, int, int)
+
+  /**
+   * Open a conversation with a leader.
+   *
+   * @param in
+   *   The leader's replies.
+   * @param out
+   *   Our requests.
+   *
+   * @return the size of the leader's chain.
+   *
+   * @throws IOException
+   *   If the leader does not speak our protocol.
+   */
+  static int hello(DataInputStream in, DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.flush();
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Not a chain sync server");
+    } // if
+    return in.readInt();
+  } // hello(DataInputStream, DataOutputStream)
+
+  /**
+   * Pull the leader's blocks from the fork up and append them.
+   *
+   * @param follower
+   *   The follower, whose size is the fork height.
+   * @param in
+   *   The leader's replies.
+   * @param out
+   *   Our requests.
+   * @param leaderSize
+   *   The size of the leader's chain.
+   * @param batchSize
+   *   The number of blocks to ask for at once.
+   * @param window
+   *   The number of requests to keep outstanding.
+   *
+   * @return the number of blocks appended.
+   *
+   * @throws Exception
+   *   If the conversation fails or a block is invalid.
+   */
+  static int pull(BlockChain follower, DataInputStream in, DataOutputStream out,
+      int leaderSize, int batchSize, int window) throws Exception {
+    int next = follower.getSize();
+    int requested = next;
+    int outstanding = 0;
+    boolean ended = false;
+    Block[] batch = new Block[batchSize];
+    while (outstanding < window && requested < leaderSize) {
+      int count = Math.min(batchSize, leaderSize - requested);
+      request(out, requested, count);
+      requested += count;
+      outstanding++;
+    } // while
+    out.flush();
+    int appended = 0;
+    while (outstanding > 0) {
+      int n = in.readInt();
+      if (n > batchSize) {
+        throw new IOException("Leader sent " + n + " blocks for a batch of " + batchSize);
+      } // if
+      for (int i = 0; i < n; i++) {
+        batch[i] = ChainTransfer.readRecord(in);
+      } // for
+      outstanding--;
+      if (ended) {
+        // The leader's chain shrank under an earlier request, so later
+        // replies no longer start where we are.
+        continue;
+      } // if
+      ChainTransfer.verifyBatch(follower, follower.store.get(next - 1), batch, n, next,
+          null, -1);
+      for (int i = 0; i < n; i++) {
+        follower.append(batch[i]);
+      } // for
+      int expected = Math.min(batchSize, leaderSize - next);
+      next += n;
+      appended += n;
+      if (n < expected) {
+        ended = true;
+      } else if (requested < leaderSize) {
+        int count = Math.min(batchSize, leaderSize - requested);
+        request(out, requested, count);
+        out.flush();
+        requested += count;
+        outstanding++;
+      } // if
+    } // while
+    return appended;
+  } // pull(BlockChain, DataInputStream, DataOutputStream, int, int, int)
+
+  /**
+   * Open a conversation with a leader, run it, and say goodbye.
+   *
+   * @param leader
+   *   Where the leader's SyncServer listens.
+   * @param conversation
+   *   What to say once the leader has told us its size.
+   *
+   * @return what the conversation returns.
+   *
+   * @throws Exception
+   *   If the conversation fails.
+   */
+  static <T> T converse(InetSocketAddress leader, Conversation<T> conversation)
+      throws Exception {
+    try (Socket socket = new Socket(leader.getAddress(), leader.getPort())) {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          socket.getInputStream(), ChainTransfer.BUFFER_SIZE));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          socket.getOutputStream(), ChainTransfer.BUFFER_SIZE));
+      T result = conversation.run(in, out, hello(in, out));
+      out.writeByte(BYE);
+      out.flush();
+      return result;
+    } // try
+  } // converse(InetSocketAddress, Conversation<T>)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Bring a chain up to date with a leader.
+   *
+   * @param follower
+   *   The chain to update. It must share its initial block with the
+   *   leader's chain.
+   * @param leader
+   *   Where the leader's SyncServer listens.
+   * @param batchSize
+   *   The number of blocks to ask for at once, at most MAX_BATCH.
+   * @param window
+   *   The number of requests to keep outstanding.
+   *
+   * @return how the sync went.
+   *
+   * @throws IOException
+   *   If the conversation fails or the chains share no initial block.
+   * @throws IllegalStateException
+   *   If we would have to remove a pruned block.
+   * @throws Exception
+   *   If the leader sends an invalid block. The blocks before it stay
+   *   appended.
+   */
+  public static Report sync(BlockChain follower, InetSocketAddress leader, int batchSize,
+      int window) throws Exception {
+    if (batchSize < 1 || batchSize > MAX_BATCH || window < 1) {
+      throw new IllegalArgumentException("Invalid batch size or window");
+    } // if
+    long start = System.nanoTime();
+    return converse(leader, (in, out, leaderSize) -> {
+      int fork = findFork(follower, in, out, leaderSize);
+      int removed = 0;
+      while (follower.getSize() > fork) {
+        follower.removeLast();
+        removed++;
+      } // while
+      int appended = pull(follower, in, out, leaderSize, batchSize, window);
+      return new Report(follower, fork, removed, appended, System.nanoTime() - start);
+    });
+  } // sync(BlockChain, InetSocketAddress, int, int)
+
+  /**
+   * Bring a chain up to date with a leader, with the default batch size
+   * and window.
+   *
+   * @param follower
+   *   The chain to update.
+   * @param leader
+   *   Where the leader's SyncServer listens.
+   *
+   * @return how the sync went.
+   *
+   * @throws Exception
+   *   If the sync fails; see sync(BlockChain, InetSocketAddress, int, int).
+   */
+  public static Report sync(BlockChain follower, InetSocketAddress leader) throws Exception {
+    return sync(follower, leader, DEFAULT_BATCH, DEFAULT_WINDOW);
+  } // sync(BlockChain, InetSocketAddress)
+
+  /**
+   * Start a new chain from a leader's initial block and bring it up to
+   * date.
+   *
+   * @param leader
+   *   Where the leader's SyncServer listens.
+   * @param check
+   *   The validator the chain uses.
+   * @param store
+   *   An empty store for the blocks.
+   *
+   * @return how the sync went, including the new chain.
+   *
+   * @throws Exception
+   *   If the leader's initial block is invalid or the sync fails.
+   */
+  public static Report follow(InetSocketAddress leader, HashValidator check, BlockStore store)
+      throws Exception {
+    long start = System.nanoTime();
+    Block initial = converse(leader, (in, out, leaderSize) -> {
+      request(out, 0, 1);
+      out.flush();
+      if (in.readInt() != 1) {
+        throw new IOException("The leader has no initial block");
+      } // if
+      return ChainTransfer.readRecord(in);
+    });
+    if (!check.isValid(initial.getHash()) || !initial.verify()) {
+      throw new Exception("Invalid initial block");
+    } // if
+    Report rest = sync(new BlockChain(check, store, initial), leader);
+    return new Report(rest.getChain(), 0, 0, rest.getAppended() + 1,
+        System.nanoTime() - start);
+  } // follow(InetSocketAddress, HashValidator, BlockStore)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * One use of a connection to a leader.
+   *
+   * @param <T>
+   *   What the conversation produces.
+   */
+  interface Conversation<T> {
+    /**
+     * Talk to the leader.
+     *
+     * @param in The leader's replies.
+     * @param out Our requests.
+     * @param leaderSize The size of the leader's chain.
+     * @return what we learned.
+     * @throws Exception If the conversation fails.
+     */
+    T run(DataInputStream in, DataOutputStream out, int leaderSize) throws Exception;
+  } // interface Conversation<T>
+
+  /**
+   * What a sync did, and how fast.
+   */
+  public static class Report {
+    /** The follower. */
+    private final BlockChain chain;
+    /** The number of blocks the chains shared. */
+    private final int fork;
+    /** The number of the follower's blocks we removed. */
+    private final int removed;
+    /** The number of blocks we appended. */
+    private final int appended;
+    /** How long it took, in nanoseconds. */
+    private final long nanos;
+
+    /**
+     * Create a report.
+     *
+     * @param follower The follower.
+     * @param shared The number of blocks the chains shared.
+     * @param dropped The number of blocks removed.
+     * @param added The number of blocks appended.
+     * @param elapsed The time taken, in nanoseconds.
+     */
+    Report(BlockChain follower, int shared, int dropped, int added, long elapsed) {
+      this.chain = follower;
+      this.fork = shared;
+      this.removed = dropped;
+      this.appended = added;
+      this.nanos = elapsed;
+    } // Report(BlockChain, int, int, int, long)
+
+    /**
+     * Get the follower.
+     *
+     * @return the chain we synced.
+     */
+    public BlockChain getChain() {
+      return this.chain;
+    } // getChain()
+
+    /**
+     * Get the height at which the chains parted.
+     *
+     * @return the number of blocks the chains shared.
+     */
+    public int getForkHeight() {
+      return this.fork;
+    } // getForkHeight()
+
+    /**
+     * Get the number of the follower's blocks we removed.
+     *
+     * @return the number of blocks removed.
+     */
+    public int getRemoved() {
+      return this.removed;
+    } // getRemoved()
+
+    /**
+     * Get the number of blocks we appended.
+     *
+     * @return the number of blocks appended.
+     */
+    public int getAppended() {
+      return this.appended;
+    } // getAppended()
+
+    /**
+     * Get the time taken.
+     *
+     * @return the elapsed time, in nanoseconds.
+     */
+    public long getNanos() {
+      return this.nanos;
+    } // getNanos()
+
+    /**
+     * Get the rate at which we appended blocks.
+     *
+     * @return blocks per second.
+     */
+    public double getBlocksPerSecond() {
+      return (this.nanos <= 0) ? 0 : this.appended * 1e9 / this.nanos;
+    } // getBlocksPerSecond()
+
+    /**
+     * Summarize the report.
+     *
+     * @return a one-line summary.
+     */
+    public String toString() {
+      return String.format("%d blocks from height %d (%d removed) in %.1f ms (%.0f blocks/s)",
+          this.appended, this.fork, this.removed, this.nanos / ChainMetrics.NANOS_PER_MILLI,
+          getBlocksPerSecond());
+    } // toString()
+  } // class Report
+} // class ChainSync
@@ -0,0 +1,540 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Bulk export and import of whole chains. A chain file starts with a
+ * magic number, a version, and a block count, followed by one
+ * length-prefixed BlockCodec record per block, in height order. In
+ * version 6 files the records are compact, so each user name is written
+ * once and then referred to by id; we also read version 5 files, whose
+ * records hold every name in full. Earlier versions hash blocks without
+ * commitments or timestamps and are not read.
+ *
+ * Imports read the file in batches. Each batch is verified in parallel
+ * (links, hashes, and validators) and then appended in order while we
+ * replay its transactions, so the ledger and its checkpoints are built
+ * in the same pass and the loaded chain answers balance queries without
+ * replaying anything. Given trusted checkpoints, blocks up to the newest
+ * one are only checked for links and the checkpoint hashes, so a load
+ * below a known checkpoint computes no hashes at all.
+ *
+ * Loaded chains check their blocks with the validator we are given. A
+ * retargeting chain gets its difficulty back from the blocks' own
+ * timestamps through BlockChain.retargetWith.
+ *
+ * @author Andrew Fargo
+ */
+public class ChainTransfer {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * Identifies chain files.
+   */
+  static final int MAGIC = 0x43484E31;
+
+  /**
+   * The version of the format we write. Versions 1 and 2 hold blocks
+   * hashed over their names rather than their commitments, and versions
+   * 3 and 4 hold blocks without timestamps, so their hashes no longer
+   * check out and we do not read them.
+   */
+  static final int VERSION = 6;
+
+  /**
+   * The version whose records hold names in full.
+   */
+  static final int PLAIN_VERSION = 5;
+
+  /**
+   * The number of blocks we verify at once.
+   */
+  static final int BATCH_SIZE = 4096;
+
+  /**
+   * The size of our I/O buffers.
+   */
+  static final int BUFFER_SIZE = 1 << 16;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * We only have static methods.
+   */
+  private ChainTransfer() {
+  } // ChainTransfer()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Read the bytes of one record. The length comes from a file or a
+   * peer, so we refuse any that no record can have rather than allocate
+   * whatever it asks for.
+   *
+   * @param in
+   *   The stream, positioned at the record's length.
+   *
+   * @return the record.
+   *
+   * @throws IOException
+   *   If the stream cannot be read, ends too soon, or gives a length
+   *   that is negative or over BlockCodec.MAX_RECORD_BYTES.
+   */
+  private static byte[] readRecordBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > BlockCodec.MAX_RECORD_BYTES) {
+      throw new IOException("Bad record length: " + length);
+    } // if
+    byte[] record = new byte[length];
+    in.readFully(record);
+    return record;
+  } // readRecordBytes(DataInputStream)
+
+  /**
+   * Read one record.
+   *
+   * @param in
+   *   The stream, positioned at the record's length.
+   *
+   * @return the unsealed block.
+   *
+   * @throws IOException
+   *   If the stream cannot be read, ends too soon, or holds a record
+   *   that does not decode.
+   */
+  static Block readRecord(DataInputStream in) throws IOException {
+    byte[] record = readRecordBytes(in);
+    try {
+      return BlockCodec.decode(ByteBuffer.wrap(record));
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Corrupt record: " + e);
+    } // try/catch
+  } // readRecord(DataInputStream)
+
+  /**
+   * Read one compact record.
+   *
+   * @param in
+   *   The stream, positioned at the record's length.
+   * @param names
+   *   The reader's dictionary, or null to read a plain record.
+   *
+   * @return the unsealed block.
+   *
+   * @throws IOException
+   *   If the stream cannot be read, ends too soon, or uses a name it
+   *   never defined.
+   */
+  static Block readRecord(DataInputStream in, UserDictionary names) throws IOException {
+    if (names == null) {
+      return readRecord(in);
+    } // if
+    byte[] record = readRecordBytes(in);
+    try {
+      return BlockCodec.decode(ByteBuffer.wrap(record), names);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Corrupt record: " + e.getMessage());
+    } // try/catch
+  } // readRecord(DataInputStream, UserDictionary)
+
+  /**
+   * Write one record.
+   *
+   * @param out
+   *   The stream.
+   * @param blk
+   *   The block.
+   *
+   * @return the number of bytes written.
+   *
+   * @throws IOException
+   *   If the stream cannot be written.
+   */
+  static int writeRecord(DataOutputStream out, Block blk) throws IOException {
+    byte[] record = BlockCodec.encode(blk);
+    out.writeInt(record.length);
+    out.write(record);
+    return Integer.BYTES + record.length;
+  } // writeRecord(DataOutputStream, Block)
+
+  /**
+   * Write one compact record.
+   *
+   * @param out
+   *   The stream.
+   * @param blk
+   *   The block.
+   * @param names
+   *   The writer's dictionary.
+   *
+   * @return the number of bytes written.
+   *
+   * @throws IOException
+   *   If the stream cannot be written.
+   */
+  static int writeRecord(DataOutputStream out, Block blk, UserDictionary names)
+      throws IOException {
+    byte[] record = BlockCodec.encode(blk, names);
+    out.writeInt(record.length);
+    out.write(record);
+    return Integer.BYTES + record.length;
+  } // writeRecord(DataOutputStream, Block, UserDictionary)
+
+  /**
+   * Determine why a trusted block is unacceptable. We check only its
+   * link to the block below and, at a checkpoint, its hash.
+   *
+   * @param prev
+   *   The block below.
+   * @param blk
+   *   The block.
+   * @param expected
+   *   The trusted hash at the block's height, or null if there is none.
+   *
+   * @return the reason blk is rejected, or null if we accept it. We
+   *   do not hash it, so it stays unsealed, and check hashes it later.
+   */
+  static String trustedRejection(Block prev, Block blk, Hash expected) {
+    if (prev != null && !blk.getPrevHash().equals(prev.getHash())) {
+      return ChainMetrics.Rejection.PREVIOUS_HASH.name();
+    } else if (expected != null && !expected.equals(blk.getHash())) {
+      return "TRUSTED_CHECKPOINT";
+    } // if
+    return null;
+  } // trustedRejection(Block, Block, Hash)
+
+  /**
+   * Verify a batch of blocks in parallel, sealing the ones we hash.
+   *
+   * @param chain
+   *   The chain the batch will join.
+   * @param prev
+   *   The block just below the batch.
+   * @param batch
+   *   The blocks.
+   * @param n
+   *   The number of blocks in use in batch.
+   * @param first
+   *   The height of batch[0].
+   * @param trusted
+   *   The trusted checkpoints.
+   * @param trustedHeight
+   *   The height of the newest checkpoint we use, or -1 for none.
+   *
+   * @throws Exception
+   *   If any block is invalid; we report the lowest one.
+   */
+  static void verifyBatch(BlockChain chain, Block prev, Block[] batch, int n, int first,
+      TrustedCheckpoints trusted, int trustedHeight) throws Exception {
+    String[] reasons = new String[n];
+    IntStream.range(0, n).parallel().forEach((i) -> {
+      int height = first + i;
+      Block below = (i == 0) ? prev : batch[i - 1];
+      if (height <= trustedHeight) {
+        reasons[i] = trustedRejection(below, batch[i], trusted.hashAt(height));
+      } else {
+        ChainMetrics.Rejection reason =
+            chain.rejectionFor(below, batch[i], chain.validatorFor(height));
+        reasons[i] = (reason == null) ? null : reason.name();
+      } // if-else
+    });
+    for (int i = 0; i < n; i++) {
+      if (reasons[i] != null) {
+        throw new Exception("Invalid block at height " + (first + i) + ": " + reasons[i]);
+      } // if
+    } // for
+  } // verifyBatch(BlockChain, Block, Block[], int, int, TrustedCheckpoints, int)
+
+  /**
+   * Append a verified batch, replaying its transactions and recording
+   * ledger checkpoints as we pass them.
+   *
+   * @param chain
+   *   The chain.
+   * @param ledger
+   *   The balances so far; updated.
+   * @param batch
+   *   The verified blocks.
+   * @param n
+   *   The number of blocks in use in batch.
+   *
+   * @throws Exception
+   *   If a transaction is invalid.
+   */
+  static void appendBatch(BlockChain chain, HashMap<String, Integer> ledger, Block[] batch,
+      int n) throws Exception {
+    for (int i = 0; i < n; i++) {
+      Block blk = batch[i].withNames(chain.names);
+      int height = chain.store.size();
+      BlockChain.applyTransaction(ledger, blk.getTransaction(), blk.getNum());
+      chain.store.add(blk);
+      chain.accounts.add(blk.getTransaction(), chain.names);
+      synchronized (chain.checkpoints) {
+        if (height % chain.checkpointInterval == 0) {
+          chain.checkpoints.add(new BlockChain.LedgerCheckpoint(height,
+              new HashMap<String, Integer>(ledger)));
+        } // if
+      } // synchronized
+    } // for
+  } // appendBatch(BlockChain, HashMap<String, Integer>, Block[], int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Write a whole chain to a file.
+   *
+   * @param chain
+   *   The chain. It must not change while we export it.
+   * @param file
+   *   Where to write it; replaced if it exists.
+   *
+   * @return how the export went.
+   *
+   * @throws IOException
+   *   If the file cannot be written.
+   */
+  public static Report export(BlockChain chain, Path file) throws IOException {
+    long start = System.nanoTime();
+    int size = chain.getSize();
+    long bytes = 3 * Integer.BYTES;
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(size);
+      UserDictionary names = new UserDictionary();
+      for (int height = 0; height < size; height++) {
+        bytes += writeRecord(out, chain.store.get(height), names);
+      } // for
+    } // try
+    return new Report(null, size, 0, bytes, System.nanoTime() - start);
+  } // export(BlockChain, Path)
+
+  /**
+   * Load a chain from a file, verifying every block above the newest
+   * trusted checkpoint in full and trusting the blocks below it.
+   *
+   * @param file
+   *   The file, as written by export.
+   * @param check
+   *   The validator the chain uses.
+   * @param store
+   *   An empty store for the blocks.
+   * @param trusted
+   *   The block hashes we trust.
+   *
+   * @return how the import went, including the chain.
+   *
+   * @throws IOException
+   *   If the file cannot be read or is not a chain file.
+   * @throws Exception
+   *   If any block or transaction in the file is invalid.
+   */
+  public static Report load(Path file, HashValidator check, BlockStore store,
+      TrustedCheckpoints trusted) throws Exception {
+    long start = System.nanoTime();
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+      int version = (in.readInt() == MAGIC) ? in.readInt() : -1;
+      if (version != VERSION && version != PLAIN_VERSION) {
+        throw new IOException("Not a chain file: " + file);
+      } // if
+      int size = in.readInt();
+      if (size < 1) {
+        throw new IOException("Chain file has no initial block: " + file);
+      } // if
+      int trustedHeight = trusted.trustedHeight(size);
+      UserDictionary names = (version == VERSION) ? new UserDictionary() : null;
+      Block initial = readRecord(in, names);
+      if (trustedHeight >= 0) {
+        if (trustedRejection(null, initial, trusted.hashAt(0)) != null) {
+          throw new Exception("Invalid block at height 0: TRUSTED_CHECKPOINT");
+        } // if
+      } else if (!check.isValid(initial.getHash()) || !initial.verify()) {
+        throw new Exception("Invalid initial block");
+      } // if
+      BlockChain chain = new BlockChain(check, store, initial);
+      if (names != null) {
+        // The chain's dictionary added the initial block's names in the
+        // order the file defined them, so the file's ids are its ids.
+        names = chain.names;
+      } // if
+      HashMap<String, Integer> ledger = new HashMap<String, Integer>();
+      synchronized (chain.checkpoints) {
+        chain.checkpoints.add(chain.ledgerBase);
+      } // synchronized
+      Block[] batch = new Block[BATCH_SIZE];
+      Block prev = initial;
+      int height = 1;
+      while (height < size) {
+        int n = Math.min(BATCH_SIZE, size - height);
+        for (int i = 0; i < n; i++) {
+          batch[i] = readRecord(in, names);
+        } // for
+        verifyBatch(chain, prev, batch, n, height, trusted, trustedHeight);
+        appendBatch(chain, ledger, batch, n);
+        prev = batch[n - 1];
+        height += n;
+      } // while
+      return new Report(chain, size, trustedHeight + 1, Files.size(file),
+          System.nanoTime() - start);
+    } // try
+  } // load(Path, HashValidator, BlockStore, TrustedCheckpoints)
+
+  /**
+   * Load a chain from a file, verifying every block.
+   *
+   * @param file
+   *   The file, as written by export.
+   * @param check
+   *   The validator the chain uses.
+   * @param store
+   *   An empty store for the blocks.
+   *
+   * @return how the import went, including the chain.
+   *
+   * @throws Exception
+   *   If the file cannot be read or any block in it is invalid.
+   */
+  public static Report load(Path file, HashValidator check, BlockStore store)
+      throws Exception {
+    return load(file, check, store, new TrustedCheckpoints());
+  } // load(Path, HashValidator, BlockStore)
+
+  /**
+   * Load a chain from a file into memory, verifying every block.
+   *
+   * @param file
+   *   The file, as written by export.
+   * @param check
+   *   The validator the chain uses.
+   *
+   * @return how the import went, including the chain.
+   *
+   * @throws Exception
+   *   If the file cannot be read or any block in it is invalid.
+   */
+  public static Report load(Path file, HashValidator check) throws Exception {
+    return load(file, check, new HeapBlockStore());
+  } // load(Path, HashValidator)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * What an export or import did, and how fast.
+   */
+  public static class Report {
+    /** The loaded chain, or null for exports. */
+    private final BlockChain chain;
+    /** The number of blocks moved. */
+    private final int blocks;
+    /** The number of blocks taken on trust rather than verified. */
+    private final int trusted;
+    /** The number of bytes in the file. */
+    private final long bytes;
+    /** How long it took, in nanoseconds. */
+    private final long nanos;
+
+    /**
+     * Create a report.
+     *
+     * @param loaded The loaded chain, or null.
+     * @param count The number of blocks.
+     * @param trustedCount The number of blocks taken on trust.
+     * @param size The number of bytes.
+     * @param elapsed The time taken, in nanoseconds.
+     */
+    Report(BlockChain loaded, int count, int trustedCount, long size, long elapsed) {
+      this.chain = loaded;
+      this.blocks = count;
+      this.trusted = trustedCount;
+      this.bytes = size;
+      this.nanos = elapsed;
+    } // Report(BlockChain, int, int, long, long)
+
+    /**
+     * Get the loaded chain.
+     *
+     * @return the chain, or null if this reports an export.
+     */
+    public BlockChain getChain() {
+      return this.chain;
+    } // getChain()
+
+    /**
+     * Get the number of blocks moved.
+     *
+     * @return the number of blocks.
+     */
+    public int getBlocks() {
+      return this.blocks;
+    } // getBlocks()
+
+    /**
+     * Get the number of blocks taken on trust.
+     *
+     * @return the number of blocks whose hashes we did not verify.
+     */
+    public int getTrustedBlocks() {
+      return this.trusted;
+    } // getTrustedBlocks()
+
+    /**
+     * Get the size of the file.
+     *
+     * @return the number of bytes.
+     */
+    public long getBytes() {
+      return this.bytes;
+    } // getBytes()
+
+    /**
+     * Get the time taken.
+     *
+     * @return the elapsed time, in nanoseconds.
+     */
+    public long getNanos() {
+      return this.nanos;
+    } // getNanos()
+
+    /**
+     * Get the throughput.
+     *
+     * @return blocks moved per second.
+     */
+    public double getBlocksPerSecond() {
+      return (this.nanos <= 0) ? 0 : this.blocks * 1e9 / this.nanos;
+    } // getBlocksPerSecond()
+
+    /**
+     * Summarize the report.
+     *
+     * @return a one-line summary.
+     */
+    public String toString() {
+      return String.format("%d blocks (%d trusted), %d bytes in %.1f ms (%.0f blocks/s)",
+          this.blocks, this.trusted, this.bytes, this.nanos / ChainMetrics.NANOS_PER_MILLI,
+          getBlocksPerSecond());
+    } // toString()
+  } // class Report
+} // class ChainTransfer
@@ -0,0 +1,25 @@
+package edu.grinnell.csc207.blockchains;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A flight recorder event covering one call to BlockChain.check.
+ *
+ * @author Andrew Fargo
+ */
+@Name("edu.grinnell.csc207.blockchains.Check")
+@Label("Chain Checked")
+@Category({"Blockchains", "Chain"})
+@Description("Verify balances and hashes across the whole chain")
+class CheckEvent extends jdk.jfr.Event {
+  /** The number of blocks whose hashes were verified. */
+  @Label("Blocks Verified")
+  int blocksVerified;
+
+  /** Whether the chain checked out. */
+  @Label("Passed")
+  boolean passed;
+} // class CheckEvent
@@ -0,0 +1,304 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+
+/**
+ * A retargeting policy that adjusts mining difficulty to hold a target
+ * block interval. The policy records the timestamp each block was mined
+ * with, recalculates the difficulty (in leading zero bits) every few
+ * blocks, and remembers which difficulty applied at each height so that
+ * old blocks can be validated against the target in effect when they
+ * were mined. Since the timestamps come from the blocks, replaying a
+ * chain into a fresh policy gives the same difficulties every time.
+ *
+ * Since the difficulty follows the timestamps, a chain must not accept
+ * a block stamped far in the future: the window it closes would look
+ * slow, and the difficulty would drop on every retarget. Policies
+ * therefore bound how far past the clock a timestamp may be.
+ *
+ * Policies are safe for concurrent use.
+ *
+ * @author Andrew Fargo
+ */
+public class DifficultyRetargeter {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The most bits the difficulty may move in one retarget. Two bits
+   * limits each adjustment to a factor of four, which keeps one odd
+   * window from swinging the chain too far.
+   */
+  static final int MAX_STEP = 2;
+
+  /**
+   * The largest difficulty we can express with a SHA-256 hash.
+   */
+  static final int MAX_BITS = 256;
+
+  /**
+   * How far past the clock a block's timestamp may be by default, in
+   * milliseconds: two hours, which leaves room for clocks that are off.
+   */
+  public static final long DEFAULT_MAX_DRIFT_MILLIS = 2 * 60 * 60 * 1000L;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of blocks between retargets.
+   */
+  private final int window;
+
+  /**
+   * The desired number of milliseconds between blocks.
+   */
+  private final long targetMillis;
+
+  /**
+   * How far past the clock a timestamp may be, in milliseconds.
+   */
+  private final long maxDriftMillis;
+
+  /**
+   * The smallest difficulty we will retarget to.
+   */
+  private final int minBits;
+
+  /**
+   * The largest difficulty we will retarget to.
+   */
+  private final int maxBits;
+
+  /**
+   * The time (in milliseconds) each block was recorded, by height.
+   */
+  private final ArrayList<Long> timestamps;
+
+  /**
+   * The difficulty (in bits) each block was validated against, by height.
+   */
+  private final ArrayList<Integer> difficulties;
+
+  /**
+   * The difficulty for the next block to be recorded.
+   */
+  private int nextBits;
+
+  /**
+   * The difficulty the policy starts with.
+   */
+  private final int initialBits;
+
+  /**
+   * Validators, indexed by difficulty.
+   */
+  private final LeadingZerosValidator[] validators;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new retargeting policy that allows timestamps up to
+   * DEFAULT_MAX_DRIFT_MILLIS past the clock.
+   *
+   * @param blocksPerRetarget
+   *   The number of blocks between difficulty recalculations.
+   * @param blockMillis
+   *   The desired time between blocks, in milliseconds.
+   * @param startBits
+   *   The difficulty (in leading zero bits) for the first window.
+   * @param lowestBits
+   *   The smallest difficulty allowed.
+   * @param highestBits
+   *   The largest difficulty allowed.
+   */
+  public DifficultyRetargeter(int blocksPerRetarget, long blockMillis, int startBits,
+      int lowestBits, int highestBits) {
+    this(blocksPerRetarget, blockMillis, startBits, lowestBits, highestBits,
+        DEFAULT_MAX_DRIFT_MILLIS);
+  } // DifficultyRetargeter(int, long, int, int, int)
+
+  /**
+   * Create a new retargeting policy.
+   *
+   * @param blocksPerRetarget
+   *   The number of blocks between difficulty recalculations.
+   * @param blockMillis
+   *   The desired time between blocks, in milliseconds.
+   * @param startBits
+   *   The difficulty (in leading zero bits) for the first window.
+   * @param lowestBits
+   *   The smallest difficulty allowed.
+   * @param highestBits
+   *   The largest difficulty allowed.
+   * @param driftMillis
+   *   How far past the clock a block's timestamp may be, in
+   *   milliseconds.
+   */
+  public DifficultyRetargeter(int blocksPerRetarget, long blockMillis, int startBits,
+      int lowestBits, int highestBits, long driftMillis) {
+    if (blocksPerRetarget < 2) {
+      throw new IllegalArgumentException("Retarget window must be at least 2 blocks");
+    } // if
+    if (blockMillis <= 0) {
+      throw new IllegalArgumentException("Block interval must be positive");
+    } // if
+    if (lowestBits < 0 || highestBits > MAX_BITS || lowestBits > highestBits
+        || startBits < lowestBits || startBits > highestBits) {
+      throw new IllegalArgumentException("Invalid difficulty bounds");
+    } // if
+    if (driftMillis < 0) {
+      throw new IllegalArgumentException("Drift must not be negative");
+    } // if
+    this.window = blocksPerRetarget;
+    this.maxDriftMillis = driftMillis;
+    this.targetMillis = blockMillis;
+    this.initialBits = startBits;
+    this.minBits = lowestBits;
+    this.maxBits = highestBits;
+    this.nextBits = startBits;
+    this.timestamps = new ArrayList<Long>();
+    this.difficulties = new ArrayList<Integer>();
+    this.validators = new LeadingZerosValidator[MAX_BITS + 1];
+    for (int bits = 0; bits <= MAX_BITS; bits++) {
+      this.validators[bits] = new LeadingZerosValidator(bits);
+    } // for
+  } // DifficultyRetargeter(int, long, int, int, int, long)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Compute the difficulty that follows a given height, retargeting if
+   * that height closes a window.
+   *
+   * @param height
+   *   A recorded height.
+   *
+   * @return the difficulty for the block at height + 1.
+   */
+  private int difficultyAfter(int height) {
+    int bits = this.difficulties.get(height);
+    if ((height + 1) % this.window != 0) {
+      return bits;
+    } // if
+    long elapsed = this.timestamps.get(height) - this.timestamps.get(height + 1 - this.window);
+    long expected = this.targetMillis * (this.window - 1);
+    int step;
+    if (elapsed <= 0) {
+      step = MAX_STEP;
+    } else {
+      step = (int) Math.round(Math.log((double) expected / elapsed) / Math.log(2));
+      step = Math.max(-MAX_STEP, Math.min(MAX_STEP, step));
+    } // if-else
+    return Math.max(this.minBits, Math.min(this.maxBits, bits + step));
+  } // difficultyAfter(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the difficulty that applies at a height. Heights that have not
+   * been recorded yet get the difficulty for the next block.
+   *
+   * @param height
+   *   The height of the block.
+   *
+   * @return the difficulty in leading zero bits.
+   */
+  public synchronized int difficultyAt(int height) {
+    if (height < 0) {
+      throw new IllegalArgumentException("Negative height: " + height);
+    } else if (height < this.difficulties.size()) {
+      return this.difficulties.get(height);
+    } else {
+      return this.nextBits;
+    } // if-else
+  } // difficultyAt(int)
+
+  /**
+   * Get a validator for the difficulty that applies at a height.
+   *
+   * @param height
+   *   The height of the block.
+   *
+   * @return a validator for blocks at that height.
+   */
+  public synchronized HashValidator validatorAt(int height) {
+    return this.validators[difficultyAt(height)];
+  } // validatorAt(int)
+
+  /**
+   * Determine whether a timestamp is too far past the clock for a block
+   * to carry it.
+   *
+   * @param millis
+   *   The timestamp, in milliseconds since the epoch.
+   *
+   * @return true if it is more than the allowed drift past now.
+   */
+  public boolean isTooFarAhead(long millis) {
+    return millis - System.currentTimeMillis() > this.maxDriftMillis;
+  } // isTooFarAhead(long)
+
+  /**
+   * Record the timestamp of the next block.
+   *
+   * @param height
+   *   The height of the block, which must be the number of blocks
+   *   recorded so far.
+   * @param millis
+   *   The block's timestamp, in milliseconds since the epoch.
+   */
+  public synchronized void record(int height, long millis) {
+    if (height != this.timestamps.size()) {
+      throw new IllegalArgumentException("Expected height " + this.timestamps.size()
+          + " but got " + height);
+    } // if
+    this.timestamps.add(millis);
+    this.difficulties.add(this.nextBits);
+    this.nextBits = difficultyAfter(height);
+  } // record(int, long)
+
+  /**
+   * Forget every block at or above a height, restoring the difficulty
+   * that applied when that height was the tip.
+   *
+   * @param size
+   *   The number of blocks to keep.
+   */
+  public synchronized void truncate(int size) {
+    while (this.timestamps.size() > size) {
+      this.timestamps.remove(this.timestamps.size() - 1);
+      this.difficulties.remove(this.difficulties.size() - 1);
+    } // while
+    this.nextBits = (size == 0) ? this.initialBits : difficultyAfter(size - 1);
+  } // truncate(int)
+
+  /**
+   * Get the number of blocks recorded.
+   *
+   * @return the number of recorded blocks.
+   */
+  public synchronized int size() {
+    return this.timestamps.size();
+  } // size()
+
+  /**
+   * Get the timestamp recorded for the block at a height.
+   *
+   * @param height
+   *   A recorded height.
+   *
+   * @return the time, in milliseconds since the epoch.
+   */
+  public synchronized long timestampAt(int height) {
+    return this.timestamps.get(height);
+  } // timestampAt(int)
+} // class DifficultyRetargeter
@@ -0,0 +1,458 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * A block store that writes every block through to a BlockArchive, so
+ * the chain survives the process. Every snapshotInterval blocks we also
+ * save the ledger beside the archive. Reopening the store after a crash
+ * costs about the same as after a clean close: the archive repairs its
+ * own tail, we re-check the hash link of the last block, and we rebuild
+ * the ledger from the newest snapshot by replaying at most one interval
+ * of blocks, without reading the rest of the file.
+ *
+ * The tip is cached; every other block is read from the archive on
+ * demand, unsealed, so check hashes every block above the snapshot.
+ * Reopened chains check new blocks with the validator they are given;
+ * BlockChain.retargetWith recovers a retargeting chain's difficulty
+ * from the blocks' timestamps.
+ *
+ * @author Andrew Fargo
+ */
+public class DurableBlockStore implements BlockStore, AutoCloseable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * What we add to the archive's path to name the ledger snapshot.
+   */
+  static final String LEDGER_SUFFIX = ".ledger";
+
+  /**
+   * The first four bytes of a ledger snapshot. Snapshots from before
+   * names had int lengths have a different magic number and are
+   * ignored.
+   */
+  static final int LEDGER_MAGIC = 0x4C444732;
+
+  /**
+   * The default number of blocks between ledger snapshots.
+   */
+  public static final int DEFAULT_SNAPSHOT_INTERVAL = 4096;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where the blocks go.
+   */
+  private final BlockArchive archive;
+
+  /**
+   * Where the ledger snapshot goes.
+   */
+  private final Path ledgerFile;
+
+  /**
+   * Whether to force each block to disk as it is added.
+   */
+  private final boolean sync;
+
+  /**
+   * The number of blocks between ledger snapshots.
+   */
+  private int snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+
+  /**
+   * The newest snapshot we know to match the archive; empty at the
+   * initial block if we have none.
+   */
+  private BlockChain.LedgerCheckpoint snapshot =
+      new BlockChain.LedgerCheckpoint(0, new HashMap<String, Integer>());
+
+  /**
+   * The last block, or null if the store is empty.
+   */
+  private Block tip;
+
+  /**
+   * The number of blocks we removed because they did not link to the
+   * block before them.
+   */
+  private int unlinkedBlocks;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open a store on an archive, repairing it if need be.
+   *
+   * @param file
+   *   The archive's data file; created if it does not exist.
+   * @param sync
+   *   Whether to force each block to disk as it is added. Without it,
+   *   blocks survive a crash of the process but perhaps not of the
+   *   machine.
+   *
+   * @throws IOException
+   *   If the files cannot be opened or repaired.
+   */
+  public DurableBlockStore(Path file, boolean sync) throws IOException {
+    this.archive = new BlockArchive(file);
+    this.ledgerFile = file.resolveSibling(file.getFileName() + LEDGER_SUFFIX);
+    this.sync = sync;
+    try {
+      relink();
+      loadSnapshot();
+    } catch (IOException | RuntimeException e) {
+      this.archive.close();
+      throw e;
+    } // try/catch
+  } // DurableBlockStore(Path, boolean)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Read a block from the archive. Blocks come back unsealed: they were
+   * verified when they were added, but perhaps by another process, and
+   * the archive's checksums catch torn writes rather than edits, so the
+   * chain hashes them again when it checks them.
+   *
+   * @param height
+   *   The height of the block.
+   *
+   * @return the block.
+   *
+   * @throws IOException
+   *   If the block cannot be read.
+   */
+  private Block read(int height) throws IOException {
+    return this.archive.read(height);
+  } // read(int)
+
+  /**
+   * Make sure the last block links to the one before it and hashes to
+   * its stored hash, removing it until one does. The archive's checksums
+   * catch torn records; this catches records that were whole but never
+   * belonged, such as one written after its predecessor was lost.
+   *
+   * @throws IOException
+   *   If the archive cannot be read or truncated, or its initial block
+   *   does not hash to its hash.
+   */
+  private void relink() throws IOException {
+    int size = this.archive.size();
+    if (size > 0) {
+      // Crashes only ever tear the tail, so a bad initial block means
+      // the archive was written with another block format, and
+      // unlinking would throw all of it away.
+      Block first = this.archive.read(0);
+      if (!first.getHash().equals(first.computeHash(first.getNum(), first.getTransaction(),
+          first.getNonce(), first.getPrevHash()))) {
+        throw new IOException("Initial block does not hash to its hash");
+      } // if
+    } // if
+    while (size > 1) {
+      Block last = this.archive.read(size - 1);
+      Block prev = this.archive.read(size - 2);
+      if (last.getPrevHash().equals(prev.getHash()) && last.getHash().equals(
+          last.computeHash(last.getNum(), last.getTransaction(), last.getNonce(),
+                           last.getPrevHash()))) {
+        break;
+      } // if
+      this.archive.truncate(--size);
+      this.unlinkedBlocks++;
+    } // while
+    this.tip = (size == 0) ? null : read(size - 1);
+  } // relink()
+
+  /**
+   * Compute the checksum of the start of a buffer.
+   *
+   * @param buf
+   *   The buffer.
+   * @param length
+   *   The number of bytes to check.
+   *
+   * @return the CRC-32C of those bytes.
+   */
+  private static int checksum(ByteBuffer buf, int length) {
+    CRC32C crc = new CRC32C();
+    crc.update(buf.array(), 0, length);
+    return (int) crc.getValue();
+  } // checksum(ByteBuffer, int)
+
+  /**
+   * Load the ledger snapshot, if there is one that matches the archive.
+   * Snapshots that are corrupt, from a longer chain, or from a chain
+   * whose block at that height has since changed are ignored.
+   *
+   * @throws IOException
+   *   If the archive cannot be read.
+   */
+  private void loadSnapshot() throws IOException {
+    if (!Files.exists(this.ledgerFile)) {
+      return;
+    } // if
+    ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(this.ledgerFile));
+    try {
+      int end = buf.limit() - Integer.BYTES;
+      if (end < 0 || buf.getInt(end) != checksum(buf, end) || buf.getInt() != LEDGER_MAGIC) {
+        return;
+      } // if
+      int height = buf.getInt();
+      byte[] hash = new byte[buf.get() & 0xFF];
+      buf.get(hash);
+      if (height < 1 || height >= size() || !get(height).getHash().equals(new Hash(hash))) {
+        return;
+      } // if
+      int count = buf.getInt();
+      HashMap<String, Integer> balances = new HashMap<String, Integer>();
+      for (int i = 0; i < count; i++) {
+        byte[] name = new byte[buf.getInt()];
+        buf.get(name);
+        balances.put(new String(name, StandardCharsets.UTF_8), buf.getInt());
+      } // for
+      this.snapshot = new BlockChain.LedgerCheckpoint(height, balances);
+    } catch (RuntimeException e) {
+      // A checksummed snapshot we cannot parse is as good as none.
+    } // try/catch
+  } // loadSnapshot()
+
+  /**
+   * Save the ledger as it stands after a height. We write a new file
+   * and move it over the old one, so a crash leaves one or the other.
+   *
+   * @param height
+   *   The height of the block.
+   * @param balances
+   *   The balances after that block.
+   *
+   * @throws IOException
+   *   If the snapshot cannot be written.
+   */
+  private void saveSnapshot(int height, Map<String, Integer> balances) throws IOException {
+    byte[] hash = get(height).getHash().getBytes();
+    int length = 3 * Integer.BYTES + 1 + hash.length;
+    ArrayList<byte[]> names = new ArrayList<byte[]>(balances.size());
+    ArrayList<Integer> amounts = new ArrayList<Integer>(balances.size());
+    for (Map.Entry<String, Integer> entry : balances.entrySet()) {
+      byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      names.add(name);
+      amounts.add(entry.getValue());
+      length += Integer.BYTES + name.length + Integer.BYTES;
+    } // for
+    ByteBuffer buf = ByteBuffer.allocate(length + Integer.BYTES);
+    buf.putInt(LEDGER_MAGIC).putInt(height).put((byte) hash.length).put(hash)
+        .putInt(names.size());
+    for (int i = 0; i < names.size(); i++) {
+      buf.putInt(names.get(i).length).put(names.get(i)).putInt(amounts.get(i));
+    } // for
+    buf.putInt(checksum(buf, length));
+    Path temp = this.ledgerFile.resolveSibling(this.ledgerFile.getFileName() + ".tmp");
+    Files.write(temp, buf.array());
+    Files.move(temp, this.ledgerFile, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  } // saveSnapshot(int, Map<String, Integer>)
+
+  /**
+   * Advance the snapshot to the newest block, if it is a full interval
+   * ahead. If a transaction in between is invalid, the chain will not
+   * pass check anyway, so we leave the snapshot where it is.
+   *
+   * @throws IOException
+   *   If the archive cannot be read or the snapshot written.
+   */
+  private void advanceSnapshot() throws IOException {
+    int height = size() - 1;
+    if (height - this.snapshot.height < this.snapshotInterval) {
+      return;
+    } // if
+    HashMap<String, Integer> balances = new HashMap<String, Integer>(this.snapshot.balances);
+    for (int h = this.snapshot.height + 1; h <= height; h++) {
+      // Read outside the try, so that archive failures still reach our caller.
+      Block b = get(h);
+      try {
+        BlockChain.applyTransaction(balances, b.getTransaction(), b.getNum());
+      } catch (Exception e) {
+        return;
+      } // try/catch
+    } // for
+    saveSnapshot(height, balances);
+    this.snapshot = new BlockChain.LedgerCheckpoint(height, balances);
+  } // advanceSnapshot()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * {@inheritDoc}
+   */
+  public int size() {
+    return this.archive.size();
+  } // size()
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws UncheckedIOException
+   *   If the block cannot be read.
+   */
+  public Block get(int height) {
+    int size = this.archive.size();
+    if (height < 0 || height >= size) {
+      throw new IndexOutOfBoundsException("No block at height " + height);
+    } else if (height == size - 1) {
+      return this.tip;
+    } // if
+    try {
+      return read(height);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+  } // get(int)
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws UncheckedIOException
+   *   If the block or a ledger snapshot cannot be written.
+   */
+  public void add(Block blk) {
+    try {
+      this.archive.append(blk);
+      this.tip = blk;
+      if (this.sync) {
+        this.archive.force();
+      } // if
+      advanceSnapshot();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+  } // add(Block)
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws UncheckedIOException
+   *   If the archive cannot be truncated.
+   */
+  public void removeLast() {
+    int size = this.archive.size();
+    if (size == 0) {
+      throw new IllegalStateException("No blocks to remove");
+    } // if
+    try {
+      this.archive.truncate(size - 1);
+      this.tip = (size == 1) ? null : read(size - 2);
+      if (this.snapshot.height >= size - 1) {
+        // Rare: a fork deeper than a snapshot interval.
+        Files.deleteIfExists(this.ledgerFile);
+        this.snapshot = new BlockChain.LedgerCheckpoint(0, new HashMap<String, Integer>());
+      } // if
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+  } // removeLast()
+
+  /**
+   * Resume the chain in this store, or start a new one if the store is
+   * empty. A resumed chain takes its ledger from the newest snapshot,
+   * so its blocks at or below the snapshot are trusted, as if the chain
+   * had been pruned there, and check verifies only the blocks after it.
+   *
+   * @param check
+   *   The validator used to check elements.
+   *
+   * @return the chain.
+   */
+  public BlockChain open(HashValidator check) {
+    if (size() == 0) {
+      return new BlockChain(check, this);
+    } // if
+    return new BlockChain(check, this, this.snapshot);
+  } // open(HashValidator)
+
+  /**
+   * Set how often we snapshot the ledger. Shorter intervals make
+   * reopening faster but appends slower.
+   *
+   * @param interval
+   *   The number of blocks between snapshots.
+   */
+  public void setSnapshotInterval(int interval) {
+    if (interval < 1) {
+      throw new IllegalArgumentException("Snapshot interval must be positive");
+    } // if
+    this.snapshotInterval = interval;
+  } // setSnapshotInterval(int)
+
+  /**
+   * Get the height of the newest ledger snapshot.
+   *
+   * @return the height, or 0 if we have none.
+   */
+  public int getSnapshotHeight() {
+    return this.snapshot.height;
+  } // getSnapshotHeight()
+
+  /**
+   * Get the number of bytes cut off the archive when we opened it,
+   * because they held torn or corrupt records.
+   *
+   * @return the number of bytes.
+   */
+  public long getTruncatedBytes() {
+    return this.archive.getTruncatedBytes();
+  } // getTruncatedBytes()
+
+  /**
+   * Get the number of whole blocks removed when we opened the store,
+   * because they did not link to the block before them.
+   *
+   * @return the number of blocks.
+   */
+  public int getUnlinkedBlocks() {
+    return this.unlinkedBlocks;
+  } // getUnlinkedBlocks()
+
+  /**
+   * Make sure every block added so far is on disk.
+   *
+   * @throws IOException
+   *   If the archive cannot be forced.
+   */
+  public void force() throws IOException {
+    this.archive.force();
+  } // force()
+
+  /**
+   * Force and close the archive.
+   *
+   * @throws IOException
+   *   If the archive cannot be closed.
+   */
+  public void close() throws IOException {
+    try {
+      this.archive.force();
+    } finally {
+      this.archive.close();
+    } // try-finally
+  } // close()
+} // class DurableBlockStore
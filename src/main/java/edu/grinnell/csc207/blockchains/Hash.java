@@ -13,9 +13,10 @@ public class Hash {
   // +--------+
 
   /**
-   * Our local copy of the hash's bytes.
+   * Our local copy of the hash's bytes. Never changed once built, so
+   * blocks can rely on their hashes staying put.
    */
-  byte[] hash;
+  private final byte[] hash;
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -0,0 +1,87 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Arrays;
+
+/**
+ * A block store that keeps Block objects on the heap, in an array that
+ * doubles when it fills.
+ *
+ * @author Andrew Fargo
+ */
+public class HeapBlockStore implements BlockStore {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The initial capacity of the block array.
+   */
+  static final int INITIAL_CAPACITY = 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The blocks, indexed by height.
+   */
+  private Block[] blocks;
+
+  /**
+   * The number of blocks in use.
+   */
+  private int size;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an empty store.
+   */
+  public HeapBlockStore() {
+    this.blocks = new Block[INITIAL_CAPACITY];
+    this.size = 0;
+  } // HeapBlockStore()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * {@inheritDoc}
+   */
+  public int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * {@inheritDoc}
+   */
+  public Block get(int height) {
+    if (height < 0 || height >= this.size) {
+      throw new IndexOutOfBoundsException("No block at height " + height);
+    } // if
+    return this.blocks[height];
+  } // get(int)
+
+  /**
+   * {@inheritDoc}
+   */
+  public void add(Block blk) {
+    if (this.size == this.blocks.length) {
+      this.blocks = Arrays.copyOf(this.blocks, this.size * 2);
+    } // if
+    this.blocks[this.size++] = blk;
+  } // add(Block)
+
+  /**
+   * {@inheritDoc}
+   */
+  public void removeLast() {
+    if (this.size == 0) {
+      throw new IllegalStateException("Store is empty");
+    } // if
+    this.blocks[--this.size] = null;
+  } // removeLast()
+} // class HeapBlockStore
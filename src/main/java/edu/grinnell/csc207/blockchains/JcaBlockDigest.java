@@ -0,0 +1,76 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Block hashes through the SHA-256 MessageDigest of the installed JCA
+ * provider. Each thread keeps its own digest, so there is one provider
+ * lookup per thread rather than one per block.
+ *
+ * @author Andrew Fargo
+ */
+public class JcaBlockDigest implements BlockDigest {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Each thread's hashing scratch space.
+   */
+  private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * {@inheritDoc}
+   */
+  public Hash hash(int num, byte[] commitment, Hash prevHash, long millis, long nonce) {
+    Scratch s = this.scratch.get();
+    MessageDigest md = s.md;
+    md.update(s.ints.putInt(0, num).array());
+    md.update(commitment);
+    md.update(prevHash.getBytes());
+    md.update(s.longs.putLong(0, millis).array());
+    md.update(s.longs.putLong(0, nonce).array());
+    return new Hash(md.digest());
+  } // hash(int, byte[], Hash, long, long)
+
+  /**
+   * {@inheritDoc}
+   */
+  public String name() {
+    return "jca";
+  } // name()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * One thread's hashing scratch space.
+   */
+  private static class Scratch {
+    /** The digest. */
+    final MessageDigest md;
+    /** Int-sized byte buffer for computing hashes. */
+    final ByteBuffer ints = ByteBuffer.allocate(Integer.BYTES);
+    /** Long-sized byte buffer for computing hashes. */
+    final ByteBuffer longs = ByteBuffer.allocate(Long.BYTES);
+
+    /**
+     * Set up the scratch space for the current thread.
+     */
+    Scratch() {
+      try {
+        this.md = MessageDigest.getInstance("sha-256");
+      } catch (NoSuchAlgorithmException e) {
+        // Unrecoverable.
+        throw new RuntimeException(e);
+      } //try-catch
+    } // Scratch()
+  } // class Scratch
+} // class JcaBlockDigest
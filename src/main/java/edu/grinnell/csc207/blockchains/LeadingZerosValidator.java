@@ -0,0 +1,80 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * A validator that accepts hashes starting with a given number of zero
+ * bits. Each additional bit doubles the expected mining work.
+ *
+ * @author Andrew Fargo
+ */
+public class LeadingZerosValidator implements HashValidator {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of leading zero bits required.
+   */
+  private final int bits;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a validator requiring a number of leading zero bits.
+   *
+   * @param zeroBits
+   *   The number of leading zero bits a valid hash must have.
+   */
+  public LeadingZerosValidator(int zeroBits) {
+    if (zeroBits < 0) {
+      throw new IllegalArgumentException("Negative difficulty: " + zeroBits);
+    } // if
+    this.bits = zeroBits;
+  } // LeadingZerosValidator(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of leading zero bits required.
+   *
+   * @return the difficulty in bits.
+   */
+  public int getBits() {
+    return this.bits;
+  } // getBits()
+
+  /**
+   * Determine if a hash starts with enough zero bits.
+   *
+   * @param hash
+   *   The hash we're checking.
+   *
+   * @return true if the hash is valid and false otherwise.
+   */
+  public boolean isValid(Hash hash) {
+    int fullBytes = this.bits / Byte.SIZE;
+    int extraBits = this.bits % Byte.SIZE;
+    if (hash.length() < fullBytes + ((extraBits == 0) ? 0 : 1)) {
+      return false;
+    } // if
+    for (int i = 0; i < fullBytes; i++) {
+      if (hash.get(i) != 0) {
+        return false;
+      } // if
+    } // for
+    return (extraBits == 0)
+        || ((hash.get(fullBytes) & 0xFF) >>> (Byte.SIZE - extraBits)) == 0;
+  } // isValid(Hash)
+
+  /**
+   * Get a string representation of the validator.
+   *
+   * @return a string representation of the validator.
+   */
+  public String toString() {
+    return "LeadingZerosValidator(" + this.bits + " bits)";
+  } // toString()
+} // class LeadingZerosValidator
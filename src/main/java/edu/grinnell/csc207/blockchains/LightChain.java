@@ -0,0 +1,475 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A chain of block headers without their transactions. Appending a
+ * header checks its number, its link to the previous header, that its
+ * hash is the hash of its other fields, and that the hash satisfies the
+ * validator. Block hashes cover the commitment to the transaction, so
+ * this follows the proof of work in full without any transactions; a
+ * transaction supplied later, through withBody, is checked against its
+ * header's commitment.
+ *
+ * The headers of a retargeting chain do not share one validator, so a
+ * light chain built with a HashValidator cannot follow one; build it
+ * with a DifficultyRetargeter instead, which replays the difficulty at
+ * each height from the header timestamps, just as the full chain does.
+ *
+ * Headers are kept in flat arrays, 80 bytes per block: the timestamp,
+ * the nonce, the commitment, and the hash. Numbers and previous hashes follow from the
+ * position, so we do not store them. Every hash after the initial
+ * previous hash must be HASH_BYTES long.
+ *
+ * Header files start with a magic number, a version, a block count,
+ * and the initial previous hash (a 1-byte length and its bytes),
+ * followed by those 80 bytes for each block.
+ *
+ * @author Andrew Fargo
+ */
+public class LightChain {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of bytes in a block hash.
+   */
+  public static final int HASH_BYTES = 32;
+
+  /**
+   * The number of bytes we keep for each header.
+   */
+  static final int ROW_BYTES = 2 * Long.BYTES + BlockHeader.COMMITMENT_BYTES + HASH_BYTES;
+
+  /**
+   * Identifies header files.
+   */
+  static final int MAGIC = 0x48445231;
+
+  /**
+   * The version of the format we write. We refuse earlier versions:
+   * version 1 headers cannot be hashed on their own, and version 2
+   * headers have no timestamps.
+   */
+  static final int VERSION = 3;
+
+  /**
+   * The number of headers we have room for at first.
+   */
+  static final int INITIAL_CAPACITY = 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The validator every hash must satisfy, or null if we are
+   * retargeting.
+   */
+  private final HashValidator validator;
+
+  /**
+   * The policy that decides the difficulty at each height, or null if
+   * every hash must satisfy the same validator.
+   */
+  private final DifficultyRetargeter retargeter;
+
+  /**
+   * The previous hash of the initial block, or null if we have no
+   * headers.
+   */
+  private Hash initialPrevHash;
+
+  /**
+   * The timestamps, by height.
+   */
+  private long[] timestamps = new long[INITIAL_CAPACITY];
+
+  /**
+   * The nonces, by height.
+   */
+  private long[] nonces = new long[INITIAL_CAPACITY];
+
+  /**
+   * The commitments, COMMITMENT_BYTES per height.
+   */
+  private byte[] commitments = new byte[INITIAL_CAPACITY * BlockHeader.COMMITMENT_BYTES];
+
+  /**
+   * The hashes, HASH_BYTES per height.
+   */
+  private byte[] hashes = new byte[INITIAL_CAPACITY * HASH_BYTES];
+
+  /**
+   * The number of headers.
+   */
+  private int size;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an empty light chain. The first header appended must be the
+   * initial block's.
+   *
+   * @param check
+   *   The validator every hash must satisfy.
+   */
+  public LightChain(HashValidator check) {
+    this.validator = check;
+    this.retargeter = null;
+  } // LightChain(HashValidator)
+
+  /**
+   * Create an empty light chain whose difficulty is retargeted, as in a
+   * BlockChain built with the same policy.
+   *
+   * @param policy
+   *   The policy that decides the difficulty at each height.
+   *
+   * @throws IllegalArgumentException
+   *   If the policy already has blocks recorded.
+   */
+  public LightChain(DifficultyRetargeter policy) {
+    if (policy.size() != 0) {
+      throw new IllegalArgumentException("Retargeting policy already has blocks recorded");
+    } // if
+    this.validator = null;
+    this.retargeter = policy;
+  } // LightChain(DifficultyRetargeter)
+
+  /**
+   * Build the light chain of a full chain.
+   *
+   * @param chain
+   *   The chain.
+   * @param check
+   *   The validator every hash must satisfy.
+   *
+   * @return the headers of every block in chain.
+   *
+   * @throws IllegalArgumentException
+   *   If chain retargets its difficulty, or if some block fails the
+   *   light checks.
+   */
+  public static LightChain headersOf(BlockChain chain, HashValidator check) {
+    if (chain.retargeter != null) {
+      throw new IllegalArgumentException("Retargeting chains need a DifficultyRetargeter");
+    } // if
+    return fill(new LightChain(check), chain);
+  } // headersOf(BlockChain, HashValidator)
+
+  /**
+   * Build the light chain of a full chain that retargets its difficulty.
+   *
+   * @param chain
+   *   The chain.
+   * @param policy
+   *   A policy like the chain's, with no blocks recorded.
+   *
+   * @return the headers of every block in chain.
+   *
+   * @throws IllegalArgumentException
+   *   If the policy already has blocks recorded, or if some block fails
+   *   the light checks.
+   */
+  public static LightChain headersOf(BlockChain chain, DifficultyRetargeter policy) {
+    return fill(new LightChain(policy), chain);
+  } // headersOf(BlockChain, DifficultyRetargeter)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Append the header of every block in a chain.
+   *
+   * @param light An empty light chain.
+   * @param chain The chain.
+   * @return light.
+   */
+  private static LightChain fill(LightChain light, BlockChain chain) {
+    Iterator<Block> blocks = chain.blocks();
+    while (blocks.hasNext()) {
+      light.append(BlockHeader.of(blocks.next()));
+    } // while
+    return light;
+  } // fill(LightChain, BlockChain)
+
+  /**
+   * Make room for one more header.
+   */
+  private void grow() {
+    if (this.size == this.nonces.length) {
+      int capacity = 2 * this.nonces.length;
+      this.timestamps = Arrays.copyOf(this.timestamps, capacity);
+      this.nonces = Arrays.copyOf(this.nonces, capacity);
+      this.commitments = Arrays.copyOf(this.commitments, capacity * BlockHeader.COMMITMENT_BYTES);
+      this.hashes = Arrays.copyOf(this.hashes, capacity * HASH_BYTES);
+    } // if
+  } // grow()
+
+  /**
+   * Get the hash at a height.
+   *
+   * @param height The height, which must be below size.
+   * @return the hash.
+   */
+  private Hash hashAt(int height) {
+    return new Hash(Arrays.copyOfRange(this.hashes, height * HASH_BYTES,
+        (height + 1) * HASH_BYTES));
+  } // hashAt(int)
+
+  /**
+   * Get the validator for the header at the next height.
+   *
+   * @return the validator.
+   */
+  private HashValidator nextValidator() {
+    if (this.retargeter == null) {
+      return this.validator;
+    } else {
+      return this.retargeter.validatorAt(this.size);
+    } // if-else
+  } // nextValidator()
+
+  /**
+   * Determine why a header cannot come next.
+   *
+   * @param header The header.
+   * @return the reason, or null if it can.
+   */
+  private String rejectionFor(BlockHeader header) {
+    if (header.getNum() != this.size) {
+      return "Header " + header.getNum() + " is out of order at height " + this.size;
+    } else if (this.size > 0 && !header.getPrevHash().equals(getHash())) {
+      return "Header " + header.getNum() + " does not link to the previous header";
+    } else if (this.retargeter != null && this.size > 0
+        && header.getTimestamp() < this.timestamps[this.size - 1]) {
+      return "Header " + header.getNum() + " is older than the header below";
+    } else if (this.retargeter != null && this.retargeter.isTooFarAhead(header.getTimestamp())) {
+      return "Header " + header.getNum() + " is too far in the future";
+    } else if (header.getHash().length() != HASH_BYTES
+        || header.getCommitment().length() != BlockHeader.COMMITMENT_BYTES) {
+      return "Header " + header.getNum() + " has hashes of the wrong length";
+    } else if (!header.computeHash().equals(header.getHash())) {
+      return "Header " + header.getNum() + " does not hash to its hash";
+    } else if (!nextValidator().isValid(header.getHash())) {
+      return "Header " + header.getNum() + " has an invalid hash";
+    } // if
+    return null;
+  } // rejectionFor(BlockHeader)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of headers.
+   *
+   * @return the number of headers.
+   */
+  public int getSize() {
+    return this.size;
+  } // getSize()
+
+  /**
+   * Get the hash of the last header.
+   *
+   * @return the hash.
+   *
+   * @throws IllegalStateException
+   *   If there are no headers.
+   */
+  public Hash getHash() {
+    if (this.size == 0) {
+      throw new IllegalStateException("No headers");
+    } // if
+    return hashAt(this.size - 1);
+  } // getHash()
+
+  /**
+   * Add a header to the end of the chain.
+   *
+   * @param header
+   *   The header of the next block.
+   *
+   * @throws IllegalArgumentException
+   *   If the header is out of order, does not link to the last header,
+   *   does not hash to its hash, or has an invalid hash, or if we are
+   *   retargeting and its timestamp is out of order or too far ahead.
+   */
+  public void append(BlockHeader header) {
+    String rejection = rejectionFor(header);
+    if (rejection != null) {
+      throw new IllegalArgumentException(rejection);
+    } // if
+    grow();
+    if (this.size == 0) {
+      this.initialPrevHash = header.getPrevHash();
+    } // if
+    this.timestamps[this.size] = header.getTimestamp();
+    this.nonces[this.size] = header.getNonce();
+    System.arraycopy(header.getCommitment().getBytes(), 0, this.commitments,
+        this.size * BlockHeader.COMMITMENT_BYTES, BlockHeader.COMMITMENT_BYTES);
+    System.arraycopy(header.getHash().getBytes(), 0, this.hashes, this.size * HASH_BYTES,
+        HASH_BYTES);
+    if (this.retargeter != null) {
+      this.retargeter.record(this.size, header.getTimestamp());
+    } // if
+    this.size++;
+  } // append(BlockHeader)
+
+  /**
+   * Get the header at a height.
+   *
+   * @param height
+   *   The height.
+   *
+   * @return the header.
+   */
+  public BlockHeader get(int height) {
+    if (height < 0 || height >= this.size) {
+      throw new IndexOutOfBoundsException("No header at height " + height);
+    } // if
+    Hash prev = (height == 0) ? this.initialPrevHash : hashAt(height - 1);
+    int at = height * BlockHeader.COMMITMENT_BYTES;
+    Hash commitment = new Hash(Arrays.copyOfRange(this.commitments, at,
+        at + BlockHeader.COMMITMENT_BYTES));
+    return new BlockHeader(height, prev, commitment, this.timestamps[height],
+        this.nonces[height], hashAt(height));
+  } // get(int)
+
+  /**
+   * Rebuild the full block at a height from its transaction, which may
+   * come from anywhere: the block's hash is recomputed from it.
+   *
+   * @param height
+   *   The height.
+   * @param body
+   *   The transaction of the block at that height.
+   *
+   * @return the sealed block.
+   *
+   * @throws IllegalArgumentException
+   *   If body is not the transaction of the block at that height.
+   */
+  public Block withBody(int height, Transaction body) {
+    return get(height).withBody(body);
+  } // withBody(int, Transaction)
+
+  /**
+   * Write the headers to a file.
+   *
+   * @param file
+   *   The file, which is replaced.
+   *
+   * @return the number of bytes written.
+   *
+   * @throws IOException
+   *   If the file cannot be written.
+   */
+  public long save(Path file) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(file), ChainTransfer.BUFFER_SIZE))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(this.size);
+      byte[] prev = (this.size == 0) ? new byte[0] : this.initialPrevHash.getBytes();
+      out.writeByte(prev.length);
+      out.write(prev);
+      for (int height = 0; height < this.size; height++) {
+        out.writeLong(this.timestamps[height]);
+        out.writeLong(this.nonces[height]);
+        out.write(this.commitments, height * BlockHeader.COMMITMENT_BYTES,
+            BlockHeader.COMMITMENT_BYTES);
+        out.write(this.hashes, height * HASH_BYTES, HASH_BYTES);
+      } // for
+      return out.size();
+    } // try
+  } // save(Path)
+
+  /**
+   * Read and check the headers in a file.
+   *
+   * @param file
+   *   The file, as written by save.
+   * @param check
+   *   The validator every hash must satisfy.
+   *
+   * @return the light chain.
+   *
+   * @throws IOException
+   *   If the file cannot be read or is not a header file.
+   * @throws IllegalArgumentException
+   *   If some header fails the checks in append.
+   */
+  public static LightChain load(Path file, HashValidator check) throws IOException {
+    return load(file, new LightChain(check));
+  } // load(Path, HashValidator)
+
+  /**
+   * Read and check the headers of a retargeting chain in a file.
+   *
+   * @param file
+   *   The file, as written by save.
+   * @param policy
+   *   A policy like the chain's, with no blocks recorded.
+   *
+   * @return the light chain.
+   *
+   * @throws IOException
+   *   If the file cannot be read or is not a header file.
+   * @throws IllegalArgumentException
+   *   If the policy already has blocks recorded, or if some header
+   *   fails the checks in append.
+   */
+  public static LightChain load(Path file, DifficultyRetargeter policy) throws IOException {
+    return load(file, new LightChain(policy));
+  } // load(Path, DifficultyRetargeter)
+
+  /**
+   * Read headers from a file into an empty light chain.
+   *
+   * @param file The file, as written by save.
+   * @param light The light chain.
+   * @return light.
+   * @throws IOException if the file cannot be read or is not a header
+   *   file.
+   */
+  private static LightChain load(Path file, LightChain light) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(file), ChainTransfer.BUFFER_SIZE))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a header file: " + file);
+      } // if
+      int count = in.readInt();
+      byte[] prevBytes = new byte[in.readUnsignedByte()];
+      in.readFully(prevBytes);
+      Hash prev = new Hash(prevBytes);
+      byte[] commitment = new byte[BlockHeader.COMMITMENT_BYTES];
+      byte[] hash = new byte[HASH_BYTES];
+      for (int height = 0; height < count; height++) {
+        long millis = in.readLong();
+        long nonce = in.readLong();
+        in.readFully(commitment);
+        in.readFully(hash);
+        BlockHeader header = new BlockHeader(height, prev, new Hash(commitment), millis, nonce,
+            new Hash(hash));
+        light.append(header);
+        prev = header.getHash();
+      } // for
+      return light;
+    } // try
+  } // load(Path, LightChain)
+} // class LightChain
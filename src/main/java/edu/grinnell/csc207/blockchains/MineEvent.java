@@ -0,0 +1,25 @@
+package edu.grinnell.csc207.blockchains;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A flight recorder event covering the mining of one block.
+ *
+ * @author Andrew Fargo
+ */
+@Name("edu.grinnell.csc207.blockchains.Mine")
+@Label("Block Mined")
+@Category({"Blockchains", "Mining"})
+@Description("Search for a nonce that gives a block a valid hash")
+class MineEvent extends jdk.jfr.Event {
+  /** The number of the block being mined. */
+  @Label("Block Number")
+  int blockNumber;
+
+  /** The number of hashes computed. */
+  @Label("Attempts")
+  long attempts;
+} // class MineEvent
@@ -0,0 +1,764 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mines blocks with MiningWorkers in other JVMs. The coordinator holds
+ * one block template at a time and hands each worker a disjoint range
+ * of nonces, and a fresh one whenever it finishes. Workers report their
+ * progress as they go; a worker we have not heard from in the timeout
+ * is dropped, and the rest of its range goes to the next worker that
+ * needs one. The first valid nonce wins, and every worker is told to
+ * stop. Starting a new job (say, because the tip changed) or calling
+ * cancel stops the current one.
+ *
+ * Templates are sent as numbers, names, and hashes, so only
+ * LeadingZerosValidators, which we send as a bit count, can be mined
+ * this way. Names are sent as an int length and their UTF-8 bytes.
+ * Workers listen on the loopback address only.
+ *
+ * Messages to a worker are queued while we hold the workers' monitor
+ * and written by a thread of the worker's own, so a worker that reads
+ * slowly never holds up the others or the job.
+ *
+ * <pre>
+ *   to workers:    JOB id bits num source target amount prevHash timestamp
+ *                  RANGE id from count
+ *                  CANCEL id
+ *   to us:         PROGRESS id next attempts nanos
+ *                  FOUND id nonce
+ * </pre>
+ *
+ * @author Andrew Fargo
+ */
+public class MiningCoordinator implements AutoCloseable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * Opens every worker's conversation.
+   */
+  static final int MAGIC = 0x4D494E31;
+
+  /**
+   * The version of the protocol we speak. Version 1 workers hash blocks
+   * without commitments, version 2 workers without timestamps, and
+   * version 3 workers read names with readUTF.
+   */
+  static final int VERSION = 4;
+
+  /**
+   * A new template.
+   */
+  static final int JOB = 1;
+
+  /**
+   * A range of nonces to search.
+   */
+  static final int RANGE = 2;
+
+  /**
+   * Stop working on a template.
+   */
+  static final int CANCEL = 3;
+
+  /**
+   * How far a worker has got.
+   */
+  static final int PROGRESS = 4;
+
+  /**
+   * A nonce that might win.
+   */
+  static final int FOUND = 5;
+
+  /**
+   * The number of nonces in a range, by default.
+   */
+  public static final long DEFAULT_RANGE = 1 << 20;
+
+  /**
+   * How long we wait to hear from a worker, by default, in
+   * milliseconds.
+   */
+  public static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where workers connect.
+   */
+  private final ServerSocket listener;
+
+  /**
+   * Runs the accept loop and one reader per worker.
+   */
+  private final ExecutorService executor;
+
+  /**
+   * Drops workers that have gone quiet.
+   */
+  private final ScheduledExecutorService reaper;
+
+  /**
+   * The number of nonces in a range.
+   */
+  private final long rangeSize;
+
+  /**
+   * How long we wait to hear from a worker, in nanoseconds.
+   */
+  private final long timeoutNanos;
+
+  /**
+   * The connected workers. This monitor guards everything about the
+   * current job.
+   */
+  private final ArrayList<Worker> workers = new ArrayList<Worker>();
+
+  /**
+   * Ranges abandoned by dropped workers, to hand out first.
+   */
+  private final ArrayDeque<long[]> orphans = new ArrayDeque<long[]>();
+
+  /**
+   * The current job, or null if we are idle.
+   */
+  private Job job;
+
+  /**
+   * The name of the newest job.
+   */
+  private int lastJobId;
+
+  /**
+   * The first nonce we have not handed out for the current job.
+   */
+  private long nextNonce;
+
+  /**
+   * The number of ranges taken back from workers we dropped.
+   */
+  private final LongAdder reassigned = new LongAdder();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Start listening for workers.
+   *
+   * @param port
+   *   The port to listen on, or 0 to pick any free port.
+   * @param range
+   *   The number of nonces in each range we hand out.
+   * @param timeoutMillis
+   *   How long we wait to hear from a worker before we drop it.
+   *
+   * @throws IOException
+   *   If we cannot bind to the port.
+   */
+  public MiningCoordinator(int port, long range, long timeoutMillis) throws IOException {
+    if (range < 1 || timeoutMillis < 1) {
+      throw new IllegalArgumentException("Invalid range or timeout");
+    } // if
+    this.rangeSize = range;
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    this.listener = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+    this.executor = Executors.newCachedThreadPool((task) -> {
+      Thread thread = new Thread(task, "mining-coordinator");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.reaper = Executors.newSingleThreadScheduledExecutor((task) -> {
+      Thread thread = new Thread(task, "mining-reaper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.execute(this::acceptAll);
+    long period = Math.max(1, timeoutMillis / 2);
+    this.reaper.scheduleAtFixedRate(this::reap, period, period, TimeUnit.MILLISECONDS);
+  } // MiningCoordinator(int, long, long)
+
+  /**
+   * Start listening for workers, with the default range and timeout.
+   *
+   * @param port
+   *   The port to listen on, or 0 to pick any free port.
+   *
+   * @throws IOException
+   *   If we cannot bind to the port.
+   */
+  public MiningCoordinator(int port) throws IOException {
+    this(port, DEFAULT_RANGE, DEFAULT_TIMEOUT_MILLIS);
+  } // MiningCoordinator(int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Read a hash.
+   *
+   * @param in
+   *   The stream, positioned at the hash's length.
+   *
+   * @return the hash.
+   *
+   * @throws IOException
+   *   If the stream cannot be read.
+   */
+  static Hash readHash(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readUnsignedByte()];
+    in.readFully(bytes);
+    return new Hash(bytes);
+  } // readHash(DataInputStream)
+
+  /**
+   * Accept workers until we are closed.
+   */
+  private void acceptAll() {
+    while (!this.listener.isClosed()) {
+      try {
+        Socket socket = this.listener.accept();
+        this.executor.execute(() -> listen(socket));
+      } catch (IOException e) {
+        // Closed, or a worker gave up while connecting.
+      } // try/catch
+    } // while
+  } // acceptAll()
+
+  /**
+   * Read one worker's messages until it goes away.
+   *
+   * @param socket
+   *   The worker's connection.
+   */
+  private void listen(Socket socket) {
+    Worker worker = null;
+    try {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        socket.close();
+        return;
+      } // if
+      worker = new Worker(socket);
+      this.executor.execute(worker::writeAll);
+      synchronized (this.workers) {
+        this.workers.add(worker);
+        if (this.job != null) {
+          worker.sendJob(this.job);
+          assign(worker);
+        } // if
+      } // synchronized
+      while (true) {
+        int op = in.readByte();
+        int id = in.readInt();
+        if (op == PROGRESS) {
+          progress(worker, id, in.readLong(), in.readLong(), in.readLong());
+        } else if (op == FOUND) {
+          found(id, in.readLong());
+        } else {
+          throw new IOException("Unknown message " + op);
+        } // if-else
+      } // while
+    } catch (IOException e) {
+      // The worker went away.
+    } finally {
+      if (worker != null) {
+        drop(worker);
+      } // if
+    } // try/catch/finally
+  } // listen(Socket)
+
+  /**
+   * Give a worker its next range of the current job. The caller holds
+   * the workers' monitor.
+   *
+   * @param worker
+   *   The worker.
+   */
+  private void assign(Worker worker) {
+    long[] range = this.orphans.poll();
+    if (range == null) {
+      range = new long[] {this.nextNonce, this.nextNonce + this.rangeSize};
+      this.nextNonce += this.rangeSize;
+    } // if
+    worker.from = range[0];
+    worker.end = range[1];
+    worker.heard = System.nanoTime();
+    worker.sendRange(this.job.id, range[0], range[1] - range[0]);
+  } // assign(Worker)
+
+  /**
+   * Note a worker's progress, and give it more work if it is done.
+   *
+   * @param worker
+   *   The worker.
+   * @param id
+   *   The job it is working on.
+   * @param next
+   *   The next nonce it would try.
+   * @param attempts
+   *   The number of nonces it tried since its last report.
+   * @param nanos
+   *   The time since its last report.
+   */
+  private void progress(Worker worker, int id, long next, long attempts, long nanos) {
+    synchronized (this.workers) {
+      worker.heard = System.nanoTime();
+      worker.rate = (nanos <= 0) ? 0 : attempts * 1e9 / nanos;
+      if (this.job == null || this.job.id != id) {
+        return;
+      } // if
+      worker.from = next;
+      if (next >= worker.end) {
+        assign(worker);
+      } // if
+    } // synchronized
+  } // progress(Worker, int, long, long, long)
+
+  /**
+   * Check a nonce a worker found and, if it wins, finish the job.
+   *
+   * @param id
+   *   The job.
+   * @param nonce
+   *   The nonce.
+   */
+  private void found(int id, long nonce) {
+    Job current;
+    synchronized (this.workers) {
+      current = this.job;
+    } // synchronized
+    if (current == null || current.id != id) {
+      return;
+    } // if
+    Block blk = new Block(current.num, current.transaction, current.prevHash, current.millis,
+        nonce);
+    if (current.check.isValid(blk.getHash())) {
+      synchronized (this.workers) {
+        if (this.job == current) {
+          stop();
+        } // if
+      } // synchronized
+      current.result.complete(blk);
+    } // if
+  } // found(int, long)
+
+  /**
+   * Stop the current job and tell every worker. The caller holds the
+   * workers' monitor.
+   */
+  private void stop() {
+    if (this.job == null) {
+      return;
+    } // if
+    for (Worker worker : this.workers) {
+      worker.end = worker.from;
+      worker.sendCancel(this.job.id);
+    } // for
+    this.orphans.clear();
+    this.job = null;
+  } // stop()
+
+  /**
+   * Forget a worker, keeping the rest of its range for someone else.
+   *
+   * @param worker
+   *   The worker.
+   */
+  private void drop(Worker worker) {
+    worker.close();
+    synchronized (this.workers) {
+      if (!this.workers.remove(worker)) {
+        return;
+      } // if
+      if (this.job != null && worker.from < worker.end) {
+        this.orphans.add(new long[] {worker.from, worker.end});
+        this.reassigned.increment();
+        for (Worker other : this.workers) {
+          if (other.from >= other.end && !this.orphans.isEmpty()) {
+            assign(other);
+          } // if
+        } // for
+      } // if
+    } // synchronized
+  } // drop(Worker)
+
+  /**
+   * Drop the workers we have not heard from in too long.
+   */
+  private void reap() {
+    long now = System.nanoTime();
+    ArrayList<Worker> quiet = new ArrayList<Worker>();
+    synchronized (this.workers) {
+      for (Worker worker : this.workers) {
+        if (worker.from < worker.end && now - worker.heard > this.timeoutNanos) {
+          quiet.add(worker);
+        } // if
+      } // for
+    } // synchronized
+    for (Worker worker : quiet) {
+      drop(worker);
+    } // for
+  } // reap()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the address workers should connect to.
+   *
+   * @return the address.
+   */
+  public InetSocketAddress getAddress() {
+    return new InetSocketAddress(this.listener.getInetAddress(), this.listener.getLocalPort());
+  } // getAddress()
+
+  /**
+   * Get the number of connected workers.
+   *
+   * @return the number of workers.
+   */
+  public int getWorkerCount() {
+    synchronized (this.workers) {
+      return this.workers.size();
+    } // synchronized
+  } // getWorkerCount()
+
+  /**
+   * Get the combined hash rate the workers last reported.
+   *
+   * @return hashes per second.
+   */
+  public double getHashRate() {
+    double total = 0;
+    synchronized (this.workers) {
+      for (Worker worker : this.workers) {
+        total += worker.rate;
+      } // for
+    } // synchronized
+    return total;
+  } // getHashRate()
+
+  /**
+   * Get the number of ranges we took back from workers we dropped.
+   *
+   * @return the number of ranges reassigned.
+   */
+  public long getReassignedRanges() {
+    return this.reassigned.sum();
+  } // getReassignedRanges()
+
+  /**
+   * Mine a block with the workers, stopping any job already running.
+   * Blocks until a worker finds a nonce.
+   *
+   * @param num
+   *   The number of the block.
+   * @param t
+   *   The transaction in the block.
+   * @param prevHash
+   *   The hash of the previous block.
+   * @param millis
+   *   The timestamp of the block.
+   * @param check
+   *   The validator the hash must satisfy, which must be a
+   *   LeadingZerosValidator.
+   *
+   * @return the mined block.
+   *
+   * @throws CancellationException
+   *   If the job is cancelled or replaced before it is done.
+   * @throws InterruptedException
+   *   If we are interrupted while waiting; the job keeps running.
+   */
+  public Block mine(int num, Transaction t, Hash prevHash, long millis, HashValidator check)
+      throws InterruptedException {
+    if (!(check instanceof LeadingZerosValidator)) {
+      throw new IllegalArgumentException("Workers can only mine for leading zeros");
+    } // if
+    Job started;
+    Job replaced;
+    synchronized (this.workers) {
+      replaced = this.job;
+      stop();
+      started = new Job(++this.lastJobId, (LeadingZerosValidator) check, num, t, prevHash,
+          millis);
+      this.job = started;
+      this.nextNonce = 0;
+      for (Worker worker : this.workers) {
+        worker.sendJob(started);
+        assign(worker);
+      } // for
+    } // synchronized
+    if (replaced != null) {
+      replaced.result.cancel(false);
+    } // if
+    try {
+      return started.result.get();
+    } catch (ExecutionException e) {
+      // We only ever complete jobs normally.
+      throw new IllegalStateException(e);
+    } // try/catch
+  } // mine(int, Transaction, Hash, long, HashValidator)
+
+  /**
+   * Mine a block without a timestamp with the workers, stopping any job
+   * already running. Blocks until a worker finds a nonce.
+   *
+   * @param num
+   *   The number of the block.
+   * @param t
+   *   The transaction in the block.
+   * @param prevHash
+   *   The hash of the previous block.
+   * @param check
+   *   The validator the hash must satisfy, which must be a
+   *   LeadingZerosValidator.
+   *
+   * @return the mined block.
+   *
+   * @throws CancellationException
+   *   If the job is cancelled or replaced before it is done.
+   * @throws InterruptedException
+   *   If we are interrupted while waiting; the job keeps running.
+   */
+  public Block mine(int num, Transaction t, Hash prevHash, HashValidator check)
+      throws InterruptedException {
+    return mine(num, t, prevHash, 0L, check);
+  } // mine(int, Transaction, Hash, HashValidator)
+
+  /**
+   * Mine the next block of a chain with the workers.
+   *
+   * @param chain
+   *   The chain.
+   * @param t
+   *   The transaction in the block.
+   *
+   * @return the mined block.
+   *
+   * @throws CancellationException
+   *   If the job is cancelled or replaced before it is done.
+   * @throws InterruptedException
+   *   If we are interrupted while waiting.
+   */
+  public Block mine(BlockChain chain, Transaction t) throws InterruptedException {
+    int height = chain.getSize();
+    return mine(height, t, chain.getHash(), chain.timestampFor(height),
+        chain.validatorFor(height));
+  } // mine(BlockChain, Transaction)
+
+  /**
+   * Stop the current job, if any.
+   */
+  public void cancel() {
+    Job stopped;
+    synchronized (this.workers) {
+      stopped = this.job;
+      stop();
+    } // synchronized
+    if (stopped != null) {
+      stopped.result.cancel(false);
+    } // if
+  } // cancel()
+
+  /**
+   * Stop the current job and disconnect every worker.
+   *
+   * @throws IOException
+   *   If the listening socket cannot be closed.
+   */
+  public void close() throws IOException {
+    cancel();
+    this.reaper.shutdownNow();
+    this.listener.close();
+    synchronized (this.workers) {
+      for (Worker worker : this.workers) {
+        worker.close();
+      } // for
+    } // synchronized
+    this.executor.shutdown();
+  } // close()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A template being mined.
+   */
+  static class Job {
+    /** Our name for the job. */
+    final int id;
+    /** The validator the hash must satisfy. */
+    final LeadingZerosValidator check;
+    /** The number of the block. */
+    final int num;
+    /** The transaction in the block. */
+    final Transaction transaction;
+    /** The hash of the previous block. */
+    final Hash prevHash;
+    /** The timestamp of the block. */
+    final long millis;
+    /** The mined block, once we have it. */
+    final CompletableFuture<Block> result = new CompletableFuture<Block>();
+
+    /**
+     * Create a job.
+     *
+     * @param jobId Our name for the job.
+     * @param validator The validator the hash must satisfy.
+     * @param blockNum The number of the block.
+     * @param t The transaction in the block.
+     * @param prev The hash of the previous block.
+     * @param timestamp The timestamp of the block.
+     */
+    Job(int jobId, LeadingZerosValidator validator, int blockNum, Transaction t, Hash prev,
+        long timestamp) {
+      this.id = jobId;
+      this.check = validator;
+      this.num = blockNum;
+      this.transaction = t;
+      this.prevHash = prev;
+      this.millis = timestamp;
+    } // Job(int, LeadingZerosValidator, int, Transaction, Hash, long)
+  } // class Job
+
+  /**
+   * A connected worker. Its fields are guarded by the workers' monitor;
+   * its messages go through its outbox, which guards itself.
+   */
+  static class Worker {
+    /** Ends the writer when it reaches the front of the outbox. */
+    static final byte[] CLOSED = new byte[0];
+    /** The connection. */
+    final Socket socket;
+    /** Our messages to it, written only by writeAll. */
+    final DataOutputStream out;
+    /** Messages waiting to be written, in order. */
+    final LinkedBlockingQueue<byte[]> outbox = new LinkedBlockingQueue<byte[]>();
+    /** The next nonce it will try in its range. */
+    long from;
+    /** The end of its range; from == end when it has none. */
+    long end;
+    /** When we last heard from it, in System.nanoTime() terms. */
+    long heard = System.nanoTime();
+    /** Its latest hash rate, in hashes per second. */
+    double rate;
+
+    /**
+     * Wrap a worker's connection.
+     *
+     * @param connection The connection.
+     * @throws IOException If the connection is already broken.
+     */
+    Worker(Socket connection) throws IOException {
+      this.socket = connection;
+      this.out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+    } // Worker(Socket)
+
+    /**
+     * Write queued messages until we are closed or the worker goes
+     * away, flushing whenever the outbox runs dry.
+     */
+    void writeAll() {
+      try {
+        byte[] message;
+        while ((message = this.outbox.take()) != CLOSED) {
+          this.out.write(message);
+          if (this.outbox.isEmpty()) {
+            this.out.flush();
+          } // if
+        } // while
+      } catch (IOException | InterruptedException e) {
+        // Its reader will notice and drop it.
+        close();
+      } // try/catch
+    } // writeAll()
+
+    /**
+     * Queue a template.
+     *
+     * @param job The job.
+     */
+    void sendJob(Job job) {
+      byte[] source = job.transaction.sourceBytes();
+      byte[] target = job.transaction.targetBytes();
+      byte[] prev = job.prevHash.getBytes();
+      ByteBuffer msg = ByteBuffer.allocate(1 + 6 * Integer.BYTES + source.length
+          + target.length + 1 + prev.length + Long.BYTES);
+      msg.put((byte) JOB).putInt(job.id).putInt(job.check.getBits()).putInt(job.num);
+      msg.putInt(source.length).put(source).putInt(target.length).put(target);
+      msg.putInt(job.transaction.getAmount());
+      msg.put((byte) prev.length).put(prev);
+      msg.putLong(job.millis);
+      this.outbox.add(msg.array());
+      this.from = 0;
+      this.end = 0;
+    } // sendJob(Job)
+
+    /**
+     * Queue a range.
+     *
+     * @param id The job.
+     * @param first The first nonce.
+     * @param count The number of nonces.
+     */
+    void sendRange(int id, long first, long count) {
+      ByteBuffer msg = ByteBuffer.allocate(1 + Integer.BYTES + 2 * Long.BYTES);
+      msg.put((byte) RANGE).putInt(id).putLong(first).putLong(count);
+      this.outbox.add(msg.array());
+    } // sendRange(int, long, long)
+
+    /**
+     * Queue a message telling the worker to stop a job.
+     *
+     * @param id The job.
+     */
+    void sendCancel(int id) {
+      ByteBuffer msg = ByteBuffer.allocate(1 + Integer.BYTES);
+      msg.put((byte) CANCEL).putInt(id);
+      this.outbox.add(msg.array());
+    } // sendCancel(int)
+
+    /**
+     * Disconnect, ignoring errors, and stop the writer.
+     */
+    void close() {
+      this.outbox.add(CLOSED);
+      try {
+        this.socket.close();
+      } catch (IOException e) {
+        // Nothing more to do.
+      } // try/catch
+    } // close()
+  } // class Worker
+} // class MiningCoordinator
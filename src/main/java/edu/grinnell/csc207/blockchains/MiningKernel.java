@@ -0,0 +1,246 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A SHA-256 kernel for mining one block template. The bytes Block hashes
+ * are the same for every nonce except the last eight, so we encode them
+ * once, and if they fill two or more whole 64-byte chunks we compress
+ * those once too (the midstate) and start each attempt from a copy of
+ * it. Each attempt then hashes only the remaining bytes and the nonce.
+ *
+ * Digests are bit-identical to Block.computeHash. When the validator is
+ * a LeadingZerosValidator we test the digest bytes directly and only
+ * build a Hash for the winner; other validators see a Hash for every
+ * candidate, as they would with Block.mine.
+ *
+ * Kernels are not thread-safe; each miner needs its own.
+ *
+ * @author Andrew Fargo
+ */
+class MiningKernel {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of bytes in a SHA-256 chunk.
+   */
+  static final int CHUNK_BYTES = 64;
+
+  /**
+   * The number of bytes in a SHA-256 digest.
+   */
+  static final int DIGEST_BYTES = 32;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Everything Block hashes before the nonce.
+   */
+  private final byte[] prefix;
+
+  /**
+   * The number of prefix bytes already compressed into midstate.
+   */
+  private final int compressed;
+
+  /**
+   * A digest that has seen the first compressed bytes of the prefix, or
+   * null if we compress none.
+   */
+  private final MessageDigest midstate;
+
+  /**
+   * The digest we hash with when there is no midstate.
+   */
+  private final MessageDigest md;
+
+  /**
+   * The nonce, as bytes.
+   */
+  private final ByteBuffer nonceBytes = ByteBuffer.allocate(Long.BYTES);
+
+  /**
+   * The latest digest.
+   */
+  private final byte[] digest = new byte[DIGEST_BYTES];
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build a kernel for a block template.
+   *
+   * @param num
+   *   The number of the block.
+   * @param t
+   *   The transaction in the block.
+   * @param prevHash
+   *   The hash of the previous block.
+   * @param millis
+   *   The timestamp of the block.
+   */
+  MiningKernel(int num, Transaction t, Hash prevHash, long millis) {
+    byte[] commitment = t.commitment();
+    byte[] prev = prevHash.getBytes();
+    this.prefix = ByteBuffer.allocate(Integer.BYTES + commitment.length + prev.length
+        + Long.BYTES).putInt(num).put(commitment).put(prev).putLong(millis).array();
+    // Copying a digest costs about as much as compressing a chunk, so
+    // a midstate only pays when it saves more than one.
+    int chunks = this.prefix.length / CHUNK_BYTES;
+    this.compressed = (chunks > 1) ? chunks * CHUNK_BYTES : 0;
+    try {
+      this.md = MessageDigest.getInstance("sha-256");
+      if (this.compressed > 0) {
+        MessageDigest mid = MessageDigest.getInstance("sha-256");
+        mid.update(this.prefix, 0, this.compressed);
+        // Make sure we can copy it before we rely on it.
+        mid.clone();
+        this.midstate = mid;
+      } else {
+        this.midstate = null;
+      } // if-else
+    } catch (NoSuchAlgorithmException | CloneNotSupportedException e) {
+      // Unrecoverable.
+      throw new RuntimeException(e);
+    } // try/catch
+  } // MiningKernel(int, Transaction, Hash, long)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Hash the template with a nonce into digest.
+   *
+   * @param nonce
+   *   The nonce.
+   */
+  private void hashInto(long nonce) {
+    MessageDigest d = this.md;
+    if (this.midstate != null) {
+      try {
+        d = (MessageDigest) this.midstate.clone();
+      } catch (CloneNotSupportedException e) {
+        // We cloned it once already, so this cannot happen.
+        throw new IllegalStateException(e);
+      } // try/catch
+    } // if
+    d.update(this.prefix, this.compressed, this.prefix.length - this.compressed);
+    d.update(this.nonceBytes.putLong(0, nonce).array());
+    try {
+      d.digest(this.digest, 0, DIGEST_BYTES);
+    } catch (DigestException e) {
+      // The buffer is always big enough.
+      throw new IllegalStateException(e);
+    } // try/catch
+  } // hashInto(long)
+
+  /**
+   * Determine whether the latest digest starts with enough zero bits.
+   *
+   * @param bits
+   *   The number of zero bits required.
+   *
+   * @return true if it does.
+   */
+  private boolean hasLeadingZeros(int bits) {
+    if (bits > DIGEST_BYTES * Byte.SIZE) {
+      return false;
+    } // if
+    int fullBytes = bits / Byte.SIZE;
+    for (int i = 0; i < fullBytes; i++) {
+      if (this.digest[i] != 0) {
+        return false;
+      } // if
+    } // for
+    int extraBits = bits % Byte.SIZE;
+    return (extraBits == 0)
+        || ((this.digest[fullBytes] & 0xFF) >>> (Byte.SIZE - extraBits)) == 0;
+  } // hasLeadingZeros(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Compute the hash of the template with one nonce.
+   *
+   * @param nonce
+   *   The nonce.
+   *
+   * @return the hash, exactly as Block.computeHash would give it.
+   */
+  Hash hash(long nonce) {
+    hashInto(nonce);
+    return new Hash(this.digest);
+  } // hash(long)
+
+  /**
+   * Try nonces in order, stopping at the first one whose hash is valid.
+   *
+   * @param check
+   *   The validator the hash must satisfy.
+   * @param from
+   *   The first nonce to try.
+   * @param count
+   *   The number of nonces to try.
+   *
+   * @return the result of the search.
+   */
+  Result search(HashValidator check, long from, long count) {
+    int bits = (check instanceof LeadingZerosValidator)
+        ? ((LeadingZerosValidator) check).getBits() : -1;
+    for (long tried = 0; tried < count; tried++) {
+      long nonce = from + tried;
+      hashInto(nonce);
+      if (bits >= 0) {
+        if (hasLeadingZeros(bits)) {
+          return new Result(nonce, new Hash(this.digest), tried + 1);
+        } // if
+      } else {
+        Hash h = new Hash(this.digest);
+        if (check.isValid(h)) {
+          return new Result(nonce, h, tried + 1);
+        } // if
+      } // if-else
+    } // for
+    return new Result(0, null, count);
+  } // search(HashValidator, long, long)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * The outcome of a search.
+   */
+  static class Result {
+    /** The winning nonce, if any. */
+    final long nonce;
+    /** The winning hash, or null if no nonce in the range won. */
+    final Hash hash;
+    /** The number of nonces tried. */
+    final long attempts;
+
+    /**
+     * Create a result.
+     *
+     * @param n The winning nonce.
+     * @param h The winning hash, or null.
+     * @param tried The number of nonces tried.
+     */
+    Result(long n, Hash h, long tried) {
+      this.nonce = n;
+      this.hash = h;
+      this.attempts = tried;
+    } // Result(long, Hash, long)
+  } // class Result
+} // class MiningKernel
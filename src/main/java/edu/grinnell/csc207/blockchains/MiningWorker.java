@@ -0,0 +1,311 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A miner that works on nonce ranges handed out by a MiningCoordinator.
+ * One thread reads the coordinator's messages while another searches
+ * the ranges in chunks, reporting its progress (and so its hash rate)
+ * at least every REPORT_MILLIS, whenever it finishes a range, and just
+ * before it reports a nonce.
+ *
+ * @author Andrew Fargo
+ */
+public class MiningWorker {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of nonces we try between looks at the clock and at
+   * cancellations.
+   */
+  static final long CHUNK = 1 << 14;
+
+  /**
+   * The longest we go without reporting progress, in milliseconds.
+   */
+  static final long REPORT_MILLIS = 200;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Our connection to the coordinator.
+   */
+  private final Socket socket;
+
+  /**
+   * The coordinator's messages.
+   */
+  private final DataInputStream in;
+
+  /**
+   * Our messages; guarded by its own monitor.
+   */
+  private final DataOutputStream out;
+
+  /**
+   * The ranges we have been given and not yet searched.
+   */
+  private final BlockingQueue<Range> ranges = new LinkedBlockingQueue<Range>();
+
+  /**
+   * The newest job the coordinator has cancelled.
+   */
+  private volatile int cancelled = -1;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Connect to a coordinator.
+   *
+   * @param coordinator
+   *   Where the coordinator listens.
+   *
+   * @throws IOException
+   *   If we cannot connect.
+   */
+  public MiningWorker(InetSocketAddress coordinator) throws IOException {
+    this.socket = new Socket(coordinator.getAddress(), coordinator.getPort());
+    this.socket.setTcpNoDelay(true);
+    this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+    this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+    synchronized (this.out) {
+      this.out.writeInt(MiningCoordinator.MAGIC);
+      this.out.writeInt(MiningCoordinator.VERSION);
+      this.out.flush();
+    } // synchronized
+  } // MiningWorker(InetSocketAddress)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Read a name the coordinator sent as an int length and UTF-8 bytes.
+   *
+   * @return the name.
+   *
+   * @throws IOException
+   *   If the name cannot be read or has a negative length.
+   */
+  private String readName() throws IOException {
+    String name = ResumableMiner.readName(this.in);
+    if (name == null) {
+      throw new IOException("Negative name length");
+    } // if
+    return name;
+  } // readName()
+
+  /**
+   * Read the coordinator's messages until it goes away, then tell the
+   * miner to stop.
+   */
+  private void listen() {
+    Job job = null;
+    try {
+      while (true) {
+        int op = this.in.readByte();
+        if (op == MiningCoordinator.JOB) {
+          job = new Job(this.in.readInt(), this.in.readInt(), this.in.readInt(),
+              new Transaction(readName(), readName(), this.in.readInt()),
+              MiningCoordinator.readHash(this.in), this.in.readLong());
+        } else if (op == MiningCoordinator.RANGE) {
+          int id = this.in.readInt();
+          long from = this.in.readLong();
+          long count = this.in.readLong();
+          if (job != null && job.id == id) {
+            this.ranges.add(new Range(job, from, count));
+          } // if
+        } else if (op == MiningCoordinator.CANCEL) {
+          this.cancelled = Math.max(this.cancelled, this.in.readInt());
+        } else {
+          throw new IOException("Unknown message " + op);
+        } // if-else
+      } // while
+    } catch (IOException e) {
+      // The coordinator is gone; so are we.
+    } finally {
+      this.ranges.add(Range.END);
+    } // try/catch/finally
+  } // listen()
+
+  /**
+   * Tell the coordinator how far we got.
+   *
+   * @param job
+   *   The job.
+   * @param next
+   *   The next nonce we would try.
+   * @param attempts
+   *   The number of nonces tried since the last report.
+   * @param nanos
+   *   The time since the last report.
+   *
+   * @throws IOException
+   *   If the coordinator is gone.
+   */
+  private void report(int job, long next, long attempts, long nanos) throws IOException {
+    synchronized (this.out) {
+      this.out.writeByte(MiningCoordinator.PROGRESS);
+      this.out.writeInt(job);
+      this.out.writeLong(next);
+      this.out.writeLong(attempts);
+      this.out.writeLong(nanos);
+      this.out.flush();
+    } // synchronized
+  } // report(int, long, long, long)
+
+  /**
+   * Tell the coordinator we found a nonce.
+   *
+   * @param job
+   *   The job.
+   * @param nonce
+   *   The nonce.
+   *
+   * @throws IOException
+   *   If the coordinator is gone.
+   */
+  private void found(int job, long nonce) throws IOException {
+    synchronized (this.out) {
+      this.out.writeByte(MiningCoordinator.FOUND);
+      this.out.writeInt(job);
+      this.out.writeLong(nonce);
+      this.out.flush();
+    } // synchronized
+  } // found(int, long)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Mine whatever the coordinator hands us until it goes away.
+   *
+   * @throws IOException
+   *   If we lose the coordinator while reporting.
+   * @throws InterruptedException
+   *   If we are interrupted while waiting for work.
+   */
+  public void run() throws IOException, InterruptedException {
+    Thread listener = new Thread(this::listen, "mining-worker-listener");
+    listener.setDaemon(true);
+    listener.start();
+    Job current = null;
+    MiningKernel kernel = null;
+    try {
+      Range range;
+      while ((range = this.ranges.take()) != Range.END) {
+        Job job = range.job;
+        if (job != current) {
+          current = job;
+          kernel = new MiningKernel(job.num, job.transaction, job.prevHash, job.millis);
+        } // if
+        long next = range.from;
+        long end = range.from + range.count;
+        long attempts = 0;
+        long since = System.nanoTime();
+        while (next < end && job.id > this.cancelled) {
+          MiningKernel.Result result =
+              kernel.search(job.check, next, Math.min(CHUNK, end - next));
+          attempts += result.attempts;
+          next += result.attempts;
+          long now = System.nanoTime();
+          if (result.hash != null) {
+            report(job.id, next, attempts, now - since);
+            found(job.id, result.nonce);
+            break;
+          } else if (next == end
+              || now - since >= REPORT_MILLIS * ChainMetrics.NANOS_PER_MILLI) {
+            report(job.id, next, attempts, now - since);
+            attempts = 0;
+            since = now;
+          } // if
+        } // while
+      } // while
+    } finally {
+      this.socket.close();
+    } // try-finally
+  } // run()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A block template to mine.
+   */
+  static class Job {
+    /** The coordinator's name for the job. */
+    final int id;
+    /** The validator the hash must satisfy. */
+    final LeadingZerosValidator check;
+    /** The number of the block. */
+    final int num;
+    /** The transaction in the block. */
+    final Transaction transaction;
+    /** The hash of the previous block. */
+    final Hash prevHash;
+    /** The timestamp of the block. */
+    final long millis;
+
+    /**
+     * Create a job.
+     *
+     * @param jobId The coordinator's name for the job.
+     * @param bits The number of leading zero bits required.
+     * @param blockNum The number of the block.
+     * @param t The transaction in the block.
+     * @param prev The hash of the previous block.
+     * @param timestamp The timestamp of the block.
+     */
+    Job(int jobId, int bits, int blockNum, Transaction t, Hash prev, long timestamp) {
+      this.id = jobId;
+      this.check = new LeadingZerosValidator(bits);
+      this.num = blockNum;
+      this.transaction = t;
+      this.prevHash = prev;
+      this.millis = timestamp;
+    } // Job(int, int, int, Transaction, Hash, long)
+  } // class Job
+
+  /**
+   * A range of nonces to search for a job.
+   */
+  static class Range {
+    /** Tells the miner to stop. */
+    static final Range END = new Range(null, 0, 0);
+    /** The job. */
+    final Job job;
+    /** The first nonce. */
+    final long from;
+    /** The number of nonces. */
+    final long count;
+
+    /**
+     * Create a range.
+     *
+     * @param j The job.
+     * @param first The first nonce.
+     * @param n The number of nonces.
+     */
+    Range(Job j, long first, long n) {
+      this.job = j;
+      this.from = first;
+      this.count = n;
+    } // Range(Job, long, long)
+  } // class Range
+} // class MiningWorker
@@ -0,0 +1,257 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * A block store that keeps blocks outside the Java heap, one column per
+ * field, so that the garbage collector never has to trace them. Rows are
+ * grouped into chunks of CHUNK_ROWS; each chunk is one direct buffer
+ * holding the block numbers, nonces, timestamps, amounts, user ids, and
+ * hashes of its rows in separate columns.
+ *
+ * We do not store previous hashes, since the previous hash of the block
+ * at height h is the hash of the block at height h - 1 (the chain has
+ * already checked that). User names live once each in an on-heap
+ * UserDictionary and rows refer to them by id, so rebuilt transactions
+ * share the dictionary's names and their encoded bytes. A chain shares
+ * its own dictionary with the store, so each name is held once for
+ * both. The heap holds a few objects per chunk and per user, no matter
+ * how long the chain grows.
+ *
+ * Blocks are rebuilt from their columns on each get, so callers should
+ * compare hashes with equals rather than ==. Rebuilt blocks are sealed
+ * if the blocks we were given were, which we note with a bit per row.
+ *
+ * @author Andrew Fargo
+ */
+public class OffHeapBlockStore implements BlockStore {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of rows in each chunk.
+   */
+  static final int CHUNK_ROWS = 1 << 16;
+
+  /**
+   * The number of bytes in each stored hash.
+   */
+  public static final int HASH_BYTES = 32;
+
+  /**
+   * Where the block number column starts in a chunk.
+   */
+  private static final int NUM_COLUMN = 0;
+
+  /**
+   * Where the nonce column starts in a chunk.
+   */
+  private static final int NONCE_COLUMN = NUM_COLUMN + CHUNK_ROWS * Integer.BYTES;
+
+  /**
+   * Where the timestamp column starts in a chunk.
+   */
+  private static final int TIMESTAMP_COLUMN = NONCE_COLUMN + CHUNK_ROWS * Long.BYTES;
+
+  /**
+   * Where the amount column starts in a chunk.
+   */
+  private static final int AMOUNT_COLUMN = TIMESTAMP_COLUMN + CHUNK_ROWS * Long.BYTES;
+
+  /**
+   * Where the source id column starts in a chunk.
+   */
+  private static final int SOURCE_COLUMN = AMOUNT_COLUMN + CHUNK_ROWS * Integer.BYTES;
+
+  /**
+   * Where the target id column starts in a chunk.
+   */
+  private static final int TARGET_COLUMN = SOURCE_COLUMN + CHUNK_ROWS * Integer.BYTES;
+
+  /**
+   * Where the hash column starts in a chunk.
+   */
+  private static final int HASH_COLUMN = TARGET_COLUMN + CHUNK_ROWS * Integer.BYTES;
+
+  /**
+   * The size of a chunk, in bytes.
+   */
+  static final int CHUNK_BYTES = HASH_COLUMN + CHUNK_ROWS * HASH_BYTES;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The chunks. Chunks are kept once allocated, so a chain that shrinks
+   * and grows again reuses them.
+   */
+  private final ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+  /**
+   * The number of blocks in use.
+   */
+  private int size;
+
+  /**
+   * The heights whose blocks were sealed when they were added.
+   */
+  private final BitSet sealed = new BitSet();
+
+  /**
+   * The previous hash of the block at height 0, which no row holds.
+   */
+  private Hash initialPrevHash;
+
+  /**
+   * User names and their ids; the chain's, once it shares them.
+   */
+  private UserDictionary names = new UserDictionary();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an empty store.
+   */
+  public OffHeapBlockStore() {
+    this.size = 0;
+  } // OffHeapBlockStore()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the chunk that holds a row.
+   *
+   * @param height
+   *   The height of the row.
+   *
+   * @return the chunk.
+   */
+  private ByteBuffer chunkFor(int height) {
+    return this.chunks.get(height / CHUNK_ROWS);
+  } // chunkFor(int)
+
+  /**
+   * Read the hash in a row.
+   *
+   * @param height
+   *   The height of the row.
+   *
+   * @return the hash.
+   */
+  private Hash hashAt(int height) {
+    byte[] bytes = new byte[HASH_BYTES];
+    chunkFor(height).get(HASH_COLUMN + (height % CHUNK_ROWS) * HASH_BYTES, bytes);
+    return new Hash(bytes);
+  } // hashAt(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * {@inheritDoc}
+   */
+  public int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * {@inheritDoc}
+   */
+  public Block get(int height) {
+    if (height < 0 || height >= this.size) {
+      throw new IndexOutOfBoundsException("No block at height " + height);
+    } // if
+    ByteBuffer chunk = chunkFor(height);
+    int row = height % CHUNK_ROWS;
+    Transaction t = this.names.transaction(
+        chunk.getInt(SOURCE_COLUMN + row * Integer.BYTES),
+        chunk.getInt(TARGET_COLUMN + row * Integer.BYTES),
+        chunk.getInt(AMOUNT_COLUMN + row * Integer.BYTES));
+    Hash prev = (height == 0) ? this.initialPrevHash : hashAt(height - 1);
+    Block blk = new Block(chunk.getInt(NUM_COLUMN + row * Integer.BYTES), t, prev,
+        chunk.getLong(TIMESTAMP_COLUMN + row * Long.BYTES),
+        chunk.getLong(NONCE_COLUMN + row * Long.BYTES), hashAt(height));
+    if (this.sealed.get(height)) {
+      // We were given a sealed block, and the rebuilt one is identical.
+      blk.seal();
+    } // if
+    return blk;
+  } // get(int)
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalArgumentException
+   *   If the block's hash is not HASH_BYTES long.
+   */
+  public void add(Block blk) {
+    byte[] hash = blk.getHash().getBytes();
+    if (hash.length != HASH_BYTES) {
+      throw new IllegalArgumentException("Cannot store a hash of " + hash.length + " bytes");
+    } // if
+    if (this.size == 0) {
+      this.initialPrevHash = blk.getPrevHash();
+    } // if
+    if (this.size / CHUNK_ROWS == this.chunks.size()) {
+      this.chunks.add(ByteBuffer.allocateDirect(CHUNK_BYTES));
+    } // if
+    Transaction t = blk.getTransaction();
+    ByteBuffer chunk = chunkFor(this.size);
+    int row = this.size % CHUNK_ROWS;
+    chunk.putInt(NUM_COLUMN + row * Integer.BYTES, blk.getNum());
+    chunk.putLong(NONCE_COLUMN + row * Long.BYTES, blk.getNonce());
+    chunk.putLong(TIMESTAMP_COLUMN + row * Long.BYTES, blk.getTimestamp());
+    chunk.putInt(AMOUNT_COLUMN + row * Integer.BYTES, t.getAmount());
+    chunk.putInt(SOURCE_COLUMN + row * Integer.BYTES, this.names.idFor(t.getSource()));
+    chunk.putInt(TARGET_COLUMN + row * Integer.BYTES, this.names.idFor(t.getTarget()));
+    chunk.put(HASH_COLUMN + row * HASH_BYTES, hash);
+    this.sealed.set(this.size, blk.isSealed());
+    this.size++;
+  } // add(Block)
+
+  /**
+   * {@inheritDoc}
+   */
+  public void removeLast() {
+    if (this.size == 0) {
+      throw new IllegalStateException("Store is empty");
+    } // if
+    this.size--;
+  } // removeLast()
+
+  /**
+   * Refer to names by their ids in another dictionary from now on, as
+   * chains do with their own dictionary when they take an empty store.
+   *
+   * @param dictionary
+   *   The dictionary.
+   *
+   * @throws IllegalStateException
+   *   If we already hold blocks, whose rows use our ids.
+   */
+  void shareNames(UserDictionary dictionary) {
+    if (this.size != 0) {
+      throw new IllegalStateException("Store already has blocks");
+    } // if
+    this.names = dictionary;
+  } // shareNames(UserDictionary)
+
+  /**
+   * Get the number of distinct user names in our dictionary. Like the
+   * dictionary, this only grows.
+   *
+   * @return the size of the name dictionary.
+   */
+  public int userCount() {
+    return this.names.size();
+  } // userCount()
+} // class OffHeapBlockStore
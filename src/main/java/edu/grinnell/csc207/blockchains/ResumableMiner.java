@@ -0,0 +1,357 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A miner that walks the nonce space in order, one range at a time, and
+ * saves how far it got to a small checkpoint file after each range. If
+ * the process dies, mining the same block template (number, transaction,
+ * and previous hash) picks up from the last saved range instead of
+ * starting over.
+ *
+ * @author Andrew Fargo
+ */
+public class ResumableMiner {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * Identifies our checkpoint files. Checkpoints in older layouts have
+   * other magic numbers and are ignored.
+   */
+  static final int MAGIC = 0x4E4F4E33;
+
+  /**
+   * The number of nonces to try between checkpoints by default.
+   */
+  public static final long DEFAULT_RANGE = 1L << 20;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where we save our progress.
+   */
+  private final Path checkpoint;
+
+  /**
+   * The number of nonces to try between checkpoints.
+   */
+  private final long rangeSize;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a miner that checkpoints to a file.
+   *
+   * @param checkpointFile
+   *   Where to save progress.
+   * @param range
+   *   The number of nonces to try between checkpoints.
+   */
+  public ResumableMiner(Path checkpointFile, long range) {
+    if (range <= 0) {
+      throw new IllegalArgumentException("Range size must be positive");
+    } // if
+    this.checkpoint = checkpointFile;
+    this.rangeSize = range;
+  } // ResumableMiner(Path, long)
+
+  /**
+   * Create a miner that checkpoints to a file every DEFAULT_RANGE
+   * nonces.
+   *
+   * @param checkpointFile
+   *   Where to save progress.
+   */
+  public ResumableMiner(Path checkpointFile) {
+    this(checkpointFile, DEFAULT_RANGE);
+  } // ResumableMiner(Path)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Write a name as its length in bytes followed by its UTF-8 bytes, so
+   * that names of any length round-trip.
+   *
+   * @param out
+   *   Where to write the name.
+   * @param name
+   *   The name.
+   *
+   * @throws IOException
+   *   If the name cannot be written.
+   */
+  static void writeName(DataOutputStream out, String name) throws IOException {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  } // writeName(DataOutputStream, String)
+
+  /**
+   * Read a name written by writeName.
+   *
+   * @param in
+   *   Where to read the name.
+   *
+   * @return the name, or null if its length is negative.
+   *
+   * @throws IOException
+   *   If the name cannot be read, including when the stream ends first.
+   */
+  static String readName(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    } // if
+    byte[] bytes = in.readNBytes(length);
+    if (bytes.length < length) {
+      throw new EOFException("Name cut short");
+    } // if
+    return new String(bytes, StandardCharsets.UTF_8);
+  } // readName(DataInputStream)
+
+  /**
+   * Read the checkpoint.
+   *
+   * @return the template and the next nonce to try, or null if there is
+   *   no usable checkpoint, including one torn or corrupted on disk.
+   *
+   * @throws IOException
+   *   If the checkpoint exists but cannot be read.
+   */
+  private Saved load() throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(this.checkpoint)))) {
+      if (in.readInt() != MAGIC) {
+        return null;
+      } // if
+      int num = in.readInt();
+      String source = readName(in);
+      String target = readName(in);
+      if (source == null || target == null) {
+        return null;
+      } // if
+      Transaction t = new Transaction(source, target, in.readInt());
+      int length = in.readInt();
+      if (length < 0 || length > BlockCodec.MAX_HASH_BYTES) {
+        // No hash is that long, so the length itself is corrupt.
+        return null;
+      } // if
+      byte[] prev = new byte[length];
+      in.readFully(prev);
+      long millis = in.readLong();
+      long next = in.readLong();
+      return new Saved(Block.template(num, t, new Hash(prev), millis), next);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (EOFException e) {
+      // A checkpoint torn by a crash is as good as none.
+      return null;
+    } // try/catch
+  } // load()
+
+  /**
+   * Determine whether two templates have the same contents, apart from
+   * perhaps their timestamps.
+   *
+   * @param a
+   *   One template.
+   * @param b
+   *   The other.
+   *
+   * @return true if they have the same number, transaction, and previous
+   *   hash.
+   */
+  private static boolean sameContents(Block a, Block b) {
+    return a.getNum() == b.getNum() && a.getTransaction().equals(b.getTransaction())
+        && a.getPrevHash().equals(b.getPrevHash());
+  } // sameContents(Block, Block)
+
+  /**
+   * Read the next nonce to try for a template from the checkpoint.
+   *
+   * @param template
+   *   The block we are mining.
+   *
+   * @return the saved nonce, or 0 if there is no checkpoint for this
+   *   template.
+   *
+   * @throws IOException
+   *   If the checkpoint exists but cannot be read.
+   */
+  long resumePoint(Block template) throws IOException {
+    Saved saved = load();
+    if (saved != null && sameContents(saved.template, template)
+        && saved.template.getTimestamp() == template.getTimestamp()) {
+      return saved.next;
+    } // if
+    return 0;
+  } // resumePoint(Block)
+
+  /**
+   * Save the next nonce to try for a template. We write a temporary
+   * file and move it into place so a crash never leaves a torn
+   * checkpoint behind.
+   *
+   * @param template
+   *   The block we are mining.
+   * @param next
+   *   The next nonce to try.
+   *
+   * @throws IOException
+   *   If the checkpoint cannot be written.
+   */
+  void save(Block template, long next) throws IOException {
+    Path tmp = this.checkpoint.resolveSibling(this.checkpoint.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      Transaction t = template.getTransaction();
+      byte[] prev = template.getPrevHash().getBytes();
+      out.writeInt(MAGIC);
+      out.writeInt(template.getNum());
+      writeName(out, t.getSource());
+      writeName(out, t.getTarget());
+      out.writeInt(t.getAmount());
+      out.writeInt(prev.length);
+      out.write(prev);
+      out.writeLong(template.getTimestamp());
+      out.writeLong(next);
+    } // try
+    Files.move(tmp, this.checkpoint, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  } // save(Block, long)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Mine a block, resuming from the checkpoint if it was saved for the
+   * same template. The checkpoint is removed once a nonce is found.
+   *
+   * @param num
+   *   The number of the block.
+   * @param transaction
+   *   The transaction for the block.
+   * @param prevHash
+   *   The hash of the previous block.
+   * @param millis
+   *   The timestamp of the block.
+   * @param check
+   *   The validator used to check the block.
+   *
+   * @return the mined block.
+   *
+   * @throws IOException
+   *   If the checkpoint cannot be read or written.
+   */
+  public Block mine(int num, Transaction transaction, Hash prevHash, long millis,
+      HashValidator check) throws IOException {
+    long start = System.nanoTime();
+    Block template = Block.template(num, transaction, prevHash, millis);
+    long first = resumePoint(template);
+    long next = first;
+    do {
+      if (template.mineRange(check, next, this.rangeSize)) {
+        Files.deleteIfExists(this.checkpoint);
+        ChainMetrics.recordBlockMined(System.nanoTime() - start);
+        return template;
+      } // if
+      next += this.rangeSize;
+      save(template, next);
+    } while (Long.compareUnsigned(next - first, -this.rangeSize) < 0);
+    throw new IllegalStateException("No nonce gives a valid hash for block " + num);
+  } // mine(int, Transaction, Hash, long, HashValidator)
+
+  /**
+   * Mine a block without a timestamp, resuming from the checkpoint if it
+   * was saved for the same template. The checkpoint is removed once a
+   * nonce is found.
+   *
+   * @param num
+   *   The number of the block.
+   * @param transaction
+   *   The transaction for the block.
+   * @param prevHash
+   *   The hash of the previous block.
+   * @param check
+   *   The validator used to check the block.
+   *
+   * @return the mined block.
+   *
+   * @throws IOException
+   *   If the checkpoint cannot be read or written.
+   */
+  public Block mine(int num, Transaction transaction, Hash prevHash, HashValidator check)
+      throws IOException {
+    return mine(num, transaction, prevHash, 0L, check);
+  } // mine(int, Transaction, Hash, HashValidator)
+
+  /**
+   * Mine a block for the end of a chain, resuming from the checkpoint
+   * if possible. A block resumed after a crash keeps the timestamp it
+   * was first given, so that the saved progress still applies.
+   *
+   * @param chain
+   *   The chain the block will be appended to.
+   * @param transaction
+   *   The transaction for the block.
+   *
+   * @return the mined block.
+   *
+   * @throws IOException
+   *   If the checkpoint cannot be read or written.
+   */
+  public Block mine(BlockChain chain, Transaction transaction) throws IOException {
+    int height = chain.getSize();
+    long millis = chain.timestampFor(height);
+    Block template = Block.template(height, transaction, chain.getHash(), millis);
+    Saved saved = load();
+    if (saved != null && sameContents(saved.template, template)) {
+      millis = saved.template.getTimestamp();
+    } // if
+    return mine(height, transaction, chain.getHash(), millis, chain.validatorFor(height));
+  } // mine(BlockChain, Transaction)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * The contents of a checkpoint.
+   */
+  private static class Saved {
+    /** The template being mined. */
+    final Block template;
+    /** The next nonce to try. */
+    final long next;
+
+    /**
+     * Create the contents of a checkpoint.
+     *
+     * @param blk The template being mined.
+     * @param nonce The next nonce to try.
+     */
+    Saved(Block blk, long nonce) {
+      this.template = blk;
+      this.next = nonce;
+    } // Saved(Block, long)
+  } // class Saved
+} // class ResumableMiner
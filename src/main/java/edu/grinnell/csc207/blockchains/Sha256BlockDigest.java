@@ -0,0 +1,210 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * Block hashes through a SHA-256 written for our block layout. Each
+ * thread lays the block out, padding included, in one reusable buffer
+ * and compresses it with a reusable message schedule, so hashing a
+ * block allocates nothing but its Hash.
+ *
+ * @author Andrew Fargo
+ */
+public class Sha256BlockDigest implements BlockDigest {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The SHA-256 round constants.
+   */
+  private static final int[] K = {
+    0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4,
+    0xab1c5ed5, 0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe,
+    0x9bdc06a7, 0xc19bf174, 0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f,
+    0x4a7484aa, 0x5cb0a9dc, 0x76f988da, 0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7,
+    0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967, 0x27b70a85, 0x2e1b2138, 0x4d2c6dfc,
+    0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85, 0xa2bfe8a1, 0xa81a664b,
+    0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070, 0x19a4c116,
+    0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+    0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7,
+    0xc67178f2};
+
+  /**
+   * The SHA-256 initial hash value.
+   */
+  private static final int[] IV = {
+    0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab,
+    0x5be0cd19};
+
+  /**
+   * The number of bytes in a SHA-256 chunk.
+   */
+  static final int CHUNK_BYTES = 64;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Each thread's hashing scratch space.
+   */
+  private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Compress the chunks of a padded message.
+   *
+   * @param msg
+   *   The message.
+   * @param length
+   *   The padded length of the message.
+   * @param w
+   *   A 64-word message schedule to reuse.
+   * @param h
+   *   The state; updated.
+   */
+  static void compress(byte[] msg, int length, int[] w, int[] h) {
+    for (int chunk = 0; chunk < length; chunk += CHUNK_BYTES) {
+      for (int t = 0; t < 16; t++) {
+        int i = chunk + t * Integer.BYTES;
+        w[t] = (msg[i] << 24) | ((msg[i + 1] & 0xFF) << 16) | ((msg[i + 2] & 0xFF) << 8)
+            | (msg[i + 3] & 0xFF);
+      } // for
+      for (int t = 16; t < 64; t++) {
+        int w15 = w[t - 15];
+        int w2 = w[t - 2];
+        w[t] = (Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10))
+            + w[t - 7]
+            + (Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3))
+            + w[t - 16];
+      } // for
+      int a = h[0];
+      int b = h[1];
+      int c = h[2];
+      int d = h[3];
+      int e = h[4];
+      int f = h[5];
+      int g = h[6];
+      int hh = h[7];
+      for (int t = 0; t < 64; t++) {
+        int t1 = hh
+            + (Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25))
+            + ((e & f) ^ (~e & g)) + K[t] + w[t];
+        int t2 = (Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13)
+                  ^ Integer.rotateRight(a, 22))
+            + ((a & b) ^ (a & c) ^ (b & c));
+        hh = g;
+        g = f;
+        f = e;
+        e = d + t1;
+        d = c;
+        c = b;
+        b = a;
+        a = t1 + t2;
+      } // for
+      h[0] += a;
+      h[1] += b;
+      h[2] += c;
+      h[3] += d;
+      h[4] += e;
+      h[5] += f;
+      h[6] += g;
+      h[7] += hh;
+    } // for
+  } // compress(byte[], int, int[], int[])
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * {@inheritDoc}
+   */
+  public Hash hash(int num, byte[] commitment, Hash prevHash, long millis, long nonce) {
+    Scratch s = this.scratch.get();
+    int length = Integer.BYTES + commitment.length + prevHash.length() + 2 * Long.BYTES;
+    s.reserve(length + 1 + Long.BYTES + CHUNK_BYTES);
+    byte[] msg = s.msg;
+    int pos = s.putInt(0, num);
+    System.arraycopy(commitment, 0, msg, pos, commitment.length);
+    pos += commitment.length;
+    for (int i = 0; i < prevHash.length(); i++) {
+      msg[pos++] = prevHash.get(i);
+    } // for
+    pos = s.putInt(s.putInt(pos, (int) (millis >>> 32)), (int) millis);
+    pos = s.putInt(s.putInt(pos, (int) (nonce >>> 32)), (int) nonce);
+    long bits = (long) pos * Byte.SIZE;
+    msg[pos++] = (byte) 0x80;
+    int padded = (pos + Long.BYTES + CHUNK_BYTES - 1) / CHUNK_BYTES * CHUNK_BYTES;
+    while (pos < padded - Long.BYTES) {
+      msg[pos++] = 0;
+    } // while
+    s.putInt(s.putInt(pos, (int) (bits >>> 32)), (int) bits);
+
+    int[] h = s.h;
+    System.arraycopy(IV, 0, h, 0, IV.length);
+    compress(msg, padded, s.w, h);
+    byte[] out = s.out;
+    for (int i = 0; i < h.length; i++) {
+      out[4 * i] = (byte) (h[i] >>> 24);
+      out[4 * i + 1] = (byte) (h[i] >>> 16);
+      out[4 * i + 2] = (byte) (h[i] >>> 8);
+      out[4 * i + 3] = (byte) h[i];
+    } // for
+    return new Hash(out);
+  } // hash(int, byte[], Hash, long, long)
+
+  /**
+   * {@inheritDoc}
+   */
+  public String name() {
+    return "sha256-java";
+  } // name()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * One thread's hashing scratch space.
+   */
+  private static class Scratch {
+    /** The message, padded. Grows as needed. */
+    byte[] msg = new byte[2 * CHUNK_BYTES];
+    /** The message schedule. */
+    final int[] w = new int[64];
+    /** The hash state. */
+    final int[] h = new int[8];
+    /** The digest bytes. */
+    final byte[] out = new byte[32];
+
+    /**
+     * Make sure the message buffer holds at least some bytes.
+     *
+     * @param bytes The number of bytes needed.
+     */
+    void reserve(int bytes) {
+      if (this.msg.length < bytes) {
+        this.msg = new byte[Math.max(bytes, 2 * this.msg.length)];
+      } // if
+    } // reserve(int)
+
+    /**
+     * Write an int, big-endian.
+     *
+     * @param pos Where to write it.
+     * @param value The int.
+     * @return the position just past it.
+     */
+    int putInt(int pos, int value) {
+      this.msg[pos] = (byte) (value >>> 24);
+      this.msg[pos + 1] = (byte) (value >>> 16);
+      this.msg[pos + 2] = (byte) (value >>> 8);
+      this.msg[pos + 3] = (byte) value;
+      return pos + Integer.BYTES;
+    } // putInt(int, int)
+
+  } // class Scratch
+} // class Sha256BlockDigest
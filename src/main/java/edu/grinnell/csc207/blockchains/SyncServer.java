@@ -0,0 +1,254 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * The leader's side of chain synchronization: serves a chain to
+ * ChainSync followers over TCP on the loopback address. Each follower
+ * gets its own thread. We hold the chain's read lock only while we copy
+ * blocks or hashes out of it, never while we write to a follower.
+ *
+ * @author Andrew Fargo
+ */
+public class SyncServer implements AutoCloseable {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The chain we serve.
+   */
+  private final BlockChain chain;
+
+  /**
+   * Held while we read the chain.
+   */
+  private final Lock reading;
+
+  /**
+   * Where followers connect.
+   */
+  private final ServerSocket listener;
+
+  /**
+   * Runs the accept loop and one task per follower.
+   */
+  private final ExecutorService executor;
+
+  /**
+   * The followers we are talking to.
+   */
+  private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Start serving a chain.
+   *
+   * @param served
+   *   The chain to serve.
+   * @param lock
+   *   The lock that guards the chain; we take its read lock.
+   * @param port
+   *   The port to listen on, or 0 to pick any free port.
+   *
+   * @throws IOException
+   *   If we cannot bind to the port.
+   */
+  public SyncServer(BlockChain served, ReadWriteLock lock, int port) throws IOException {
+    this.chain = served;
+    this.reading = lock.readLock();
+    this.listener = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+    this.executor = Executors.newCachedThreadPool((task) -> {
+      Thread thread = new Thread(task, "chain-sync");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.execute(this::acceptAll);
+  } // SyncServer(BlockChain, ReadWriteLock, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Accept followers until we are closed.
+   */
+  private void acceptAll() {
+    while (!this.listener.isClosed()) {
+      try {
+        Socket socket = this.listener.accept();
+        this.followers.add(socket);
+        this.executor.execute(() -> serve(socket));
+      } catch (IOException e) {
+        // Closed, or a follower gave up while connecting.
+      } // try/catch
+    } // while
+  } // acceptAll()
+
+  /**
+   * Talk to one follower until it says goodbye or goes away.
+   *
+   * @param socket
+   *   The follower's connection.
+   */
+  private void serve(Socket socket) {
+    try (socket) {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          socket.getInputStream(), ChainTransfer.BUFFER_SIZE));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          socket.getOutputStream(), ChainTransfer.BUFFER_SIZE));
+      if (in.readInt() != ChainSync.MAGIC || in.readInt() != ChainSync.VERSION) {
+        return;
+      } // if
+      out.writeInt(ChainSync.MAGIC);
+      out.writeInt(ChainSync.VERSION);
+      out.writeInt(size());
+      out.flush();
+      int op;
+      while ((op = in.read()) > ChainSync.BYE) {
+        if (op == ChainSync.HASHES) {
+          sendHashes(in, out);
+        } else if (op == ChainSync.BLOCKS) {
+          sendBlocks(in, out);
+        } else {
+          return;
+        } // if-else
+        out.flush();
+      } // while
+    } catch (IOException e) {
+      // The follower went away; nothing to do.
+    } finally {
+      this.followers.remove(socket);
+    } // try/catch/finally
+  } // serve(Socket)
+
+  /**
+   * Get the size of the chain.
+   *
+   * @return the number of blocks.
+   */
+  private int size() {
+    this.reading.lock();
+    try {
+      return this.chain.getSize();
+    } finally {
+      this.reading.unlock();
+    } // try-finally
+  } // size()
+
+  /**
+   * Answer a HASHES request.
+   *
+   * @param in
+   *   The request, just past its opcode.
+   * @param out
+   *   Where the reply goes.
+   *
+   * @throws IOException
+   *   If the follower goes away or asks for too much.
+   */
+  private void sendHashes(DataInputStream in, DataOutputStream out) throws IOException {
+    int n = in.readInt();
+    if (n < 0 || n > ChainSync.MAX_PROBES) {
+      throw new IOException("Too many probes: " + n);
+    } // if
+    int[] heights = new int[n];
+    for (int i = 0; i < n; i++) {
+      heights[i] = in.readInt();
+    } // for
+    byte[][] hashes = new byte[n][];
+    this.reading.lock();
+    try {
+      int size = this.chain.getSize();
+      for (int i = 0; i < n; i++) {
+        hashes[i] = (heights[i] >= 0 && heights[i] < size)
+            ? this.chain.store.get(heights[i]).getHash().getBytes() : new byte[0];
+      } // for
+    } finally {
+      this.reading.unlock();
+    } // try-finally
+    for (byte[] hash : hashes) {
+      out.writeByte(hash.length);
+      out.write(hash);
+    } // for
+  } // sendHashes(DataInputStream, DataOutputStream)
+
+  /**
+   * Answer a BLOCKS request.
+   *
+   * @param in
+   *   The request, just past its opcode.
+   * @param out
+   *   Where the reply goes.
+   *
+   * @throws IOException
+   *   If the follower goes away or asks for an invalid range.
+   */
+  private void sendBlocks(DataInputStream in, DataOutputStream out) throws IOException {
+    int from = in.readInt();
+    int count = Math.min(in.readInt(), ChainSync.MAX_BATCH);
+    if (from < 0 || count < 0) {
+      throw new IOException("Invalid range: " + count + " blocks from " + from);
+    } // if
+    Block[] blocks;
+    this.reading.lock();
+    try {
+      int to = (int) Math.min(this.chain.getSize(), (long) from + count);
+      blocks = new Block[Math.max(0, to - from)];
+      for (int i = 0; i < blocks.length; i++) {
+        blocks[i] = this.chain.store.get(from + i);
+      } // for
+    } finally {
+      this.reading.unlock();
+    } // try-finally
+    out.writeInt(blocks.length);
+    for (Block blk : blocks) {
+      ChainTransfer.writeRecord(out, blk);
+    } // for
+  } // sendBlocks(DataInputStream, DataOutputStream)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the address followers should connect to.
+   *
+   * @return the address.
+   */
+  public InetSocketAddress getAddress() {
+    return new InetSocketAddress(this.listener.getInetAddress(), this.listener.getLocalPort());
+  } // getAddress()
+
+  /**
+   * Stop serving, dropping any followers.
+   *
+   * @throws IOException
+   *   If the listening socket cannot be closed.
+   */
+  public void close() throws IOException {
+    this.listener.close();
+    for (Socket socket : this.followers) {
+      socket.close();
+    } // for
+    this.executor.shutdown();
+  } // close()
+} // class SyncServer
@@ -1,5 +1,9 @@
 package edu.grinnell.csc207.blockchains;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 /**
  * A simple transaction.
  *
@@ -7,6 +11,27 @@ package edu.grinnell.csc207.blockchains;
  *   Samuel A. Rebelsky
  */
 public class Transaction {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of bytes in a commitment.
+   */
+  static final int COMMITMENT_BYTES = 32;
+
+  /**
+   * Each thread's digest for computing commitments.
+   */
+  private static final ThreadLocal<MessageDigest> COMMITTER = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("sha-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Unrecoverable.
+      throw new RuntimeException(e);
+    } // try/catch
+  });
+
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
@@ -14,17 +39,35 @@ public class Transaction {
   /**
    * The source of a transfer.
    */
-  private String source;
+  private final String source;
 
   /**
    * The target of a transfer.
    */
-  private String target;
+  private final String target;
 
   /**
    * The amount transferred.
    */
-  private int amount;
+  private final int amount;
+
+  /**
+   * The source in UTF-8. May be shared with other transactions, so
+   * never modified.
+   */
+  private final byte[] sourceBytes;
+
+  /**
+   * The target in UTF-8. May be shared with other transactions, so
+   * never modified.
+   */
+  private final byte[] targetBytes;
+
+  /**
+   * The commitment, or null until we need it. Volatile, so that a
+   * thread that sees the array also sees its contents.
+   */
+  private volatile byte[] commitment;
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -42,10 +85,32 @@ public class Transaction {
    *   The funds transfered.
    */
   public Transaction(String src, String tgt, int amt) {
+    this(src, src.getBytes(StandardCharsets.UTF_8), tgt, tgt.getBytes(StandardCharsets.UTF_8),
+        amt);
+  } // Transaction(src)
+
+  /**
+   * Create a new Transaction whose names are already encoded, as a
+   * UserDictionary does.
+   *
+   * @param src
+   *   The source of the transaction (or empty for a deposit).
+   * @param srcBytes
+   *   The source in UTF-8.
+   * @param tgt
+   *   The person receiving the transaction.
+   * @param tgtBytes
+   *   The target in UTF-8.
+   * @param amt
+   *   The funds transfered.
+   */
+  Transaction(String src, byte[] srcBytes, String tgt, byte[] tgtBytes, int amt) {
     this.source = src;
     this.target = tgt;
     this.amount = amt;
-  } // Transaction(src)
+    this.sourceBytes = srcBytes;
+    this.targetBytes = tgtBytes;
+  } // Transaction(String, byte[], String, byte[], int)
 
   // +---------+-----------------------------------------------------
   // | Methods |
@@ -69,6 +134,64 @@ public class Transaction {
     return this.target;
   } // getTarget()
 
+  /**
+   * Get the source in UTF-8. Callers must not modify the result.
+   *
+   * @return the bytes of the source.
+   */
+  byte[] sourceBytes() {
+    return this.sourceBytes;
+  } // sourceBytes()
+
+  /**
+   * Get the target in UTF-8. Callers must not modify the result.
+   *
+   * @return the bytes of the target.
+   */
+  byte[] targetBytes() {
+    return this.targetBytes;
+  } // targetBytes()
+
+  /**
+   * Get the commitment to this transaction, computing it once: the
+   * SHA-256 of the source and target (each a 4-byte length followed by
+   * its UTF-8 bytes) followed by the amount, with numbers big-endian.
+   * Block hashes cover the commitment rather than the transaction, so
+   * a header alone is enough to recompute a block's hash. Callers must
+   * not modify the result.
+   *
+   * @return the COMMITMENT_BYTES bytes of the commitment.
+   */
+  byte[] commitment() {
+    byte[] bytes = this.commitment;
+    if (bytes == null) {
+      // Racing threads compute equal arrays, so either may win.
+      byte[] src = this.sourceBytes;
+      byte[] tgt = this.targetBytes;
+      MessageDigest md = COMMITTER.get();
+      md.update(intBytes(src.length));
+      md.update(src);
+      md.update(intBytes(tgt.length));
+      md.update(tgt);
+      md.update(intBytes(this.amount));
+      bytes = md.digest();
+      this.commitment = bytes;
+    } // if
+    return bytes;
+  } // commitment()
+
+  /**
+   * Convert an int to its big-endian bytes.
+   *
+   * @param i
+   *   The int.
+   *
+   * @return its four bytes.
+   */
+  private static byte[] intBytes(int i) {
+    return new byte[] {(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+  } // intBytes(int)
+
   /**
    * Get the amount of the transaction.
    *
@@ -0,0 +1,300 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Secondary indexes over the transactions in a chain, for
+ * TransactionQuery. We keep the source id, target id, and amount of
+ * every block in columns by height, and three kinds of posting lists:
+ * the heights at which each user is the source, the heights at which
+ * each user is the target, and the heights whose amounts fall in each
+ * power-of-two bucket. Heights only ever grow at the end and shrink from
+ * the end, so every list stays sorted by height without any work, and
+ * counting a list's entries in a height range takes two binary searches.
+ *
+ * User ids are those of the chain's UserDictionary. Indexes are guarded
+ * by their own monitor.
+ *
+ * @author Andrew Fargo
+ */
+class TransactionIndex {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of amount buckets. Bucket 0 holds amounts up to 0 and
+   * bucket b holds amounts from 2^(b-1) to 2^b - 1.
+   */
+  static final int AMOUNT_BUCKETS = Integer.SIZE;
+
+  /**
+   * The number of blocks we make room for at first.
+   */
+  private static final int INITIAL_CAPACITY = 1024;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The names whose ids we store.
+   */
+  final UserDictionary names;
+
+  /**
+   * The number of blocks indexed.
+   */
+  int size;
+
+  /**
+   * Source ids, by height.
+   */
+  int[] sources = new int[INITIAL_CAPACITY];
+
+  /**
+   * Target ids, by height.
+   */
+  int[] targets = new int[INITIAL_CAPACITY];
+
+  /**
+   * Amounts, by height.
+   */
+  int[] amounts = new int[INITIAL_CAPACITY];
+
+  /**
+   * The heights at which each user is the source, by user id.
+   */
+  final ArrayList<Postings> bySource = new ArrayList<Postings>();
+
+  /**
+   * The heights at which each user is the target, by user id.
+   */
+  final ArrayList<Postings> byTarget = new ArrayList<Postings>();
+
+  /**
+   * The heights whose amounts fall in each bucket.
+   */
+  final Postings[] byAmount = new Postings[AMOUNT_BUCKETS];
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an empty index.
+   *
+   * @param dictionary
+   *   The chain's names.
+   */
+  TransactionIndex(UserDictionary dictionary) {
+    this.names = dictionary;
+    for (int b = 0; b < AMOUNT_BUCKETS; b++) {
+      this.byAmount[b] = new Postings();
+    } // for
+  } // TransactionIndex(UserDictionary)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find the bucket of an amount.
+   *
+   * @param amount
+   *   The amount.
+   *
+   * @return the bucket.
+   */
+  static int bucketOf(int amount) {
+    return (amount <= 0) ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(amount);
+  } // bucketOf(int)
+
+  /**
+   * Find the smallest amount in a bucket.
+   *
+   * @param bucket
+   *   The bucket.
+   *
+   * @return the smallest amount, or Integer.MIN_VALUE for bucket 0.
+   */
+  static int bucketMin(int bucket) {
+    return (bucket == 0) ? Integer.MIN_VALUE : 1 << (bucket - 1);
+  } // bucketMin(int)
+
+  /**
+   * Find the largest amount in a bucket.
+   *
+   * @param bucket
+   *   The bucket.
+   *
+   * @return the largest amount.
+   */
+  static int bucketMax(int bucket) {
+    return (bucket == 0) ? 0 : (int) ((1L << bucket) - 1);
+  } // bucketMax(int)
+
+  /**
+   * Get a user's postings, making room for the user if need be.
+   *
+   * @param lists
+   *   The postings of every user.
+   * @param id
+   *   The user's id.
+   *
+   * @return the user's postings.
+   */
+  private static Postings postingsFor(ArrayList<Postings> lists, int id) {
+    while (lists.size() <= id) {
+      lists.add(new Postings());
+    } // while
+    return lists.get(id);
+  } // postingsFor(ArrayList<Postings>, int)
+
+  /**
+   * Index one block.
+   *
+   * @param t
+   *   The block's transaction.
+   */
+  private void add(Transaction t) {
+    int height = this.size;
+    if (height == this.sources.length) {
+      this.sources = Arrays.copyOf(this.sources, 2 * height);
+      this.targets = Arrays.copyOf(this.targets, 2 * height);
+      this.amounts = Arrays.copyOf(this.amounts, 2 * height);
+    } // if
+    int source = this.names.idFor(t.getSource());
+    int target = this.names.idFor(t.getTarget());
+    this.sources[height] = source;
+    this.targets[height] = target;
+    this.amounts[height] = t.getAmount();
+    postingsFor(this.bySource, source).add(height);
+    postingsFor(this.byTarget, target).add(height);
+    this.byAmount[bucketOf(t.getAmount())].add(height);
+    this.size++;
+  } // add(Transaction)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Index every block in a store that we have not indexed yet.
+   *
+   * @param store
+   *   The chain's store.
+   */
+  synchronized void catchUp(BlockStore store) {
+    int size = store.size();
+    while (this.size < size) {
+      add(store.get(this.size).getTransaction());
+    } // while
+  } // catchUp(BlockStore)
+
+  /**
+   * Forget the blocks at and above a height.
+   *
+   * @param height
+   *   The number of blocks to keep.
+   */
+  synchronized void truncate(int height) {
+    while (this.size > height) {
+      int last = --this.size;
+      this.bySource.get(this.sources[last]).removeLast();
+      this.byTarget.get(this.targets[last]).removeLast();
+      this.byAmount[bucketOf(this.amounts[last])].removeLast();
+    } // while
+  } // truncate(int)
+
+  /**
+   * Get the heights at which a user is the source.
+   *
+   * @param id
+   *   The user's id.
+   *
+   * @return the postings, possibly empty.
+   */
+  Postings sourcePostings(int id) {
+    return (id < this.bySource.size()) ? this.bySource.get(id) : Postings.EMPTY;
+  } // sourcePostings(int)
+
+  /**
+   * Get the heights at which a user is the target.
+   *
+   * @param id
+   *   The user's id.
+   *
+   * @return the postings, possibly empty.
+   */
+  Postings targetPostings(int id) {
+    return (id < this.byTarget.size()) ? this.byTarget.get(id) : Postings.EMPTY;
+  } // targetPostings(int)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A growable list of heights, in increasing order.
+   */
+  static class Postings {
+    /** A list that is always empty. */
+    static final Postings EMPTY = new Postings();
+    /** The heights. */
+    int[] heights = new int[4];
+    /** The number of heights. */
+    int size;
+
+    /**
+     * Add a height above every height in the list.
+     *
+     * @param height The height.
+     */
+    void add(int height) {
+      if (this.size == this.heights.length) {
+        this.heights = Arrays.copyOf(this.heights, 2 * this.size);
+      } // if
+      this.heights[this.size++] = height;
+    } // add(int)
+
+    /**
+     * Remove the highest height.
+     */
+    void removeLast() {
+      this.size--;
+    } // removeLast()
+
+    /**
+     * Find where heights at or above a height start.
+     *
+     * @param height The height.
+     * @return the index of the first entry at or above height.
+     */
+    int lowerBound(int height) {
+      int lo = 0;
+      int hi = this.size;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (this.heights[mid] < height) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        } // if-else
+      } // while
+      return lo;
+    } // lowerBound(int)
+
+    /**
+     * Count the entries in a height range.
+     *
+     * @param first The lowest height.
+     * @param last The highest height.
+     * @return the number of entries from first to last, inclusive.
+     */
+    int count(int first, int last) {
+      return Math.max(0, lowerBound(last + 1) - lowerBound(first));
+    } // count(int, int)
+  } // class Postings
+} // class TransactionIndex
@@ -0,0 +1,337 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A pool of pending transactions with a background miner. Transactions
+ * are admitted only if they are valid against the projected ledger (the
+ * chain's balances plus everything already pending), so overdrafts are
+ * rejected before any mining happens. A worker thread drains the pool in
+ * order, mining and appending one block per transaction, and completes
+ * each transaction's future with its block.
+ *
+ * The worker holds the chain's read lock while it reads the tip and its
+ * write lock while it appends (but neither while it mines), so a pool
+ * can share a chain with other writers, such as a BlockChainServer built
+ * with the same lock. Since another writer may spend a source after we
+ * admitted a transfer from it, the worker checks each transaction
+ * against the chain again just before it appends, and fails it (and
+ * rebuilds the projected ledger) if it is no longer valid.
+ *
+ * The worker mines in ranges of MINE_RANGE nonces and stops between
+ * ranges once the pool is closed, so closing never waits for a block.
+ *
+ * @author Andrew Fargo
+ */
+public class TransactionPool implements AutoCloseable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of nonces the worker tries between checks for close.
+   */
+  static final long MINE_RANGE = 1L << 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The chain we append to.
+   */
+  private final BlockChain chain;
+
+  /**
+   * Held while we read the chain.
+   */
+  private final Lock reading;
+
+  /**
+   * Held while we append to the chain.
+   */
+  private final Lock writing;
+
+  /**
+   * The balances we expect once every pending transaction is appended.
+   */
+  private HashMap<String, Integer> projected;
+
+  /**
+   * Transactions waiting to be mined, in order of admission.
+   */
+  private final LinkedBlockingQueue<Pending> queue;
+
+  /**
+   * The thread that mines and appends.
+   */
+  private final Thread worker;
+
+  /**
+   * Whether the worker should keep going.
+   */
+  private volatile boolean running;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a pool that feeds a chain no one else writes. Call start to
+   * begin mining.
+   *
+   * @param target
+   *   The chain to append to.
+   *
+   * @throws Exception
+   *   If the chain's balances are already invalid.
+   */
+  public TransactionPool(BlockChain target) throws Exception {
+    this(target, new ReentrantReadWriteLock());
+  } // TransactionPool(BlockChain)
+
+  /**
+   * Create a pool that feeds a chain guarded by a lock. Call start to
+   * begin mining.
+   *
+   * @param target
+   *   The chain to append to.
+   * @param lock
+   *   The lock that every reader and writer of the chain holds.
+   *
+   * @throws Exception
+   *   If the chain's balances are already invalid.
+   */
+  public TransactionPool(BlockChain target, ReadWriteLock lock) throws Exception {
+    this.chain = target;
+    this.reading = lock.readLock();
+    this.writing = lock.writeLock();
+    this.reading.lock();
+    try {
+      this.projected = target.balances();
+    } finally {
+      this.reading.unlock();
+    } // try-finally
+    this.queue = new LinkedBlockingQueue<Pending>();
+    this.worker = new Thread(this::drain, "transaction-pool-miner");
+    this.worker.setDaemon(true);
+  } // TransactionPool(BlockChain, ReadWriteLock)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Mine and append pending transactions until stopped.
+   */
+  private void drain() {
+    while (this.running) {
+      Pending next;
+      try {
+        next = this.queue.take();
+      } catch (InterruptedException e) {
+        break;
+      } // try/catch
+      try {
+        next.result.complete(mineAndAppend(next.transaction));
+      } catch (Exception e) {
+        next.result.completeExceptionally(e);
+        reproject();
+      } // try/catch
+    } // while
+    failPending(new IllegalStateException("Transaction pool closed"));
+  } // drain()
+
+  /**
+   * Mine a block for a transaction and append it, mining again if the
+   * chain moved while we were mining.
+   *
+   * @param t
+   *   The transaction to append.
+   *
+   * @return the appended block.
+   *
+   * @throws Exception
+   *   If the transaction is no longer valid against the chain, or the
+   *   pool closed while we were mining.
+   */
+  private Block mineAndAppend(Transaction t) throws Exception {
+    while (true) {
+      int height;
+      Hash prev;
+      long millis;
+      HashValidator check;
+      this.reading.lock();
+      try {
+        height = this.chain.getSize();
+        prev = this.chain.getHash();
+        millis = this.chain.timestampFor(height);
+        check = this.chain.validatorFor(height);
+      } finally {
+        this.reading.unlock();
+      } // try-finally
+      Block candidate = Block.template(height, t, prev, millis);
+      for (long from = 0; !candidate.mineRange(check, from, MINE_RANGE); from += MINE_RANGE) {
+        if (!this.running) {
+          throw new IllegalStateException("Transaction pool closed");
+        } // if
+      } // for
+      this.writing.lock();
+      try {
+        if (this.chain.getSize() == height && this.chain.getHash().equals(prev)) {
+          this.chain.checkNext(t);
+          this.chain.append(candidate);
+          return candidate;
+        } // if
+      } finally {
+        this.writing.unlock();
+      } // try-finally
+    } // while
+  } // mineAndAppend(Transaction)
+
+  /**
+   * Rebuild the projected ledger from the chain and the transactions
+   * still pending, failing any that are no longer valid.
+   */
+  private synchronized void reproject() {
+    this.reading.lock();
+    try {
+      this.projected = this.chain.balances();
+    } catch (Exception e) {
+      failPending(e);
+      this.projected = new HashMap<String, Integer>();
+      return;
+    } finally {
+      this.reading.unlock();
+    } // try/catch/finally
+    List<Pending> waiting = new ArrayList<Pending>();
+    this.queue.drainTo(waiting);
+    for (Pending p : waiting) {
+      try {
+        BlockChain.applyTransaction(this.projected, p.transaction, -1);
+        this.queue.add(p);
+      } catch (Exception e) {
+        p.result.completeExceptionally(e);
+      } // try/catch
+    } // for
+  } // reproject()
+
+  /**
+   * Fail every pending transaction.
+   *
+   * @param cause
+   *   Why they failed.
+   */
+  private void failPending(Exception cause) {
+    List<Pending> waiting = new ArrayList<Pending>();
+    this.queue.drainTo(waiting);
+    for (Pending p : waiting) {
+      p.result.completeExceptionally(cause);
+    } // for
+  } // failPending(Exception)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Start the background miner.
+   */
+  public void start() {
+    this.running = true;
+    this.worker.start();
+  } // start()
+
+  /**
+   * Admit a transaction to the pool.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return a future that completes with the transaction's block once
+   *   it has been appended.
+   *
+   * @throws IllegalArgumentException
+   *   If the transaction would overdraw its source (counting pending
+   *   transactions) or is otherwise invalid.
+   */
+  public synchronized CompletableFuture<Block> submit(Transaction t) {
+    try {
+      BlockChain.applyTransaction(this.projected, t, -1);
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Rejected " + t + ": " + e.getMessage());
+    } // try/catch
+    Pending p = new Pending(t);
+    this.queue.add(p);
+    return p.result;
+  } // submit(Transaction)
+
+  /**
+   * Get a user's balance once every pending transaction is appended.
+   *
+   * @param user
+   *   The user whose balance we want.
+   *
+   * @return the projected balance (or 0 for unknown users).
+   */
+  public synchronized int projectedBalance(String user) {
+    return this.projected.getOrDefault(user, 0);
+  } // projectedBalance(String)
+
+  /**
+   * Get the number of transactions waiting to be mined.
+   *
+   * @return the number of pending transactions.
+   */
+  public int pending() {
+    return this.queue.size();
+  } // pending()
+
+  /**
+   * Stop the background miner, failing any transactions still pending.
+   * If we are interrupted while waiting for the worker to stop, we stop
+   * waiting and keep the interrupt for our caller.
+   */
+  public void close() {
+    this.running = false;
+    this.worker.interrupt();
+    try {
+      this.worker.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } // try/catch
+    failPending(new IllegalStateException("Transaction pool closed"));
+  } // close()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A transaction waiting for its block.
+   */
+  private static class Pending {
+    /** The transaction to mine. */
+    final Transaction transaction;
+    /** Completes when the transaction is appended. */
+    final CompletableFuture<Block> result;
+
+    /**
+     * Create a pending transaction.
+     *
+     * @param t
+     *   The transaction.
+     */
+    Pending(Transaction t) {
+      this.transaction = t;
+      this.result = new CompletableFuture<Block>();
+    } // Pending(Transaction)
+  } // class Pending
+} // class TransactionPool
@@ -0,0 +1,345 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A query for the blocks of a chain whose transactions match every
+ * condition given: a height range, a source, a target, an amount range,
+ * and any number of predicates. Get one from BlockChain.query, narrow it,
+ * and run it with heights, blocks, or count.
+ *
+ * We answer from the chain's TransactionIndex. Of the height range, the
+ * source's and target's posting lists, and the amount buckets, we scan
+ * whichever holds the fewest heights in range and check the other
+ * conditions against the index's columns, so blocks are only read for
+ * the predicates and for the results. A query for the large transfers
+ * between two heights touches only the blocks in the buckets of large
+ * amounts.
+ *
+ * @author Andrew Fargo
+ */
+public class TransactionQuery {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The ways we can find candidate heights.
+   */
+  public enum Access {
+    /** Every height in the height range. */
+    HEIGHTS,
+    /** The heights at which the source sent funds. */
+    SOURCE,
+    /** The heights at which the target received funds. */
+    TARGET,
+    /** The heights in the amount buckets that overlap the amount range. */
+    AMOUNT
+  } // enum Access
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The chain we query.
+   */
+  private final BlockChain chain;
+
+  /**
+   * The lowest height to match.
+   */
+  private int first = 0;
+
+  /**
+   * The highest height to match.
+   */
+  private int last = Integer.MAX_VALUE;
+
+  /**
+   * The source to match, or null for any.
+   */
+  private String source;
+
+  /**
+   * The target to match, or null for any.
+   */
+  private String target;
+
+  /**
+   * The smallest amount to match.
+   */
+  private int minAmount = Integer.MIN_VALUE;
+
+  /**
+   * The largest amount to match.
+   */
+  private int maxAmount = Integer.MAX_VALUE;
+
+  /**
+   * Further conditions, or null for none.
+   */
+  private Predicate<Transaction> predicate;
+
+  /**
+   * How the last run found its candidates, or null if it has not run.
+   */
+  private Access access;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a query that matches every block in a chain.
+   *
+   * @param queried
+   *   The chain.
+   */
+  TransactionQuery(BlockChain queried) {
+    this.chain = queried;
+  } // TransactionQuery(BlockChain)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Determine whether the block at a height matches every condition
+   * but the predicate, using only the index's columns.
+   *
+   * @param index
+   *   The index.
+   * @param height
+   *   The height.
+   * @param sourceId
+   *   The source's id, or -1 for any.
+   * @param targetId
+   *   The target's id, or -1 for any.
+   *
+   * @return true if it matches.
+   */
+  private boolean matchesColumns(TransactionIndex index, int height, int sourceId,
+      int targetId) {
+    int amount = index.amounts[height];
+    return (sourceId < 0 || index.sources[height] == sourceId)
+        && (targetId < 0 || index.targets[height] == targetId)
+        && amount >= this.minAmount && amount <= this.maxAmount;
+  } // matchesColumns(TransactionIndex, int, int, int)
+
+  /**
+   * Check one candidate, adding it to the results if it matches.
+   *
+   * @param index
+   *   The index.
+   * @param height
+   *   The candidate's height.
+   * @param sourceId
+   *   The source's id, or -1 for any.
+   * @param targetId
+   *   The target's id, or -1 for any.
+   * @param results
+   *   The heights matched so far; updated.
+   */
+  private void consider(TransactionIndex index, int height, int sourceId, int targetId,
+      TransactionIndex.Postings results) {
+    if (matchesColumns(index, height, sourceId, targetId)
+        && (this.predicate == null || this.predicate.test(index.names.transaction(
+            index.sources[height], index.targets[height], index.amounts[height])))) {
+      results.add(height);
+    } // if
+  } // consider(TransactionIndex, int, int, int, TransactionIndex.Postings)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Match only blocks in a height range.
+   *
+   * @param lowest
+   *   The lowest height to match.
+   * @param highest
+   *   The highest height to match.
+   *
+   * @return this, so that calls can be chained.
+   */
+  public TransactionQuery between(int lowest, int highest) {
+    this.first = Math.max(this.first, lowest);
+    this.last = Math.min(this.last, highest);
+    return this;
+  } // between(int, int)
+
+  /**
+   * Match only transactions from a source. Use the empty name to match
+   * deposits.
+   *
+   * @param name
+   *   The source.
+   *
+   * @return this, so that calls can be chained.
+   */
+  public TransactionQuery source(String name) {
+    this.source = name;
+    return this;
+  } // source(String)
+
+  /**
+   * Match only transactions to a target.
+   *
+   * @param name
+   *   The target.
+   *
+   * @return this, so that calls can be chained.
+   */
+  public TransactionQuery target(String name) {
+    this.target = name;
+    return this;
+  } // target(String)
+
+  /**
+   * Match only transactions whose amounts are in a range.
+   *
+   * @param smallest
+   *   The smallest amount to match.
+   * @param largest
+   *   The largest amount to match.
+   *
+   * @return this, so that calls can be chained.
+   */
+  public TransactionQuery amountBetween(int smallest, int largest) {
+    this.minAmount = Math.max(this.minAmount, smallest);
+    this.maxAmount = Math.min(this.maxAmount, largest);
+    return this;
+  } // amountBetween(int, int)
+
+  /**
+   * Match only transactions of at least an amount.
+   *
+   * @param smallest
+   *   The smallest amount to match.
+   *
+   * @return this, so that calls can be chained.
+   */
+  public TransactionQuery amountAtLeast(int smallest) {
+    return amountBetween(smallest, Integer.MAX_VALUE);
+  } // amountAtLeast(int)
+
+  /**
+   * Match only transactions that also satisfy a predicate. Predicates
+   * are only tested on transactions that meet the other conditions.
+   *
+   * @param condition
+   *   The predicate.
+   *
+   * @return this, so that calls can be chained.
+   */
+  public TransactionQuery where(Predicate<Transaction> condition) {
+    this.predicate = (this.predicate == null) ? condition : this.predicate.and(condition);
+    return this;
+  } // where(Predicate<Transaction>)
+
+  /**
+   * Find the heights of the matching blocks.
+   *
+   * @return the heights, in increasing order.
+   */
+  public int[] heights() {
+    TransactionIndex index = this.chain.transactionIndex();
+    synchronized (index) {
+      TransactionIndex.Postings results = new TransactionIndex.Postings();
+      int lo = Math.max(this.first, 0);
+      int hi = Math.min(this.last, index.size - 1);
+      int sourceId = (this.source == null) ? -1 : index.names.find(this.source);
+      int targetId = (this.target == null) ? -1 : index.names.find(this.target);
+      this.access = Access.HEIGHTS;
+      if (lo > hi || this.minAmount > this.maxAmount
+          || (this.source != null && sourceId < 0) || (this.target != null && targetId < 0)) {
+        return Arrays.copyOf(results.heights, results.size);
+      } // if
+
+      // Choose the access path that yields the fewest candidates.
+      long best = hi - lo + 1L;
+      TransactionIndex.Postings postings = null;
+      if (sourceId >= 0 && index.sourcePostings(sourceId).count(lo, hi) < best) {
+        postings = index.sourcePostings(sourceId);
+        best = postings.count(lo, hi);
+        this.access = Access.SOURCE;
+      } // if
+      if (targetId >= 0 && index.targetPostings(targetId).count(lo, hi) < best) {
+        postings = index.targetPostings(targetId);
+        best = postings.count(lo, hi);
+        this.access = Access.TARGET;
+      } // if
+      int lowBucket = TransactionIndex.bucketOf(this.minAmount);
+      int highBucket = TransactionIndex.bucketOf(this.maxAmount);
+      long inBuckets = 0;
+      for (int b = lowBucket; b <= highBucket; b++) {
+        inBuckets += index.byAmount[b].count(lo, hi);
+      } // for
+      if (inBuckets < best) {
+        this.access = Access.AMOUNT;
+        for (int b = lowBucket; b <= highBucket; b++) {
+          TransactionIndex.Postings bucket = index.byAmount[b];
+          boolean inside = TransactionIndex.bucketMin(b) >= this.minAmount
+              && TransactionIndex.bucketMax(b) <= this.maxAmount;
+          for (int i = bucket.lowerBound(lo); i < bucket.size && bucket.heights[i] <= hi; i++) {
+            int height = bucket.heights[i];
+            if (inside && sourceId < 0 && targetId < 0 && this.predicate == null) {
+              results.add(height);
+            } else {
+              consider(index, height, sourceId, targetId, results);
+            } // if-else
+          } // for
+        } // for
+        Arrays.sort(results.heights, 0, results.size);
+      } else if (postings != null) {
+        for (int i = postings.lowerBound(lo); i < postings.size && postings.heights[i] <= hi;
+            i++) {
+          consider(index, postings.heights[i], sourceId, targetId, results);
+        } // for
+      } else {
+        for (int height = lo; height <= hi; height++) {
+          consider(index, height, sourceId, targetId, results);
+        } // for
+      } // if-else
+      return Arrays.copyOf(results.heights, results.size);
+    } // synchronized
+  } // heights()
+
+  /**
+   * Find the matching blocks.
+   *
+   * @return the blocks, in height order.
+   */
+  public List<Block> blocks() {
+    int[] heights = heights();
+    ArrayList<Block> blocks = new ArrayList<Block>(heights.length);
+    for (int height : heights) {
+      blocks.add(this.chain.store.get(height));
+    } // for
+    return blocks;
+  } // blocks()
+
+  /**
+   * Count the matching blocks.
+   *
+   * @return the number of matching blocks.
+   */
+  public int count() {
+    return heights().length;
+  } // count()
+
+  /**
+   * Find out how the last run found its candidates.
+   *
+   * @return the access path, or null if the query has not run.
+   */
+  public Access getAccess() {
+    return this.access;
+  } // getAccess()
+
+} // class TransactionQuery
@@ -0,0 +1,83 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Block hashes we trust at known heights. When a chain is loaded, every
+ * block at or below the newest trusted height that the chain reaches is
+ * taken on trust: we check that the blocks link up and that the block at
+ * each trusted height has the trusted hash, but we do not recompute
+ * their hashes or check them against the validator. Blocks above that
+ * height are verified in full.
+ *
+ * @author Andrew Fargo
+ */
+public class TrustedCheckpoints {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The trusted hashes, by height.
+   */
+  private final TreeMap<Integer, Hash> hashes = new TreeMap<Integer, Hash>();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an empty set of checkpoints, which trusts nothing.
+   */
+  public TrustedCheckpoints() {
+  } // TrustedCheckpoints()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Trust a block hash at a height.
+   *
+   * @param height
+   *   The height of the block.
+   * @param hash
+   *   The hash the block must have.
+   *
+   * @return this, so that calls can be chained.
+   */
+  public TrustedCheckpoints add(int height, Hash hash) {
+    if (height < 0) {
+      throw new IllegalArgumentException("Negative height " + height);
+    } // if
+    this.hashes.put(height, hash);
+    return this;
+  } // add(int, Hash)
+
+  /**
+   * Get the trusted hash at a height.
+   *
+   * @param height
+   *   The height.
+   *
+   * @return the trusted hash, or null if we have none at that height.
+   */
+  public Hash hashAt(int height) {
+    return this.hashes.get(height);
+  } // hashAt(int)
+
+  /**
+   * Find the newest checkpoint in a chain of a given size.
+   *
+   * @param size
+   *   The number of blocks in the chain.
+   *
+   * @return the height of the newest checkpoint below size, or -1 if
+   *   there is none, in which case nothing is trusted.
+   */
+  public int trustedHeight(int size) {
+    Map.Entry<Integer, Hash> newest = this.hashes.lowerEntry(size);
+    return (newest == null) ? -1 : newest.getKey();
+  } // trustedHeight(int)
+} // class TrustedCheckpoints
@@ -0,0 +1,173 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * User names, each stored once under a compact id along with its UTF-8
+ * bytes, which is how Transaction commitments encode names. Ids are
+ * dense and assigned in the order names are first seen; id 0 is always
+ * the empty name, which deposits use as their source. Transactions built
+ * by a dictionary share its strings and bytes, so a chain that interns
+ * its transactions holds each name once however many blocks use it, and
+ * commits to them without encoding them again.
+ *
+ * Dictionaries only grow. They are safe for concurrent use.
+ *
+ * @author Andrew Fargo
+ */
+public class UserDictionary {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The id of the empty name.
+   */
+  public static final int EMPTY = 0;
+
+  /**
+   * The number of names we make room for at first.
+   */
+  private static final int INITIAL_CAPACITY = 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Ids, indexed by name.
+   */
+  private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+  /**
+   * Names, indexed by id.
+   */
+  private String[] names = new String[INITIAL_CAPACITY];
+
+  /**
+   * Encoded names, indexed by id.
+   */
+  private byte[][] encoded = new byte[INITIAL_CAPACITY][];
+
+  /**
+   * The number of names.
+   */
+  private int size;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a dictionary that holds only the empty name.
+   */
+  public UserDictionary() {
+    idFor("");
+  } // UserDictionary()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the id of a name, assigning one if it is new.
+   *
+   * @param name
+   *   The name.
+   *
+   * @return its id.
+   */
+  public synchronized int idFor(String name) {
+    Integer id = this.ids.get(name);
+    if (id != null) {
+      return id;
+    } // if
+    if (this.size == this.names.length) {
+      this.names = Arrays.copyOf(this.names, 2 * this.size);
+      this.encoded = Arrays.copyOf(this.encoded, 2 * this.size);
+    } // if
+    this.names[this.size] = name;
+    this.encoded[this.size] = name.getBytes(StandardCharsets.UTF_8);
+    this.ids.put(name, this.size);
+    return this.size++;
+  } // idFor(String)
+
+  /**
+   * Find the id of a name without assigning one.
+   *
+   * @param name
+   *   The name.
+   *
+   * @return its id, or -1 if the dictionary does not hold it.
+   */
+  public synchronized int find(String name) {
+    Integer id = this.ids.get(name);
+    return (id == null) ? -1 : id;
+  } // find(String)
+
+  /**
+   * Get the name with an id.
+   *
+   * @param id
+   *   The id.
+   *
+   * @return the name.
+   */
+  public synchronized String name(int id) {
+    if (id < 0 || id >= this.size) {
+      throw new IndexOutOfBoundsException("No name with id " + id);
+    } // if
+    return this.names[id];
+  } // name(int)
+
+  /**
+   * Get the number of names, including the empty name.
+   *
+   * @return the number of names.
+   */
+  public synchronized int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Build a transaction between two names in the dictionary.
+   *
+   * @param source
+   *   The id of the source.
+   * @param target
+   *   The id of the target.
+   * @param amount
+   *   The amount.
+   *
+   * @return a transaction that shares our strings and bytes.
+   */
+  public synchronized Transaction transaction(int source, int target, int amount) {
+    if (source < 0 || source >= this.size || target < 0 || target >= this.size) {
+      throw new IndexOutOfBoundsException("No name with id "
+          + ((source < 0 || source >= this.size) ? source : target));
+    } // if
+    return new Transaction(this.names[source], this.encoded[source], this.names[target],
+        this.encoded[target], amount);
+  } // transaction(int, int, int)
+
+  /**
+   * Get a copy of a transaction that shares our strings and bytes,
+   * adding its names if they are new.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return an equal transaction built by this dictionary.
+   */
+  public synchronized Transaction intern(Transaction t) {
+    int source = idFor(t.getSource());
+    int target = idFor(t.getTarget());
+    if (t.sourceBytes() == this.encoded[source] && t.targetBytes() == this.encoded[target]) {
+      // Already ours.
+      return t;
+    } // if
+    return transaction(source, target, t.getAmount());
+  } // intern(Transaction)
+} // class UserDictionary
@@ -0,0 +1,269 @@
+package edu.grinnell.csc207.main;
+
+import edu.grinnell.csc207.blockchains.Block;
+import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.Transaction;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A non-interactive front end for our BlockChain class. Reads one
+ * command per line as comma-separated fields, runs it without
+ * prompting, and reports totals and timings at the end. Output is
+ * buffered and only flushed when the batch is done.
+ *
+ * <pre>
+ *   mine,source,target,amount
+ *   append,source,target,amount,nonce
+ *   remove
+ *   check
+ *   users
+ *   balance,user
+ *   transactions
+ *   blocks
+ * </pre>
+ *
+ * Use an empty source for deposits. Blank lines and lines starting with
+ * '#' are ignored. Fields may not contain commas.
+ *
+ * @author Andrew Fargo
+ */
+public class BlockChainBatch {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The commands we understand, in the order we report them.
+   */
+  static final String[] COMMANDS =
+      {"mine", "append", "remove", "check", "users", "balance", "transactions", "blocks"};
+
+  /**
+   * The size of our input and output buffers.
+   */
+  static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Nanoseconds in a millisecond.
+   */
+  static final double NANOS_PER_MILLI = 1_000_000.0;
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find a command's position in COMMANDS.
+   *
+   * @param command
+   *   The command name.
+   *
+   * @return its index, or -1 if we don't know it.
+   */
+  static int indexOf(String command) {
+    for (int i = 0; i < COMMANDS.length; i++) {
+      if (COMMANDS[i].equals(command)) {
+        return i;
+      } // if
+    } // for
+    return -1;
+  } // indexOf(String)
+
+  /**
+   * Make sure a command has the right number of fields.
+   *
+   * @param fields
+   *   The fields of the command, including its name.
+   * @param expected
+   *   The number of fields it should have.
+   */
+  static void expectFields(String[] fields, int expected) {
+    if (fields.length != expected) {
+      throw new IllegalArgumentException(fields[0] + " expects " + (expected - 1)
+          + " argument(s) but got " + (fields.length - 1));
+    } // if
+  } // expectFields(String[], int)
+
+  /**
+   * Run one command.
+   *
+   * @param chain
+   *   The chain to work on.
+   * @param fields
+   *   The fields of the command, including its name.
+   * @param pen
+   *   Where to print results.
+   *
+   * @return true if the command succeeded and false otherwise.
+   *
+   * @throws Exception
+   *   If the arguments are malformed or the chain is invalid.
+   */
+  static boolean execute(BlockChain chain, String[] fields, PrintWriter pen) throws Exception {
+    switch (fields[0]) {
+      case "mine":
+        expectFields(fields, 4);
+        Block b = chain.mine(new Transaction(fields[1], fields[2], Integer.parseInt(fields[3])));
+        pen.println("Nonce: " + b.getNonce());
+        return true;
+
+      case "append":
+        expectFields(fields, 5);
+        Transaction t = new Transaction(fields[1], fields[2], Integer.parseInt(fields[3]));
+        chain.append(new Block(chain.getSize(), t, chain.getHash(),
+            Long.parseLong(fields[4])));
+        return true;
+
+      case "remove":
+        expectFields(fields, 1);
+        if (!chain.removeLast()) {
+          pen.println("Could not remove last element.");
+          return false;
+        } // if
+        return true;
+
+      case "check":
+        expectFields(fields, 1);
+        chain.check();
+        pen.println("Chain checks out.");
+        return true;
+
+      case "users":
+        expectFields(fields, 1);
+        chain.users().forEachRemaining(u -> pen.println(u));
+        return true;
+
+      case "balance":
+        expectFields(fields, 2);
+        pen.printf("%s's balance is %d\n", fields[1], chain.balance(fields[1]));
+        return true;
+
+      case "transactions":
+        expectFields(fields, 1);
+        chain.iterator().forEachRemaining(tr -> pen.println(tr.toString()));
+        return true;
+
+      case "blocks":
+        expectFields(fields, 1);
+        chain.blocks().forEachRemaining(blk -> pen.println(blk.toString()));
+        return true;
+
+      default:
+        throw new IllegalArgumentException("invalid command: '" + fields[0] + "'");
+    } // switch
+  } // execute(BlockChain, String[], PrintWriter)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Run every command from a reader, then print a summary.
+   *
+   * @param chain
+   *   The chain to work on.
+   * @param eyes
+   *   Where to read commands.
+   * @param pen
+   *   Where to print results and the summary.
+   *
+   * @return the number of commands that failed.
+   *
+   * @throws IOException
+   *   If we cannot read the commands.
+   */
+  public static int run(BlockChain chain, BufferedReader eyes, PrintWriter pen)
+      throws IOException {
+    long[] counts = new long[COMMANDS.length];
+    long[] failures = new long[COMMANDS.length];
+    long[] nanos = new long[COMMANDS.length];
+    int total = 0;
+    int failed = 0;
+    int lineNum = 0;
+    long start = System.nanoTime();
+
+    String line = eyes.readLine();
+    while (line != null) {
+      lineNum++;
+      String trimmed = line.trim();
+      if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+        String[] fields = trimmed.split(",", -1);
+        fields[0] = fields[0].trim().toLowerCase();
+        int which = indexOf(fields[0]);
+        long before = System.nanoTime();
+        boolean ok;
+        try {
+          ok = execute(chain, fields, pen);
+        } catch (Exception e) {
+          pen.printf("line %d: %s\n", lineNum, e.getMessage());
+          ok = false;
+        } // try/catch
+        total++;
+        if (!ok) {
+          failed++;
+        } // if
+        if (which >= 0) {
+          counts[which]++;
+          nanos[which] += System.nanoTime() - before;
+          if (!ok) {
+            failures[which]++;
+          } // if
+        } // if
+      } // if
+      line = eyes.readLine();
+    } // while
+
+    double elapsed = (System.nanoTime() - start) / NANOS_PER_MILLI;
+    pen.printf("\nProcessed %d commands in %.1f ms (%.0f commands/s), %d failed\n",
+        total, elapsed, (elapsed == 0) ? 0 : total * 1000 / elapsed, failed);
+    for (int i = 0; i < COMMANDS.length; i++) {
+      if (counts[i] > 0) {
+        pen.printf("  %-12s %8d run %6d failed %10.1f ms total %10.1f us mean\n",
+            COMMANDS[i], counts[i], failures[i], nanos[i] / NANOS_PER_MILLI,
+            nanos[i] / 1000.0 / counts[i]);
+      } // if
+    } // for
+    pen.flush();
+    return failed;
+  } // run(BlockChain, BufferedReader, PrintWriter)
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run a batch of commands against a fresh chain. We exit with status 1
+   * if any command failed, so scripts can tell.
+   *
+   * @param args
+   *   Command-line arguments: the file to read, or "-" (or nothing)
+   *   for standard input.
+   */
+  public static void main(String[] args) throws Exception {
+    BufferedReader eyes;
+    if (args.length == 0 || args[0].equals("-")) {
+      eyes = new BufferedReader(new InputStreamReader(System.in), BUFFER_SIZE);
+    } else {
+      eyes = Files.newBufferedReader(Path.of(args[0]));
+    } // if-else
+    PrintWriter pen = new PrintWriter(
+        new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE), false);
+
+    BlockChain chain = new BlockChain(BlockChainUI.makeValidator());
+    int failed = run(chain, eyes, pen);
+
+    eyes.close();
+    pen.close();
+    if (failed > 0) {
+      System.exit(1);
+    } // if
+  } // main(String[])
+} // class BlockChainBatch
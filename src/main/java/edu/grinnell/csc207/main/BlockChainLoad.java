@@ -0,0 +1,664 @@
+package edu.grinnell.csc207.main;
+
+import edu.grinnell.csc207.blockchains.Block;
+import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.Hash;
+import edu.grinnell.csc207.blockchains.HashValidator;
+import edu.grinnell.csc207.blockchains.LeadingZerosValidator;
+import edu.grinnell.csc207.blockchains.Transaction;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A synthetic workload for our BlockChain class. We first build a chain
+ * of random deposits and transfers among a fixed set of users, chosen
+ * with a Zipf skew so a few users see most of the activity, at a low
+ * difficulty so mining is cheap. Then many threads run a weighted mix
+ * of operations against it, optionally at a fixed total rate, and we
+ * report throughput and latency percentiles for each operation.
+ *
+ * As in BlockChainServer, queries share a read lock and changes take
+ * the write lock; appends mine outside the lock and fail if the tip
+ * moved meanwhile. With a target rate, latencies are measured from
+ * when each operation was due to start, so a stalled chain shows up as
+ * latency rather than as fewer operations. Everything random comes from
+ * the seed, so a configuration always builds the same chain and issues
+ * the same operations in each thread.
+ *
+ * <pre>
+ *   java ...BlockChainLoad users=1000 blocks=20000 deposits=0.2 skew=1.1 \
+ *       threads=8 rate=0 ops=200000 seconds=0 bits=4 seed=207 \
+ *       mix=append:10,balance:50,users:10,iterator:5,check:5,removeLast:5
+ * </pre>
+ *
+ * A rate of 0 runs flat out; seconds=0 runs until ops are done.
+ *
+ * @author Andrew Fargo
+ */
+public class BlockChainLoad {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The operations we run, in the order we report them.
+   */
+  static final String[] OPERATIONS =
+      {"append", "balance", "users", "iterator", "check", "removeLast"};
+
+  /** Index of append in OPERATIONS. */
+  static final int APPEND = 0;
+
+  /** Index of balance in OPERATIONS. */
+  static final int BALANCE = 1;
+
+  /** Index of users in OPERATIONS. */
+  static final int USERS = 2;
+
+  /** Index of iterator in OPERATIONS. */
+  static final int ITERATOR = 3;
+
+  /** Index of check in OPERATIONS. */
+  static final int CHECK = 4;
+
+  /** Index of removeLast in OPERATIONS. */
+  static final int REMOVE_LAST = 5;
+
+  /**
+   * The largest amount we deposit at once.
+   */
+  static final int MAX_DEPOSIT = 1000;
+
+  /**
+   * The percentiles we report.
+   */
+  static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the name of a user.
+   *
+   * @param i
+   *   The user's rank; user0 is the busiest.
+   *
+   * @return the name.
+   */
+  static String userName(int i) {
+    return "user" + i;
+  } // userName(int)
+
+  /**
+   * Run one operation.
+   *
+   * @param chain
+   *   The chain.
+   * @param lock
+   *   Guards the chain.
+   * @param op
+   *   The index of the operation in OPERATIONS.
+   * @param users
+   *   Picks users.
+   * @param random
+   *   The thread's random numbers.
+   * @param floor
+   *   The size below which we do not remove blocks.
+   *
+   * @return true if the operation succeeded.
+   *
+   * @throws Exception
+   *   If the chain is invalid.
+   */
+  static boolean execute(BlockChain chain, ReentrantReadWriteLock lock, int op,
+      ZipfSampler users, Random random, int floor) throws Exception {
+    switch (op) {
+      case APPEND:
+        Transaction t = new Transaction("", userName(users.next(random)),
+            1 + random.nextInt(MAX_DEPOSIT));
+        int height;
+        Hash prev;
+        long millis;
+        HashValidator check;
+        lock.readLock().lock();
+        try {
+          height = chain.getSize();
+          prev = chain.getHash();
+          millis = chain.timestampFor(height);
+          check = chain.validatorFor(height);
+        } finally {
+          lock.readLock().unlock();
+        } // try-finally
+        Block blk = new Block(height, t, prev, millis, check);
+        lock.writeLock().lock();
+        try {
+          if (chain.getSize() != height) {
+            return false;
+          } // if
+          chain.append(blk);
+          return true;
+        } finally {
+          lock.writeLock().unlock();
+        } // try-finally
+
+      case REMOVE_LAST:
+        lock.writeLock().lock();
+        try {
+          return chain.getSize() > floor && chain.removeLast();
+        } finally {
+          lock.writeLock().unlock();
+        } // try-finally
+
+      default:
+        lock.readLock().lock();
+        try {
+          return query(chain, op, users, random);
+        } finally {
+          lock.readLock().unlock();
+        } // try-finally
+    } // switch
+  } // execute(BlockChain, ReentrantReadWriteLock, int, ZipfSampler, Random, int)
+
+  /**
+   * Run one query. The caller holds the read lock.
+   *
+   * @param chain
+   *   The chain.
+   * @param op
+   *   The index of the query in OPERATIONS.
+   * @param users
+   *   Picks users.
+   * @param random
+   *   The thread's random numbers.
+   *
+   * @return true if the query succeeded.
+   *
+   * @throws Exception
+   *   If the chain is invalid.
+   */
+  static boolean query(BlockChain chain, int op, ZipfSampler users, Random random)
+      throws Exception {
+    switch (op) {
+      case BALANCE:
+        return chain.balance(userName(users.next(random))) >= 0;
+
+      case USERS:
+        int n = 0;
+        for (Iterator<String> it = chain.users(); it.hasNext(); it.next()) {
+          n++;
+        } // for
+        return n > 0;
+
+      case ITERATOR:
+        int amounts = 0;
+        for (Transaction t : chain) {
+          amounts += t.getAmount();
+        } // for
+        return amounts != Integer.MIN_VALUE;
+
+      case CHECK:
+        chain.check();
+        return true;
+
+      default:
+        throw new IllegalArgumentException("Unknown operation " + op);
+    } // switch
+  } // query(BlockChain, int, ZipfSampler, Random)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Build a chain of random deposits and transfers.
+   *
+   * @param config
+   *   The workload.
+   *
+   * @return the chain.
+   */
+  public static BlockChain build(Config config) {
+    BlockChain chain = new BlockChain(new LeadingZerosValidator(config.bits));
+    Random random = new Random(config.seed);
+    ZipfSampler users = new ZipfSampler(config.users, config.skew);
+    int[] balances = new int[config.users];
+    while (chain.getSize() < config.blocks) {
+      int source = users.next(random);
+      int target = users.next(random);
+      Transaction t;
+      if (balances[source] == 0 || source == target
+          || random.nextDouble() < config.depositRatio) {
+        int amount = 1 + random.nextInt(MAX_DEPOSIT);
+        balances[target] += amount;
+        t = new Transaction("", userName(target), amount);
+      } else {
+        int amount = 1 + random.nextInt(balances[source]);
+        balances[source] -= amount;
+        balances[target] += amount;
+        t = new Transaction(userName(source), userName(target), amount);
+      } // if-else
+      chain.append(chain.mine(t));
+    } // while
+    return chain;
+  } // build(Config)
+
+  /**
+   * Run the operation mix against a chain.
+   *
+   * @param chain
+   *   The chain. Nobody else may touch it while we run.
+   * @param config
+   *   The workload.
+   *
+   * @return what happened.
+   *
+   * @throws InterruptedException
+   *   If we are interrupted while waiting for the threads.
+   */
+  public static Report run(BlockChain chain, Config config) throws InterruptedException {
+    ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    ZipfSampler users = new ZipfSampler(config.users, config.skew);
+    int floor = chain.getSize();
+    Report[] partial = new Report[config.threads];
+    Thread[] threads = new Thread[config.threads];
+    long start = System.nanoTime();
+    long deadline = (config.seconds > 0) ? start + config.seconds * 1_000_000_000L
+        : Long.MAX_VALUE;
+    long interval = (config.rate > 0) ? (long) (config.threads * 1e9 / config.rate) : 0;
+    for (int i = 0; i < config.threads; i++) {
+      int id = i;
+      long ops = config.ops / config.threads + ((i < config.ops % config.threads) ? 1 : 0);
+      partial[i] = new Report();
+      threads[i] = new Thread(() -> {
+        Random random = new Random(config.seed + 1 + id);
+        Report mine = partial[id];
+        for (long n = 0; n < ops; n++) {
+          long due = (interval > 0) ? start + n * interval : System.nanoTime();
+          if (due >= deadline) {
+            break;
+          } // if
+          long wait = due - System.nanoTime();
+          if (wait > 0) {
+            LockSupport.parkNanos(wait);
+          } // if
+          int op = config.pick(random);
+          boolean ok;
+          try {
+            ok = execute(chain, lock, op, users, random, floor);
+          } catch (Exception e) {
+            ok = false;
+          } // try/catch
+          mine.record(op, ok, System.nanoTime() - due);
+        } // for
+      }, "load-" + i);
+      threads[i].start();
+    } // for
+    Report total = new Report();
+    for (int i = 0; i < config.threads; i++) {
+      threads[i].join();
+      total.merge(partial[i]);
+    } // for
+    total.nanos = System.nanoTime() - start;
+    return total;
+  } // run(BlockChain, Config)
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Build a chain and run a workload against it.
+   *
+   * @param args
+   *   Settings as key=value pairs; see Config.
+   *
+   * @throws Exception
+   *   If the settings are malformed.
+   */
+  public static void main(String[] args) throws Exception {
+    Config config = Config.parse(args);
+    PrintWriter pen = new PrintWriter(System.out, true);
+    long start = System.nanoTime();
+    BlockChain chain = build(config);
+    pen.printf("Built %d blocks for %d users in %.1f ms\n", chain.getSize(), config.users,
+        (System.nanoTime() - start) / BlockChainBatch.NANOS_PER_MILLI);
+    run(chain, config).print(pen);
+  } // main(String[])
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * The settings of a workload.
+   */
+  public static class Config {
+    /** The number of users. */
+    int users = 1000;
+    /** The number of blocks to build. */
+    int blocks = 20000;
+    /** The fraction of built blocks that are deposits. */
+    double depositRatio = 0.2;
+    /** The Zipf exponent; 0 picks users uniformly. */
+    double skew = 1.1;
+    /** The number of threads. */
+    int threads = 8;
+    /** The total operations per second, or 0 for as fast as we can. */
+    double rate = 0;
+    /** The total number of operations. */
+    long ops = 200_000;
+    /** The longest we run, in seconds, or 0 for no limit. */
+    long seconds = 0;
+    /** The difficulty, in leading zero bits. */
+    int bits = 4;
+    /** Where everything random comes from. */
+    long seed = 207;
+    /** The relative weight of each operation. */
+    int[] weights = {10, 50, 10, 5, 5, 5};
+
+    /**
+     * Read settings from key=value pairs.
+     *
+     * @param args
+     *   The pairs.
+     *
+     * @return the settings, with defaults for anything not given.
+     */
+    public static Config parse(String... args) {
+      Config config = new Config();
+      for (String arg : args) {
+        int eq = arg.indexOf('=');
+        if (eq < 0) {
+          throw new IllegalArgumentException("Expected key=value: " + arg);
+        } // if
+        config.set(arg.substring(0, eq), arg.substring(eq + 1));
+      } // for
+      if (config.users < 1 || config.blocks < 1 || config.threads < 1 || config.ops < 0
+          || Arrays.stream(config.weights).sum() <= 0) {
+        throw new IllegalArgumentException("Invalid workload");
+      } // if
+      return config;
+    } // parse(String...)
+
+    /**
+     * Change one setting.
+     *
+     * @param key
+     *   The setting.
+     * @param value
+     *   Its new value.
+     */
+    void set(String key, String value) {
+      switch (key) {
+        case "users":
+          this.users = Integer.parseInt(value);
+          break;
+        case "blocks":
+          this.blocks = Integer.parseInt(value);
+          break;
+        case "deposits":
+          this.depositRatio = Double.parseDouble(value);
+          break;
+        case "skew":
+          this.skew = Double.parseDouble(value);
+          break;
+        case "threads":
+          this.threads = Integer.parseInt(value);
+          break;
+        case "rate":
+          this.rate = Double.parseDouble(value);
+          break;
+        case "ops":
+          this.ops = Long.parseLong(value);
+          break;
+        case "seconds":
+          this.seconds = Long.parseLong(value);
+          break;
+        case "bits":
+          this.bits = Integer.parseInt(value);
+          break;
+        case "seed":
+          this.seed = Long.parseLong(value);
+          break;
+        case "mix":
+          Arrays.fill(this.weights, 0);
+          for (String part : value.split(",")) {
+            String[] pair = part.split(":");
+            int op = Arrays.asList(OPERATIONS).indexOf(pair[0]);
+            if (op < 0 || pair.length != 2) {
+              throw new IllegalArgumentException("Invalid mix entry: " + part);
+            } // if
+            this.weights[op] = Integer.parseInt(pair[1]);
+          } // for
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown setting: " + key);
+      } // switch
+    } // set(String, String)
+
+    /**
+     * Pick an operation according to the weights.
+     *
+     * @param random
+     *   The random numbers to use.
+     *
+     * @return the index of the operation in OPERATIONS.
+     */
+    int pick(Random random) {
+      int r = random.nextInt(Arrays.stream(this.weights).sum());
+      int op = 0;
+      while (r >= this.weights[op]) {
+        r -= this.weights[op];
+        op++;
+      } // while
+      return op;
+    } // pick(Random)
+  } // class Config
+
+  /**
+   * Picks user ranks with probability proportional to 1 / rank^skew.
+   */
+  static class ZipfSampler {
+    /** The cumulative probability of each rank. */
+    final double[] cdf;
+
+    /**
+     * Create a sampler.
+     *
+     * @param n The number of ranks.
+     * @param skew The exponent.
+     */
+    ZipfSampler(int n, double skew) {
+      this.cdf = new double[n];
+      double total = 0;
+      for (int i = 0; i < n; i++) {
+        total += 1 / Math.pow(i + 1, skew);
+        this.cdf[i] = total;
+      } // for
+      for (int i = 0; i < n; i++) {
+        this.cdf[i] /= total;
+      } // for
+    } // ZipfSampler(int, double)
+
+    /**
+     * Pick a rank.
+     *
+     * @param random The random numbers to use.
+     * @return a rank between 0 (the likeliest) and n - 1.
+     */
+    int next(Random random) {
+      int i = Arrays.binarySearch(this.cdf, random.nextDouble());
+      return Math.min((i < 0) ? -i - 1 : i, this.cdf.length - 1);
+    } // next(Random)
+  } // class ZipfSampler
+
+  /**
+   * Counts and latencies for each operation. Latencies go into buckets
+   * that grow by powers of two, each split into SUB_BUCKETS equal parts,
+   * so percentiles are within 1 / SUB_BUCKETS of the truth.
+   */
+  public static class Report {
+    /** The number of linear buckets per power of two. */
+    static final int SUB_BUCKETS = 8;
+    /** The number of buckets for each operation. */
+    static final int BUCKETS = (Long.SIZE + 1) * SUB_BUCKETS;
+    /** The number of times each operation ran. */
+    final long[] counts = new long[OPERATIONS.length];
+    /** The number of times each operation failed. */
+    final long[] failures = new long[OPERATIONS.length];
+    /** The slowest run of each operation, in nanoseconds. */
+    final long[] max = new long[OPERATIONS.length];
+    /** The latency buckets of each operation. */
+    final long[][] buckets = new long[OPERATIONS.length][BUCKETS];
+    /** How long the run took, in nanoseconds. */
+    long nanos;
+
+    /**
+     * Find the bucket for a latency.
+     *
+     * @param latency The latency, in nanoseconds.
+     * @return the index of its bucket.
+     */
+    static int bucketFor(long latency) {
+      if (latency < SUB_BUCKETS) {
+        return (int) Math.max(0, latency);
+      } // if
+      int power = Long.SIZE - 1 - Long.numberOfLeadingZeros(latency);
+      int sub = (int) (latency >>> (power - 3)) - SUB_BUCKETS;
+      return (power - 2) * SUB_BUCKETS + sub;
+    } // bucketFor(long)
+
+    /**
+     * Find the largest latency in a bucket.
+     *
+     * @param bucket The index of the bucket.
+     * @return the latency, in nanoseconds.
+     */
+    static long upperBound(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+        return bucket;
+      } // if
+      int power = bucket / SUB_BUCKETS + 2;
+      long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+      return ((sub + 1) << (power - 3)) - 1;
+    } // upperBound(int)
+
+    /**
+     * Record one operation.
+     *
+     * @param op The index of the operation in OPERATIONS.
+     * @param ok Whether it succeeded.
+     * @param latency How long it took, in nanoseconds.
+     */
+    void record(int op, boolean ok, long latency) {
+      this.counts[op]++;
+      if (!ok) {
+        this.failures[op]++;
+      } // if
+      this.max[op] = Math.max(this.max[op], latency);
+      this.buckets[op][bucketFor(latency)]++;
+    } // record(int, boolean, long)
+
+    /**
+     * Add another thread's results to ours.
+     *
+     * @param other The other results.
+     */
+    void merge(Report other) {
+      for (int op = 0; op < OPERATIONS.length; op++) {
+        this.counts[op] += other.counts[op];
+        this.failures[op] += other.failures[op];
+        this.max[op] = Math.max(this.max[op], other.max[op]);
+        for (int b = 0; b < BUCKETS; b++) {
+          this.buckets[op][b] += other.buckets[op][b];
+        } // for
+      } // for
+    } // merge(Report)
+
+    /**
+     * Get the number of times an operation ran.
+     *
+     * @param op The name of the operation.
+     * @return the count.
+     */
+    public long getCount(String op) {
+      return this.counts[Arrays.asList(OPERATIONS).indexOf(op)];
+    } // getCount(String)
+
+    /**
+     * Get the number of operations run.
+     *
+     * @return the total count.
+     */
+    public long getTotal() {
+      return Arrays.stream(this.counts).sum();
+    } // getTotal()
+
+    /**
+     * Get the number of operations that failed.
+     *
+     * @return the total number of failures.
+     */
+    public long getFailures() {
+      return Arrays.stream(this.failures).sum();
+    } // getFailures()
+
+    /**
+     * Get the throughput of the run.
+     *
+     * @return operations per second.
+     */
+    public double getThroughput() {
+      return (this.nanos <= 0) ? 0 : getTotal() * 1e9 / this.nanos;
+    } // getThroughput()
+
+    /**
+     * Estimate a latency percentile for an operation.
+     *
+     * @param op The name of the operation.
+     * @param percentile The percentile, between 0 and 100.
+     * @return the latency, in nanoseconds, or 0 if it never ran.
+     */
+    public long getPercentile(String op, double percentile) {
+      int i = Arrays.asList(OPERATIONS).indexOf(op);
+      long rank = (long) Math.ceil(this.counts[i] * percentile / 100);
+      long seen = 0;
+      for (int b = 0; b < BUCKETS; b++) {
+        seen += this.buckets[i][b];
+        if (seen >= rank && seen > 0) {
+          return Math.min(upperBound(b), this.max[i]);
+        } // if
+      } // for
+      return 0;
+    } // getPercentile(String, double)
+
+    /**
+     * Print a summary.
+     *
+     * @param pen Where to print it.
+     */
+    public void print(PrintWriter pen) {
+      pen.printf("Ran %d operations in %.1f ms (%.0f ops/s), %d failed\n", getTotal(),
+          this.nanos / BlockChainBatch.NANOS_PER_MILLI, getThroughput(), getFailures());
+      pen.printf("  %-12s %8s %6s %10s %10s %10s %10s %10s  (us)\n", "", "run", "failed",
+          "p50", "p90", "p99", "p99.9", "max");
+      for (int op = 0; op < OPERATIONS.length; op++) {
+        if (this.counts[op] > 0) {
+          pen.printf("  %-12s %8d %6d", OPERATIONS[op], this.counts[op], this.failures[op]);
+          for (double p : PERCENTILES) {
+            pen.printf(" %10.1f", getPercentile(OPERATIONS[op], p) / 1000.0);
+          } // for
+          pen.printf(" %10.1f\n", this.max[op] / 1000.0);
+        } // if
+      } // for
+      pen.flush();
+    } // print(PrintWriter)
+  } // class Report
+} // class BlockChainLoad
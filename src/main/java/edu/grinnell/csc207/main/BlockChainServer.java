@@ -0,0 +1,643 @@
+package edu.grinnell.csc207.main;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.grinnell.csc207.blockchains.Block;
+import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.Hash;
+import edu.grinnell.csc207.blockchains.HashValidator;
+import edu.grinnell.csc207.blockchains.Transaction;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A local HTTP front end for our BlockChain class, built on the JDK's
+ * HTTP server. Each request runs on its own thread (a virtual thread
+ * when the JDK provides them). Mining happens outside the chain's lock
+ * so a slow mining request never holds up balance queries, and the
+ * number of concurrent mining jobs is bounded. All responses are plain
+ * text, one item per line.
+ *
+ * On a chain that retargets, blocks are hashed with their timestamps, so
+ * clients pass the timestamp /mine reports back to /append along with
+ * the nonce. It defaults to 0, which is what chains that do not
+ * retarget use.
+ *
+ * <pre>
+ *   GET  /mine?source=S&amp;target=T&amp;amount=A       prints the nonce and timestamp
+ *   POST /append?source=S&amp;target=T&amp;amount=A&amp;nonce=N&amp;timestamp=M
+ *   GET  /balance?user=U
+ *   GET  /users
+ *   GET  /transactions?from=F&amp;to=T                  heights [F, T)
+ *   GET  /check
+ * </pre>
+ *
+ * @author Andrew Fargo
+ */
+public class BlockChainServer {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The port we listen on by default.
+   */
+  static final int DEFAULT_PORT = 8207;
+
+  /**
+   * The number of concurrent mining jobs we allow by default.
+   */
+  static final int DEFAULT_MINING_JOBS = 2;
+
+  /**
+   * The number of items we copy out of the chain per lock acquisition
+   * when streaming a listing.
+   */
+  static final int STREAM_BATCH = 1024;
+
+  /**
+   * HTTP status codes we use.
+   */
+  static final int OK = 200;
+
+  /** Bad request. */
+  static final int BAD_REQUEST = 400;
+
+  /** Not found. */
+  static final int NOT_FOUND = 404;
+
+  /** Method not allowed. */
+  static final int BAD_METHOD = 405;
+
+  /** Conflict, used for rejected blocks and invalid chains. */
+  static final int CONFLICT = 409;
+
+  /** Internal server error. */
+  static final int SERVER_ERROR = 500;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The chain we serve.
+   */
+  private final BlockChain chain;
+
+  /**
+   * Guards the chain: queries share it, appends have it to themselves.
+   */
+  private final ReadWriteLock lock;
+
+  /**
+   * Bounds the number of concurrent mining jobs.
+   */
+  private final Semaphore miners;
+
+  /**
+   * The underlying HTTP server.
+   */
+  private final HttpServer server;
+
+  /**
+   * The executor that runs requests.
+   */
+  private final ExecutorService executor;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a server for a chain, bound to the loopback address.
+   *
+   * @param served
+   *   The chain to serve.
+   * @param port
+   *   The port to listen on, or 0 to pick any free port.
+   * @param miningJobs
+   *   The most mining requests we will run at once.
+   *
+   * @throws IOException
+   *   If we cannot bind to the port.
+   */
+  public BlockChainServer(BlockChain served, int port, int miningJobs) throws IOException {
+    this(served, new ReentrantReadWriteLock(), port, miningJobs);
+  } // BlockChainServer(BlockChain, int, int)
+
+  /**
+   * Create a server for a chain that other writers, such as a
+   * TransactionPool, share through a lock.
+   *
+   * @param served
+   *   The chain to serve.
+   * @param guard
+   *   The lock that every reader and writer of the chain holds.
+   * @param port
+   *   The port to listen on, or 0 to pick any free port.
+   * @param miningJobs
+   *   The most mining requests we will run at once.
+   *
+   * @throws IOException
+   *   If we cannot bind to the port.
+   */
+  public BlockChainServer(BlockChain served, ReadWriteLock guard, int port, int miningJobs)
+      throws IOException {
+    this.chain = served;
+    this.lock = guard;
+    this.miners = new Semaphore(miningJobs, true);
+    this.server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    this.executor = newRequestExecutor();
+    this.server.setExecutor(this.executor);
+    this.route("/mine", "GET", this::mine);
+    this.route("/append", "POST", this::append);
+    this.route("/balance", "GET", this::balance);
+    this.route("/users", "GET", this::users);
+    this.route("/transactions", "GET", this::transactions);
+    this.route("/check", "GET", this::check);
+  } // BlockChainServer(BlockChain, ReadWriteLock, int, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Make an executor that gives each request its own virtual thread, if
+   * this JDK has them, or a pooled platform thread otherwise.
+   *
+   * @return the executor.
+   */
+  static ExecutorService newRequestExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    } // try/catch
+  } // newRequestExecutor()
+
+  /**
+   * Handle one endpoint, turning exceptions into error responses.
+   *
+   * @param path
+   *   The path of the endpoint.
+   * @param method
+   *   The HTTP method it accepts.
+   * @param endpoint
+   *   The code that answers the request.
+   */
+  private void route(String path, String method, Endpoint endpoint) {
+    HttpHandler handler = (exchange) -> {
+      try {
+        if (!exchange.getRequestURI().getPath().equals(path)) {
+          respond(exchange, NOT_FOUND, "No such endpoint.");
+        } else if (!exchange.getRequestMethod().equalsIgnoreCase(method)) {
+          respond(exchange, BAD_METHOD, path + " expects " + method + ".");
+        } else {
+          endpoint.handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+        } // if-else
+      } catch (IllegalArgumentException e) {
+        respond(exchange, BAD_REQUEST, e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        respond(exchange, SERVER_ERROR, "Interrupted.");
+      } catch (Exception e) {
+        respond(exchange, SERVER_ERROR, String.valueOf(e.getMessage()));
+      } finally {
+        exchange.close();
+      } // try/catch
+    };
+    this.server.createContext(path, handler);
+  } // route(String, String, Endpoint)
+
+  /**
+   * Split a query string into its parameters.
+   *
+   * @param query
+   *   The raw query, or null.
+   *
+   * @return the decoded parameters.
+   */
+  static HashMap<String, String> parseQuery(String query) {
+    HashMap<String, String> params = new HashMap<String, String>();
+    if (query == null || query.isEmpty()) {
+      return params;
+    } // if
+    for (String pair : query.split("&")) {
+      int eq = pair.indexOf('=');
+      String key = (eq < 0) ? pair : pair.substring(0, eq);
+      String value = (eq < 0) ? "" : pair.substring(eq + 1);
+      params.put(URLDecoder.decode(key, StandardCharsets.UTF_8),
+          URLDecoder.decode(value, StandardCharsets.UTF_8));
+    } // for
+    return params;
+  } // parseQuery(String)
+
+  /**
+   * Get a required parameter.
+   *
+   * @param params
+   *   The request parameters.
+   * @param name
+   *   The parameter we need.
+   *
+   * @return its value.
+   */
+  static String param(HashMap<String, String> params, String name) {
+    String value = params.get(name);
+    if (value == null) {
+      throw new IllegalArgumentException("Missing parameter: " + name);
+    } // if
+    return value;
+  } // param(HashMap<String, String>, String)
+
+  /**
+   * Get a required parameter as an integer.
+   *
+   * @param params
+   *   The request parameters.
+   * @param name
+   *   The parameter we need.
+   *
+   * @return its value.
+   */
+  static int intParam(HashMap<String, String> params, String name) {
+    try {
+      return Integer.parseInt(param(params, name));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(name + " must be an integer");
+    } // try/catch
+  } // intParam(HashMap<String, String>, String)
+
+  /**
+   * Get a parameter as a long.
+   *
+   * @param params
+   *   The request parameters.
+   * @param name
+   *   The parameter we need.
+   * @param fallback
+   *   Its value if it is missing.
+   *
+   * @return its value.
+   */
+  static long longParam(HashMap<String, String> params, String name, long fallback) {
+    String value = params.get(name);
+    if (value == null) {
+      return fallback;
+    } // if
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(name + " must be an integer");
+    } // try/catch
+  } // longParam(HashMap<String, String>, String, long)
+
+  /**
+   * Send a short, complete response.
+   *
+   * @param exchange
+   *   The request to answer.
+   * @param status
+   *   The HTTP status code.
+   * @param body
+   *   The text of the response.
+   *
+   * @throws IOException
+   *   If the client has gone away.
+   */
+  static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    exchange.getResponseBody().write(bytes);
+  } // respond(HttpExchange, int, String)
+
+  /**
+   * Start a streamed (chunked) response.
+   *
+   * @param exchange
+   *   The request to answer.
+   *
+   * @return a buffered writer for the body.
+   *
+   * @throws IOException
+   *   If the client has gone away.
+   */
+  static Writer stream(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(OK, 0);
+    return new BufferedWriter(
+        new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+  } // stream(HttpExchange)
+
+  // +-----------+---------------------------------------------------
+  // | Endpoints |
+  // +-----------+
+
+  /**
+   * Mine a block for the end of the chain and report its nonce and
+   * timestamp, one per line.
+   *
+   * @param exchange
+   *   The request to answer.
+   * @param params
+   *   source, target, and amount.
+   *
+   * @throws Exception
+   *   If we cannot respond.
+   */
+  private void mine(HttpExchange exchange, HashMap<String, String> params) throws Exception {
+    Transaction t = new Transaction(params.getOrDefault("source", ""),
+        param(params, "target"), intParam(params, "amount"));
+    this.miners.acquire();
+    Block b;
+    try {
+      // Read the template only once we may mine, so that time spent
+      // waiting for a miner does not leave us mining on a stale tip.
+      int height;
+      Hash prev;
+      long millis;
+      HashValidator check;
+      this.lock.readLock().lock();
+      try {
+        height = this.chain.getSize();
+        prev = this.chain.getHash();
+        millis = this.chain.timestampFor(height);
+        check = this.chain.validatorFor(height);
+      } finally {
+        this.lock.readLock().unlock();
+      } // try-finally
+      b = new Block(height, t, prev, millis, check);
+    } finally {
+      this.miners.release();
+    } // try-finally
+    respond(exchange, OK, "Nonce: " + b.getNonce() + "\nTimestamp: " + b.getTimestamp());
+  } // mine(HttpExchange, HashMap<String, String>)
+
+  /**
+   * Append a block to the chain.
+   *
+   * @param exchange
+   *   The request to answer.
+   * @param params
+   *   source, target, amount, nonce, and optionally timestamp.
+   *
+   * @throws Exception
+   *   If we cannot respond.
+   */
+  private void append(HttpExchange exchange, HashMap<String, String> params) throws Exception {
+    Transaction t = new Transaction(params.getOrDefault("source", ""),
+        param(params, "target"), intParam(params, "amount"));
+    long nonce;
+    try {
+      nonce = Long.parseLong(param(params, "nonce"));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("nonce must be an integer");
+    } // try/catch
+    long millis = longParam(params, "timestamp", 0L);
+    String result;
+    int status = OK;
+    this.lock.writeLock().lock();
+    try {
+      this.chain.append(
+          new Block(this.chain.getSize(), t, this.chain.getHash(), millis, nonce));
+      result = "Appended block " + (this.chain.getSize() - 1) + ".";
+    } catch (IllegalArgumentException e) {
+      status = CONFLICT;
+      result = "Could not append: " + e.getMessage();
+    } finally {
+      this.lock.writeLock().unlock();
+    } // try-finally
+    respond(exchange, status, result);
+  } // append(HttpExchange, HashMap<String, String>)
+
+  /**
+   * Report a user's balance.
+   *
+   * @param exchange
+   *   The request to answer.
+   * @param params
+   *   user.
+   *
+   * @throws Exception
+   *   If we cannot respond.
+   */
+  private void balance(HttpExchange exchange, HashMap<String, String> params) throws Exception {
+    String user = param(params, "user");
+    String result;
+    int status = OK;
+    this.lock.readLock().lock();
+    try {
+      result = String.format("%s's balance is %d", user, this.chain.balance(user));
+    } catch (Exception e) {
+      status = CONFLICT;
+      result = "Something wrong in the chain: " + e.getMessage();
+    } finally {
+      this.lock.readLock().unlock();
+    } // try-finally
+    respond(exchange, status, result);
+  } // balance(HttpExchange, HashMap<String, String>)
+
+  /**
+   * List the users, one per line.
+   *
+   * @param exchange
+   *   The request to answer.
+   * @param params
+   *   None.
+   *
+   * @throws Exception
+   *   If we cannot respond.
+   */
+  private void users(HttpExchange exchange, HashMap<String, String> params) throws Exception {
+    List<String> users = new ArrayList<String>();
+    this.lock.readLock().lock();
+    try {
+      this.chain.users().forEachRemaining(users::add);
+    } finally {
+      this.lock.readLock().unlock();
+    } // try-finally
+    try (Writer out = stream(exchange)) {
+      for (String user : users) {
+        out.write(user);
+        out.write('\n');
+      } // for
+    } // try
+  } // users(HttpExchange, HashMap<String, String>)
+
+  /**
+   * Stream the transactions in a range of heights, one per line. We
+   * copy a batch at a time under the lock so that slow clients do not
+   * hold up appends.
+   *
+   * @param exchange
+   *   The request to answer.
+   * @param params
+   *   from (default 1) and to (default the chain size).
+   *
+   * @throws Exception
+   *   If we cannot respond.
+   */
+  private void transactions(HttpExchange exchange, HashMap<String, String> params)
+      throws Exception {
+    int from = params.containsKey("from") ? intParam(params, "from") : 1;
+    int to = params.containsKey("to") ? intParam(params, "to") : Integer.MAX_VALUE;
+    if (from < 0 || to < from) {
+      throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ")");
+    } // if
+    Iterator<Block> blocks;
+    this.lock.readLock().lock();
+    try {
+      blocks = this.chain.blocks();
+      for (int i = 0; i < from && blocks.hasNext(); i++) {
+        blocks.next();
+      } // for
+    } finally {
+      this.lock.readLock().unlock();
+    } // try-finally
+
+    try (Writer out = stream(exchange)) {
+      int height = from;
+      List<Block> batch = new ArrayList<Block>(STREAM_BATCH);
+      boolean more = true;
+      while (more) {
+        batch.clear();
+        this.lock.readLock().lock();
+        try {
+          while (batch.size() < STREAM_BATCH && height < to && blocks.hasNext()) {
+            batch.add(blocks.next());
+            height++;
+          } // while
+          more = height < to && blocks.hasNext();
+        } finally {
+          this.lock.readLock().unlock();
+        } // try-finally
+        for (Block b : batch) {
+          out.write(b.getNum() + " " + b.getTransaction() + "\n");
+        } // for
+      } // while
+    } // try
+  } // transactions(HttpExchange, HashMap<String, String>)
+
+  /**
+   * Check the chain.
+   *
+   * @param exchange
+   *   The request to answer.
+   * @param params
+   *   None.
+   *
+   * @throws Exception
+   *   If we cannot respond.
+   */
+  private void check(HttpExchange exchange, HashMap<String, String> params) throws Exception {
+    String result = "Chain checks out.";
+    int status = OK;
+    this.lock.readLock().lock();
+    try {
+      this.chain.check();
+    } catch (Exception e) {
+      status = CONFLICT;
+      result = e.getMessage();
+    } finally {
+      this.lock.readLock().unlock();
+    } // try-finally
+    respond(exchange, status, result);
+  } // check(HttpExchange, HashMap<String, String>)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Start answering requests.
+   */
+  public void start() {
+    this.server.start();
+  } // start()
+
+  /**
+   * Stop answering requests, giving in-flight requests a moment to
+   * finish.
+   *
+   * @param delaySeconds
+   *   The most time to wait for in-flight requests.
+   */
+  public void stop(int delaySeconds) {
+    this.server.stop(delaySeconds);
+    this.executor.shutdownNow();
+  } // stop(int)
+
+  /**
+   * Get the port we are listening on.
+   *
+   * @return the port.
+   */
+  public int getPort() {
+    return this.server.getAddress().getPort();
+  } // getPort()
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Serve a fresh chain until the process is killed.
+   *
+   * @param args
+   *   Command-line arguments: the port (default 8207) and the number of
+   *   concurrent mining jobs (default 2).
+   */
+  public static void main(String[] args) throws Exception {
+    int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    int jobs = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_MINING_JOBS;
+    BlockChain chain = new BlockChain(BlockChainUI.makeValidator());
+    chain.getMetrics().register("BlockChainServer");
+    BlockChainServer server = new BlockChainServer(chain, port, jobs);
+    server.start();
+    System.out.println("Serving on http://localhost:" + server.getPort() + "/");
+  } // main(String[])
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * The code behind one endpoint.
+   */
+  interface Endpoint {
+    /**
+     * Answer a request.
+     *
+     * @param exchange
+     *   The request to answer.
+     * @param params
+     *   The decoded query parameters.
+     *
+     * @throws Exception
+     *   If something goes wrong.
+     */
+    void handle(HttpExchange exchange, HashMap<String, String> params) throws Exception;
+  } // interface Endpoint
+} // class BlockChainServer
@@ -2,6 +2,7 @@ package edu.grinnell.csc207.main;
 
 import edu.grinnell.csc207.blockchains.Block;
 import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.ChainTransfer;
 import edu.grinnell.csc207.blockchains.HashValidator;
 import edu.grinnell.csc207.blockchains.Transaction;
 
@@ -9,7 +10,10 @@ import edu.grinnell.csc207.util.IOUtils;
 
 import java.io.PrintWriter;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 /**
  * A simple UI for our BlockChain class.
@@ -32,6 +36,25 @@ public class BlockChainUI {
   // | Helpers |
   // +---------+
 
+  /**
+   * Build the validator our chains use.
+   *
+   * @return a validator that requires VALIDATOR_BYTES leading zero bytes.
+   */
+  static HashValidator makeValidator() {
+    return (h) -> {
+      if (h.length() < VALIDATOR_BYTES) {
+        return false;
+      } // if
+      for (int v = 0; v < VALIDATOR_BYTES; v++) {
+        if (h.get(v) != 0) {
+          return false;
+        } // if
+      } // for
+      return true;
+    };
+  } // makeValidator()
+
   /**
    * Print out the instructions.
    *
@@ -49,6 +72,8 @@ public class BlockChainUI {
         balance: finds a user's balance
         transactions: prints out the chain of transactions
         blocks: prints out the chain of blocks (for debugging only)
+        export: saves the chain to a file
+        import: replaces the chain with one saved to a file
         help: prints this list of commands
         quit: quits the program""");
   } // instructions(PrintWriter)
@@ -61,26 +86,27 @@ public class BlockChainUI {
    * Run the UI.
    *
    * @param args
-   *   Command-line arguments (currently ignored).
+   *   Command-line arguments. Use "--batch [file]" to run commands from
+   *   a file (or standard input) without prompting; see BlockChainBatch.
+   *   Use "--serve [port] [jobs]" to serve the chain over HTTP; see
+   *   BlockChainServer.
    */
   public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("--batch")) {
+      BlockChainBatch.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    } else if (args.length > 0 && args[0].equals("--serve")) {
+      BlockChainServer.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    } // if
+
     PrintWriter pen = new PrintWriter(System.out, true);
     BufferedReader eyes = new BufferedReader(new InputStreamReader(System.in));
 
     // Set up our blockchain.
-    HashValidator validator =
-        (h) -> {
-          if (h.length() < VALIDATOR_BYTES) {
-            return false;
-          } // if
-          for (int v = 0; v < VALIDATOR_BYTES; v++) {
-            if (h.get(v) != 0) {
-              return false;
-            } // if
-          } // for
-          return true;
-        };
+    HashValidator validator = makeValidator();
     BlockChain chain = new BlockChain(validator);
+    chain.getMetrics().register("BlockChainUI");
 
     instructions(pen);
 
@@ -140,10 +166,32 @@ public class BlockChainUI {
           pen.println("Chain checks out.");
           break;
 
+        case "export":
+          String exportFile = IOUtils.readLine(pen, eyes, "\nFile: ");
+          try {
+            pen.println("Exported " + ChainTransfer.export(chain, Path.of(exportFile)));
+          } catch (IOException e) {
+            pen.println("Could not export: " + e.getMessage());
+          } // try/catch
+          break;
+
         case "help":
           instructions(pen);
           break;
 
+        case "import":
+          String importFile = IOUtils.readLine(pen, eyes, "\nFile: ");
+          try {
+            ChainTransfer.Report report = ChainTransfer.load(Path.of(importFile), validator);
+            chain.getMetrics().unregister();
+            chain = report.getChain();
+            chain.getMetrics().register("BlockChainUI");
+            pen.println("Imported " + report);
+          } catch (Exception e) {
+            pen.println("Could not import: " + e.getMessage());
+          } // try/catch
+          break;
+
         case "mine":
           source = IOUtils.readLine(pen, eyes, "Source (return for deposit): ");
           target = IOUtils.readLine(pen, eyes, "Target: ");
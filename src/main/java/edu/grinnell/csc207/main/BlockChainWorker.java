@@ -0,0 +1,36 @@
+package edu.grinnell.csc207.main;
+
+import edu.grinnell.csc207.blockchains.MiningWorker;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * A mining worker process. Connects to a MiningCoordinator on this
+ * machine and mines the ranges it hands out until it goes away.
+ *
+ * @author Andrew Fargo
+ */
+public class BlockChainWorker {
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run a worker.
+   *
+   * @param args
+   *   The coordinator's port.
+   *
+   * @throws Exception
+   *   If we cannot reach the coordinator.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: BlockChainWorker PORT");
+      System.exit(1);
+    } // if
+    int port = Integer.parseInt(args[0]);
+    new MiningWorker(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)).run();
+  } // main(String[])
+} // class BlockChainWorker
@@ -0,0 +1,68 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * Compares the block digests on this JVM. Run with
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=edu.grinnell.csc207.blockchains.DigestBenchmark
+ * </pre>
+ * and optionally a block count and a name length as arguments.
+ *
+ * @author Andrew Fargo
+ */
+public class DigestBenchmark {
+  /**
+   * The number of times we hash before measuring, so the JIT settles.
+   */
+  static final int WARMUP_ROUNDS = 3;
+
+  /**
+   * Time one digest.
+   *
+   * @param d
+   *   The digest.
+   * @param t
+   *   The transaction to hash.
+   * @param prev
+   *   The previous hash to hash.
+   * @param blocks
+   *   The number of hashes to compute.
+   *
+   * @return nanoseconds per hash.
+   */
+  static double nanosPerHash(BlockDigest d, Transaction t, Hash prev, int blocks) {
+    long start = System.nanoTime();
+    int sink = 0;
+    for (int i = 0; i < blocks; i++) {
+      sink += d.hash(i, t.commitment(), prev, 0L, i).get(0);
+    } // for
+    long elapsed = System.nanoTime() - start;
+    if (sink == Integer.MIN_VALUE) {
+      System.out.println(sink);
+    } // if
+    return (double) elapsed / blocks;
+  } // nanosPerHash(BlockDigest, Transaction, Hash, int)
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *   Optionally, the number of hashes per round and the length of
+   *   the names.
+   */
+  public static void main(String[] args) {
+    int blocks = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+    int nameLength = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+    Transaction t = new Transaction("s".repeat(nameLength), "t".repeat(nameLength), 100);
+    Hash prev = new Hash(new byte[32]);
+    BlockDigest[] digests = {new JcaBlockDigest(), new Sha256BlockDigest()};
+    for (int round = 0; round < WARMUP_ROUNDS; round++) {
+      for (BlockDigest d : digests) {
+        nanosPerHash(d, t, prev, blocks);
+      } // for
+    } // for
+    for (BlockDigest d : digests) {
+      System.out.printf("%-12s %8.1f ns/hash%n", d.name(), nanosPerHash(d, t, prev, blocks));
+    } // for
+  } // main(String[])
+} // class DigestBenchmark
@@ -0,0 +1,59 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Holds the heap each block in a large chain takes to its budget. Like
+ * PerfScenarios, this only runs in the perf profile (mvn test -Pperf),
+ * since it takes seconds and depends on the collector.
+ *
+ * @author Andrew Fargo
+ */
+public class PerfFootprint {
+  /**
+   * The number of blocks in our chain.
+   */
+  static final int BLOCKS = 1_000_000;
+
+  /**
+   * The most bytes per block we accept. A block, its transaction, and
+   * its hash come to about 130 bytes with compressed pointers.
+   */
+  static final int BUDGET = 200;
+
+  /**
+   * Get the heap in use after collecting garbage.
+   *
+   * @return the bytes in use.
+   */
+  static long usedHeap() throws InterruptedException {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(50);
+    } // for
+    return rt.totalMemory() - rt.freeMemory();
+  } // usedHeap()
+
+  /**
+   * Check the bytes per block for a chain of a million blocks.
+   */
+  @Test
+  public void bytesPerBlock() throws Exception {
+    long before = usedHeap();
+    BlockChain chain = new BlockChain((h) -> true);
+    for (int i = 1; i < BLOCKS; i++) {
+      Transaction t = new Transaction((i == 1) ? "" : "Alpha", "Beta", (i == 1) ? BLOCKS : 1);
+      chain.append(new Block(i, t, chain.getHash(), i));
+    } // for
+    long after = usedHeap();
+    double perBlock = (after - before) / (double) BLOCKS;
+    System.out.printf("perf %-10s %14.1f bytes/block (budget %d)%n", "footprint", perBlock,
+        BUDGET);
+    assertEquals(BLOCKS, chain.getSize(), "every block appended");
+    assertTrue(perBlock < BUDGET, "bytes per block (" + perBlock + ") within budget");
+  } // bytesPerBlock()
+} // class PerfFootprint
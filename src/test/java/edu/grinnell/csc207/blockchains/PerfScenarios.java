@@ -0,0 +1,291 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Performance scenarios with throughput budgets: mining, checking,
+ * loading, balance replay, transaction queries, and rendering. These only run in the
+ * perf profile (mvn test -Pperf). Each scenario measures its throughput
+ * as the best of several timed rounds after a warmup, and fails if that
+ * falls more than perf.tolerance below the baseline stored in
+ * perf.baseline. With perf.record=true we store the measurements as
+ * the new baselines instead.
+ *
+ * Baselines depend on the machine; record them again after moving to
+ * different hardware.
+ *
+ * @author Andrew Fargo
+ */
+public class PerfScenarios {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of blocks in the chain we check, replay, and render.
+   */
+  static final int CHAIN_BLOCKS = 100_000;
+
+  /**
+   * The number of users in that chain.
+   */
+  static final int USERS = 100;
+
+  /**
+   * The number of blocks we mine per round.
+   */
+  static final int MINED_BLOCKS = 2_000;
+
+  /**
+   * The difficulty we mine at.
+   */
+  static final int MINING_BITS = 8;
+
+  /**
+   * The number of historical balance queries per round.
+   */
+  static final int BALANCE_QUERIES = 1_000;
+
+  /**
+   * The number of transaction queries per round.
+   */
+  static final int TRANSACTION_QUERIES = 1_000;
+
+  /**
+   * The number of timed rounds per scenario, after one warmup round.
+   */
+  static final int ROUNDS = 5;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The chain most scenarios share.
+   */
+  static BlockChain chain;
+
+  /**
+   * The baselines, in operations per second, by scenario.
+   */
+  static Properties baselines = new Properties();
+
+  /**
+   * What we measured, in operations per second, by scenario.
+   */
+  static TreeMap<String, Double> measured = new TreeMap<String, Double>();
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the baseline file.
+   *
+   * @return its path.
+   */
+  static Path baselineFile() {
+    return Paths.get(System.getProperty("perf.baseline",
+        "src/test/resources/perf-baseline.properties"));
+  } // baselineFile()
+
+  /**
+   * Measure a scenario and hold it to its budget.
+   *
+   * @param name
+   *   The scenario.
+   * @param ops
+   *   The number of operations one round performs.
+   * @param round
+   *   One round of the scenario.
+   *
+   * @throws Exception
+   *   If the scenario fails.
+   */
+  static void measure(String name, int ops, Round round) throws Exception {
+    round.run();
+    double best = 0;
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      round.run();
+      best = Math.max(best, ops * 1e9 / (System.nanoTime() - start));
+    } // for
+    measured.put(name, best);
+    String baseline = baselines.getProperty(name);
+    double tolerance = Double.parseDouble(System.getProperty("perf.tolerance", "0.30"));
+    System.out.printf("perf %-10s %14.1f ops/s (baseline %s)%n", name, best, baseline);
+    if (baseline != null && !Boolean.getBoolean("perf.record")) {
+      double floor = Double.parseDouble(baseline) * (1 - tolerance);
+      assertTrue(best >= floor, String.format("%s: %.1f ops/s is below the budget of %.1f",
+          name, best, floor));
+    } // if
+  } // measure(String, int, Round)
+
+  // +-------+-------------------------------------------------------
+  // | Setup |
+  // +-------+
+
+  /**
+   * Read the baselines and build the shared chain.
+   *
+   * @throws IOException
+   *   If the baselines exist but cannot be read.
+   */
+  @BeforeAll
+  public static void setUp() throws IOException {
+    if (Files.exists(baselineFile())) {
+      try (Reader in = Files.newBufferedReader(baselineFile())) {
+        baselines.load(in);
+      } // try
+    } // if
+    chain = new BlockChain((h) -> true);
+    Random random = new Random(207);
+    int[] balances = new int[USERS];
+    for (int i = 1; i < CHAIN_BLOCKS; i++) {
+      int source = random.nextInt(USERS);
+      int target = random.nextInt(USERS);
+      Transaction t;
+      if (i % 3 == 1 || balances[source] == 0) {
+        balances[target] += 100;
+        t = new Transaction("", "U" + target, 100);
+      } else {
+        balances[source]--;
+        balances[target]++;
+        t = new Transaction("U" + source, "U" + target, 1);
+      } // if-else
+      chain.append(chain.mine(t));
+    } // for
+  } // setUp()
+
+  /**
+   * Store the measurements, if asked to.
+   *
+   * @throws IOException
+   *   If the baselines cannot be written.
+   */
+  @AfterAll
+  public static void tearDown() throws IOException {
+    if (Boolean.getBoolean("perf.record")) {
+      for (String name : measured.keySet()) {
+        baselines.setProperty(name, String.format("%.1f", measured.get(name)));
+      } // for
+      Files.createDirectories(baselineFile().toAbsolutePath().getParent());
+      try (Writer out = Files.newBufferedWriter(baselineFile())) {
+        baselines.store(out, "Throughput baselines in operations per second; see PerfScenarios");
+      } // try
+    } // if
+  } // tearDown()
+
+  // +-----------+---------------------------------------------------
+  // | Scenarios |
+  // +-----------+
+
+  /**
+   * Mining blocks at a low difficulty, in blocks per second.
+   */
+  @Test
+  public void mine() throws Exception {
+    HashValidator check = new LeadingZerosValidator(MINING_BITS);
+    Hash prev = new Hash(new byte[32]);
+    measure("mine", MINED_BLOCKS, () -> {
+      for (int i = 0; i < MINED_BLOCKS; i++) {
+        new Block(i, new Transaction("Alpha", "Beta", i), prev, check);
+      } // for
+    });
+  } // mine()
+
+  /**
+   * Checking the whole chain, in blocks per second.
+   */
+  @Test
+  public void check() throws Exception {
+    measure("check", CHAIN_BLOCKS, () -> chain.check());
+  } // check()
+
+  /**
+   * Replaying balances at random heights, in queries per second.
+   */
+  @Test
+  public void balances() throws Exception {
+    Random random = new Random(5);
+    measure("balances", BALANCE_QUERIES, () -> {
+      // Start each round with no checkpoints, so we time the replay.
+      chain.setCheckpointInterval(BlockChain.DEFAULT_CHECKPOINT_INTERVAL);
+      for (int i = 0; i < BALANCE_QUERIES; i++) {
+        chain.balanceAt("U" + random.nextInt(USERS), random.nextInt(CHAIN_BLOCKS));
+      } // for
+    });
+  } // balances()
+
+  /**
+   * Querying for one user's deposits between random heights, in queries
+   * per second.
+   */
+  @Test
+  public void query() throws Exception {
+    Random random = new Random(11);
+    chain.query().count();
+    measure("query", TRANSACTION_QUERIES, () -> {
+      for (int i = 0; i < TRANSACTION_QUERIES; i++) {
+        int first = random.nextInt(CHAIN_BLOCKS);
+        chain.query().between(first, first + CHAIN_BLOCKS / 10).source("")
+            .target("U" + random.nextInt(USERS)).amountAtLeast(100).count();
+      } // for
+    });
+  } // query()
+
+  /**
+   * Importing the chain, recomputing every hash, in blocks per second.
+   */
+  @Test
+  public void load(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.bin");
+    ChainTransfer.export(chain, file);
+    measure("load", CHAIN_BLOCKS, () -> ChainTransfer.load(file, (h) -> true));
+  } // load(Path)
+
+  /**
+   * Rendering every block, in blocks per second.
+   */
+  @Test
+  public void render() throws Exception {
+    measure("render", CHAIN_BLOCKS, () -> {
+      long chars = 0;
+      for (Block blk : (Iterable<Block>) chain::blocks) {
+        chars += blk.toString().length();
+      } // for
+      assertTrue(chars > 0, "rendered");
+    });
+  } // render()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * One round of a scenario.
+   */
+  interface Round {
+    /**
+     * Run the round.
+     *
+     * @throws Exception If the scenario fails.
+     */
+    void run() throws Exception;
+  } // interface Round
+} // class PerfScenarios
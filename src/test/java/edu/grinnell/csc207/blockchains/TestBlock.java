@@ -1,6 +1,7 @@
 package edu.grinnell.csc207.blockchains;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -78,11 +79,18 @@ public class TestBlock {
    * @return the expected hash of that block.
    */
   static byte[] expectedHash(Block block) {
-    md.update(intToBytes(block.getNum()));
-    md.update(block.getTransaction().getSource().getBytes());
-    md.update(block.getTransaction().getTarget().getBytes());
+    byte[] source = block.getTransaction().getSource().getBytes(StandardCharsets.UTF_8);
+    byte[] target = block.getTransaction().getTarget().getBytes(StandardCharsets.UTF_8);
+    md.update(intToBytes(source.length));
+    md.update(source);
+    md.update(intToBytes(target.length));
+    md.update(target);
     md.update(intToBytes(block.getTransaction().getAmount()));
+    byte[] commitment = md.digest();
+    md.update(intToBytes(block.getNum()));
+    md.update(commitment);
     md.update(block.getPrevHash().getBytes());
+    md.update(longToBytes(block.getTimestamp()));
     md.update(longToBytes(block.getNonce()));
     return md.digest();
   } // expectedHash()
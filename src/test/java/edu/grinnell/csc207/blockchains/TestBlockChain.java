@@ -1,6 +1,15 @@
 package edu.grinnell.csc207.blockchains;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
 
@@ -11,4 +20,92 @@ import org.junit.jupiter.api.Test;
  * @author Samuel A. Rebelsky
  */
 public class TestBlockChain {
+  /**
+   * Blocks that compute their own hashes are sealed.
+   */
+  @Test
+  public void builtBlocksAreSealed() {
+    Hash ph = new Hash(new byte[] {1, 2});
+    assertTrue(new Block(1, new Transaction("", "A", 1), ph, 5).isSealed(), "nonce block");
+    assertTrue(new Block(1, new Transaction("", "A", 1), ph, (h) -> true).isSealed(),
+        "mined block");
+  } // builtBlocksAreSealed()
+
+  /**
+   * Loaded blocks are verified and sealed when appended.
+   */
+  @Test
+  public void appendSealsLoadedBlocks() throws Exception {
+    BlockChain chain = new BlockChain((h) -> true);
+    Block mined = chain.mine(new Transaction("", "A", 10));
+    Block loaded = new Block(mined.getNum(), mined.getTransaction(), chain.getHash(), 0L,
+        mined.getNonce(), new Hash(mined.getHash().getBytes()));
+    assertFalse(loaded.isSealed(), "loaded block starts unsealed");
+    chain.append(loaded);
+    assertTrue(loaded.isSealed(), "appended block is sealed");
+    assertArrayEquals(mined.getHash().getBytes(), chain.getHash().getBytes(), "same hash");
+
+    Block forged = new Block(2, new Transaction("A", "B", 5), chain.getHash(), 0L,
+        0L, new Hash(new byte[] {0}));
+    assertThrows(IllegalArgumentException.class, () -> chain.append(forged));
+    assertFalse(forged.isSealed(), "rejected block stays unsealed");
+    chain.check();
+  } // appendSealsLoadedBlocks()
+
+  /**
+   * Historical balances come from checkpoints plus a short replay.
+   */
+  @Test
+  public void balanceAtHeights() throws Exception {
+    BlockChain chain = new BlockChain((h) -> true);
+    chain.setCheckpointInterval(3);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    for (int i = 0; i < 10; i++) {
+      chain.append(chain.mine(new Transaction("A", "B", 5)));
+    } // for
+    assertEquals(0, chain.balanceAt("A", 0), "before the deposit");
+    assertEquals(100, chain.balanceAt("A", 1), "after the deposit");
+    assertEquals(85, chain.balanceAt("A", 4), "after three transfers");
+    assertEquals(30, chain.balanceAt("B", 7), "B after six transfers");
+    assertEquals(50, chain.balance("A"), "current balance");
+    assertThrows(IllegalArgumentException.class, () -> chain.balanceAt("A", 12));
+
+    chain.removeLast();
+    chain.removeLast();
+    chain.append(chain.mine(new Transaction("B", "A", 40)));
+    assertEquals(100, chain.balanceAt("A", 10), "replaced tip");
+    assertEquals(40, chain.balanceAt("B", 9), "unchanged history");
+  } // balanceAtHeights()
+
+  /**
+   * Streams visit every block and transaction, in parallel too.
+   */
+  @Test
+  public void streams() throws Exception {
+    BlockChain chain = new BlockChain((h) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 10000)));
+    for (int i = 1; i <= 100; i++) {
+      chain.append(chain.mine(new Transaction("A", (i % 2 == 0) ? "B" : "C", i)));
+    } // for
+    assertEquals(102, chain.blockStream().count(), "every block");
+    List<Integer> numbers = chain.blockStream().parallel()
+        .map(Block::getNum).collect(Collectors.toList());
+    for (int i = 0; i < numbers.size(); i++) {
+      assertEquals(i, numbers.get(i), "blocks in order");
+    } // for
+    Map<String, Integer> received = chain.transactionStream().parallel()
+        .collect(Collectors.groupingBy(Transaction::getTarget,
+            Collectors.summingInt(Transaction::getAmount)));
+    assertEquals(2550, received.get("B"), "total to B");
+    assertEquals(2500, received.get("C"), "total to C");
+    assertEquals(10000 - 2550 - 2500, chain.balance("A"), "what is left");
+    assertEquals(10, chain.blockStream(20, 30).filter(b -> b.getNum() >= 20).count(), "range");
+
+    Spliterator<Block> split = chain.blockStream().spliterator();
+    assertTrue(split.hasCharacteristics(Spliterator.SIZED | Spliterator.ORDERED),
+        "characteristics");
+    Spliterator<Block> lower = split.trySplit();
+    assertEquals(51, lower.estimateSize(), "lower half");
+    assertEquals(51, split.estimateSize(), "upper half");
+  } // streams()
 } // class TestBlockChain
@@ -0,0 +1,57 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the block digests.
+ *
+ * @author Andrew Fargo
+ */
+public class TestBlockDigest {
+  /**
+   * The pure-Java digest agrees with the JCA digest across padding
+   * boundaries and for names outside ASCII.
+   */
+  @Test
+  public void digestsAgree() {
+    BlockDigest jca = new JcaBlockDigest();
+    BlockDigest java = new Sha256BlockDigest();
+    Random random = new Random(207);
+    for (int length = 0; length < 200; length++) {
+      byte[] prev = new byte[length % 40];
+      random.nextBytes(prev);
+      Transaction t = new Transaction("a".repeat(length / 2), "ü".repeat(length % 7) + "b",
+          random.nextInt());
+      long nonce = random.nextLong();
+      assertEquals(jca.hash(length, t.commitment(), new Hash(prev), 0L, nonce),
+          java.hash(length, t.commitment(), new Hash(prev), 0L, nonce), "length " + length);
+    } // for
+  } // digestsAgree()
+
+  /**
+   * Chains built with one digest check out with the other.
+   */
+  @Test
+  public void swapDigests() throws Exception {
+    BlockDigest original = Block.getDigest();
+    try {
+      Block.setDigest(new Sha256BlockDigest());
+      BlockChain chain = new BlockChain((h) -> true);
+      chain.append(chain.mine(new Transaction("", "Alpha", 5)));
+      Block.setDigest(new JcaBlockDigest());
+      chain.append(new Block(2, new Transaction("Alpha", "Beta", 2), chain.getHash(), 7L));
+      Block.setDigest(new Sha256BlockDigest());
+      chain.check();
+      assertEquals(new Block(2, new Transaction("Alpha", "Beta", 2), new Hash(new byte[0]), 7L)
+          .getHash().length(), 32, "SHA-256 sized");
+    } finally {
+      Block.setDigest(original);
+    } // try-finally
+    assertSame(original, Block.getDigest(), "restored");
+  } // swapDigests()
+} // class TestBlockDigest
@@ -0,0 +1,130 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the JMX metrics for blockchains.
+ *
+ * @author Andrew Fargo
+ */
+public class TestChainMetrics {
+  /**
+   * Appends and rejections are counted by reason.
+   */
+  @Test
+  public void countsAppendsAndRejections() {
+    BlockChain chain = new BlockChain((h) -> (h.length() > 0) && (h.get(0) % 2 == 0));
+    ChainMetrics metrics = chain.getMetrics();
+    chain.append(chain.mine(new Transaction("", "Alpha", 10)));
+    assertEquals(1, metrics.getAppends(), "one append");
+
+    Block stranger = new Block(2, new Transaction("", "Beta", 1), new Hash(new byte[] {1}), 0);
+    assertThrows(IllegalArgumentException.class, () -> chain.append(stranger));
+    assertEquals(1, metrics.getRejectedPreviousHash(), "bad previous hash");
+
+    long nonce = 0;
+    Block odd;
+    do {
+      odd = new Block(2, new Transaction("", "Beta", 1), chain.getHash(), nonce++);
+    } while (odd.getHash().get(0) % 2 == 0);
+    Block invalid = odd;
+    assertThrows(IllegalArgumentException.class, () -> chain.append(invalid));
+    assertEquals(1, metrics.getRejectedInvalidHash(), "invalid hash");
+
+    Block mined = chain.mine(new Transaction("", "Beta", 1));
+    Block tampered = new Block(mined.getNum(), mined.getTransaction(), mined.getPrevHash(),
+        mined.getTimestamp(), mined.getNonce() + 1, mined.getHash());
+    assertThrows(IllegalArgumentException.class, () -> chain.append(tampered));
+    assertEquals(1, metrics.getRejectedHashMismatch(), "hash mismatch");
+
+    assertEquals(2, metrics.getChainSize(), "chain size");
+    assertEquals(1, metrics.getAccountCount(), "one account");
+  } // countsAppendsAndRejections()
+
+  /**
+   * Account counts follow appends, removals, and loads.
+   */
+  @Test
+  public void countsAccounts(@TempDir Path dir) throws Exception {
+    BlockChain chain = new BlockChain((h) -> true);
+    TestPruning.fill(chain, 4);
+    assertEquals(3, chain.getMetrics().getAccountCount(), "A, B, and C");
+    chain.append(chain.mine(new Transaction("B", "D", 1)));
+    assertEquals(4, chain.getMetrics().getAccountCount(), "D joins");
+    chain.removeLast();
+    assertEquals(3, chain.getMetrics().getAccountCount(), "D leaves");
+    chain.removeLast();
+    assertEquals(3, chain.getMetrics().getAccountCount(), "A still named");
+    TestPruning.fill(chain, 4);
+    Path file = dir.resolve("chain.bin");
+    ChainTransfer.export(chain, file);
+    BlockChain copy = ChainTransfer.load(file, (h) -> true).getChain();
+    assertEquals(3, copy.getMetrics().getAccountCount(), "A, B, and C loaded");
+  } // countsAccounts(Path)
+
+  /**
+   * Reading a rate does not reset it for the next reader.
+   */
+  @Test
+  public void ratesSurviveReads() {
+    ChainMetrics.RateMeter meter = new ChainMetrics.RateMeter();
+    long start = System.nanoTime() + ChainMetrics.RATE_PERIOD_NANOS;
+    double first = meter.read(100, start);
+    assertTrue(first > 0, "rate since creation");
+    assertEquals(first, meter.read(100, start), "a second reader sees the same rate");
+    assertEquals(200, meter.read(300, start + ChainMetrics.RATE_PERIOD_NANOS), 1e-9,
+        "rate since the older snapshot");
+    assertEquals(200 / 1.5,
+        meter.read(300, start + 3 * ChainMetrics.RATE_PERIOD_NANOS / 2), 1e-9,
+        "no snapshot within a period");
+  } // ratesSurviveReads()
+
+  /**
+   * Mining and checks are measured.
+   */
+  @Test
+  public void countsMiningAndChecks() throws Exception {
+    BlockChain chain = new BlockChain((h) -> true);
+    ChainMetrics metrics = chain.getMetrics();
+    long before = metrics.getHashAttempts();
+    long minedBefore = metrics.getBlocksMined();
+    chain.append(chain.mine(new Transaction("", "Alpha", 10)));
+    assertTrue(metrics.getHashAttempts() > before, "hash attempts counted");
+    assertTrue(metrics.getBlocksMined() > minedBefore, "mined block counted");
+    long histogramTotal = 0;
+    for (long n : metrics.getMiningLatencyHistogram()) {
+      histogramTotal += n;
+    } // for
+    assertEquals(metrics.getBlocksMined(), histogramTotal, "every block in a bucket");
+
+    chain.check();
+    assertEquals(1, metrics.getChecks(), "one check");
+    assertEquals(0, metrics.getFailedChecks(), "no failed checks");
+  } // countsMiningAndChecks()
+
+  /**
+   * Metrics appear in the platform MBean server.
+   */
+  @Test
+  public void registersWithJmx() throws Exception {
+    BlockChain chain = new BlockChain((h) -> true);
+    ObjectName name = chain.getMetrics().register("test-" + System.nanoTime());
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      assertEquals(1, server.getAttribute(name, "ChainSize"), "size through JMX");
+    } finally {
+      chain.getMetrics().unregister();
+    } // try-finally
+    assertTrue(!server.isRegistered(name), "unregistered");
+  } // registersWithJmx()
+} // class TestChainMetrics
@@ -0,0 +1,81 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of chain synchronization over loopback sockets.
+ *
+ * @author Andrew Fargo
+ */
+public class TestChainSync {
+  /**
+   * A new follower copies the leader, then keeps up as it grows.
+   */
+  @Test
+  public void catchesUp() throws Exception {
+    HashValidator check = (h) -> h.get(0) < 64;
+    BlockChain leader = new BlockChain(check);
+    TestPruning.fill(leader, 3000);
+    try (SyncServer server = new SyncServer(leader, new ReentrantReadWriteLock(), 0)) {
+      ChainSync.Report first = ChainSync.follow(server.getAddress(), check,
+          new OffHeapBlockStore());
+      BlockChain follower = first.getChain();
+      assertEquals(leader.getSize(), first.getAppended(), "every block pulled");
+      assertEquals(leader.getHash(), follower.getHash(), "same tip");
+      assertEquals(leader.balance("A"), follower.balance("A"), "same ledger");
+
+      TestPruning.fill(leader, 10);
+      ChainSync.Report second = ChainSync.sync(follower, server.getAddress(), 3, 2);
+      assertEquals(first.getAppended(), second.getForkHeight(), "nothing to undo");
+      assertEquals(0, second.getRemoved(), "nothing removed");
+      assertEquals(leader.getSize(), follower.getSize(), "caught up");
+      assertEquals(leader.getHash(), follower.getHash(), "same tip again");
+      follower.check();
+    } // try
+  } // catchesUp()
+
+  /**
+   * A follower that has gone its own way drops its own blocks.
+   */
+  @Test
+  public void resolvesFork() throws Exception {
+    HashValidator check = (h) -> h.get(0) < 64;
+    BlockChain leader = new BlockChain(check);
+    TestPruning.fill(leader, 500);
+    try (SyncServer server = new SyncServer(leader, new ReentrantReadWriteLock(), 0)) {
+      BlockChain follower = ChainSync.follow(server.getAddress(), check,
+          new HeapBlockStore()).getChain();
+      int shared = 300;
+      while (follower.getSize() > shared) {
+        follower.removeLast();
+      } // while
+      for (int i = 0; i < 50; i++) {
+        follower.append(follower.mine(new Transaction("", "Z", 1)));
+      } // for
+      ChainSync.Report report = ChainSync.sync(follower, server.getAddress());
+      assertEquals(shared, report.getForkHeight(), "found the fork");
+      assertEquals(50, report.getRemoved(), "dropped our own blocks");
+      assertEquals(leader.getHash(), follower.getHash(), "same tip");
+      assertEquals(0, follower.balance("Z"), "our blocks are gone");
+    } // try
+  } // resolvesFork()
+
+  /**
+   * Chains with different initial blocks cannot sync.
+   */
+  @Test
+  public void rejectsStranger() throws Exception {
+    HashValidator check = (h) -> h.get(0) < 64;
+    BlockChain leader = new BlockChain(check);
+    try (SyncServer server = new SyncServer(leader, new ReentrantReadWriteLock(), 0)) {
+      assertThrows(IOException.class,
+          () -> ChainSync.sync(new BlockChain(check), server.getAddress()));
+    } // try
+  } // rejectsStranger()
+} // class TestChainSync
@@ -0,0 +1,122 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of bulk chain export and import.
+ *
+ * @author Andrew Fargo
+ */
+public class TestChainTransfer {
+  /**
+   * An imported chain matches the exported one.
+   */
+  @Test
+  public void roundTrip(@TempDir Path dir) throws Exception {
+    HashValidator check = (h) -> h.get(0) < 64;
+    BlockChain chain = new BlockChain(check);
+    TestPruning.fill(chain, ChainTransfer.BATCH_SIZE + 100);
+    Path file = dir.resolve("chain.bin");
+    ChainTransfer.Report exported = ChainTransfer.export(chain, file);
+    assertEquals(chain.getSize(), exported.getBlocks(), "every block exported");
+    assertEquals(Files.size(file), exported.getBytes(), "bytes counted");
+
+    ChainTransfer.Report imported = ChainTransfer.load(file, check, new OffHeapBlockStore());
+    BlockChain copy = imported.getChain();
+    assertEquals(chain.getSize(), copy.getSize(), "every block imported");
+    assertEquals(chain.getHash(), copy.getHash(), "same tip");
+    assertEquals(chain.balance("A"), copy.balance("A"), "same balance");
+    assertEquals(chain.balanceAt("B", 2000), copy.balanceAt("B", 2000), "same history");
+    assertEquals(copy.getSize() / BlockChain.DEFAULT_CHECKPOINT_INTERVAL + 1,
+        copy.checkpoints.size(), "ledger checkpoints built while loading");
+    assertTrue(imported.getBlocksPerSecond() > 0, "throughput reported");
+    copy.check();
+    copy.append(copy.mine(new Transaction("", "D", 1)));
+  } // roundTrip(Path)
+
+  /**
+   * Imports reject chains that do not verify.
+   */
+  @Test
+  public void rejectsTampering(@TempDir Path dir) throws Exception {
+    HashValidator check = (h) -> h.get(0) < 64;
+    BlockChain chain = new BlockChain(check);
+    TestPruning.fill(chain, 20);
+    Path file = dir.resolve("chain.bin");
+    ChainTransfer.export(chain, file);
+    byte[] bytes = Files.readAllBytes(file);
+    bytes[bytes.length - 40] ^= 1;
+    Files.write(file, bytes);
+    Exception e = assertThrows(Exception.class, () -> ChainTransfer.load(file, check));
+    assertTrue(e.getMessage().contains("height 20"), "names the bad block: " + e.getMessage());
+    Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+    assertThrows(IOException.class, () -> ChainTransfer.load(file, check));
+  } // rejectsTampering(Path)
+
+  /**
+   * Blocks up to a trusted checkpoint skip the validator; later ones
+   * do not.
+   */
+  @Test
+  public void trustsCheckpoints(@TempDir Path dir) throws Exception {
+    HashValidator check = (h) -> h.get(0) < 64;
+    BlockChain chain = new BlockChain(check);
+    TestPruning.fill(chain, 300);
+    Path file = dir.resolve("chain.bin");
+    ChainTransfer.export(chain, file);
+    Hash at250 = chain.blockStream(250, 251).findFirst().get().getHash();
+
+    AtomicInteger validated = new AtomicInteger();
+    HashValidator counting = (h) -> {
+      validated.incrementAndGet();
+      return check.isValid(h);
+    };
+    TrustedCheckpoints trusted = new TrustedCheckpoints().add(250, at250).add(1000, at250);
+    ChainTransfer.Report report =
+        ChainTransfer.load(file, counting, new HeapBlockStore(), trusted);
+    assertEquals(251, report.getTrustedBlocks(), "blocks 0 through 250 trusted");
+    assertEquals(50, validated.get(), "only blocks above the checkpoint validated");
+    assertEquals(chain.balance("A"), report.getChain().balance("A"), "ledger rebuilt");
+    assertEquals(chain.getHash(), report.getChain().getHash(), "same tip");
+    BlockChain loaded = report.getChain();
+    assertTrue(!loaded.store.get(100).isSealed(), "trusted blocks are not hashed");
+    assertTrue(loaded.store.get(260).isSealed(), "verified blocks are sealed");
+    loaded.check();
+    assertTrue(loaded.store.get(100).isSealed(), "check hashes trusted blocks");
+
+    TrustedCheckpoints wrong = new TrustedCheckpoints().add(100, at250);
+    Exception e = assertThrows(Exception.class,
+        () -> ChainTransfer.load(file, check, new HeapBlockStore(), wrong));
+    assertTrue(e.getMessage().contains("height 100"), "names the checkpoint: " + e.getMessage());
+  } // trustsCheckpoints(Path)
+
+  /**
+   * Records with lengths no record can have are refused before we
+   * allocate anything for them.
+   */
+  @Test
+  public void rejectsBadRecordLengths() throws Exception {
+    for (int length : new int[] {-1, Integer.MAX_VALUE, BlockCodec.MAX_RECORD_BYTES + 1}) {
+      byte[] bytes = ByteBuffer.allocate(Integer.BYTES).putInt(length).array();
+      IOException e = assertThrows(IOException.class, () -> ChainTransfer.readRecord(
+          new DataInputStream(new ByteArrayInputStream(bytes)), new UserDictionary()));
+      assertTrue(e.getMessage().contains(String.valueOf(length)), "length reported");
+    } // for
+    byte[] garbage = ByteBuffer.allocate(Integer.BYTES + 3).putInt(3).array();
+    assertThrows(IOException.class, () -> ChainTransfer.readRecord(
+        new DataInputStream(new ByteArrayInputStream(garbage))), "record too short");
+  } // rejectsBadRecordLengths()
+} // class TestChainTransfer
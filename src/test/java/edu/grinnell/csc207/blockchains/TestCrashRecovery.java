@@ -0,0 +1,232 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of durable stores that are reopened after a crash.
+ *
+ * @author Andrew Fargo
+ */
+public class TestCrashRecovery {
+  /**
+   * Build a durable chain of 41 blocks, snapshotting every 16, and close
+   * it.
+   *
+   * @param file
+   *   The archive's data file.
+   *
+   * @return the balances of A, B, and C after each block.
+   */
+  static int[][] build(Path file) throws Exception {
+    int[][] balances = new int[41][];
+    try (DurableBlockStore store = new DurableBlockStore(file, false)) {
+      store.setSnapshotInterval(16);
+      BlockChain chain = store.open((h) -> true);
+      TestPruning.fill(chain, 40);
+      for (int h = 0; h < 41; h++) {
+        balances[h] = new int[] {chain.balanceAt("A", h), chain.balanceAt("B", h),
+                                 chain.balanceAt("C", h)};
+      } // for
+      assertEquals(32, store.getSnapshotHeight(), "newest snapshot");
+    } // try
+    return balances;
+  } // build(Path)
+
+  /**
+   * Check a reopened chain against the balances it had before.
+   *
+   * @param chain
+   *   The reopened chain.
+   * @param balances
+   *   The balances after each block, from build.
+   */
+  static void assertBalances(BlockChain chain, int[][] balances) throws Exception {
+    int tip = chain.getSize() - 1;
+    assertEquals(balances[tip][0], chain.balance("A"), "balance of A");
+    assertEquals(balances[tip][1], chain.balance("B"), "balance of B");
+    assertEquals(balances[tip][2], chain.balance("C"), "balance of C");
+    assertEquals(balances[5][0], chain.balanceAt("A", 5), "history below the snapshot");
+    chain.check();
+  } // assertBalances(BlockChain, int[][])
+
+  /**
+   * A cleanly closed chain reopens where it left off and replays only
+   * the blocks after its snapshot.
+   */
+  @Test
+  public void reopenResumes(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.dat");
+    int[][] balances = build(file);
+    try (DurableBlockStore store = new DurableBlockStore(file, true)) {
+      assertEquals(0, store.getTruncatedBytes(), "nothing torn");
+      assertEquals(32, store.getSnapshotHeight(), "snapshot loaded");
+      BlockChain chain = store.open((h) -> true);
+      assertEquals(41, chain.getSize(), "every block kept");
+      assertBalances(chain, balances);
+      assertEquals(8, chain.checkHashes(), "only blocks after the snapshot checked");
+      assertEquals(3, chain.getAccountCount(), "accounts from the snapshot and after");
+      TestPruning.fill(chain, 3);
+      chain.check();
+    } // try
+    try (DurableBlockStore store = new DurableBlockStore(file, false)) {
+      assertEquals(44, store.open((h) -> true).getSize(), "appends after reopening kept");
+    } // try
+  } // reopenResumes()
+
+  /**
+   * A record cut short by a crash is dropped.
+   */
+  @Test
+  public void tornRecordIsCut(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.dat");
+    int[][] balances = build(file);
+    long length = Files.size(file);
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.setLength(length - 5);
+    } // try
+    try (DurableBlockStore store = new DurableBlockStore(file, false)) {
+      BlockChain chain = store.open((h) -> true);
+      assertEquals(40, chain.getSize(), "torn block dropped");
+      assertTrue(store.getTruncatedBytes() > 0, "torn bytes cut");
+      assertEquals(length - 5 - store.getTruncatedBytes(), Files.size(file), "file truncated");
+      assertBalances(chain, balances);
+    } // try
+  } // tornRecordIsCut()
+
+  /**
+   * A record that was written but not indexed is kept.
+   */
+  @Test
+  public void unindexedRecordIsKept(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.dat");
+    int[][] balances = build(file);
+    Path index = dir.resolve("chain.dat" + BlockArchive.INDEX_SUFFIX);
+    try (RandomAccessFile raf = new RandomAccessFile(index.toFile(), "rw")) {
+      raf.setLength(raf.length() - Long.BYTES - 3);
+    } // try
+    try (DurableBlockStore store = new DurableBlockStore(file, false)) {
+      BlockChain chain = store.open((h) -> true);
+      assertEquals(41, chain.getSize(), "record re-indexed");
+      assertEquals(0, store.getTruncatedBytes(), "nothing cut");
+      assertBalances(chain, balances);
+    } // try
+  } // unindexedRecordIsKept()
+
+  /**
+   * A whole record that does not match its checksum is dropped.
+   */
+  @Test
+  public void corruptRecordIsCut(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.dat");
+    int[][] balances = build(file);
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.seek(raf.length() - 2);
+      int b = raf.read();
+      raf.seek(raf.length() - 2);
+      raf.write(b ^ 0x10);
+    } // try
+    try (DurableBlockStore store = new DurableBlockStore(file, false)) {
+      BlockChain chain = store.open((h) -> true);
+      assertEquals(40, chain.getSize(), "corrupt block dropped");
+      assertBalances(chain, balances);
+    } // try
+  } // corruptRecordIsCut()
+
+  /**
+   * A whole block that does not link to the one before it is dropped.
+   */
+  @Test
+  public void unlinkedBlockIsCut(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.dat");
+    int[][] balances = build(file);
+    try (BlockArchive archive = new BlockArchive(file)) {
+      archive.append(new Block(41, new Transaction("", "A", 5), new Hash(new byte[] {1}), 0L));
+    } // try
+    try (DurableBlockStore store = new DurableBlockStore(file, false)) {
+      BlockChain chain = store.open((h) -> true);
+      assertEquals(1, store.getUnlinkedBlocks(), "one block unlinked");
+      assertEquals(41, chain.getSize(), "the rest kept");
+      assertBalances(chain, balances);
+    } // try
+  } // unlinkedBlockIsCut()
+
+  /**
+   * A block whose contents were changed on disk, with its stored hash
+   * and checksum intact, fails the reopened chain's check.
+   */
+  @Test
+  public void forgedBlockFailsCheck(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.dat");
+    build(file);
+    try (BlockArchive archive = new BlockArchive(file)) {
+      Block original = archive.read(38);
+      Block[] above = {archive.read(39), archive.read(40)};
+      archive.truncate(38);
+      archive.append(new Block(38, new Transaction("", "A", 1000), original.getPrevHash(),
+          original.getTimestamp(), original.getNonce(), original.getHash()));
+      for (Block blk : above) {
+        archive.append(blk);
+      } // for
+    } // try
+    try (DurableBlockStore store = new DurableBlockStore(file, false)) {
+      BlockChain chain = store.open((h) -> true);
+      assertEquals(0, store.getUnlinkedBlocks(), "links intact");
+      Exception e = assertThrows(Exception.class, chain::check);
+      assertTrue(e.getMessage().startsWith("Invalid hash"), "forged block caught");
+    } // try
+  } // forgedBlockFailsCheck(Path)
+
+  /**
+   * Removing blocks below the snapshot falls back to replaying from the
+   * start.
+   */
+  @Test
+  public void removeBelowSnapshot(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.dat");
+    int[][] balances = build(file);
+    try (DurableBlockStore store = new DurableBlockStore(file, false)) {
+      BlockChain chain = store.open((h) -> true);
+      while (chain.getSize() > 30) {
+        assertTrue(chain.removeLast(), "durable blocks can be removed");
+      } // while
+      assertEquals(0, store.getSnapshotHeight(), "snapshot dropped");
+      assertBalances(chain, balances);
+    } // try
+    try (DurableBlockStore store = new DurableBlockStore(file, false)) {
+      BlockChain chain = store.open((h) -> true);
+      assertEquals(30, chain.getSize(), "removals kept");
+      assertBalances(chain, balances);
+    } // try
+  } // removeBelowSnapshot()
+
+  /**
+   * Snapshots keep the longest names that records allow.
+   */
+  @Test
+  public void longNamesInSnapshot(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.dat");
+    String name = "x".repeat(BlockCodec.MAX_NAME_BYTES);
+    try (DurableBlockStore store = new DurableBlockStore(file, false)) {
+      store.setSnapshotInterval(2);
+      BlockChain chain = store.open((h) -> true);
+      chain.append(chain.mine(new Transaction("", name, 7)));
+      chain.append(chain.mine(new Transaction(name, "A", 2)));
+      assertEquals(2, store.getSnapshotHeight(), "snapshot taken");
+    } // try
+    try (DurableBlockStore store = new DurableBlockStore(file, false)) {
+      assertEquals(2, store.getSnapshotHeight(), "snapshot loaded");
+      BlockChain chain = store.open((h) -> true);
+      assertEquals(5, chain.balance(name), "balance of the long name");
+      assertEquals(0, chain.checkHashes(), "nothing replayed");
+    } // try
+  } // longNamesInSnapshot(Path)
+} // class TestCrashRecovery
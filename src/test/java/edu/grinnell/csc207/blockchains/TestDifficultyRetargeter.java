@@ -0,0 +1,187 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of difficulty retargeting.
+ *
+ * @author Andrew Fargo
+ */
+public class TestDifficultyRetargeter {
+  /**
+   * Record a run of blocks with a fixed gap between them.
+   *
+   * @param policy
+   *   The policy to record into.
+   * @param count
+   *   The number of blocks to record.
+   * @param gap
+   *   The milliseconds between blocks.
+   */
+  static void recordBlocks(DifficultyRetargeter policy, int count, long gap) {
+    long time = (policy.size() == 0) ? 0 : policy.timestampAt(policy.size() - 1);
+    for (int i = 0; i < count; i++) {
+      time += gap;
+      policy.record(policy.size(), time);
+    } // for
+  } // recordBlocks(DifficultyRetargeter, int, long)
+
+  /**
+   * Fast blocks raise the difficulty and slow blocks lower it.
+   */
+  @Test
+  public void adjustsTowardTarget() {
+    DifficultyRetargeter policy = new DifficultyRetargeter(4, 1000, 8, 0, 32);
+    recordBlocks(policy, 4, 250);
+    assertEquals(8, policy.difficultyAt(3), "difficulty of recorded block");
+    assertEquals(10, policy.difficultyAt(4), "fast window raises difficulty");
+    recordBlocks(policy, 4, 1000);
+    assertEquals(10, policy.difficultyAt(8), "on-target window keeps difficulty");
+    recordBlocks(policy, 4, 2000);
+    assertEquals(9, policy.difficultyAt(12), "slow window lowers difficulty");
+  } // adjustsTowardTarget()
+
+  /**
+   * Adjustments are limited per window and by the bounds.
+   */
+  @Test
+  public void clampsAdjustments() {
+    DifficultyRetargeter policy = new DifficultyRetargeter(2, 1000, 3, 2, 6);
+    recordBlocks(policy, 2, 1);
+    assertEquals(5, policy.difficultyAt(2), "step limited to two bits");
+    recordBlocks(policy, 2, 1);
+    assertEquals(6, policy.difficultyAt(4), "difficulty limited by maximum");
+    recordBlocks(policy, 2, 1000000);
+    recordBlocks(policy, 2, 1000000);
+    assertEquals(2, policy.difficultyAt(8), "difficulty limited by minimum");
+  } // clampsAdjustments()
+
+  /**
+   * Truncating restores the difficulty that applied at the new tip.
+   */
+  @Test
+  public void truncateRestoresDifficulty() {
+    DifficultyRetargeter policy = new DifficultyRetargeter(4, 1000, 8, 0, 32);
+    recordBlocks(policy, 5, 250);
+    assertEquals(10, policy.difficultyAt(5), "raised difficulty");
+    policy.truncate(4);
+    assertEquals(10, policy.difficultyAt(4), "retarget recomputed at window end");
+    policy.truncate(3);
+    assertEquals(8, policy.difficultyAt(3), "difficulty before the retarget");
+  } // truncateRestoresDifficulty()
+
+  /**
+   * Validators require the right number of zero bits.
+   */
+  @Test
+  public void leadingZeros() {
+    Hash h = new Hash(new byte[] {0, 0x1F, 5});
+    assertTrue(new LeadingZerosValidator(11).isValid(h), "11 zero bits");
+    assertFalse(new LeadingZerosValidator(12).isValid(h), "only 11 zero bits");
+    assertFalse(new LeadingZerosValidator(32).isValid(h), "hash too short");
+  } // leadingZeros()
+
+  /**
+   * A retargeting chain mines, appends, and checks.
+   */
+  @Test
+  public void retargetingChain() throws Exception {
+    DifficultyRetargeter policy = new DifficultyRetargeter(2, 60000, 1, 1, 8);
+    BlockChain chain = new BlockChain(policy);
+    chain.append(chain.mine(new Transaction("", "Alpha", 10)));
+    chain.append(chain.mine(new Transaction("Alpha", "Beta", 5)));
+    chain.append(chain.mine(new Transaction("Beta", "Alpha", 1)));
+    assertEquals(4, chain.getSize(), "size of retargeting chain");
+    assertTrue(policy.difficultyAt(3) > 1, "fast blocks raised the difficulty");
+    assertTrue(chain.isCorrect(), "blocks validated at their own difficulty");
+    assertTrue(chain.removeLast(), "remove last block");
+    assertEquals(3, policy.size(), "policy truncated with chain");
+  } // retargetingChain()
+
+  /**
+   * Difficulty comes from the blocks' own timestamps, so it survives
+   * removing and re-appending a block and a round trip through a file.
+   */
+  @Test
+  public void difficultyFromTimestamps(@TempDir Path dir) throws Exception {
+    DifficultyRetargeter policy = new DifficultyRetargeter(2, 60000, 1, 1, 8);
+    BlockChain chain = new BlockChain(policy);
+    for (int i = 0; i < 6; i++) {
+      chain.append(chain.mine(new Transaction("", "Alpha", 1 + i)));
+    } // for
+    Block last = chain.store.get(chain.getSize() - 1);
+    int bits = policy.difficultyAt(last.getNum());
+    assertTrue(bits > 1, "fast blocks raised the difficulty");
+    assertTrue(chain.removeLast(), "remove last block");
+    chain.append(last);
+    assertEquals(bits, policy.difficultyAt(last.getNum()), "same difficulty when re-appended");
+
+    Path file = dir.resolve("chain.bin");
+    ChainTransfer.export(chain, file);
+    BlockChain copy = ChainTransfer.load(file, (h) -> true).getChain();
+    DifficultyRetargeter replayed = new DifficultyRetargeter(2, 60000, 1, 1, 8);
+    copy.retargetWith(replayed);
+    for (int height = 0; height <= chain.getSize(); height++) {
+      assertEquals(policy.difficultyAt(height), replayed.difficultyAt(height),
+          "difficulty at height " + height);
+    } // for
+    copy.check();
+    copy.append(copy.mine(new Transaction("Alpha", "Beta", 1)));
+    assertEquals(chain.getSize() + 1, replayed.size(), "new blocks recorded");
+    assertThrows(IllegalArgumentException.class, () -> copy.retargetWith(replayed),
+        "policy already used");
+  } // difficultyFromTimestamps(Path)
+
+  /**
+   * Retargeting chains refuse blocks older than their tips, and
+   * policies refuse chains whose blocks are too easy.
+   */
+  @Test
+  public void rejectsBadTimestamps() throws Exception {
+    BlockChain chain = new BlockChain(new DifficultyRetargeter(2, 60000, 1, 1, 8));
+    chain.append(chain.mine(new Transaction("", "Alpha", 10)));
+    Block tip = chain.store.get(1);
+    Block early = new Block(2, new Transaction("Alpha", "Beta", 1), tip.getHash(),
+        tip.getTimestamp() - 1, chain.validatorFor(2));
+    assertThrows(IllegalArgumentException.class, () -> chain.append(early), "older than tip");
+    assertEquals(1, chain.getMetrics().getRejectedTimestamp(), "timestamp rejection counted");
+
+    BlockChain easy = new BlockChain((h) -> true);
+    TestPruning.fill(easy, 4);
+    assertThrows(IllegalArgumentException.class,
+        () -> easy.retargetWith(new DifficultyRetargeter(2, 60000, 8, 8, 16)), "too easy");
+    assertTrue(easy.isCorrect(), "chain unchanged");
+  } // rejectsBadTimestamps()
+
+  /**
+   * Blocks stamped too far past the clock are rejected, so they cannot
+   * drag the difficulty down.
+   */
+  @Test
+  public void rejectsFutureTimestamps() throws Exception {
+    DifficultyRetargeter policy = new DifficultyRetargeter(2, 60000, 1, 1, 8, 60000);
+    BlockChain chain = new BlockChain(policy);
+    chain.append(chain.mine(new Transaction("", "Alpha", 10)));
+    Block tip = chain.store.get(1);
+    long now = System.currentTimeMillis();
+    Block late = new Block(2, new Transaction("Alpha", "Beta", 1), tip.getHash(),
+        now + 3_600_000, chain.validatorFor(2));
+    assertThrows(IllegalArgumentException.class, () -> chain.append(late), "an hour ahead");
+    assertEquals(1, chain.getMetrics().getRejectedFutureTimestamp(), "rejection counted");
+    Block soon = new Block(2, new Transaction("Alpha", "Beta", 1), tip.getHash(),
+        now + 30_000, chain.validatorFor(2));
+    chain.append(soon);
+    assertEquals(3, chain.getSize(), "within the drift");
+    assertTrue(policy.isTooFarAhead(now + 120_000), "past the drift");
+    assertThrows(IllegalArgumentException.class,
+        () -> new DifficultyRetargeter(2, 60000, 1, 1, 8, -1), "negative drift");
+  } // rejectsFutureTimestamps()
+} // class TestDifficultyRetargeter
@@ -0,0 +1,81 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the flight recorder events for blockchains.
+ *
+ * @author Andrew Fargo
+ */
+public class TestFlightEvents {
+  /**
+   * Find the recorded events with a given name.
+   *
+   * @param events
+   *   All recorded events.
+   * @param name
+   *   The event name, without the package prefix.
+   *
+   * @return the matching events.
+   */
+  static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+    List<RecordedEvent> result = new ArrayList<RecordedEvent>();
+    for (RecordedEvent e : events) {
+      if (e.getEventType().getName().equals("edu.grinnell.csc207.blockchains." + name)) {
+        result.add(e);
+      } // if
+    } // for
+    return result;
+  } // named(List<RecordedEvent>, String)
+
+  /**
+   * Mining, appending, checking, and replaying produce events.
+   */
+  @Test
+  public void recordsChainEvents() throws Exception {
+    Path file = Files.createTempFile("blockchains", ".jfr");
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable(MineEvent.class);
+      recording.enable(AppendEvent.class);
+      recording.enable(CheckEvent.class);
+      recording.enable(BalanceReplayEvent.class);
+      recording.start();
+
+      BlockChain chain = new BlockChain((h) -> true);
+      chain.append(chain.mine(new Transaction("", "Alpha", 10)));
+      Block stranger = new Block(2, new Transaction("", "Beta", 1),
+          new Hash(new byte[] {1}), 0);
+      assertThrows(IllegalArgumentException.class, () -> chain.append(stranger));
+      chain.check();
+
+      recording.stop();
+      recording.dump(file);
+      events = RecordingFile.readAllEvents(file);
+    } finally {
+      Files.deleteIfExists(file);
+    } // try-finally
+
+    assertEquals(2, named(events, "Mine").size(), "initial and mined blocks");
+    List<RecordedEvent> appends = named(events, "Append");
+    assertEquals(2, appends.size(), "two append attempts");
+    assertEquals("appended", appends.get(0).getString("outcome"), "first append");
+    assertEquals("PREVIOUS_HASH", appends.get(1).getString("outcome"), "rejected append");
+    List<RecordedEvent> checks = named(events, "Check");
+    assertEquals(1, checks.get(0).getInt("blocksVerified"), "one block verified");
+    assertTrue(checks.get(0).getBoolean("passed"), "check passed");
+    assertEquals(1, named(events, "BalanceReplay").get(0).getInt("accounts"), "one account");
+  } // recordsChainEvents()
+} // class TestFlightEvents
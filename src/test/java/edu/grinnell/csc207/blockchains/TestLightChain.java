@@ -0,0 +1,134 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of header-only chains.
+ *
+ * @author Andrew Fargo
+ */
+public class TestLightChain {
+  /**
+   * A light chain follows a full one and rebuilds its blocks from their
+   * transactions.
+   */
+  @Test
+  public void followsChain(@TempDir Path dir) throws Exception {
+    HashValidator check = (h) -> h.get(0) < 64;
+    BlockChain chain = new BlockChain(check);
+    TestPruning.fill(chain, 100);
+    LightChain light = LightChain.headersOf(chain, check);
+    assertEquals(chain.getSize(), light.getSize(), "every header");
+    assertEquals(chain.getHash(), light.getHash(), "same tip");
+
+    Path file = dir.resolve("headers.bin");
+    long bytes = light.save(file);
+    assertEquals(Files.size(file), bytes, "bytes counted");
+    assertTrue(bytes < (long) LightChain.ROW_BYTES * (light.getSize() + 1), "compact");
+    LightChain copy = LightChain.load(file, check);
+    assertEquals(light.getHash(), copy.getHash(), "same tip after loading");
+
+    Block original = chain.blockStream(50, 51).findFirst().get();
+    Block rebuilt = copy.withBody(50, original.getTransaction());
+    assertEquals(original.getHash(), rebuilt.getHash(), "same block");
+    assertEquals(original.getPrevHash(), rebuilt.getPrevHash(), "same link");
+    assertThrows(IllegalArgumentException.class,
+        () -> copy.withBody(50, new Transaction("", "Mallory", 1000)), "wrong body");
+  } // followsChain(Path)
+
+  /**
+   * Light chains reject headers that do not follow.
+   */
+  @Test
+  public void rejectsBadHeaders() throws Exception {
+    HashValidator check = (h) -> h.get(0) < 64;
+    BlockChain chain = new BlockChain(check);
+    TestPruning.fill(chain, 3);
+    LightChain light = LightChain.headersOf(chain, check);
+    int size = light.getSize();
+    BlockHeader tip = light.get(size - 1);
+    byte[] easy = new byte[LightChain.HASH_BYTES];
+    assertThrows(IllegalArgumentException.class, () -> light.append(new BlockHeader(size + 1,
+        tip.getHash(), tip.getCommitment(), 0L, 0L, new Hash(easy))), "out of order");
+    assertThrows(IllegalArgumentException.class, () -> light.append(new BlockHeader(size,
+        tip.getPrevHash(), tip.getCommitment(), 0L, 0L, new Hash(easy))), "bad link");
+    easy[0] = 100;
+    assertThrows(IllegalArgumentException.class, () -> light.append(new BlockHeader(size,
+        tip.getHash(), tip.getCommitment(), 0L, 0L, new Hash(easy))), "invalid hash");
+    assertEquals(size, light.getSize(), "nothing appended");
+  } // rejectsBadHeaders()
+
+  /**
+   * Light chains recompute header hashes, so a header whose hash was
+   * made up rather than mined is rejected even if it satisfies the
+   * validator and follows the chain.
+   */
+  @Test
+  public void rejectsForgedHeaders() throws Exception {
+    HashValidator check = (h) -> h.get(0) < 64;
+    BlockChain chain = new BlockChain(check);
+    TestPruning.fill(chain, 3);
+    LightChain light = LightChain.headersOf(chain, check);
+    int size = light.getSize();
+    Hash forged = new Hash(new byte[LightChain.HASH_BYTES]);
+    assertTrue(check.isValid(forged), "the forged hash looks mined");
+    BlockHeader fake = new BlockHeader(size, light.getHash(),
+        BlockHeader.commitment(new Transaction("", "Mallory", 1000)), 0L, 0L, forged);
+    assertThrows(IllegalArgumentException.class, () -> light.append(fake), "forged header");
+    assertEquals(size, light.getSize(), "nothing appended");
+
+    chain.append(chain.mine(new Transaction("", "Mallory", 1000)));
+    BlockHeader real = BlockHeader.of(chain.blockStream(size, size + 1).findFirst().get());
+    assertEquals(real.getHash(), real.computeHash(), "real headers hash to their hashes");
+    light.append(real);
+    assertEquals(chain.getHash(), light.getHash(), "mined header appended");
+  } // rejectsForgedHeaders()
+
+  /**
+   * Light chains of retargeting chains replay the difficulty at each
+   * height from the header timestamps.
+   */
+  @Test
+  public void followsRetargetingChain(@TempDir Path dir) throws Exception {
+    DifficultyRetargeter policy = new DifficultyRetargeter(2, 60000, 1, 1, 8);
+    BlockChain chain = new BlockChain(policy);
+    for (int i = 0; i < 6; i++) {
+      chain.append(chain.mine(new Transaction("", "Alpha", 1 + i)));
+    } // for
+    assertThrows(IllegalArgumentException.class,
+        () -> LightChain.headersOf(chain, (h) -> true), "fixed validator refused");
+
+    DifficultyRetargeter replayed = new DifficultyRetargeter(2, 60000, 1, 1, 8);
+    LightChain light = LightChain.headersOf(chain, replayed);
+    assertEquals(chain.getHash(), light.getHash(), "same tip");
+    int size = light.getSize();
+    assertEquals(policy.difficultyAt(size), replayed.difficultyAt(size), "same difficulty");
+    assertTrue(replayed.difficultyAt(size) > 1, "fast blocks raised the difficulty");
+
+    // A header that meets the starting difficulty but not the current
+    // one is refused.
+    HashValidator start = new LeadingZerosValidator(1);
+    HashValidator now = replayed.validatorAt(size);
+    Block easy = new Block(size, new Transaction("Alpha", "Beta", 1), light.getHash(),
+        chain.timestampFor(size), (h) -> start.isValid(h) && !now.isValid(h));
+    assertThrows(IllegalArgumentException.class, () -> light.append(BlockHeader.of(easy)),
+        "too easy for the replayed difficulty");
+    assertEquals(size, light.getSize(), "nothing appended");
+
+    Path file = dir.resolve("headers.bin");
+    light.save(file);
+    LightChain copy = LightChain.load(file, new DifficultyRetargeter(2, 60000, 1, 1, 8));
+    assertEquals(light.getHash(), copy.getHash(), "same tip after loading");
+    chain.append(chain.mine(new Transaction("Alpha", "Beta", 1)));
+    copy.append(BlockHeader.of(chain.blockStream(size, size + 1).findFirst().get()));
+    assertEquals(chain.getHash(), copy.getHash(), "mined header appended");
+  } // followsRetargetingChain(Path)
+} // class TestLightChain
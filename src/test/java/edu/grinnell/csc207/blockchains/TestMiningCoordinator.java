@@ -0,0 +1,157 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of mining with a coordinator and workers.
+ *
+ * @author Andrew Fargo
+ */
+public class TestMiningCoordinator {
+  /**
+   * Wait until a coordinator has some number of workers.
+   *
+   * @param coordinator The coordinator.
+   * @param count The number of workers.
+   * @throws InterruptedException If interrupted.
+   */
+  static void awaitWorkers(MiningCoordinator coordinator, int count)
+      throws InterruptedException {
+    for (int i = 0; i < 1000 && coordinator.getWorkerCount() != count; i++) {
+      Thread.sleep(10);
+    } // for
+    assertEquals(count, coordinator.getWorkerCount(), "workers connected");
+  } // awaitWorkers(MiningCoordinator, int)
+
+  /**
+   * Start a worker in this JVM.
+   *
+   * @param coordinator The coordinator.
+   * @throws Exception If the worker cannot connect.
+   */
+  static void startWorker(MiningCoordinator coordinator) throws Exception {
+    MiningWorker worker = new MiningWorker(coordinator.getAddress());
+    Thread thread = new Thread(() -> {
+      try {
+        worker.run();
+      } catch (Exception e) {
+        // The coordinator closed.
+      } // try/catch
+    });
+    thread.setDaemon(true);
+    thread.start();
+  } // startWorker(MiningCoordinator)
+
+  /**
+   * Worker processes mine a block the chain accepts.
+   */
+  @Test
+  public void minesWithProcesses() throws Exception {
+    BlockChain chain = new BlockChain(new LeadingZerosValidator(4));
+    ArrayList<Process> processes = new ArrayList<Process>();
+    try (MiningCoordinator coordinator = new MiningCoordinator(0, 1 << 12, 5000)) {
+      Path java = Paths.get(System.getProperty("java.home"), "bin", "java");
+      for (int i = 0; i < 2; i++) {
+        processes.add(new ProcessBuilder(java.toString(), "-cp",
+            System.getProperty("java.class.path"), "edu.grinnell.csc207.main.BlockChainWorker",
+            String.valueOf(coordinator.getAddress().getPort()))
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.DISCARD).start());
+      } // for
+      awaitWorkers(coordinator, 2);
+      Transaction t = new Transaction("", "Alpha", 10);
+      Block blk = coordinator.mine(chain.getSize(), t, chain.getHash(),
+          new LeadingZerosValidator(16));
+      assertTrue(new LeadingZerosValidator(16).isValid(blk.getHash()), "valid hash");
+      chain.append(blk);
+      assertEquals(10, chain.balance("Alpha"), "appended");
+      assertTrue(coordinator.getHashRate() > 0, "hash rate reported");
+    } finally {
+      for (Process p : processes) {
+        p.destroy();
+      } // for
+    } // try/finally
+  } // minesWithProcesses()
+
+  /**
+   * The range of a worker that stops responding goes to another.
+   */
+  @Test
+  public void reassignsSilentWorkers() throws Exception {
+    try (MiningCoordinator coordinator = new MiningCoordinator(0, 1 << 12, 200);
+         Socket silent = new Socket(coordinator.getAddress().getAddress(),
+             coordinator.getAddress().getPort())) {
+      DataOutputStream out = new DataOutputStream(silent.getOutputStream());
+      out.writeInt(MiningCoordinator.MAGIC);
+      out.writeInt(MiningCoordinator.VERSION);
+      out.flush();
+      awaitWorkers(coordinator, 1);
+      BlockChain chain = new BlockChain(new LeadingZerosValidator(4));
+      CompletableFuture<Block> mined = CompletableFuture.supplyAsync(() -> {
+        try {
+          return coordinator.mine(chain, new Transaction("", "Beta", 5));
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        } // try/catch
+      });
+      // The silent worker now holds the first range; it never reports.
+      Thread.sleep(600);
+      assertEquals(1, coordinator.getReassignedRanges(), "range taken back");
+      startWorker(coordinator);
+      chain.append(mined.get());
+      assertEquals(1, coordinator.getWorkerCount(), "silent worker dropped");
+    } // try
+  } // reassignsSilentWorkers()
+
+  /**
+   * Names too long for writeUTF reach workers intact.
+   */
+  @Test
+  public void sendsLongNames() throws Exception {
+    try (MiningCoordinator coordinator = new MiningCoordinator(0)) {
+      startWorker(coordinator);
+      awaitWorkers(coordinator, 1);
+      Transaction t = new Transaction("", "Ü".repeat(40_000), 10);
+      Hash prev = new Hash(new byte[] {1, 2, 3});
+      Block blk = coordinator.mine(5, t, prev, 7L, new LeadingZerosValidator(8));
+      assertEquals(t, blk.getTransaction(), "same transaction");
+      assertTrue(new LeadingZerosValidator(8).isValid(
+          new Block(5, t, prev, 7L, blk.getNonce()).getHash()), "worker hashed the same name");
+    } // try
+  } // sendsLongNames()
+
+  /**
+   * Cancelling a job stops the miner waiting on it.
+   */
+  @Test
+  public void cancels() throws Exception {
+    try (MiningCoordinator coordinator = new MiningCoordinator(0)) {
+      startWorker(coordinator);
+      awaitWorkers(coordinator, 1);
+      CompletableFuture<Block> mined = CompletableFuture.supplyAsync(() -> {
+        try {
+          return coordinator.mine(0, new Transaction("", "", 0), new Hash(new byte[0]),
+              new LeadingZerosValidator(200));
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        } // try/catch
+      });
+      Thread.sleep(200);
+      coordinator.cancel();
+      Exception e = assertThrows(Exception.class, mined::join);
+      assertTrue(e.getCause() instanceof CancellationException, "cancelled");
+    } // try
+  } // cancels()
+} // class TestMiningCoordinator
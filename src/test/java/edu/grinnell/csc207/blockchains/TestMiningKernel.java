@@ -0,0 +1,71 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the template mining kernel.
+ *
+ * @author Andrew Fargo
+ */
+public class TestMiningKernel {
+  /**
+   * Digests match Block.computeHash for templates of many lengths, so
+   * the nonce lands in every position relative to a chunk boundary.
+   */
+  @Test
+  public void matchesComputeHash() {
+    Random random = new Random(207);
+    Hash prev = new Hash(new byte[32]);
+    for (int length = 0; length < 140; length++) {
+      Transaction t = new Transaction("", "x".repeat(length), length);
+      MiningKernel kernel = new MiningKernel(length, t, prev, 0L);
+      for (int i = 0; i < 3; i++) {
+        long nonce = random.nextLong();
+        assertEquals(new Block(length, t, prev, nonce).getHash(), kernel.hash(nonce),
+            "length " + length + ", nonce " + nonce);
+      } // for
+    } // for
+  } // matchesComputeHash()
+
+  /**
+   * Searches find the same nonce as trying every nonce in order.
+   */
+  @Test
+  public void searchFindsFirstValidNonce() {
+    Transaction t = new Transaction("Alpha", "Beta", 5);
+    Hash prev = new Hash(new byte[] {1, 2, 3});
+    HashValidator check = new LeadingZerosValidator(8);
+    long expected = 0;
+    while (!check.isValid(new Block(3, t, prev, expected).getHash())) {
+      expected++;
+    } // while
+    MiningKernel.Result fast = new MiningKernel(3, t, prev, 0L).search(check, 0, expected + 100);
+    assertEquals(expected, fast.nonce, "leading-zero fast path");
+    assertEquals(expected + 1, fast.attempts, "attempts counted");
+    MiningKernel.Result general =
+        new MiningKernel(3, t, prev, 0L).search((h) -> check.isValid(h), 0, expected + 100);
+    assertEquals(expected, general.nonce, "general validator");
+    assertEquals(new Block(3, t, prev, expected).getHash(), general.hash, "winning hash");
+    MiningKernel.Result none = new MiningKernel(3, t, prev, 0L).search(check, 0, expected);
+    assertNull(none.hash, "nothing below the first valid nonce");
+    assertEquals(expected, none.attempts, "stops at count");
+  } // searchFindsFirstValidNonce()
+
+  /**
+   * Mined blocks still verify.
+   */
+  @Test
+  public void minedBlocksVerify() throws Exception {
+    BlockChain chain = new BlockChain(new LeadingZerosValidator(10));
+    chain.append(chain.mine(new Transaction("", "Alpha", 10)));
+    chain.append(chain.mine(new Transaction("Alpha", "Beta", 4)));
+    chain.check();
+    assertTrue(chain.getHash().get(0) == 0, "leading zeros");
+  } // minedBlocksVerify()
+} // class TestMiningKernel
@@ -0,0 +1,91 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of chains kept in off-heap columns.
+ *
+ * @author Andrew Fargo
+ */
+public class TestOffHeapBlockStore {
+  /**
+   * An off-heap chain answers the same questions as a heap chain.
+   */
+  @Test
+  public void matchesHeapChain() throws Exception {
+    BlockChain heap = new BlockChain((h) -> true);
+    BlockChain offHeap = new BlockChain((h) -> true, new OffHeapBlockStore());
+    String[] users = {"A", "B", "C"};
+    Block last = null;
+    for (int i = 0; i < 200; i++) {
+      Transaction t = (i < users.length)
+          ? new Transaction("", users[i % 3], 100)
+          : new Transaction(users[(i + 1) % 3], users[i % 3], 1);
+      Block blk = heap.mine(t);
+      heap.append(blk);
+      last = new Block(blk.getNum(), t, offHeap.getHash(), blk.getNonce());
+      offHeap.append(last);
+    } // for
+    offHeap.check();
+    assertEquals(heap.getSize(), offHeap.getSize(), "same size");
+    assertEquals(last.getHash(), offHeap.getHash(), "tip");
+    for (String user : users) {
+      assertEquals(heap.balance(user), offHeap.balance(user), "balance of " + user);
+    } // for
+    Iterator<Transaction> expected = heap.iterator();
+    for (Transaction t : offHeap) {
+      assertEquals(expected.next(), t, "same transactions");
+    } // for
+    int size = heap.getSize();
+    assertEquals(heap.blockStream(1, size).parallel().mapToLong(Block::getNonce).sum(),
+        offHeap.blockStream(1, size).parallel().mapToLong(Block::getNonce).sum(),
+        "same nonces");
+  } // matchesHeapChain()
+
+  /**
+   * Rows span chunks, names are stored once, and removeLast works.
+   */
+  @Test
+  public void spansChunks() {
+    OffHeapBlockStore store = new OffHeapBlockStore();
+    BlockChain chain = new BlockChain((h) -> true, store);
+    int blocks = OffHeapBlockStore.CHUNK_ROWS + 10;
+    for (int i = 1; i < blocks; i++) {
+      chain.append(new Block(i, new Transaction("", "User" + (i % 5), i), chain.getHash(), i));
+    } // for
+    assertEquals(blocks, chain.getSize(), "every block stored");
+    assertEquals(6, store.userCount(), "names stored once");
+    assertEquals(chain.getNames().size(), store.userCount(), "the chain's dictionary");
+    assertSame(chain.getNames().name(chain.getNames().find("User3")),
+        store.get(3).getTransaction().getTarget(), "names shared with the chain");
+    Block last = store.get(blocks - 1);
+    assertTrue(last.isSealed(), "stored blocks are sealed");
+    Block unverified = new Block(blocks, last.getTransaction(), last.getHash(), 0L, 0L,
+        last.getHash());
+    store.add(unverified);
+    assertTrue(!store.get(blocks).isSealed(), "unsealed blocks stay unsealed");
+    store.removeLast();
+    assertEquals(blocks - 1, last.getNonce(), "nonce");
+    assertEquals(store.get(blocks - 2).getHash(), last.getPrevHash(), "linked");
+    assertTrue(chain.removeLast(), "removed");
+    assertEquals(store.get(blocks - 2).getHash(), chain.getHash(), "new tip");
+    assertThrows(IndexOutOfBoundsException.class, () -> store.get(blocks - 1));
+  } // spansChunks()
+
+  /**
+   * Stores must be empty when the chain is made.
+   */
+  @Test
+  public void rejectsUsedStore() {
+    BlockStore store = new OffHeapBlockStore();
+    new BlockChain((h) -> true, store);
+    assertThrows(IllegalArgumentException.class, () -> new BlockChain((h) -> true, store));
+  } // rejectsUsedStore()
+} // class TestOffHeapBlockStore
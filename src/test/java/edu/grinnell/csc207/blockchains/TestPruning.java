@@ -0,0 +1,138 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of pruned chains and their archives.
+ *
+ * @author Andrew Fargo
+ */
+public class TestPruning {
+  /**
+   * Build a chain of deposits and transfers.
+   *
+   * @param chain
+   *   The chain to extend.
+   * @param blocks
+   *   The number of blocks to append.
+   */
+  static void fill(BlockChain chain, int blocks) {
+    for (int i = 0; i < blocks; i++) {
+      Transaction t = (i % 3 == 0)
+          ? new Transaction("", "A", 10)
+          : new Transaction("A", (i % 3 == 1) ? "B" : "C", 3);
+      chain.append(chain.mine(t));
+    } // for
+  } // fill(BlockChain, int)
+
+  /**
+   * Records survive a round trip through the codec.
+   */
+  @Test
+  public void codecRoundTrip() {
+    Block blk = new Block(7, new Transaction("Ünïcode", "B", 42), new Hash(new byte[] {1, 2}),
+        99L);
+    Block copy = BlockCodec.decode(ByteBuffer.wrap(BlockCodec.encode(blk)));
+    assertEquals(blk.toString(), copy.toString(), "same block");
+  } // codecRoundTrip()
+
+  /**
+   * A pruned chain answers balance, history, and check as before.
+   */
+  @Test
+  public void pruneKeepsAnswers(@TempDir Path dir) throws Exception {
+    try (BlockArchive archive = new BlockArchive(dir.resolve("chain.dat"))) {
+      ArchivingBlockStore store = new ArchivingBlockStore(archive);
+      BlockChain chain = new BlockChain((h) -> true, store);
+      chain.setCheckpointInterval(8);
+      fill(chain, 60);
+      int[] before = {chain.balance("A"), chain.balance("B"), chain.balanceAt("C", 20)};
+      Hash tip = chain.getHash();
+
+      chain.prune(10);
+      assertEquals(51, store.archivedSize(), "older blocks archived");
+      assertEquals(61, chain.getSize(), "size unchanged");
+      assertEquals(tip, chain.getHash(), "tip unchanged");
+      assertEquals(before[0], chain.balance("A"), "balance of A");
+      assertEquals(before[1], chain.balance("B"), "balance of B");
+      assertEquals(before[2], chain.balanceAt("C", 20), "history from the archive");
+      assertEquals(10, chain.checkHashes(), "only the retained blocks are checked");
+      chain.check();
+
+      int count = 0;
+      for (Iterator<Block> blocks = chain.blocks(); blocks.hasNext(); count++) {
+        assertEquals(count, blocks.next().getNum(), "blocks in order");
+      } // for
+      assertEquals(61, count, "every block visited");
+
+      fill(chain, 5);
+      chain.check();
+      while (store.size() > store.archivedSize()) {
+        assertTrue(chain.removeLast(), "retained blocks can be removed");
+      } // while
+      assertThrows(IllegalStateException.class, () -> chain.removeLast());
+    } // try
+  } // pruneKeepsAnswers(Path)
+
+  /**
+   * Archives can be reopened and read by height.
+   */
+  @Test
+  public void archiveReopens(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.dat");
+    Block blk = new Block(3, new Transaction("", "A", 1), new Hash(new byte[] {9}), 5L);
+    try (BlockArchive archive = new BlockArchive(file)) {
+      archive.append(blk);
+      archive.append(blk);
+    } // try
+    try (BlockArchive archive = new BlockArchive(file)) {
+      assertEquals(2, archive.size(), "both blocks");
+      archive.append(blk);
+      assertEquals(blk.toString(), archive.read(2).toString(), "appended after reopen");
+      assertTrue(!archive.read(0).isSealed(), "archived blocks come back unsealed");
+    } // try
+  } // archiveReopens(Path)
+
+  /**
+   * A record whose length was overwritten fails to read with an
+   * IOException rather than a huge allocation.
+   */
+  @Test
+  public void badLengthFailsRead(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.dat");
+    Block blk = new Block(3, new Transaction("", "A", 1), new Hash(new byte[] {9}), 5L);
+    try (BlockArchive archive = new BlockArchive(file)) {
+      archive.append(blk);
+      archive.append(blk);
+    } // try
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.writeInt(Integer.MAX_VALUE);
+    } // try
+    try (BlockArchive archive = new BlockArchive(file)) {
+      assertEquals(2, archive.size(), "only the tail is recovered");
+      IOException e = assertThrows(IOException.class, () -> archive.read(0));
+      assertTrue(e.getMessage().contains("bad length"), "length reported");
+      assertEquals(blk.toString(), archive.read(1).toString(), "later blocks still read");
+    } // try
+  } // badLengthFailsRead(Path)
+
+  /**
+   * Chains without an archive cannot be pruned.
+   */
+  @Test
+  public void needsArchive() {
+    BlockChain chain = new BlockChain((h) -> true);
+    assertThrows(IllegalStateException.class, () -> chain.prune(1));
+  } // needsArchive()
+} // class TestPruning
@@ -0,0 +1,123 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of resumable mining.
+ *
+ * @author Andrew Fargo
+ */
+public class TestResumableMiner {
+  /**
+   * A place for checkpoints.
+   */
+  @TempDir
+  Path dir;
+
+  /**
+   * A validator that needs a zero first byte.
+   */
+  static final HashValidator ZERO_BYTE = (h) -> (h.length() > 0) && (h.get(0) == 0);
+
+  /**
+   * Resuming after a crash finds the same nonce as an uninterrupted run.
+   */
+  @Test
+  public void resumesAfterCrash() throws Exception {
+    Transaction t = new Transaction("", "Alpha", 11);
+    Hash prev = new Hash(new byte[] {1, 2, 3});
+    Path file = this.dir.resolve("mine.ckpt");
+
+    Block expected = new ResumableMiner(this.dir.resolve("other.ckpt"), 16)
+        .mine(3, t, prev, ZERO_BYTE);
+    assertTrue(ZERO_BYTE.isValid(expected.getHash()), "mined block is valid");
+    TestBlock.setup();
+    assertArrayEquals(TestBlock.expectedHash(expected), expected.getHash().getBytes(),
+        "mined hash matches contents");
+
+    // Crash partway through by throwing from the validator, after two
+    // full ranges have been checkpointed but before the solution.
+    int crashAfter = 32;
+    assertTrue(expected.getNonce() > crashAfter, "fixture solves after the crash point");
+    int[] calls = {0};
+    HashValidator crashing = (h) -> {
+      if (++calls[0] > crashAfter) {
+        throw new IllegalStateException("crash");
+      } // if
+      return ZERO_BYTE.isValid(h);
+    };
+    ResumableMiner miner = new ResumableMiner(file, 16);
+    assertThrows(IllegalStateException.class, () -> miner.mine(3, t, prev, crashing));
+    assertTrue(Files.exists(file), "checkpoint saved");
+    assertEquals(crashAfter, miner.resumePoint(Block.template(3, t, prev, 0L)), "progress saved");
+
+    Block resumed = miner.mine(3, t, prev, ZERO_BYTE);
+    assertEquals(expected.getNonce(), resumed.getNonce(), "same nonce after resuming");
+    assertFalse(Files.exists(file), "checkpoint removed after success");
+  } // resumesAfterCrash()
+
+  /**
+   * A checkpoint for a different template is ignored.
+   */
+  @Test
+  public void ignoresOtherTemplates() throws Exception {
+    Path file = this.dir.resolve("mine.ckpt");
+    ResumableMiner miner = new ResumableMiner(file, 16);
+    Block a = Block.template(1, new Transaction("", "Alpha", 10), new Hash(new byte[] {1}), 0L);
+    Block b = Block.template(1, new Transaction("", "Alpha", 11), new Hash(new byte[] {1}), 0L);
+    miner.save(a, 4096);
+    assertEquals(4096, miner.resumePoint(a), "same template resumes");
+    assertEquals(0, miner.resumePoint(b), "different template starts over");
+    assertEquals(0, miner.resumePoint(Block.template(1, a.getTransaction(), a.getPrevHash(), 1L)),
+        "different timestamp starts over");
+    Block c = Block.template(1, new Transaction("", "x".repeat(70_000), 10),
+        new Hash(new byte[] {1}), 0L);
+    miner.save(c, 8192);
+    assertEquals(8192, miner.resumePoint(c), "names over 64 KiB round-trip");
+  } // ignoresOtherTemplates()
+
+  /**
+   * A checkpoint with an impossible hash length is ignored.
+   */
+  @Test
+  public void ignoresCorruptCheckpoints() throws Exception {
+    Path file = this.dir.resolve("mine.ckpt");
+    Transaction t = new Transaction("", "Alpha", 11);
+    Hash prev = new Hash(new byte[] {1, 2, 3});
+    try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+      out.writeInt(ResumableMiner.MAGIC);
+      out.writeInt(3);
+      ResumableMiner.writeName(out, t.getSource());
+      ResumableMiner.writeName(out, t.getTarget());
+      out.writeInt(t.getAmount());
+      out.writeInt(Integer.MAX_VALUE);
+    } // try
+    ResumableMiner miner = new ResumableMiner(file, 16);
+    assertEquals(0, miner.resumePoint(Block.template(3, t, prev, 0L)), "corrupt starts over");
+    Block mined = miner.mine(3, t, prev, ZERO_BYTE);
+    assertTrue(ZERO_BYTE.isValid(mined.getHash()), "still mines");
+  } // ignoresCorruptCheckpoints()
+
+  /**
+   * Mining for a chain produces an appendable block.
+   */
+  @Test
+  public void minesForChain() throws Exception {
+    BlockChain chain = new BlockChain(ZERO_BYTE);
+    ResumableMiner miner = new ResumableMiner(this.dir.resolve("chain.ckpt"));
+    chain.append(miner.mine(chain, new Transaction("", "Alpha", 10)));
+    assertEquals(2, chain.getSize(), "block appended");
+    assertTrue(chain.isCorrect(), "chain still correct");
+  } // minesForChain()
+} // class TestResumableMiner
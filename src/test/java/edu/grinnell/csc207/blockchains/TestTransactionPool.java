@@ -0,0 +1,139 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the pending-transaction pool.
+ *
+ * @author Andrew Fargo
+ */
+public class TestTransactionPool {
+  /**
+   * Admitted transactions are mined and appended in order.
+   */
+  @Test
+  public void minesInOrder() throws Exception {
+    BlockChain chain = new BlockChain((h) -> (h.length() > 0) && (h.get(0) % 4 == 0));
+    try (TransactionPool pool = new TransactionPool(chain)) {
+      CompletableFuture<Block> deposit = pool.submit(new Transaction("", "Alpha", 100));
+      CompletableFuture<Block> transfer = pool.submit(new Transaction("Alpha", "Beta", 60));
+      assertEquals(40, pool.projectedBalance("Alpha"), "pending transfer counted");
+      assertThrows(IllegalArgumentException.class,
+          () -> pool.submit(new Transaction("Alpha", "Gamma", 41)), "overdraft rejected");
+      assertThrows(IllegalArgumentException.class,
+          () -> pool.submit(new Transaction("Nobody", "Gamma", 1)), "unknown source rejected");
+
+      pool.start();
+      assertEquals(1, deposit.get(10, TimeUnit.SECONDS).getNum(), "deposit in block 1");
+      assertEquals(2, transfer.get(10, TimeUnit.SECONDS).getNum(), "transfer in block 2");
+    } // try
+    assertEquals(3, chain.getSize(), "two blocks appended");
+    assertEquals(40, chain.balance("Alpha"), "Alpha's balance");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // minesInOrder()
+
+  /**
+   * Rejected transactions leave the projected ledger as it was, pending
+   * transfers count against their sources, and the worker appends only
+   * under the shared lock.
+   */
+  @Test
+  public void rejectsWithoutSideEffects() throws Exception {
+    BlockChain chain = new BlockChain((h) -> true);
+    chain.append(chain.mine(new Transaction("", "Alpha", 10)));
+    chain.append(chain.mine(new Transaction("", "Beta", Integer.MAX_VALUE)));
+    ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    try (TransactionPool pool = new TransactionPool(chain, lock)) {
+      assertThrows(IllegalArgumentException.class,
+          () -> pool.submit(new Transaction("Alpha", "Beta", 5)), "credit overflows");
+      assertEquals(10, pool.projectedBalance("Alpha"), "source not debited");
+      assertEquals(Integer.MAX_VALUE, pool.projectedBalance("Beta"), "target unchanged");
+
+      CompletableFuture<Block> first = pool.submit(new Transaction("Alpha", "Gamma", 6));
+      assertThrows(IllegalArgumentException.class,
+          () -> pool.submit(new Transaction("Alpha", "Gamma", 5)), "pending transfer overdraws");
+      assertEquals(4, pool.projectedBalance("Alpha"), "only the first transfer pending");
+      assertEquals(6, pool.projectedBalance("Gamma"), "only the first transfer credited");
+
+      lock.writeLock().lock();
+      try {
+        pool.start();
+        Thread.sleep(100);
+        assertEquals(3, chain.getSize(), "worker waits for the lock");
+      } finally {
+        lock.writeLock().unlock();
+      } // try-finally
+      assertEquals(3, first.get(10, TimeUnit.SECONDS).getNum(), "transfer in block 3");
+    } // try
+    assertEquals(4, chain.balance("Alpha"), "Alpha's balance");
+    assertEquals(6, chain.balance("Gamma"), "Gamma's balance");
+  } // rejectsWithoutSideEffects()
+
+  /**
+   * A transfer whose source another writer spent after it was admitted
+   * fails instead of overdrawing the chain, and later transactions still
+   * go through.
+   */
+  @Test
+  public void rechecksBeforeAppending() throws Exception {
+    BlockChain chain = new BlockChain((h) -> true);
+    chain.append(chain.mine(new Transaction("", "Alpha", 10)));
+    ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    try (TransactionPool pool = new TransactionPool(chain, lock)) {
+      CompletableFuture<Block> spent = pool.submit(new Transaction("Alpha", "Beta", 10));
+      CompletableFuture<Block> deposit = pool.submit(new Transaction("", "Gamma", 3));
+      lock.writeLock().lock();
+      try {
+        chain.append(chain.mine(new Transaction("Alpha", "Delta", 10)));
+      } finally {
+        lock.writeLock().unlock();
+      } // try-finally
+      pool.start();
+      Exception e = assertThrows(Exception.class, () -> spent.get(10, TimeUnit.SECONDS));
+      assertTrue(e.getCause().getMessage().contains("enough money"), "overdraft reported");
+      assertEquals(3, deposit.get(10, TimeUnit.SECONDS).getNum(), "deposit in block 3");
+    } // try
+    assertEquals(0, chain.balance("Alpha"), "Alpha's balance");
+    assertEquals(0, chain.balance("Beta"), "Beta's balance");
+    chain.check();
+  } // rechecksBeforeAppending()
+
+  /**
+   * Closing the pool stops a mine that could never finish.
+   */
+  @Test
+  public void closeStopsMining() throws Exception {
+    AtomicBoolean easy = new AtomicBoolean(true);
+    BlockChain chain = new BlockChain((h) -> easy.get());
+    TransactionPool pool = new TransactionPool(chain);
+    CompletableFuture<Block> hopeless = pool.submit(new Transaction("", "Alpha", 1));
+    easy.set(false);
+    pool.start();
+    Thread.sleep(100);
+    pool.close();
+    assertTrue(hopeless.isCompletedExceptionally(), "mine abandoned");
+    assertEquals(1, chain.getSize(), "nothing appended");
+  } // closeStopsMining()
+
+  /**
+   * Closing the pool fails what is still pending.
+   */
+  @Test
+  public void closeFailsPending() throws Exception {
+    BlockChain chain = new BlockChain((h) -> true);
+    TransactionPool pool = new TransactionPool(chain);
+    CompletableFuture<Block> waiting = pool.submit(new Transaction("", "Alpha", 1));
+    pool.close();
+    assertTrue(waiting.isCompletedExceptionally(), "pending transaction failed");
+    assertEquals(0, pool.pending(), "nothing left pending");
+  } // closeFailsPending()
+} // class TestTransactionPool
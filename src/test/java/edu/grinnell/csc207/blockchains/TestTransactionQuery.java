@@ -0,0 +1,114 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of transaction queries.
+ *
+ * @author Andrew Fargo
+ */
+public class TestTransactionQuery {
+  /**
+   * Build a chain of random deposits and transfers among a few users,
+   * with the odd large amount.
+   *
+   * @param blocks
+   *   The number of blocks to append.
+   *
+   * @return the chain.
+   */
+  static BlockChain randomChain(int blocks) {
+    BlockChain chain = new BlockChain((h) -> true);
+    Random random = new Random(207);
+    for (int i = 0; i < blocks; i++) {
+      String source = (i % 4 == 0) ? "" : "U" + random.nextInt(10);
+      int amount = (random.nextInt(50) == 0) ? 10_000 + random.nextInt(5_000)
+          : random.nextInt(200);
+      chain.append(chain.mine(new Transaction(source, "U" + random.nextInt(10), amount)));
+    } // for
+    return chain;
+  } // randomChain(int)
+
+  /**
+   * Find the matching heights the slow way.
+   *
+   * @param chain
+   *   The chain.
+   * @param matches
+   *   Which transactions match.
+   *
+   * @return the heights of the matching blocks.
+   */
+  static int[] scan(BlockChain chain, Predicate<Transaction> matches) {
+    return IntStream.range(0, chain.getSize())
+        .filter((h) -> matches.test(chain.store.get(h).getTransaction())).toArray();
+  } // scan(BlockChain, Predicate<Transaction>)
+
+  /**
+   * Queries find what a scan finds, whichever index they use.
+   */
+  @Test
+  public void matchesScan() {
+    BlockChain chain = randomChain(3000);
+    assertArrayEquals(scan(chain, (t) -> t.getAmount() > 10_000),
+        chain.query().amountAtLeast(10_001).heights(), "large amounts");
+    TransactionQuery large = chain.query().between(500, 2500).amountAtLeast(10_000);
+    assertArrayEquals(IntStream.of(scan(chain, (t) -> t.getAmount() >= 10_000))
+        .filter((h) -> h >= 500 && h <= 2500).toArray(),
+        large.heights(), "large amounts between heights");
+    assertEquals(TransactionQuery.Access.AMOUNT, large.getAccess(), "amount buckets chosen");
+
+    TransactionQuery pair = chain.query().source("U3").target("U4");
+    assertArrayEquals(scan(chain, (t) -> t.getSource().equals("U3")
+        && t.getTarget().equals("U4")), pair.heights(), "transfers from U3 to U4");
+    assertEquals(TransactionQuery.Access.SOURCE, pair.getAccess(), "a posting list chosen");
+
+    TransactionQuery narrow = chain.query().between(100, 120).target("U1");
+    assertArrayEquals(IntStream.rangeClosed(100, 120)
+        .filter((h) -> chain.store.get(h).getTransaction().getTarget().equals("U1")).toArray(),
+        narrow.heights(), "narrow height range");
+    assertEquals(TransactionQuery.Access.TARGET, narrow.getAccess(),
+        "posting lists are counted within the height range");
+    TransactionQuery ranged = chain.query().between(100, 120).where((t) -> t.getAmount() > 100);
+    assertArrayEquals(IntStream.rangeClosed(100, 120)
+        .filter((h) -> chain.store.get(h).getTransaction().getAmount() > 100).toArray(),
+        ranged.heights(), "height range with a predicate");
+    assertEquals(TransactionQuery.Access.HEIGHTS, ranged.getAccess(), "height range chosen");
+
+    assertArrayEquals(scan(chain, (t) -> t.getSource().isEmpty() && t.getAmount() >= 100
+        && t.getAmount() <= 150 && t.getTarget().compareTo("U5") < 0),
+        chain.query().source("").amountBetween(100, 150)
+            .where((t) -> t.getTarget().compareTo("U5") < 0).heights(),
+        "deposits with a predicate");
+    assertEquals(0, chain.query().source("nobody").count(), "unknown user");
+    assertEquals(chain.getSize(), chain.query().count(), "everything");
+  } // matchesScan()
+
+  /**
+   * Appends and removals keep the index up to date.
+   */
+  @Test
+  public void followsChanges() {
+    BlockChain chain = randomChain(200);
+    int before = chain.query().amountAtLeast(20_000).count();
+    assertEquals(0, before, "no huge amounts yet");
+    chain.append(chain.mine(new Transaction("", "Z", 25_000)));
+    assertEquals(1, chain.query().amountAtLeast(20_000).count(), "appended block indexed");
+    assertEquals(1, chain.query().target("Z").count(), "new user indexed");
+    chain.removeLast();
+    chain.removeLast();
+    assertEquals(0, chain.query().target("Z").count(), "removed block forgotten");
+    assertArrayEquals(scan(chain, (t) -> t.getAmount() < 50),
+        chain.query().amountBetween(Integer.MIN_VALUE, 49).heights(), "removals forgotten");
+    chain.append(chain.mine(new Transaction("", "Z", 1)));
+    assertArrayEquals(new int[] {chain.getSize() - 1}, chain.query().target("Z").heights(),
+        "replacement indexed");
+  } // followsChanges()
+} // class TestTransactionQuery
@@ -0,0 +1,127 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of user dictionaries and the compact records that use them.
+ *
+ * @author Andrew Fargo
+ */
+public class TestUserDictionary {
+  /**
+   * Ids are dense, start after the empty name, and never change.
+   */
+  @Test
+  public void assignsIds() {
+    UserDictionary names = new UserDictionary();
+    assertEquals(UserDictionary.EMPTY, names.find(""), "empty name first");
+    assertEquals(-1, names.find("A"), "not yet added");
+    assertEquals(1, names.idFor("A"), "next id");
+    assertEquals(2, names.idFor("Ünïcode"), "next id");
+    assertEquals(1, names.idFor(new String("A")), "same id for an equal name");
+    assertEquals("Ünïcode", names.name(2), "name by id");
+    assertEquals(3, names.size(), "three names");
+    assertThrows(IndexOutOfBoundsException.class, () -> names.name(3));
+  } // assignsIds()
+
+  /**
+   * Interned transactions are equal, hash the same, and share names.
+   */
+  @Test
+  public void internsTransactions() {
+    UserDictionary names = new UserDictionary();
+    Transaction t = new Transaction(new String("A"), "Ünïcode", 5);
+    Transaction interned = names.intern(t);
+    assertEquals(t, interned, "equal transaction");
+    assertSame(interned, names.intern(interned), "already interned");
+    assertSame(interned.getSource(),
+        names.intern(new Transaction(new String("A"), "B", 1)).getSource(), "shared name");
+    assertSame(interned.sourceBytes(), names.transaction(1, 0, 0).sourceBytes(),
+        "shared bytes");
+    Hash prev = new Hash(new byte[] {1, 2});
+    assertEquals(new Block(3, t, prev, 42L).getHash(), new Block(3, interned, prev, 42L).getHash(),
+        "same hash");
+  } // internsTransactions()
+
+  /**
+   * Chains share one copy of each name across their blocks.
+   */
+  @Test
+  public void chainsShareNames() {
+    BlockChain chain = new BlockChain((h) -> true);
+    chain.append(chain.mine(new Transaction("", new String("A"), 10)));
+    Block outside = new Block(2, new Transaction(new String("A"), "B", 3), chain.getHash(), 0L);
+    chain.append(outside);
+    assertSame(chain.store.get(1).getTransaction().getTarget(),
+        chain.store.get(2).getTransaction().getSource(), "one copy of A");
+    assertEquals(3, chain.getNames().size(), "empty name, A, and B");
+  } // chainsShareNames()
+
+  /**
+   * Compact records round-trip, and define each name only once.
+   */
+  @Test
+  public void compactRecords() {
+    UserDictionary writer = new UserDictionary();
+    UserDictionary reader = new UserDictionary();
+    Hash prev = new Hash(new byte[] {1, 2});
+    Block first = new Block(1, new Transaction("Ünïcode", "Ünïcode", 7), prev, 3L);
+    Block second = new Block(2, new Transaction("Ünïcode", "B", 7), prev, 4L);
+    byte[] firstRecord = BlockCodec.encode(first, writer);
+    byte[] secondRecord = BlockCodec.encode(second, writer);
+    assertTrue(BlockCodec.encode(second, writer).length < BlockCodec.encode(second).length,
+        "names by id are shorter");
+    assertEquals(first.toString(),
+        BlockCodec.decode(ByteBuffer.wrap(firstRecord), reader).toString(), "first block");
+    assertEquals(second.toString(),
+        BlockCodec.decode(ByteBuffer.wrap(secondRecord), reader).toString(), "second block");
+    assertEquals(writer.size(), reader.size(), "dictionaries in step");
+    UserDictionary ahead = new UserDictionary();
+    ahead.idFor("X");
+    ahead.idFor("Y");
+    byte[] early = BlockCodec.encode(new Block(3, new Transaction("Y", "Y", 1), prev, 5L), ahead);
+    assertThrows(IllegalArgumentException.class,
+        () -> BlockCodec.decode(ByteBuffer.wrap(early), new UserDictionary()), "undefined name");
+  } // compactRecords()
+
+  /**
+   * Chain files use compact records, and version 1 files still load.
+   */
+  @Test
+  public void chainFiles(@TempDir Path dir) throws Exception {
+    HashValidator check = (h) -> true;
+    BlockChain chain = new BlockChain(check);
+    TestPruning.fill(chain, 200);
+    Path compact = dir.resolve("compact.bin");
+    Path plain = dir.resolve("plain.bin");
+    ChainTransfer.export(chain, compact);
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(plain)))) {
+      out.writeInt(ChainTransfer.MAGIC);
+      out.writeInt(ChainTransfer.PLAIN_VERSION);
+      out.writeInt(chain.getSize());
+      for (int height = 0; height < chain.getSize(); height++) {
+        ChainTransfer.writeRecord(out, chain.store.get(height));
+      } // for
+    } // try
+    assertTrue(Files.size(compact) < Files.size(plain), "compact file is smaller");
+    for (Path file : new Path[] {compact, plain}) {
+      BlockChain copy = ChainTransfer.load(file, check).getChain();
+      assertEquals(chain.getHash(), copy.getHash(), "same tip from " + file.getFileName());
+      assertEquals(chain.balance("B"), copy.balance("B"), "same balance");
+      assertEquals(4, copy.getNames().size(), "names loaded once");
+    } // for
+  } // chainFiles(Path)
+} // class TestUserDictionary
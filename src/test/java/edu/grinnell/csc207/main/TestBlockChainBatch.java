@@ -0,0 +1,53 @@
+package edu.grinnell.csc207.main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.grinnell.csc207.blockchains.BlockChain;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the batch front end.
+ *
+ * @author Andrew Fargo
+ */
+public class TestBlockChainBatch {
+  /**
+   * A short script runs and reports its totals.
+   */
+  @Test
+  public void runsScript() throws Exception {
+    String script = String.join("\n",
+        "# Deposit and transfer",
+        "append,,Alpha,100,0",
+        "append,Alpha,Beta,30,1",
+        "",
+        "balance,Alpha",
+        "balance,Beta",
+        "append,Beta,Alpha,1000,2",
+        "check",
+        "remove",
+        "check",
+        "mine,Beta,Alpha,5",
+        "bogus");
+    BlockChain chain = new BlockChain((h) -> true);
+    StringWriter out = new StringWriter();
+    int failed = BlockChainBatch.run(chain, new BufferedReader(new StringReader(script)),
+        new PrintWriter(out));
+    String output = out.toString();
+
+    assertEquals(2, failed, "overdraft check and unknown command fail");
+    assertEquals(3, chain.getSize(), "overdraft removed");
+    assertTrue(output.contains("Alpha's balance is 70"), "Alpha's balance");
+    assertTrue(output.contains("Beta's balance is 30"), "Beta's balance");
+    assertTrue(output.contains("Chain checks out."), "second check passes");
+    assertTrue(output.contains("line 12: invalid command: 'bogus'"), "bad command reported");
+    assertTrue(output.contains("Processed 10 commands"), "summary");
+  } // runsScript()
+} // class TestBlockChainBatch
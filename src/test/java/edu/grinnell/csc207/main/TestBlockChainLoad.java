@@ -0,0 +1,93 @@
+package edu.grinnell.csc207.main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.Transaction;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the load generator.
+ *
+ * @author Andrew Fargo
+ */
+public class TestBlockChainLoad {
+  /**
+   * The same seed builds the same transactions, with the busiest users
+   * first.
+   */
+  @Test
+  public void buildsReproducibly() throws Exception {
+    BlockChainLoad.Config config = BlockChainLoad.Config.parse("users=50", "blocks=300",
+        "bits=1", "seed=5");
+    ArrayList<String> first = new ArrayList<String>();
+    for (Transaction t : BlockChainLoad.build(config)) {
+      first.add(t.toString());
+    } // for
+    ArrayList<String> second = new ArrayList<String>();
+    BlockChain chain = BlockChainLoad.build(config);
+    for (Transaction t : chain) {
+      second.add(t.toString());
+    } // for
+    assertEquals(first, second, "same transactions");
+    chain.check();
+
+    BlockChainLoad.ZipfSampler users = new BlockChainLoad.ZipfSampler(50, 1.1);
+    int[] hits = new int[50];
+    Random random = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      hits[users.next(random)]++;
+    } // for
+    assertTrue(hits[0] > 10 * hits[49], "skewed toward user0");
+  } // buildsReproducibly()
+
+  /**
+   * A mixed run counts every operation and leaves a valid chain.
+   */
+  @Test
+  public void runsMix() throws Exception {
+    BlockChainLoad.Config config = BlockChainLoad.Config.parse("users=20", "blocks=200",
+        "bits=1", "threads=4", "ops=2000");
+    BlockChain chain = BlockChainLoad.build(config);
+    BlockChainLoad.Report report = BlockChainLoad.run(chain, config);
+    assertEquals(2000, report.getTotal(), "every operation ran");
+    for (String op : BlockChainLoad.OPERATIONS) {
+      assertTrue(report.getCount(op) > 0, op + " ran");
+      assertTrue(report.getPercentile(op, 50) <= report.getPercentile(op, 99),
+          op + " percentiles in order");
+    } // for
+    assertTrue(chain.getSize() >= 200, "never removed built blocks");
+    chain.check();
+  } // runsMix()
+
+  /**
+   * A target rate paces the run.
+   */
+  @Test
+  public void holdsRate() throws Exception {
+    BlockChainLoad.Config config = BlockChainLoad.Config.parse("users=5", "blocks=20",
+        "bits=1", "threads=2", "ops=200", "rate=1000", "mix=balance:1");
+    BlockChainLoad.Report report = BlockChainLoad.run(BlockChainLoad.build(config), config);
+    assertEquals(200, report.getCount("balance"), "only balances");
+    assertTrue(report.getThroughput() < 1100, "no faster than the target");
+  } // holdsRate()
+
+  /**
+   * Latency buckets cover the latencies they hold.
+   */
+  @Test
+  public void bucketsLatencies() {
+    long[] latencies = {0, 7, 8, 15, 16, 1000, 123_456_789L, Long.MAX_VALUE};
+    for (long latency : latencies) {
+      int bucket = BlockChainLoad.Report.bucketFor(latency);
+      assertTrue(BlockChainLoad.Report.upperBound(bucket) >= latency, "upper bound");
+      assertTrue(bucket == 0 || BlockChainLoad.Report.upperBound(bucket - 1) < latency,
+          "lower bound");
+    } // for
+  } // bucketsLatencies()
+} // class TestBlockChainLoad
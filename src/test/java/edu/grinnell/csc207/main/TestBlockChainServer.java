@@ -0,0 +1,134 @@
+package edu.grinnell.csc207.main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.DifficultyRetargeter;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the HTTP front end.
+ *
+ * @author Andrew Fargo
+ */
+public class TestBlockChainServer {
+  /**
+   * The server under test.
+   */
+  BlockChainServer server;
+
+  /**
+   * Our client.
+   */
+  HttpClient client = HttpClient.newHttpClient();
+
+  /**
+   * Start a server on a free port.
+   */
+  @BeforeEach
+  void startServer() throws Exception {
+    this.server = new BlockChainServer(new BlockChain((h) -> true), 0, 1);
+    this.server.start();
+  } // startServer()
+
+  /**
+   * Stop the server.
+   */
+  @AfterEach
+  void stopServer() {
+    this.server.stop(0);
+  } // stopServer()
+
+  /**
+   * Send a request.
+   *
+   * @param method
+   *   The HTTP method.
+   * @param pathAndQuery
+   *   The path and query to request.
+   *
+   * @return the response.
+   */
+  HttpResponse<String> send(String method, String pathAndQuery) throws Exception {
+    HttpRequest request = HttpRequest.newBuilder(
+        URI.create("http://localhost:" + this.server.getPort() + pathAndQuery))
+        .method(method, HttpRequest.BodyPublishers.noBody())
+        .build();
+    return this.client.send(request, HttpResponse.BodyHandlers.ofString());
+  } // send(String, String)
+
+  /**
+   * Mine, append, and query through the server.
+   */
+  @Test
+  public void endpoints() throws Exception {
+    HttpResponse<String> mined = send("GET", "/mine?source=&target=Alpha&amount=50");
+    assertEquals(200, mined.statusCode(), "mine succeeds");
+    String nonce = mined.body().lines().findFirst().get().substring("Nonce: ".length());
+    assertTrue(mined.body().contains("\nTimestamp: 0\n"), "fixed chains use timestamp 0");
+
+    assertEquals(200, send("POST", "/append?target=Alpha&amount=50&nonce=" + nonce)
+        .statusCode(), "append succeeds");
+    assertEquals(200, send("POST", "/append?source=Alpha&target=Beta%20B&amount=20&nonce=3")
+        .statusCode(), "second append succeeds");
+    assertEquals(400, send("POST", "/append?source=&target=Alpha&amount=1&nonce=x0")
+        .statusCode(), "malformed nonce rejected");
+
+    assertEquals("Alpha's balance is 30", send("GET", "/balance?user=Alpha").body().trim());
+    assertEquals("Beta B's balance is 20", send("GET", "/balance?user=Beta+B").body().trim());
+    String users = send("GET", "/users").body();
+    assertTrue(users.contains("Alpha\n") && users.contains("Beta B\n"), "users listed");
+    assertEquals("2 [Source: Alpha, Target: Beta B, Amount: 20]",
+        send("GET", "/transactions?from=2&to=3").body().trim(), "range of transactions");
+    assertEquals("Chain checks out.", send("GET", "/check").body().trim());
+  } // endpoints()
+
+  /**
+   * Blocks mined for a retargeting chain append with the timestamp the
+   * server reported.
+   */
+  @Test
+  public void retargetingChain() throws Exception {
+    this.server.stop(0);
+    BlockChain chain = new BlockChain((h) -> true);
+    chain.retargetWith(new DifficultyRetargeter(4, 1000, 4, 0, 32));
+    this.server = new BlockChainServer(chain, 0, 1);
+    this.server.start();
+    for (int i = 1; i <= 3; i++) {
+      List<String> mined = send("GET", "/mine?target=Alpha&amount=" + i).body().lines()
+          .collect(Collectors.toList());
+      String nonce = mined.get(0).substring("Nonce: ".length());
+      String millis = mined.get(1).substring("Timestamp: ".length());
+      assertTrue(Long.parseLong(millis) > 0, "real timestamp");
+      HttpResponse<String> appended = send("POST", "/append?target=Alpha&amount=" + i
+          + "&nonce=" + nonce + "&timestamp=" + millis);
+      assertEquals(200, appended.statusCode(), appended.body());
+    } // for
+    assertEquals(4, chain.getSize(), "three blocks appended");
+    assertEquals("Alpha's balance is 6", send("GET", "/balance?user=Alpha").body().trim());
+    assertEquals(409, send("POST", "/append?target=Alpha&amount=1&nonce=0").statusCode(),
+        "missing timestamp rejected");
+  } // retargetingChain()
+
+  /**
+   * Bad requests get error statuses.
+   */
+  @Test
+  public void errors() throws Exception {
+    assertEquals(400, send("GET", "/balance").statusCode(), "missing parameter");
+    assertEquals(405, send("GET", "/append?target=A&amount=1&nonce=1").statusCode(),
+        "wrong method");
+    assertEquals(404, send("GET", "/mine/extra").statusCode(), "unknown path");
+  } // errors()
+} // class TestBlockChainServer